@@ -0,0 +1,214 @@
+package org.vaadin.pekkam;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Changes of the properties of an actor of an {@link Animator} over time,
+ * played in the browser.
+ * <p>
+ * An animation is a sequence of keyframes. Each keyframe has a duration and
+ * an easing, and changes some properties from the values they have when the
+ * keyframe starts to the values given for it. Properties that are not given
+ * for a keyframe keep their values. The values are set for the keyframe
+ * added last:
+ *
+ * <pre>
+ * Animation.tween(500, Easing.EASE_OUT).moveTo(200, 100).rotateTo(Math.PI)
+ *         .then(300, Easing.LINEAR).fadeTo(0);
+ * </pre>
+ *
+ * When the animation is repeated, each round starts from the values the
+ * actor had when the animation started.
+ */
+@SuppressWarnings("serial")
+public class Animation implements Serializable {
+
+    /**
+     * The number of rounds of an animation that is repeated until it is
+     * replaced.
+     */
+    public static final int INFINITE = -1;
+
+    private final List<Keyframe> keyframes = new ArrayList<>();
+    private long delay;
+    private int rounds = 1;
+
+    private static final class Keyframe implements Serializable {
+        private final long duration;
+        private final Easing easing;
+        private final Map<String, Serializable> values = new LinkedHashMap<>();
+
+        private Keyframe(long duration, Easing easing) {
+            this.duration = duration;
+            this.easing = easing;
+        }
+    }
+
+    private Animation() {
+    }
+
+    /**
+     * Creates an animation with one keyframe.
+     *
+     * @param duration
+     *            the duration of the keyframe in milliseconds
+     * @param easing
+     *            how the values change during the keyframe
+     * @return the new animation
+     */
+    public static Animation tween(long duration, Easing easing) {
+        return new Animation().then(duration, easing);
+    }
+
+    /**
+     * Adds a keyframe that starts when the previous one ends.
+     *
+     * @param duration
+     *            the duration of the keyframe in milliseconds
+     * @param easing
+     *            how the values change during the keyframe
+     * @return this animation
+     */
+    public Animation then(long duration, Easing easing) {
+        if (duration < 0) {
+            throw new IllegalArgumentException(
+                    "The duration cannot be negative");
+        }
+        keyframes.add(new Keyframe(duration, Objects.requireNonNull(easing)));
+        return this;
+    }
+
+    /**
+     * Moves the actor to the given position during the last keyframe.
+     *
+     * @param x
+     *            the x coordinate of the actor's origin on the canvas
+     * @param y
+     *            the y coordinate of the actor's origin on the canvas
+     * @return this animation
+     */
+    public Animation moveTo(double x, double y) {
+        return set("x", x).set("y", y);
+    }
+
+    /**
+     * Rotates the actor around its origin to the given angle during the last
+     * keyframe.
+     *
+     * @param angle
+     *            the angle in radians, clockwise
+     * @return this animation
+     */
+    public Animation rotateTo(double angle) {
+        return set("rotation", angle);
+    }
+
+    /**
+     * Scales the actor around its origin to the given factor during the last
+     * keyframe.
+     *
+     * @param scale
+     *            the scale factor
+     * @return this animation
+     */
+    public Animation scaleTo(double scale) {
+        return set("scale", scale);
+    }
+
+    /**
+     * Fades the actor to the given opacity during the last keyframe.
+     *
+     * @param alpha
+     *            the opacity, from 0 for transparent to 1 for opaque
+     * @return this animation
+     */
+    public Animation fadeTo(double alpha) {
+        return set("alpha", Math.max(0, Math.min(1, alpha)));
+    }
+
+    /**
+     * Changes the color of the actor to the given color during the last
+     * keyframe.
+     *
+     * @param color
+     *            the CSS color
+     * @return this animation
+     * @see Animator#setColor(String, String)
+     */
+    public Animation colorTo(String color) {
+        return set("color", Objects.requireNonNull(color));
+    }
+
+    /**
+     * Sets the time to wait before the animation starts, 0 by default.
+     *
+     * @param delay
+     *            the delay in milliseconds
+     * @return this animation
+     */
+    public Animation delay(long delay) {
+        this.delay = Math.max(0, delay);
+        return this;
+    }
+
+    /**
+     * Sets how many times the keyframes are played, once by default.
+     *
+     * @param rounds
+     *            the number of rounds, or {@link #INFINITE} to repeat the
+     *            animation until it is replaced
+     * @return this animation
+     */
+    public Animation repeat(int rounds) {
+        if (rounds < 1 && rounds != INFINITE) {
+            throw new IllegalArgumentException(
+                    "Invalid number of rounds " + rounds);
+        }
+        this.rounds = rounds;
+        return this;
+    }
+
+    /**
+     * @return the number of rounds, or {@link #INFINITE}
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    private Animation set(String property, Serializable value) {
+        keyframes.get(keyframes.size() - 1).values.put(property, value);
+        return this;
+    }
+
+    /**
+     * Copies the values the properties have at the end of the animation.
+     */
+    void applyEndValues(Map<String, Serializable> properties) {
+        keyframes.forEach(keyframe -> properties.putAll(keyframe.values));
+    }
+
+    JsonObject toJson() {
+        JsonObject json = Json.createObject();
+        JsonArray frames = Json.createArray();
+        for (Keyframe keyframe : keyframes) {
+            JsonObject frame = Json.createObject();
+            frame.put("duration", keyframe.duration);
+            frame.put("easing", keyframe.easing.name());
+            frame.put("values", Animator.toJson(keyframe.values));
+            frames.set(frames.length(), frame);
+        }
+        json.put("keyframes", frames);
+        json.put("delay", delay);
+        json.put("rounds", rounds);
+        return json;
+    }
+}
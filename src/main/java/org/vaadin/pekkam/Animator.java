@@ -0,0 +1,341 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.function.SerializableConsumer;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.vaadin.pekkam.event.AnimationEndEvent;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Animates drawings on a {@link Canvas} in the browser, so that the server
+ * does not need to draw every frame.
+ * <p>
+ * The drawings are called actors. Each actor is drawn once on the server and
+ * the browser draws it on every frame with its current position, rotation,
+ * scale, opacity and color. The server declares how these properties change
+ * over time with an {@link Animation}, and the browser interpolates the
+ * values and draws the frames with <code>requestAnimationFrame</code>. The
+ * server only hears when an animation ends, either through the future
+ * returned by {@link #animate(String, Animation)} or with
+ * {@link Canvas#addAnimationEndListener}. Nothing is drawn while no
+ * animation is running.
+ * <p>
+ * Actors are stacked in the order they were first added, so an actor added
+ * later is drawn on top. Replacing an actor keeps its position in the stack.
+ * <p>
+ * The animator assumes that it owns the whole canvas, which is cleared on
+ * every frame. Anything drawn directly with {@link Canvas#getContext()} may
+ * be erased.
+ */
+@SuppressWarnings("serial")
+public class Animator implements Serializable {
+
+    private final Canvas canvas;
+    private final Map<String, Actor> actors = new LinkedHashMap<>();
+    private final List<JsonObject> pending = new ArrayList<>();
+    private final Map<Integer, CompletableFuture<Void>> running = new HashMap<>();
+    private int nextAnimation;
+    private boolean syncScheduled;
+
+    private static final class Actor implements Serializable {
+        private final String data;
+        private final JsonArray strings;
+        private final Map<String, Serializable> properties = new LinkedHashMap<>();
+
+        private Actor(String data, JsonArray strings) {
+            this.data = data;
+            this.strings = strings;
+            properties.put("x", 0.0);
+            properties.put("y", 0.0);
+            properties.put("rotation", 0.0);
+            properties.put("scale", 1.0);
+            properties.put("alpha", 1.0);
+            properties.put("color", "black");
+        }
+    }
+
+    /**
+     * Creates a new animator without actors for the given canvas.
+     *
+     * @param canvas
+     *            the canvas to draw the actors on
+     */
+    public Animator(Canvas canvas) {
+        this.canvas = Objects.requireNonNull(canvas);
+        canvas.addAnimationEndListener(this::onAnimationEnd);
+        canvas.addAttachListener(event -> {
+            // A new canvas element has no actors, and animations were lost
+            pending.clear();
+            running.values().forEach(future -> future.cancel(false));
+            running.clear();
+            if (!actors.isEmpty()) {
+                pending.add(command("clear"));
+                actors.forEach((id, actor) -> pending.add(toJson(id, actor)));
+                syncScheduled = false;
+                scheduleSync();
+            }
+        });
+    }
+
+    /**
+     * Adds an actor, or replaces the drawing of the actor with the same id.
+     * A new actor is at (0, 0), not rotated or scaled, opaque and black.
+     * <p>
+     * The drawing is made once, around the actor's origin. The browser moves
+     * the origin to the actor's position and rotates and scales the drawing
+     * around it. The actor's color is set as the fill and stroke style
+     * before the drawing is drawn, so shapes that are drawn without setting
+     * a style get the color.
+     *
+     * @param id
+     *            the id of the actor
+     * @param drawing
+     *            draws the actor
+     */
+    public void addActor(String id,
+            SerializableConsumer<RenderingContext2D> drawing) {
+        CommandBuffer buffer = new CommandBuffer();
+        drawing.accept(new CanvasRenderingContext2D(buffer,
+                canvas.getCanvasWidth(), canvas.getCanvasHeight()));
+        Actor actor = new Actor(buffer.encodeData(), buffer.encodeStrings());
+        Actor old = actors.put(id, actor);
+        if (old != null) {
+            actor.properties.putAll(old.properties);
+        }
+        pending.add(toJson(id, actor));
+        scheduleSync();
+    }
+
+    /**
+     * Removes the actor with the given id. A running animation of it is
+     * cancelled.
+     *
+     * @param id
+     *            the id of the actor
+     */
+    public void removeActor(String id) {
+        if (actors.remove(id) != null) {
+            JsonObject remove = command("remove");
+            remove.put("id", id);
+            pending.add(remove);
+            scheduleSync();
+        }
+    }
+
+    /**
+     * Removes all actors.
+     */
+    public void clear() {
+        actors.clear();
+        pending.add(command("clear"));
+        scheduleSync();
+    }
+
+    /**
+     * @return the ids of the actors in their stacking order
+     */
+    public Set<String> getActorIds() {
+        return Collections.unmodifiableSet(actors.keySet());
+    }
+
+    /**
+     * Moves an actor immediately.
+     *
+     * @param id
+     *            the id of the actor
+     * @param x
+     *            the x coordinate of the actor's origin on the canvas
+     * @param y
+     *            the y coordinate of the actor's origin on the canvas
+     */
+    public void setPosition(String id, double x, double y) {
+        Map<String, Serializable> values = new LinkedHashMap<>();
+        values.put("x", x);
+        values.put("y", y);
+        set(id, values);
+    }
+
+    /**
+     * Rotates an actor immediately.
+     *
+     * @param id
+     *            the id of the actor
+     * @param angle
+     *            the angle in radians, clockwise
+     */
+    public void setRotation(String id, double angle) {
+        set(id, Map.of("rotation", angle));
+    }
+
+    /**
+     * Scales an actor immediately.
+     *
+     * @param id
+     *            the id of the actor
+     * @param scale
+     *            the scale factor
+     */
+    public void setScale(String id, double scale) {
+        set(id, Map.of("scale", scale));
+    }
+
+    /**
+     * Sets the opacity of an actor immediately.
+     *
+     * @param id
+     *            the id of the actor
+     * @param alpha
+     *            the opacity, from 0 for transparent to 1 for opaque
+     */
+    public void setAlpha(String id, double alpha) {
+        set(id, Map.of("alpha", Math.max(0, Math.min(1, alpha))));
+    }
+
+    /**
+     * Sets the color of an actor immediately. It is the fill and stroke
+     * style in effect when the drawing of the actor starts.
+     *
+     * @param id
+     *            the id of the actor
+     * @param color
+     *            the CSS color
+     */
+    public void setColor(String id, String color) {
+        set(id, Map.of("color", Objects.requireNonNull(color)));
+    }
+
+    /**
+     * Gets a property of an actor. After an animation has been started, the
+     * value is the one it has at the end of the animation, unless it is
+     * repeated infinitely.
+     *
+     * @param id
+     *            the id of the actor
+     * @param property
+     *            the name of the property: "x", "y", "rotation", "scale",
+     *            "alpha" or "color"
+     * @return the value, a {@link Double} or a {@link String} for the color
+     */
+    public Serializable getProperty(String id, String property) {
+        return actor(id).properties.get(property);
+    }
+
+    /**
+     * Starts playing an animation of an actor in the browser. An animation
+     * already running for the actor is cancelled, and the new one starts
+     * from the values the properties have at that moment.
+     *
+     * @param id
+     *            the id of the actor
+     * @param animation
+     *            the animation
+     * @return a future that is completed when the animation has completed,
+     *         or cancelled if the animation is replaced or the actor is
+     *         removed before that
+     */
+    public CompletableFuture<Void> animate(String id, Animation animation) {
+        Actor actor = actor(id);
+        if (animation.getRounds() != Animation.INFINITE) {
+            animation.applyEndValues(actor.properties);
+        }
+        int number = nextAnimation++;
+        JsonObject animate = command("animate");
+        animate.put("id", id);
+        animate.put("animation", number);
+        animate.put("timeline", animation.toJson());
+        pending.add(animate);
+        scheduleSync();
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        running.put(number, future);
+        return future;
+    }
+
+    private void set(String id, Map<String, Serializable> values) {
+        actor(id).properties.putAll(values);
+        JsonObject set = command("set");
+        set.put("id", id);
+        set.put("values", toJson(values));
+        pending.add(set);
+        scheduleSync();
+    }
+
+    private Actor actor(String id) {
+        Actor actor = actors.get(id);
+        if (actor == null) {
+            throw new IllegalArgumentException("No actor with id " + id);
+        }
+        return actor;
+    }
+
+    private void onAnimationEnd(AnimationEndEvent event) {
+        CompletableFuture<Void> future = running.remove(event.getAnimation());
+        if (future == null) {
+            return;
+        }
+        if (event.isCancelled()) {
+            future.cancel(false);
+        } else {
+            future.complete(null);
+        }
+    }
+
+    private void scheduleSync() {
+        if (!syncScheduled) {
+            syncScheduled = true;
+            canvas.getElement().getNode().runWhenAttached(ui -> ui
+                    .beforeClientResponse(canvas, context -> sync()));
+        }
+    }
+
+    private void sync() {
+        syncScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        JsonArray updates = Json.createArray();
+        pending.forEach(update -> updates.set(updates.length(), update));
+        pending.clear();
+        canvas.getElement().executeJs(
+                "window.Vaadin.Flow.canvasConnector.animate(this, $0)",
+                updates);
+    }
+
+    private static JsonObject command(String op) {
+        JsonObject json = Json.createObject();
+        json.put("op", op);
+        return json;
+    }
+
+    private static JsonObject toJson(String id, Actor actor) {
+        JsonObject json = command("actor");
+        json.put("id", id);
+        json.put("data", actor.data);
+        json.put("strings", actor.strings);
+        json.put("values", toJson(actor.properties));
+        return json;
+    }
+
+    static JsonObject toJson(Map<String, Serializable> values) {
+        JsonObject json = Json.createObject();
+        values.forEach((name, value) -> {
+            if (value instanceof Double number) {
+                json.put(name, number);
+            } else {
+                json.put(name, value.toString());
+            }
+        });
+        return json;
+    }
+}
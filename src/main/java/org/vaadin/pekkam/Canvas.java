@@ -7,15 +7,34 @@ import com.vaadin.flow.component.HasSize;
 import com.vaadin.flow.component.HasStyle;
 import com.vaadin.flow.component.KeyNotifier;
 import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.dependency.JsModule;
+import com.vaadin.flow.server.streams.UploadHandler;
 import com.vaadin.flow.shared.Registration;
+import org.vaadin.pekkam.event.AnimationEndEvent;
 import org.vaadin.pekkam.event.ImageLoadEvent;
 import org.vaadin.pekkam.event.MouseClickEvent;
 import org.vaadin.pekkam.event.MouseDblClickEvent;
 import org.vaadin.pekkam.event.MouseDownEvent;
+import org.vaadin.pekkam.event.MouseMoveBatchEvent;
 import org.vaadin.pekkam.event.MouseMoveEvent;
 import org.vaadin.pekkam.event.MouseUpEvent;
+import org.vaadin.pekkam.event.PointerCancelEvent;
+import org.vaadin.pekkam.event.PointerDownEvent;
+import org.vaadin.pekkam.event.PointerMoveBatchEvent;
+import org.vaadin.pekkam.event.PointerUpEvent;
+import org.vaadin.pekkam.event.SampleDelivery;
+import org.vaadin.pekkam.event.ShapeClickEvent;
+import org.vaadin.pekkam.event.ShapeEnterEvent;
+import org.vaadin.pekkam.event.ShapeLeaveEvent;
+import org.vaadin.pekkam.event.ViewChangeEvent;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -29,9 +48,21 @@ import java.util.concurrent.CompletableFuture;
  * <p>
  */
 @Tag("canvas")
+@JsModule("./canvas-java/canvas-connector.js")
 @SuppressWarnings("serial")
 public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier {
     private final CanvasRenderingContext2D context;
+    private final HitRegions hitRegions = new HitRegions(this);
+    private final CanvasImages images = new CanvasImages(this);
+    private int exportCount;
+    private RenderLoop renderLoop;
+
+    private SampleDelivery mouseMoveDelivery = SampleDelivery.THROTTLE;
+    private int mouseMoveInterval = 100;
+    private boolean mouseMoveBatching;
+    private SampleDelivery pointerMoveDelivery = SampleDelivery.THROTTLE;
+    private int pointerMoveInterval = 100;
+    private boolean pointerMoveBatching;
 
     /**
      * Creates a new canvas component with the given size.
@@ -54,6 +85,225 @@ public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier
 
         getElement().setAttribute("width", String.valueOf(width));
         getElement().setAttribute("height", String.valueOf(height));
+
+        addAttachListener(event -> {
+            context.onAttach();
+            hitRegions.onAttach();
+            images.onAttach();
+            if (mouseMoveBatching) {
+                sendSampleDelivery("mouse", mouseMoveDelivery,
+                        mouseMoveInterval);
+            }
+            if (pointerMoveBatching) {
+                sendSampleDelivery("pointer", pointerMoveDelivery,
+                        pointerMoveInterval);
+            }
+        });
+    }
+
+    /**
+     * Starts drawing the canvas continuously from a background thread, see
+     * {@link RenderLoop}. A loop started earlier is stopped. This is meant
+     * for content that changes all the time, such as live telemetry, where
+     * drawing through {@link com.vaadin.flow.component.UI#access} would
+     * queue up frames when the browser cannot keep up.
+     *
+     * @param targetFps
+     *            the maximum number of frames rendered per second
+     * @param callback
+     *            draws each frame, without the session being locked
+     * @return the loop, for stopping it and reading its statistics
+     */
+    public RenderLoop startRenderLoop(double targetFps,
+            RenderCallback callback) {
+        stopRenderLoop();
+        renderLoop = new RenderLoop(this, targetFps, callback);
+        return renderLoop;
+    }
+
+    /**
+     * Stops the loop started with
+     * {@link #startRenderLoop(double, RenderCallback)}, if any.
+     */
+    public void stopRenderLoop() {
+        if (renderLoop != null) {
+            renderLoop.stop();
+            renderLoop = null;
+        }
+    }
+
+    /**
+     * @return the width of the canvas' coordinate system, as given in the
+     *         constructor
+     */
+    public int getCanvasWidth() {
+        return Integer.parseInt(getElement().getAttribute("width"));
+    }
+
+    /**
+     * @return the height of the canvas' coordinate system, as given in the
+     *         constructor
+     */
+    public int getCanvasHeight() {
+        return Integer.parseInt(getElement().getAttribute("height"));
+    }
+
+    /**
+     * Sets whether the content of the canvas is restored when the component
+     * is attached again, e.g. after navigating back to a view, switching tabs
+     * or refreshing a page with <code>@PreserveOnRefresh</code>. By default
+     * the browser gets a new, empty canvas element in these cases.
+     * <p>
+     * When enabled, the drawing commands are kept in a log on the server and
+     * sent again on attach. The log is compacted whenever the whole canvas is
+     * cleared with {@link CanvasRenderingContext2D#clearRect} and only the
+     * latest value of each style is kept, so drawings that are regularly
+     * cleared and repainted stay small. If the log grows beyond its limit
+     * without the canvas being cleared, the content is not restored until
+     * the next full clear.
+     * <p>
+     * Content drawn before enabling this, or with
+     * {@link CanvasRenderingContext2D#callJsMethod}, is not restored.
+     *
+     * @param preserveContent
+     *            <code>true</code> to restore the content on attach,
+     *            <code>false</code> to not keep a log
+     */
+    public void setPreserveContent(boolean preserveContent) {
+        context.setLogEnabled(preserveContent);
+    }
+
+    /**
+     * @return whether the content of the canvas is restored on attach
+     * @see #setPreserveContent(boolean)
+     */
+    public boolean isPreserveContent() {
+        return context.isLogEnabled();
+    }
+
+    /**
+     * Sets whether the canvas is drawn by a Web Worker instead of the main
+     * thread of the browser. Heavy drawing then does not block the rest of
+     * the UI, such as scrolling and input fields. The canvas is transferred
+     * to an <code>OffscreenCanvas</code> and all drawing commands are
+     * forwarded to a dedicated worker. If the browser does not support this,
+     * the canvas is drawn on the main thread as usual.
+     * <p>
+     * The mode is chosen when the canvas element is first drawn on, so this
+     * should be set before that. In worker mode, images are fetched by the
+     * worker, so images from other origins need CORS headers.
+     *
+     * @param workerRendering
+     *            <code>true</code> to draw the canvas in a worker,
+     *            <code>false</code> to draw it on the main thread
+     */
+    public void setWorkerRendering(boolean workerRendering) {
+        getElement().setProperty("workerRendering", workerRendering);
+    }
+
+    /**
+     * @return whether the canvas is drawn in a worker when supported
+     * @see #setWorkerRendering(boolean)
+     */
+    public boolean isWorkerRendering() {
+        return getElement().getProperty("workerRendering", false);
+    }
+
+    /**
+     * Sets whether the browser keeps the drawing commands and draws them
+     * again by itself when the canvas is displayed differently. The canvas
+     * is then drawn with the resolution it is displayed with, so it stays
+     * sharp when the component size or the device pixel ratio changes, e.g.
+     * with browser zoom, instead of stretching the bitmap. The coordinate
+     * system of the canvas stays the same.
+     * <p>
+     * The commands are compacted whenever the whole canvas is cleared, as
+     * with {@link #setPreserveContent(boolean)}. If they grow beyond the
+     * limit without a clear, the browser cannot draw the content again, and
+     * the canvas stays empty until the server draws it. Listen to
+     * {@link ViewChangeEvent} for this; it is also fired after all other
+     * changes, but handling it is optional.
+     * <p>
+     * This should be set before the canvas is first drawn on. Content drawn
+     * with {@link CanvasRenderingContext2D#callJsMethod} is not kept, and
+     * exported images have the resolution of the display.
+     *
+     * @param clientRescaling
+     *            <code>true</code> to draw the canvas again in the browser,
+     *            <code>false</code> to stretch the bitmap
+     */
+    public void setClientRescaling(boolean clientRescaling) {
+        getElement().setProperty("clientRescaling", clientRescaling);
+    }
+
+    /**
+     * @return whether the browser draws the canvas again when it is
+     *         displayed differently
+     * @see #setClientRescaling(boolean)
+     */
+    public boolean isClientRescaling() {
+        return getElement().getProperty("clientRescaling", false);
+    }
+
+    /**
+     * Sets whether the user can zoom the canvas with the mouse wheel while
+     * holding down Ctrl, and pan the zoomed canvas by dragging. The view is
+     * only changed in the browser, by drawing the retained commands again,
+     * so this needs {@link #setClientRescaling(boolean) client rescaling}.
+     * The positions of mouse events are not affected, while hit regions
+     * follow the view.
+     *
+     * @param clientPanZoom
+     *            <code>true</code> to enable the gestures
+     */
+    public void setClientPanZoom(boolean clientPanZoom) {
+        getElement().setProperty("clientPanZoom", clientPanZoom);
+    }
+
+    /**
+     * @return whether the user can zoom and pan the canvas in the browser
+     * @see #setClientPanZoom(boolean)
+     */
+    public boolean isClientPanZoom() {
+        return getElement().getProperty("clientPanZoom", false);
+    }
+
+    /**
+     * Sets the client-side view of the canvas. It is drawn again in the
+     * browser, which needs {@link #setClientRescaling(boolean) client
+     * rescaling}. The view is kept inside the canvas.
+     *
+     * @param zoom
+     *            the zoom factor, at least 1
+     * @param x
+     *            the X coordinate in the canvas' coordinate system to show
+     *            at the left edge
+     * @param y
+     *            the Y coordinate in the canvas' coordinate system to show
+     *            at the top edge
+     */
+    public void setView(double zoom, double x, double y) {
+        getElement().executeJs(
+                "window.Vaadin.Flow.canvasConnector.setView(this, $0, $1, $2)",
+                zoom, x, y);
+    }
+
+    /**
+     * Adds a listener for changes of how the canvas is displayed, see
+     * {@link #setClientRescaling(boolean)}.
+     */
+    public Registration addViewChangeListener(
+            ComponentEventListener<ViewChangeEvent> listener) {
+        return addListener(ViewChangeEvent.class, listener);
+    }
+
+    /**
+     * Adds a listener for the end of animations played by an
+     * {@link Animator} on this canvas.
+     */
+    public Registration addAnimationEndListener(
+            ComponentEventListener<AnimationEndEvent> listener) {
+        return addListener(AnimationEndEvent.class, listener);
     }
 
     /**
@@ -76,7 +326,8 @@ public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier
      * drawing, and it uses the width and height provided in the constructor.
      * This coordinate system is independent of the component's size. Changing
      * the component's size with this method may scale/stretch the rendered
-     * graphics.
+     * graphics, unless {@link #setClientRescaling(boolean) client rescaling}
+     * is enabled.
      */
     @Override
     public void setWidth(String width) {
@@ -90,7 +341,8 @@ public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier
      * drawing, and it uses the width and height provided in the constructor.
      * This coordinate system is independent of the component's size. Changing
      * the component's size with this method may scale/stretch the rendered
-     * graphics.
+     * graphics, unless {@link #setClientRescaling(boolean) client rescaling}
+     * is enabled.
      */
     @Override
     public void setHeight(String height) {
@@ -104,7 +356,8 @@ public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier
      * drawing, and it uses the width and height provided in the constructor.
      * This coordinate system is independent of the component's size. Changing
      * the component's size with this method may scale/stretch the rendered
-     * graphics.
+     * graphics, unless {@link #setClientRescaling(boolean) client rescaling}
+     * is enabled.
      */
     @Override
     public void setSizeFull() {
@@ -114,29 +367,48 @@ public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier
     /**
      * Load an image resource an prepare it for use as a fill or stroke style. Since images are loaded
      * asyncronously, you need to wait until you receive the associated ImageLoadEvent. Register an
-     * event listener using addImageLoadListener().
+     * event listener using addImageLoadListener(). To load several images with one event, use
+     * {@link CanvasImages#preload(String...)}.
      *
      * @param src the path to the image resource
      */
     public void loadImage(String src)
     {
-        getElement().executeJs("""
-        var img = new Image();
-        var self = this;
-        img.onload = function () {
-            if (!self.images) self.images = {};
-            self.images[$0] = img;
-            self.$server.imageLoaded($0);
-        };
-        img.src=$0;""",
-           src
-        );
+        images.request(src);
+        context.loadImage(src);
+    }
+
+    /**
+     * Gets the images of this canvas, for serving images from bytes or
+     * streams, preloading images and checking which images the browser has.
+     *
+     * @return the images of this canvas
+     */
+    public CanvasImages getImages()
+    {
+        return images;
     }
 
     @ClientCallable
     public void imageLoaded(String src)
     {
-        fireEvent(new ImageLoadEvent(this, true, src));
+        imagesChanged(new String[] { src }, new String[0], new String[0]);
+    }
+
+    /**
+     * Called by the browser with the images it has loaded, the ones it has
+     * dropped from its cache and the ones it failed to load since the
+     * previous call.
+     */
+    @ClientCallable
+    void imagesChanged(String[] loaded, String[] evicted, String[] failed)
+    {
+        images.update(loaded, evicted, failed);
+    }
+
+    void fireImageLoad(List<String> sources, List<String> failedSources)
+    {
+        fireEvent(new ImageLoadEvent(this, true, sources, failedSources));
     }
 
     public Registration addMouseDownListener(ComponentEventListener<MouseDownEvent> listener)
@@ -154,6 +426,202 @@ public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier
         return addListener(MouseMoveEvent.class, listener);
     }
 
+    /**
+     * Adds a listener for batches of mouse movements. Unlike
+     * {@link #addMouseMoveListener(ComponentEventListener)}, every movement
+     * is delivered, but several movements are sent to the server together as
+     * configured with {@link #setMouseMoveDelivery(SampleDelivery, int)}. By
+     * default a batch is sent at most every 100 milliseconds.
+     *
+     * @param listener
+     *            the listener to add
+     * @return a handle for removing the listener
+     */
+    public Registration addMouseMoveBatchListener(
+            ComponentEventListener<MouseMoveBatchEvent> listener) {
+        if (!mouseMoveBatching) {
+            mouseMoveBatching = true;
+            if (isAttached()) {
+                sendSampleDelivery("mouse", mouseMoveDelivery,
+                        mouseMoveInterval);
+            }
+        }
+        return addListener(MouseMoveBatchEvent.class, listener);
+    }
+
+    /**
+     * Sets how often the mouse movements are sent to the listeners added with
+     * {@link #addMouseMoveBatchListener(ComponentEventListener)}. Movements
+     * are collected in the browser in between, and pending movements are
+     * always sent before a mouse button is pressed or released.
+     *
+     * @param delivery
+     *            when to send a batch
+     * @param interval
+     *            the interval in milliseconds, not used with
+     *            {@link SampleDelivery#ANIMATION_FRAME}
+     */
+    public void setMouseMoveDelivery(SampleDelivery delivery, int interval) {
+        mouseMoveDelivery = Objects.requireNonNull(delivery);
+        mouseMoveInterval = interval;
+        if (mouseMoveBatching && isAttached()) {
+            sendSampleDelivery("mouse", delivery, interval);
+        }
+    }
+
+    /**
+     * Adds a listener for pointer down events, which cover mouse, pen and
+     * touch input. Adding any pointer listener disables the browser's touch
+     * gestures such as scrolling on the canvas, so that touches are
+     * delivered as pointer events.
+     *
+     * @param listener
+     *            the listener to add
+     * @return a handle for removing the listener
+     */
+    public Registration addPointerDownListener(
+            ComponentEventListener<PointerDownEvent> listener) {
+        disableTouchGestures();
+        return addListener(PointerDownEvent.class, listener);
+    }
+
+    /**
+     * @see #addPointerDownListener(ComponentEventListener)
+     */
+    public Registration addPointerUpListener(
+            ComponentEventListener<PointerUpEvent> listener) {
+        disableTouchGestures();
+        return addListener(PointerUpEvent.class, listener);
+    }
+
+    /**
+     * @see #addPointerDownListener(ComponentEventListener)
+     */
+    public Registration addPointerCancelListener(
+            ComponentEventListener<PointerCancelEvent> listener) {
+        disableTouchGestures();
+        return addListener(PointerCancelEvent.class, listener);
+    }
+
+    /**
+     * Adds a listener for batches of pointer movements. All samples are
+     * delivered, including the ones the browser coalesces into one event for
+     * high-frequency input such as pens, but they are sent to the server
+     * together as configured with
+     * {@link #setPointerMoveDelivery(SampleDelivery, int)}. By default a
+     * batch is sent at most every 100 milliseconds.
+     *
+     * @param listener
+     *            the listener to add
+     * @return a handle for removing the listener
+     * @see #addPointerDownListener(ComponentEventListener)
+     */
+    public Registration addPointerMoveBatchListener(
+            ComponentEventListener<PointerMoveBatchEvent> listener) {
+        disableTouchGestures();
+        if (!pointerMoveBatching) {
+            pointerMoveBatching = true;
+            if (isAttached()) {
+                sendSampleDelivery("pointer", pointerMoveDelivery,
+                        pointerMoveInterval);
+            }
+        }
+        return addListener(PointerMoveBatchEvent.class, listener);
+    }
+
+    /**
+     * Sets how often the pointer movements are sent to the listeners added
+     * with {@link #addPointerMoveBatchListener(ComponentEventListener)}.
+     * Pending movements are always sent before a pointer down, up or cancel
+     * event.
+     *
+     * @param delivery
+     *            when to send a batch
+     * @param interval
+     *            the interval in milliseconds, not used with
+     *            {@link SampleDelivery#ANIMATION_FRAME}
+     */
+    public void setPointerMoveDelivery(SampleDelivery delivery,
+            int interval) {
+        pointerMoveDelivery = Objects.requireNonNull(delivery);
+        pointerMoveInterval = interval;
+        if (pointerMoveBatching && isAttached()) {
+            sendSampleDelivery("pointer", delivery, interval);
+        }
+    }
+
+    /**
+     * Adds a region that is hit tested in the browser, or replaces the region
+     * with the same id. Moving the mouse over the region or out of it fires
+     * {@link ShapeEnterEvent} and {@link ShapeLeaveEvent}, and clicking it
+     * fires {@link ShapeClickEvent}. Other mouse movements are not sent to
+     * the server for this. When regions overlap, the one added first is
+     * below the later ones. A replaced region keeps its place in that order.
+     * <p>
+     * Regions are independent of what is drawn on the canvas, so they are
+     * not affected by clearing the canvas.
+     *
+     * @param id
+     *            the id of the region, passed to the events
+     * @param region
+     *            the area of the region
+     */
+    public void addHitRegion(String id, HitRegion region) {
+        hitRegions.put(Objects.requireNonNull(id),
+                Objects.requireNonNull(region));
+    }
+
+    /**
+     * Removes the hit region with the given id, if any. If the mouse is over
+     * the region, a {@link ShapeLeaveEvent} is fired.
+     *
+     * @param id
+     *            the id of the region
+     */
+    public void removeHitRegion(String id) {
+        hitRegions.remove(id);
+    }
+
+    /**
+     * Removes all hit regions.
+     */
+    public void clearHitRegions() {
+        hitRegions.clear();
+    }
+
+    /**
+     * @return the ids of the hit regions in their stacking order
+     */
+    public Set<String> getHitRegionIds() {
+        return hitRegions.getIds();
+    }
+
+    public Registration addShapeEnterListener(
+            ComponentEventListener<ShapeEnterEvent> listener) {
+        return addListener(ShapeEnterEvent.class, listener);
+    }
+
+    public Registration addShapeLeaveListener(
+            ComponentEventListener<ShapeLeaveEvent> listener) {
+        return addListener(ShapeLeaveEvent.class, listener);
+    }
+
+    public Registration addShapeClickListener(
+            ComponentEventListener<ShapeClickEvent> listener) {
+        return addListener(ShapeClickEvent.class, listener);
+    }
+
+    private void disableTouchGestures() {
+        getStyle().set("touch-action", "none");
+    }
+
+    private void sendSampleDelivery(String kind, SampleDelivery delivery,
+            int interval) {
+        getElement().executeJs(
+                "window.Vaadin.Flow.canvasConnector.setSampleDelivery(this, $0, $1, $2)",
+                kind, delivery.name(), interval);
+    }
+
     public Registration addMouseClickListener(ComponentEventListener<MouseClickEvent> listener)
     {
         return addListener(MouseClickEvent.class, listener);
@@ -200,15 +668,26 @@ public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier
         var dataUrlType = type != null ? type : "image/png";
         var dataUrlQuality = quality != null && quality >= 0.0 && quality <= 1.0 ? quality : 1.0;
 
-        return getElement()
-                .callJsFunction("toDataURL", dataUrlType, dataUrlQuality)
-                .toCompletableFuture(String.class);
+        var result = new CompletableFuture<String>();
+        // Goes through the connector to work in worker rendering mode too,
+        // in order with the drawing commands
+        context.runInOrder(ui -> ui.getPage().executeJs(
+                "return window.Vaadin.Flow.canvasConnector.toDataURL($0, $1, $2)",
+                getElement(), dataUrlType, dataUrlQuality)
+                .then(String.class, result::complete,
+                        error -> result.completeExceptionally(new IllegalStateException(
+                                "Exporting the canvas failed: " + error))));
+        return result;
     }
 
     /**
      * The canvas content as a raster image.
+     * <p>
+     * The image is sent from the browser as binary data in a separate
+     * request, not as a data URL, see
+     * {@link #toBlob(String, Double, OutputStream)}.
      *
-     * @see <a href="https://developer.mozilla.org/en-US/docs/Web/API/HTMLCanvasElement/toDataURL">HTMLCanvasElement: toDataURL() method</a>
+     * @see <a href="https://developer.mozilla.org/en-US/docs/Web/API/HTMLCanvasElement/toBlob">HTMLCanvasElement: toBlob() method</a>
      *
      * @param type A string indicating the image format. The default type is <code>image/png</code>; this image format
      *             will be also used if the specified type is not supported
@@ -220,6 +699,102 @@ public class Canvas extends Component implements HasStyle, HasSize, KeyNotifier
      *         than the maximum canvas size, empty byte[] is returned.
      */
     public CompletableFuture<byte[]> toImage(String type, Double quality) {
-        return toDataURL(type, quality).thenApply(dataUrl -> Base64.getDecoder().decode(dataUrl.split(",")[1]));
+        return exportImage(type, quality, InputStream::readAllBytes);
+    }
+
+    /**
+     * Writes the canvas content as a raster image to the given stream. The
+     * browser encodes the image with <code>canvas.toBlob()</code> and posts
+     * the bytes to a handler registered for this export only. The bytes are
+     * copied to the stream as they arrive, so the image is never held in
+     * memory as a whole on the server.
+     * <p>
+     * The stream is written in the thread of the upload request, without
+     * locking the session. The returned future is completed with the session
+     * locked, as the futures of other client calls.
+     *
+     * @param type A string indicating the image format. The default type is <code>image/png</code>
+     * @param quality A Number between <code>0</code> and <code>1</code> indicating the image quality for lossy formats
+     * @param out the stream to write the image to; it is not closed
+     * @return CompletableFuture that is completed once the whole image has been written. If the height or width of the
+     *         canvas is <code>0</code> or larger than the maximum canvas size, nothing is written.
+     */
+    public CompletableFuture<Void> toBlob(String type, Double quality, OutputStream out) {
+        return exportImage(type, quality, in -> {
+            in.transferTo(out);
+            return null;
+        });
+    }
+
+    /**
+     * Reads pixels of the canvas. The pixels are sent from the browser as
+     * binary data in a separate request, not as base64 encoded JSON.
+     * <p>
+     * With client rescaling enabled, the coordinates are pixels of the
+     * backing store, which may differ from the canvas' own coordinates.
+     *
+     * @see <a href="https://developer.mozilla.org/en-US/docs/Web/API/CanvasRenderingContext2D/getImageData">CanvasRenderingContext2D: getImageData() method</a>
+     *
+     * @param x the x coordinate of the left edge of the rectangle to read
+     * @param y the y coordinate of the top edge of the rectangle to read
+     * @param width the width of the rectangle
+     * @param height the height of the rectangle
+     * @return CompletableFuture of the pixels. Pixels outside the canvas are transparent black.
+     */
+    public CompletableFuture<ImageData> getImageData(int x, int y, int width, int height) {
+        return upload(in -> new ImageData(width, height, in.readAllBytes()),
+                "getImageData", x, y, width, height);
+    }
+
+    private <T> CompletableFuture<T> exportImage(String type, Double quality, ImageReader<T> reader) {
+        var blobType = type != null ? type : "image/png";
+        var blobQuality = quality != null && quality >= 0.0 && quality <= 1.0 ? quality : 1.0;
+        return upload(reader, "toBlob", blobType, blobQuality);
+    }
+
+    /**
+     * Calls a connector function that posts binary data to a handler
+     * registered for this call only. The name of the attribute holding the
+     * handler's URL is the first argument of the function.
+     */
+    private <T> CompletableFuture<T> upload(ImageReader<T> reader, String function, Serializable... args) {
+        var attribute = "export-" + exportCount++;
+        var result = new CompletableFuture<T>();
+
+        UploadHandler handler = event -> {
+            T value;
+            try (InputStream in = event.getInputStream()) {
+                value = reader.read(in);
+            } catch (IOException | RuntimeException e) {
+                event.getUI().access(() -> result.completeExceptionally(e));
+                throw e;
+            }
+            event.getUI().access(() -> result.complete(value));
+        };
+        getElement().setAttribute(attribute, handler);
+        var parameters = new Serializable[args.length + 2];
+        var placeholders = new StringBuilder("$0, $1");
+        parameters[0] = getElement();
+        parameters[1] = attribute;
+        for (int i = 0; i < args.length; i++) {
+            parameters[i + 2] = args[i];
+            placeholders.append(", $").append(i + 2);
+        }
+        // In order with the drawing commands, as in toDataURL
+        context.runInOrder(ui -> ui.getPage().executeJs(
+                "return window.Vaadin.Flow.canvasConnector." + function + "(" + placeholders + ")",
+                parameters)
+                .then(ignore -> {
+                }, error -> result.completeExceptionally(
+                        new IllegalStateException("Exporting the canvas failed: " + error))));
+        // The handler is only needed once
+        result.whenComplete((value, error) -> getUI()
+                .ifPresent(ui -> ui.access(() -> getElement().removeAttribute(attribute))));
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface ImageReader<T> extends Serializable {
+        T read(InputStream in) throws IOException;
     }
 }
@@ -0,0 +1,101 @@
+package org.vaadin.pekkam;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * A linear, radial or conic gradient, created with
+ * {@link RenderingContext2D#createLinearGradient(double, double, double, double)},
+ * {@link RenderingContext2D#createRadialGradient(double, double, double, double, double, double)}
+ * or
+ * {@link RenderingContext2D#createConicGradient(double, double, double)}.
+ * <p>
+ * As in the browser, the coordinates are in the coordinate system in effect
+ * when a shape is filled or stroked, not when the gradient is created.
+ */
+public final class CanvasGradient extends CanvasStyle {
+
+    /**
+     * The kind of a gradient, named as in the client-side factory methods.
+     */
+    public enum Kind {
+        LINEAR, RADIAL, CONIC
+    }
+
+    private final Kind kind;
+    private final double[] geometry;
+    private final List<Double> offsets = new ArrayList<>();
+    private final List<String> colors = new ArrayList<>();
+
+    CanvasGradient(Kind kind, double... geometry) {
+        this.kind = kind;
+        this.geometry = geometry;
+    }
+
+    /**
+     * Adds a color at the given position of the gradient. A gradient that
+     * has already been sent to the browser is sent again when it is next
+     * used.
+     *
+     * @param offset
+     *            the position, from 0 at the start to 1 at the end
+     * @param color
+     *            the CSS color
+     * @return this gradient
+     */
+    public CanvasGradient addColorStop(double offset, String color) {
+        if (offset < 0 || offset > 1 || Double.isNaN(offset)) {
+            throw new IllegalArgumentException(
+                    "The offset must be between 0 and 1, got " + offset);
+        }
+        offsets.add(offset);
+        colors.add(Objects.requireNonNull(color));
+        changed();
+        return this;
+    }
+
+    /**
+     * @return the kind of the gradient
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the arguments of the method that created the gradient
+     */
+    public double[] getGeometry() {
+        return geometry.clone();
+    }
+
+    /**
+     * @return the stop offsets in the order they were added
+     */
+    public List<Double> getOffsets() {
+        return List.copyOf(offsets);
+    }
+
+    /**
+     * @return the stop colors in the order they were added
+     */
+    public List<String> getColors() {
+        return List.copyOf(colors);
+    }
+
+    @Override
+    void define(CommandBuffer buffer) {
+        double[] stops = offsets.stream().mapToDouble(Double::doubleValue)
+                .toArray();
+        // The colors are one string, so that the command has a fixed shape
+        JsonArray colorArray = Json.createArray();
+        colors.forEach(color -> colorArray.set(colorArray.length(), color));
+        buffer.op(Opcodes.DEFINE_GRADIENT).add(getId())
+                .add(kind.name().toLowerCase(Locale.ROOT)).addArray(geometry)
+                .addArray(stops).add(colorArray.toJson());
+    }
+}
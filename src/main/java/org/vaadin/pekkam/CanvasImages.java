@@ -0,0 +1,287 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.function.SerializableSupplier;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.streams.DownloadEvent;
+import com.vaadin.flow.server.streams.DownloadHandler;
+import org.vaadin.pekkam.event.ImageLoadEvent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The images of a {@link Canvas}, see {@link Canvas#getImages()}.
+ * <p>
+ * Images can be drawn from any URL. Images that are not available at a URL
+ * can be added as bytes or as a stream, and drawn with the <code>src</code>
+ * returned by {@link #add(byte[], String)}. They are served by the canvas
+ * with caching headers, so the browser fetches each of them only once.
+ * <p>
+ * The browser keeps decoded images in a cache shared by all commands, so
+ * an image is fetched and decoded once however many times it is drawn. The
+ * images are decoded into <code>ImageBitmap</code>s off the main thread
+ * where the browser supports it. When the decoded images take more memory
+ * than {@link #setCacheSize(long)}, the least recently used ones are dropped
+ * and fetched again if they are drawn later, usually from the HTTP cache.
+ * The browser tells the server which images it has, see
+ * {@link #isLoaded(String)}, and which ones it could not load, see
+ * {@link ImageLoadEvent#getFailedSources()}.
+ */
+public class CanvasImages implements Serializable {
+
+    /**
+     * The default size of the browser's image cache in bytes, counting four
+     * bytes per decoded pixel.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+
+    /* Must be kept in sync with canvas-images.js and canvas-connector.js */
+    private static final String SCHEME = "canvas-image:";
+    private static final String ATTRIBUTE = "canvas-images";
+
+    private final Canvas canvas;
+    /** The added images by key, read by the download handler */
+    private final Map<String, Source> sources = new ConcurrentHashMap<>();
+    private int streamCount;
+    private boolean handlerSet;
+    private final Set<String> loaded = new HashSet<>();
+    private final List<Request> requests = new ArrayList<>();
+
+    /**
+     * Images requested together, the ones not loaded yet, and the ones that
+     * failed to load
+     */
+    private record Request(List<String> srcs, Set<String> remaining,
+            List<String> failed) implements Serializable {
+        private Request(Set<String> srcs) {
+            this(List.copyOf(srcs), srcs, new ArrayList<>());
+        }
+    }
+
+    private record Source(byte[] data, SerializableSupplier<InputStream> stream,
+            String type) implements Serializable {
+    }
+
+    CanvasImages(Canvas canvas) {
+        this.canvas = canvas;
+    }
+
+    /**
+     * Adds an image to be served by the canvas. Adding the same bytes again
+     * returns the same <code>src</code>.
+     *
+     * @param data
+     *            the encoded image, which must not be changed afterwards
+     * @param type
+     *            the MIME type of the image, e.g. "image/png"
+     * @return the <code>src</code> for drawing the image on this canvas
+     */
+    public String add(byte[] data, String type) {
+        String key = hash(data);
+        sources.putIfAbsent(key, new Source(data, null, type));
+        return src(key);
+    }
+
+    /**
+     * Adds an image to be served by the canvas, read from a stream whenever
+     * the browser fetches it. The browser caches the image, so the stream
+     * must give the same image every time. To change the image, remove it
+     * and add it again.
+     *
+     * @param stream
+     *            opens a new stream of the encoded image, which is closed
+     *            after reading
+     * @param type
+     *            the MIME type of the image, e.g. "image/png"
+     * @return the <code>src</code> for drawing the image on this canvas
+     */
+    public String add(SerializableSupplier<InputStream> stream, String type) {
+        String key = "stream-" + streamCount++;
+        sources.put(key, new Source(null, Objects.requireNonNull(stream), type));
+        return src(key);
+    }
+
+    /**
+     * Stops serving an added image. The browser may still have it, but
+     * cannot fetch it again.
+     *
+     * @param src
+     *            the <code>src</code> returned when the image was added
+     */
+    public void remove(String src) {
+        if (src.startsWith(SCHEME)) {
+            sources.remove(src.substring(SCHEME.length()));
+        }
+    }
+
+    /**
+     * Starts loading images in the browser, in order with the drawing
+     * commands. One {@link ImageLoadEvent} is fired once all of them have
+     * been loaded or have failed to load. Images that have been loaded
+     * already are not fetched again.
+     *
+     * @param srcs
+     *            the <code>src</code>s of the images
+     */
+    public void preload(String... srcs) {
+        if (srcs.length == 0) {
+            return;
+        }
+        requests.add(new Request(new LinkedHashSet<>(Arrays.asList(srcs))));
+        for (String src : srcs) {
+            canvas.getContext().loadImage(src);
+        }
+    }
+
+    /**
+     * Checks whether the browser has an image ready for drawing, so that
+     * drawing it is not deferred. The state is updated with some delay, as
+     * the browser reports loaded and dropped images in batches.
+     *
+     * @param src
+     *            the <code>src</code> of the image
+     * @return whether the image has been loaded and not dropped from the
+     *         cache since
+     */
+    public boolean isLoaded(String src) {
+        return loaded.contains(src);
+    }
+
+    /**
+     * @return the <code>src</code>s of the images the browser has ready
+     */
+    public Set<String> getLoaded() {
+        return Collections.unmodifiableSet(loaded);
+    }
+
+    /**
+     * Sets how much memory the browser may use for decoded images of this
+     * canvas, counting four bytes per pixel. An image larger than this is
+     * still kept until another image is loaded. This should be set before
+     * the canvas is first drawn on.
+     *
+     * @param bytes
+     *            the size of the cache in bytes
+     */
+    public void setCacheSize(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException(
+                    "The cache size must be positive");
+        }
+        canvas.getElement().setProperty("imageCacheSize", (double) bytes);
+    }
+
+    /**
+     * @return the size of the browser's image cache in bytes
+     * @see #setCacheSize(long)
+     */
+    public long getCacheSize() {
+        return (long) canvas.getElement().getProperty("imageCacheSize",
+                (double) DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Waits for an image requested with {@link Canvas#loadImage(String)} or
+     * a sprite atlas.
+     */
+    void request(String src) {
+        requests.add(new Request(new LinkedHashSet<>(List.of(src))));
+    }
+
+    void update(String[] loadedNow, String[] evicted, String[] failed) {
+        Arrays.asList(evicted).forEach(loaded::remove);
+        Arrays.asList(failed).forEach(loaded::remove);
+        loaded.addAll(Arrays.asList(loadedNow));
+        List<Request> done = new ArrayList<>();
+        requests.removeIf(request -> {
+            boolean changed = request.remaining()
+                    .removeAll(Arrays.asList(loadedNow));
+            for (String src : failed) {
+                if (request.remaining().remove(src)) {
+                    request.failed().add(src);
+                    changed = true;
+                }
+            }
+            if (changed && request.remaining().isEmpty()) {
+                done.add(request);
+                return true;
+            }
+            return false;
+        });
+        // Listeners may request more images
+        done.forEach(request -> canvas.fireImageLoad(request.srcs(),
+                request.failed()));
+    }
+
+    void onAttach() {
+        // A new canvas element has no images, so pending loads start again
+        loaded.clear();
+        requests.forEach(request -> request.remaining()
+                .forEach(src -> canvas.getContext().loadImage(src)));
+    }
+
+    private String src(String key) {
+        if (!handlerSet) {
+            handlerSet = true;
+            DownloadHandler handler = this::serve;
+            canvas.getElement().setAttribute(ATTRIBUTE, handler);
+        }
+        return SCHEME + key;
+    }
+
+    /**
+     * Serves the added images. This is called without the session being
+     * locked.
+     */
+    private void serve(DownloadEvent event) throws IOException {
+        String key = event.getRequest().getParameter("image");
+        Source source = key != null ? sources.get(key) : null;
+        VaadinResponse response = event.getResponse();
+        if (source == null) {
+            response.setStatus(404);
+            return;
+        }
+        // The content of a key never changes
+        String etag = '"' + key + '"';
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control",
+                "private, max-age=31536000, immutable");
+        if (etag.equals(event.getRequest().getHeader("If-None-Match"))) {
+            response.setStatus(304);
+            return;
+        }
+        event.setContentType(source.type());
+        if (source.data() != null) {
+            event.setContentLength(source.data().length);
+            event.getOutputStream().write(source.data());
+        } else {
+            try (InputStream in = source.stream().get()) {
+                in.transferTo(event.getOutputStream());
+            }
+        }
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
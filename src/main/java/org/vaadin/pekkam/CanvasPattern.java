@@ -0,0 +1,41 @@
+package org.vaadin.pekkam;
+
+import java.util.Objects;
+
+/**
+ * A pattern of an image, created with
+ * {@link RenderingContext2D#createPattern(String, String)}. The pattern is
+ * created in the browser once the image has been loaded; until then, setting
+ * it as a style has no effect.
+ */
+public final class CanvasPattern extends CanvasStyle {
+
+    private final String src;
+    private final String repetition;
+
+    CanvasPattern(String src, String repetition) {
+        this.src = Objects.requireNonNull(src);
+        this.repetition = repetition != null ? repetition : "repeat";
+    }
+
+    /**
+     * @return the url of the image
+     */
+    public String getSrc() {
+        return src;
+    }
+
+    /**
+     * @return how the image is repeated: "repeat", "repeat-x", "repeat-y" or
+     *         "no-repeat"
+     */
+    public String getRepetition() {
+        return repetition;
+    }
+
+    @Override
+    void define(CommandBuffer buffer) {
+        buffer.op(Opcodes.DEFINE_PATTERN).add(getId()).add(src)
+                .add(repetition);
+    }
+}
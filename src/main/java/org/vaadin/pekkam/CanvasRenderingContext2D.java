@@ -1,8 +1,29 @@
 package org.vaadin.pekkam;
 
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.function.SerializableConsumer;
+import com.vaadin.flow.function.SerializableRunnable;
+import com.vaadin.flow.function.SerializableSupplier;
+
+import org.vaadin.pekkam.decimation.Decimator;
+import org.vaadin.pekkam.decimation.MinMaxDecimator;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
 
 /**
  * The context for rendering shapes and images on a canvas.
@@ -10,13 +31,83 @@ import java.util.stream.Collectors;
  * This is a Java wrapper for the <a href=
  * "https://developer.mozilla.org/en-US/docs/Web/API/CanvasRenderingContext2D">same
  * client-side API</a>.
+ * <p>
+ * Drawing commands are not sent one by one. They are collected into a compact
+ * command buffer that is sent to the browser once per server round trip and
+ * executed there by a small interpreter.
+ * <p>
+ * The context keeps track of the drawing state on the server. Setting a style
+ * to the value it already has, or saving and restoring the state without
+ * changing it in between, sends nothing to the browser.
  */
-public class CanvasRenderingContext2D {
+public class CanvasRenderingContext2D implements RenderingContext2D {
+
+    /**
+     * The maximum number of gradients and patterns kept in the browser.
+     */
+    public static final int MAX_CLIENT_STYLES = 256;
+
+    /**
+     * The maximum number of paths kept in the browser.
+     */
+    public static final int MAX_CLIENT_PATHS = 1024;
 
     private final Canvas canvas;
+    private final SerializableSupplier<Rectangle2D> surface;
+    private CommandBuffer recording;
+    private CommandBuffer pending;
+    private CommandLog log;
+    private boolean replayNeeded;
+    private ContextState state = new ContextState();
+    private final Deque<ContextState> savedStates = new ArrayDeque<>();
+    private Decimator decimator;
+    private ViewportCuller culler;
+    private final Map<String, SpriteAtlas> atlases = new HashMap<>();
+    private boolean imageDataCompressed;
+    /** The versions of the styles created in the browser, least recently used first */
+    private final Map<String, Integer> clientStyles = new LinkedHashMap<>(16,
+            0.75f, true);
+    private final Map<String, CanvasPattern> patterns = new HashMap<>();
+    /** The versions of the paths created in the browser, least recently used first */
+    private final Map<String, Integer> clientPaths = new LinkedHashMap<>(16,
+            0.75f, true);
 
     protected CanvasRenderingContext2D(Canvas canvas) {
         this.canvas = canvas;
+        this.surface = () -> new Rectangle2D.Double(0, 0,
+                canvas.getCanvasWidth(), canvas.getCanvasHeight());
+        this.recording = null;
+    }
+
+    /**
+     * Creates a context that is not bound to a canvas. The commands are
+     * appended to the given buffer, which the caller sends to the browser to
+     * be executed on a drawing surface of the given size.
+     */
+    CanvasRenderingContext2D(CommandBuffer recording, int width, int height) {
+        this.canvas = null;
+        this.surface = () -> new Rectangle2D.Double(0, 0, width, height);
+        this.recording = recording;
+    }
+
+    /**
+     * Returns the commands recorded so far by a context that is not bound
+     * to a canvas, and continues recording into a new buffer. The drawing
+     * state and the styles and paths created in the browser are kept, so
+     * the returned buffers must be executed in order.
+     */
+    CommandBuffer takeRecording() {
+        flushPath();
+        CommandBuffer taken = recording;
+        recording = new CommandBuffer();
+        return taken;
+    }
+
+    /**
+     * @return the number of saved states that have not been restored
+     */
+    int getSaveDepth() {
+        return savedStates.size();
     }
 
     public void setFillStyle(String fillStyle) {
@@ -31,16 +122,18 @@ public class CanvasRenderingContext2D {
      * @param type the pattern repeat type (see the Canvas API)
      */
     public void setPatternFillStyle(String src, String type) {
-        runScript(
-                """
-                        if ($0.images) {
-                           var img = $0.images['%s'];
-                           if (img) {
-                             var ctx = $0.getContext('2d');
-                             var pat = ctx.createPattern(img, '%s');
-                             ctx.fillStyle = pat;
-                           }
-                        }""".formatted(src, type));
+        setFillStyle(pattern(src, type));
+    }
+
+    /**
+     * Sets a gradient or a pattern as the fill style. The style is created
+     * in the browser the first time it is used, see {@link CanvasStyle}.
+     *
+     * @param fillStyle
+     *            the gradient or pattern
+     */
+    public void setFillStyle(CanvasStyle fillStyle) {
+        setStyle("fillStyle", fillStyle);
     }
 
     public void setStrokeStyle(String strokeStyle) {
@@ -55,29 +148,260 @@ public class CanvasRenderingContext2D {
      * @param type the pattern repeat type (see the Canvas API)
      */
     public void setPatternStrokeStyle(String src, String type) {
-        runScript("""
-                 if ($0.images) {
-                   var img = $0.images['%s'];
-                   if (img) {
-                     var ctx = $0.getContext('2d');
-                     var pat = ctx.createPattern(img, '%s');
-                     ctx.strokeStyle = pat;
-                   }
-                 }
-                """.formatted(src, type));
+        setStrokeStyle(pattern(src, type));
+    }
+
+    /**
+     * Sets a gradient or a pattern as the stroke style. The style is
+     * created in the browser the first time it is used, see
+     * {@link CanvasStyle}.
+     *
+     * @param strokeStyle
+     *            the gradient or pattern
+     */
+    public void setStrokeStyle(CanvasStyle strokeStyle) {
+        setStyle("strokeStyle", strokeStyle);
+    }
+
+    /**
+     * Drops a gradient or pattern from the browser. Shapes already drawn
+     * with it are not affected, and it is created again if it is used
+     * later. Styles are also dropped automatically when more than
+     * {@value #MAX_CLIENT_STYLES} have been used.
+     *
+     * @param style
+     *            the gradient or pattern
+     */
+    public void disposeStyle(CanvasStyle style) {
+        if (clientStyles.remove(style.getId()) != null) {
+            buffer().op(Opcodes.DISPOSE_STYLE).add(style.getId());
+        }
+    }
+
+    /**
+     * @return the pattern for the old pattern style methods, created once
+     *         per image and repetition
+     */
+    private CanvasPattern pattern(String src, String type) {
+        return patterns.computeIfAbsent(src + " " + type,
+                key -> createPattern(src, type));
+    }
+
+    private void setStyle(String property, CanvasStyle style) {
+        String id = style.getId();
+        boolean defined = defineOnClient(clientStyles, MAX_CLIENT_STYLES,
+                Opcodes.DISPOSE_STYLE, id, style.getVersion(), style::define);
+        if (style instanceof CanvasPattern) {
+            // The pattern is only set if the image has been loaded, so it is
+            // sent every time
+            state.properties.remove(property);
+        } else {
+            String value = "\0" + id + "#" + style.getVersion();
+            // A style created again is set again, so that the set style
+            // is not lost with the disposed one when the log is compacted
+            if (!defined && value.equals(state.properties.get(property))) {
+                return;
+            }
+            state.properties.put(property, value);
+        }
+        changeState();
+        buffer().op(Opcodes.SET_STYLE).add(property).add(id);
+    }
+
+    /**
+     * Sends a definition to the browser unless the same version has been
+     * sent already, and disposes the least recently used definitions beyond
+     * the given maximum.
+     *
+     * @param versions
+     *            the versions of the definitions sent, in access order
+     * @return whether the definition was sent
+     */
+    private boolean defineOnClient(Map<String, Integer> versions, int max,
+            int disposeOpcode, String id, int version,
+            Consumer<CommandBuffer> define) {
+        // Looking the definition up marks it as recently used
+        Integer sent = versions.get(id);
+        if (sent != null && sent == version) {
+            return false;
+        }
+        define.accept(buffer());
+        versions.put(id, version);
+        while (versions.size() > max) {
+            String eldest = versions.keySet().iterator().next();
+            versions.remove(eldest);
+            buffer().op(disposeOpcode).add(eldest);
+        }
+        return true;
+    }
+
+    /**
+     * Fills a path with the current fill style. The path is sent to the
+     * browser the first time it is drawn, see {@link Path2D}.
+     *
+     * @param path
+     *            the path
+     */
+    public void fill(Path2D path) {
+        if (path.isEmpty() || !isVisible(path, false)) {
+            return;
+        }
+        String id = definePath(path);
+        buffer().op(Opcodes.FILL_PATH).add(id);
+    }
+
+    /**
+     * Strokes a path with the current stroke style. The path is sent to the
+     * browser the first time it is drawn, see {@link Path2D}.
+     *
+     * @param path
+     *            the path
+     */
+    public void stroke(Path2D path) {
+        if (path.isEmpty() || !isVisible(path, true)) {
+            return;
+        }
+        String id = definePath(path);
+        buffer().op(Opcodes.STROKE_PATH).add(id);
+    }
+
+    /**
+     * Narrows the clip region to a path. The path is sent to the browser
+     * the first time it is used, see {@link Path2D}.
+     *
+     * @param path
+     *            the path
+     */
+    public void clip(Path2D path) {
+        changeState();
+        String id = definePath(path);
+        buffer().op(Opcodes.CLIP_PATH).add(id);
+        if (culler != null) {
+            Rectangle2D bounds = path.getBounds();
+            if (bounds != null) {
+                culler.clip(state, bounds);
+            } else if (path.isEmpty()) {
+                culler.clip(state, new Rectangle2D.Double());
+            }
+        }
+    }
+
+    /**
+     * Fills a path at many positions with one command, as if translating
+     * the context to each position and calling {@link #fill(Path2D)}. The
+     * path is sent to the browser only once, so e.g. thousands of markers
+     * of a scatter plot take two numbers each. With culling enabled,
+     * positions where the path cannot be visible are dropped.
+     *
+     * @param path
+     *            the path, drawn around its origin
+     * @param xy
+     *            the positions as a flat array of <code>x, y</code> pairs
+     */
+    public void fillPathAt(Path2D path, double[] xy) {
+        checkLength(xy.length, 2);
+        Rectangle2D bounds = path.getBounds();
+        if (culler != null && bounds != null) {
+            double extent = Math.max(
+                    Math.max(Math.abs(bounds.getMinX()),
+                            Math.abs(bounds.getMaxX())),
+                    Math.max(Math.abs(bounds.getMinY()),
+                            Math.abs(bounds.getMaxY())));
+            xy = culler.filter(state, xy, 2, 1, extent);
+        }
+        fillPathAt(path, 2, xy);
+    }
+
+    /**
+     * Fills a path many times with one command, each time with a
+     * transformation applied on top of the current one. The path is sent to
+     * the browser only once.
+     *
+     * @param path
+     *            the path
+     * @param transforms
+     *            the transformations as a flat array of
+     *            <code>a, b, c, d, e, f</code> values, the matrix
+     *            <code>[a c e; b d f; 0 0 1]</code>
+     */
+    public void fillPathTransformed(Path2D path, double[] transforms) {
+        checkLength(transforms.length, 6);
+        fillPathAt(path, 6, transforms);
+    }
+
+    private void fillPathAt(Path2D path, int stride, double[] values) {
+        if (path.isEmpty() || values.length == 0) {
+            return;
+        }
+        String id = definePath(path);
+        buffer().op(Opcodes.FILL_PATH_AT).add(id).add(stride)
+                .addArray(values);
+    }
+
+    /**
+     * Drops a path from the browser. It is sent again if it is drawn later.
+     * Paths are also dropped automatically when more than
+     * {@value #MAX_CLIENT_PATHS} have been drawn.
+     *
+     * @param path
+     *            the path
+     */
+    public void disposePath(Path2D path) {
+        if (clientPaths.remove(path.getId()) != null) {
+            buffer().op(Opcodes.DISPOSE_PATH).add(path.getId());
+        }
+    }
+
+    /**
+     * @return the id of the path, which has been sent to the browser
+     */
+    private String definePath(Path2D path) {
+        defineOnClient(clientPaths, MAX_CLIENT_PATHS, Opcodes.DISPOSE_PATH,
+                path.getId(), path.getVersion(),
+                buffer -> buffer.op(Opcodes.DEFINE_PATH).add(path.getId())
+                        .addArray(path.getSegments()));
+        return path.getId();
+    }
+
+    private boolean isVisible(Path2D path, boolean stroke) {
+        Rectangle2D bounds = path.getBounds();
+        return culler == null || bounds == null
+                || culler.isRectVisible(state, bounds.getX(), bounds.getY(),
+                        bounds.getWidth(), bounds.getHeight(), stroke);
+    }
+
+    /**
+     * Starts loading the given image in the browser, in order with the other
+     * commands of this context.
+     */
+    void loadImage(String src) {
+        buffer().op(Opcodes.LOAD_IMAGE).add(src);
     }
 
     public void setLineWidth(double lineWidth) {
         setProperty("lineWidth", lineWidth);
     }
 
+    public void setLineCap(String lineCap) {
+        setProperty("lineCap", lineCap);
+    }
+
+    public void setLineJoin(String lineJoin) {
+        setProperty("lineJoin", lineJoin);
+    }
+
     public void setFont(String font) {
         setProperty("font", font);
     }
 
     public void arc(double x, double y, double radius, double startAngle,
                     double endAngle, boolean antiClockwise) {
-        callJsMethod("arc", x, y, radius, startAngle, endAngle, antiClockwise);
+        if (culler != null) {
+            culler.includeRectInPath(state, x - radius, y - radius,
+                    2 * radius, 2 * radius);
+        }
+        pathBuffer().op(Opcodes.ARC).add(x).add(y).add(radius).add(startAngle)
+                .add(endAngle).add(antiClockwise);
     }
 
     /**
@@ -92,11 +416,19 @@ public class CanvasRenderingContext2D {
      * @see <a href="https://www.w3schools.com/tags/canvas_arcto.asp">Canvas arcTo() Method</a>
      */
     public void arcTo(double x1, double y1, double x2, double y2, double radius) {
-        callJsMethod("arcTo", x1, y1, x2, y2, radius);
+        if (culler != null) {
+            // The tangent points may lie anywhere along the tangents
+            culler.includeAnywhereInPath();
+        }
+        pathBuffer().op(Opcodes.ARC_TO).add(x1).add(y1).add(x2).add(y2).add(radius);
     }
 
     public void beginPath() {
-        callJsMethod("beginPath");
+        if (culler != null) {
+            culler.beginPath();
+        } else {
+            buffer().op(Opcodes.BEGIN_PATH);
+        }
     }
 
     /**
@@ -116,23 +448,37 @@ public class CanvasRenderingContext2D {
      * @see <a href="https://www.w3schools.com/tags/canvas_beziercurveto.asp">Canvas bezierCurveTo() Method</a>
      */
     public void bezierCurveTo(double cp1x, double cp1y, double cp2x, double cp2y, double x, double y) {
-        callJsMethod("bezierCurveTo", cp1x, cp1y, cp2x, cp2y, x, y);
+        if (culler != null) {
+            culler.includeInPath(state, cp1x, cp1y, cp2x, cp2y, x, y);
+        }
+        pathBuffer().op(Opcodes.BEZIER_CURVE_TO).add(cp1x).add(cp1y).add(cp2x).add(cp2y)
+                .add(x).add(y);
     }
 
     public void clearRect(double x, double y, double width, double height) {
-        callJsMethod("clearRect", x, y, width, height);
+        if (culler == null
+                || culler.isRectVisible(state, x, y, width, height, false)) {
+            buffer().op(Opcodes.CLEAR_RECT).add(x).add(y).add(width)
+                    .add(height);
+        }
     }
 
     public void closePath() {
-        callJsMethod("closePath");
+        pathBuffer().op(Opcodes.CLOSE_PATH);
     }
 
     public void ellipse(double x, double y, double radiusX, double radiusY, double rotation, double startAngle, double endAngle) {
-        callJsMethod("ellipse", x, y, radiusX, radiusY, rotation, startAngle, endAngle, true);
+        ellipse(x, y, radiusX, radiusY, rotation, startAngle, endAngle, true);
     }
 
     public void ellipse(double x, double y, double radiusX, double radiusY, double rotation, double startAngle, double endAngle, boolean clockwise) {
-        callJsMethod("ellipse", x, y, radiusX, radiusY, rotation, startAngle, endAngle, clockwise);
+        if (culler != null) {
+            double radius = Math.max(radiusX, radiusY);
+            culler.includeRectInPath(state, x - radius, y - radius,
+                    2 * radius, 2 * radius);
+        }
+        pathBuffer().op(Opcodes.ELLIPSE).add(x).add(y).add(radiusX).add(radiusY)
+                .add(rotation).add(startAngle).add(endAngle).add(clockwise);
     }
 
     /**
@@ -146,18 +492,7 @@ public class CanvasRenderingContext2D {
      * @param y   the y-coordinate of the top-left corner of the image
      */
     public void drawImage(String src, double x, double y) {
-        runScript("""
-                var img = null;
-                if ($0.images) img = $0.images['%s'];
-                if (img != null)
-                  $0.getContext('2d').drawImage(img, %s, %s);
-                else {
-                  img = new Image();
-                  img.onload = function () {
-                    $0.getContext('2d').drawImage(img, %s, %s);
-                  };
-                  img.src='%s';
-                }""".formatted(src, x, y, x, y, src));
+        buffer().op(Opcodes.DRAW_IMAGE).add(src).add(x).add(y);
     }
 
     /**
@@ -174,39 +509,44 @@ public class CanvasRenderingContext2D {
      */
     public void drawImage(String src, double x, double y, double width,
                           double height) {
-        runScript("""
-                var img = null;
-                if ($0.images) img = $0.images['%s'];
-                if (img != null)
-                  $0.getContext('2d').drawImage(img, %s, %s, %s, %s);
-                else {
-                  img = new Image();
-                  img.onload = function () {
-                    $0.getContext('2d').drawImage(img, %s, %s, %s, %s);
-                  };
-                  img.src='%s';
-                }
-                """.formatted(src, x, y, width, height, x, y, width, height, src));
+        if (culler == null
+                || culler.isRectVisible(state, x, y, width, height, false)) {
+            buffer().op(Opcodes.DRAW_IMAGE_SCALED).add(src).add(x).add(y)
+                    .add(width).add(height);
+        }
     }
 
     public void fill() {
-        callJsMethod("fill");
+        if (culler == null || culler.isPathVisible(state, false)) {
+            flushPath();
+            buffer().op(Opcodes.FILL);
+        }
     }
 
     public void fillRect(double x, double y, double width, double height) {
-        callJsMethod("fillRect", x, y, width, height);
+        if (culler == null
+                || culler.isRectVisible(state, x, y, width, height, false)) {
+            buffer().op(Opcodes.FILL_RECT).add(x).add(y).add(width)
+                    .add(height);
+        }
     }
 
     public void fillText(String text, double x, double y) {
-        callJsMethod("fillText", text, x, y);
+        buffer().op(Opcodes.FILL_TEXT).add(text).add(x).add(y);
     }
 
     public void lineTo(double x, double y) {
-        callJsMethod("lineTo", x, y);
+        if (culler != null) {
+            culler.includeInPath(state, x, y);
+        }
+        pathBuffer().op(Opcodes.LINE_TO).add(x).add(y);
     }
 
     public void moveTo(double x, double y) {
-        callJsMethod("moveTo", x, y);
+        if (culler != null) {
+            culler.includeInPath(state, x, y);
+        }
+        pathBuffer().op(Opcodes.MOVE_TO).add(x).add(y);
     }
 
     /**
@@ -225,76 +565,813 @@ public class CanvasRenderingContext2D {
      * @see <a href="https://www.w3schools.com/tags/canvas_quadraticcurveto.asp">Canvas quadraticCurveTo() Method</a>
      */
     public void quadraticCurveTo(double cpx, double cpy, double x, double y) {
-        callJsMethod("quadraticCurveTo", cpx, cpy, x, y);
+        if (culler != null) {
+            culler.includeInPath(state, cpx, cpy, x, y);
+        }
+        pathBuffer().op(Opcodes.QUADRATIC_CURVE_TO).add(cpx).add(cpy).add(x).add(y);
     }
 
     public void rect(double x, double y, double width, double height) {
-        callJsMethod("rect", x, y, width, height);
+        if (culler != null) {
+            culler.includeRectInPath(state, x, y, width, height);
+        }
+        pathBuffer().op(Opcodes.RECT).add(x).add(y).add(width).add(height);
     }
 
+    /**
+     * Restores the most recently saved drawing state.
+     * <p>
+     * If the state has not been changed after the matching {@link #save()},
+     * neither the save nor the restore is sent to the browser.
+     */
     public void restore() {
-        callJsMethod("restore");
+        ContextState saved = savedStates.poll();
+        if (saved == null) {
+            return;
+        }
+        if (saved.saveSent) {
+            // The path must be built with the transformation of this time
+            flushPath();
+            buffer().op(Opcodes.RESTORE);
+        }
+        state = saved;
     }
 
     public void rotate(double angle) {
-        callJsMethod("rotate", angle);
+        if (angle != 0) {
+            changeState();
+            flushPath();
+            transform(t -> t.rotate(angle));
+            buffer().op(Opcodes.ROTATE).add(angle);
+        }
     }
 
+    /**
+     * Saves the current drawing state to a stack.
+     * <p>
+     * The save is sent to the browser only when the state is changed before
+     * the matching {@link #restore()}.
+     */
     public void save() {
-        callJsMethod("save");
+        state.saveSent = false;
+        savedStates.push(state);
+        state = state.copy();
     }
 
     public void scale(double x, double y) {
-        callJsMethod("scale", x, y);
+        if (x != 1 || y != 1) {
+            changeState();
+            flushPath();
+            transform(t -> t.scale(x, y));
+            buffer().op(Opcodes.SCALE).add(x).add(y);
+        }
     }
 
     public void setLineDash(double... segments) {
-        var sequence = Arrays.stream(segments).mapToObj(Double::toString).collect(Collectors.joining(","));
-        runScript("var ctx = $0.getContext('2d'); var pat = ctx.setLineDash([%s]);".formatted(sequence));
+        if (Arrays.equals(segments, state.lineDash)) {
+            return;
+        }
+        changeState();
+        state.lineDash = segments.clone();
+        CommandBuffer buffer = buffer().op(Opcodes.SET_LINE_DASH)
+                .add(segments.length);
+        for (double segment : segments) {
+            buffer.add(segment);
+        }
     }
 
     public void stroke() {
-        callJsMethod("stroke");
+        if (culler == null || culler.isPathVisible(state, true)) {
+            flushPath();
+            buffer().op(Opcodes.STROKE);
+        }
     }
 
     public void strokeRect(double x, double y, double width, double height) {
-        callJsMethod("strokeRect", x, y, width, height);
+        if (culler == null
+                || culler.isRectVisible(state, x, y, width, height, true)) {
+            buffer().op(Opcodes.STROKE_RECT).add(x).add(y).add(width)
+                    .add(height);
+        }
     }
 
     public void strokeText(String text, double x, double y) {
-        callJsMethod("strokeText", text, x, y);
+        buffer().op(Opcodes.STROKE_TEXT).add(text).add(x).add(y);
     }
 
     public void translate(double x, double y) {
-        callJsMethod("translate", x, y);
+        if (x != 0 || y != 0) {
+            changeState();
+            flushPath();
+            transform(t -> t.translate(x, y));
+            buffer().op(Opcodes.TRANSLATE).add(x).add(y);
+        }
     }
 
     public void clip() {
-        this.callJsMethod("clip");
+        changeState();
+        flushPath();
+        buffer().op(Opcodes.CLIP);
+        if (culler != null) {
+            culler.clip(state);
+        }
+    }
+
+    /**
+     * Adds a polyline to the current path: a {@link #moveTo(double, double)}
+     * to the first point and a {@link #lineTo(double, double)} to each of the
+     * following points.
+     * <p>
+     * The points are sent to the browser as one array, which is much more
+     * efficient than calling <code>lineTo</code> for each point.
+     *
+     * @param xy
+     *            the points as a flat array of <code>x, y</code> pairs
+     */
+    public void polyline(double[] xy) {
+        checkLength(xy.length, 2);
+        double[] points = decimate(xy);
+        if (culler != null) {
+            culler.includeInPath(state, points);
+        }
+        pathBuffer().op(Opcodes.POLYLINE).addArray(points);
+    }
+
+    /**
+     * Adds a polyline to the current path, see {@link #polyline(double[])}.
+     *
+     * @param xy
+     *            the remaining values of the buffer as <code>x, y</code>
+     *            pairs; the position of the buffer is not changed
+     */
+    public void polyline(DoubleBuffer xy) {
+        checkLength(xy.remaining(), 2);
+        if (decimator != null || culler != null) {
+            polyline(toArray(xy));
+        } else {
+            buffer().op(Opcodes.POLYLINE).addArray(xy);
+        }
+    }
+
+    /**
+     * Adds a polyline to the current path, see {@link #polyline(double[])}.
+     *
+     * @param xy
+     *            the remaining values of the buffer as <code>x, y</code>
+     *            pairs; the position of the buffer is not changed
+     */
+    public void polyline(FloatBuffer xy) {
+        checkLength(xy.remaining(), 2);
+        if (decimator != null || culler != null) {
+            polyline(toArray(xy));
+        } else {
+            buffer().op(Opcodes.POLYLINE).addArray(xy);
+        }
+    }
+
+    /**
+     * Fills many rectangles with the current fill style, as if calling
+     * {@link #fillRect(double, double, double, double)} for each of them.
+     *
+     * @param xywh
+     *            the rectangles as a flat array of
+     *            <code>x, y, width, height</code> values
+     */
+    public void fillRects(double[] xywh) {
+        checkLength(xywh.length, 4);
+        double[] rects = culler != null ? culler.filterRects(state, xywh)
+                : xywh;
+        if (rects.length > 0) {
+            buffer().op(Opcodes.FILL_RECTS).addArray(rects);
+        }
+    }
+
+    /**
+     * Fills many rectangles, see {@link #fillRects(double[])}.
+     *
+     * @param xywh
+     *            the remaining values of the buffer as
+     *            <code>x, y, width, height</code> values; the position of the
+     *            buffer is not changed
+     */
+    public void fillRects(DoubleBuffer xywh) {
+        checkLength(xywh.remaining(), 4);
+        if (culler != null) {
+            fillRects(toArray(xywh));
+        } else {
+            buffer().op(Opcodes.FILL_RECTS).addArray(xywh);
+        }
+    }
+
+    /**
+     * Fills many rectangles, see {@link #fillRects(double[])}.
+     *
+     * @param xywh
+     *            the remaining values of the buffer as
+     *            <code>x, y, width, height</code> values; the position of the
+     *            buffer is not changed
+     */
+    public void fillRects(FloatBuffer xywh) {
+        checkLength(xywh.remaining(), 4);
+        if (culler != null) {
+            fillRects(toArray(xywh));
+        } else {
+            buffer().op(Opcodes.FILL_RECTS).addArray(xywh);
+        }
+    }
+
+    /**
+     * Draws a filled circle with the current fill style at each of the given
+     * points. All circles are filled at once as one path, which replaces the
+     * current path.
+     *
+     * @param xy
+     *            the centers of the circles as a flat array of
+     *            <code>x, y</code> pairs
+     * @param radius
+     *            the radius of the circles
+     */
+    public void drawPoints(double[] xy, double radius) {
+        checkLength(xy.length, 2);
+        double[] points = xy;
+        if (culler != null) {
+            points = culler.filter(state, xy, 2, 1, radius);
+            culler.replacePath();
+        }
+        buffer().op(Opcodes.DRAW_POINTS).add(radius).addArray(points);
+    }
+
+    /**
+     * Draws a filled circle at each of the given points, see
+     * {@link #drawPoints(double[], double)}.
+     *
+     * @param xy
+     *            the remaining values of the buffer as <code>x, y</code>
+     *            pairs; the position of the buffer is not changed
+     * @param radius
+     *            the radius of the circles
+     */
+    public void drawPoints(DoubleBuffer xy, double radius) {
+        checkLength(xy.remaining(), 2);
+        if (culler != null) {
+            drawPoints(toArray(xy), radius);
+        } else {
+            buffer().op(Opcodes.DRAW_POINTS).add(radius).addArray(xy);
+        }
+    }
+
+    /**
+     * Draws a filled circle at each of the given points, see
+     * {@link #drawPoints(double[], double)}.
+     *
+     * @param xy
+     *            the remaining values of the buffer as <code>x, y</code>
+     *            pairs; the position of the buffer is not changed
+     * @param radius
+     *            the radius of the circles
+     */
+    public void drawPoints(FloatBuffer xy, double radius) {
+        checkLength(xy.remaining(), 2);
+        if (culler != null) {
+            drawPoints(toArray(xy), radius);
+        } else {
+            buffer().op(Opcodes.DRAW_POINTS).add(radius).addArray(xy);
+        }
+    }
+
+    /**
+     * Strokes many separate line segments with the current stroke style. All
+     * segments are stroked at once as one path, which replaces the current
+     * path.
+     *
+     * @param x1y1x2y2
+     *            the segments as a flat array of <code>x1, y1, x2, y2</code>
+     *            values
+     */
+    public void strokeSegments(double[] x1y1x2y2) {
+        checkLength(x1y1x2y2.length, 4);
+        double[] segments = x1y1x2y2;
+        if (culler != null) {
+            segments = culler.filter(state, x1y1x2y2, 4, 2,
+                    culler.strokeMargin(state));
+            culler.replacePath();
+        }
+        buffer().op(Opcodes.STROKE_SEGMENTS).addArray(segments);
+    }
+
+    /**
+     * Strokes many separate line segments, see
+     * {@link #strokeSegments(double[])}.
+     *
+     * @param x1y1x2y2
+     *            the remaining values of the buffer as
+     *            <code>x1, y1, x2, y2</code> values; the position of the
+     *            buffer is not changed
+     */
+    public void strokeSegments(DoubleBuffer x1y1x2y2) {
+        checkLength(x1y1x2y2.remaining(), 4);
+        if (culler != null) {
+            strokeSegments(toArray(x1y1x2y2));
+        } else {
+            buffer().op(Opcodes.STROKE_SEGMENTS).addArray(x1y1x2y2);
+        }
+    }
+
+    /**
+     * Strokes many separate line segments, see
+     * {@link #strokeSegments(double[])}.
+     *
+     * @param x1y1x2y2
+     *            the remaining values of the buffer as
+     *            <code>x1, y1, x2, y2</code> values; the position of the
+     *            buffer is not changed
+     */
+    public void strokeSegments(FloatBuffer x1y1x2y2) {
+        checkLength(x1y1x2y2.remaining(), 4);
+        if (culler != null) {
+            strokeSegments(toArray(x1y1x2y2));
+        } else {
+            buffer().op(Opcodes.STROKE_SEGMENTS).addArray(x1y1x2y2);
+        }
+    }
+
+    /**
+     * Defines a sprite atlas for
+     * {@link #drawSprites(String, int[], double[])}, replacing an atlas with
+     * the same id. The browser loads the image once and decodes it into an
+     * <code>ImageBitmap</code>. An {@link org.vaadin.pekkam.event.ImageLoadEvent}
+     * is fired once it is ready. Defining the same atlas again sends
+     * nothing. If the canvas is attached again and its content cannot be
+     * replayed, the atlases must be defined again.
+     *
+     * @param id
+     *            the id of the atlas
+     * @param atlas
+     *            the atlas
+     */
+    public void defineSpriteAtlas(String id, SpriteAtlas atlas) {
+        if (atlas.equals(atlases.put(id, atlas))) {
+            return;
+        }
+        if (canvas != null) {
+            canvas.getImages().request(atlas.getSrc());
+        }
+        buffer().op(Opcodes.DEFINE_ATLAS).add(id).add(atlas.getSrc())
+                .addArray(atlas.getFrames());
+    }
+
+    /**
+     * Draws frames of a sprite atlas at their natural size, all in one
+     * command. Sprites drawn before the image of the atlas has been loaded
+     * are drawn once it has been loaded, with the context state of that
+     * time.
+     *
+     * @param atlasId
+     *            the id of an atlas defined with
+     *            {@link #defineSpriteAtlas(String, SpriteAtlas)}
+     * @param frames
+     *            the number of the frame to draw for each sprite
+     * @param xy
+     *            the top left corners of the sprites as a flat array of
+     *            <code>x, y</code> pairs, one for each frame
+     */
+    public void drawSprites(String atlasId, int[] frames, double[] xy) {
+        SpriteAtlas atlas = atlases.get(atlasId);
+        if (atlas == null) {
+            throw new IllegalArgumentException(
+                    "No sprite atlas with id " + atlasId);
+        }
+        if (xy.length != frames.length * 2) {
+            throw new IllegalArgumentException(
+                    "There must be an x, y pair for each frame");
+        }
+        double[] sprites = new double[frames.length * 3];
+        int size = 0;
+        for (int i = 0; i < frames.length; i++) {
+            int frame = frames[i];
+            atlas.checkFrame(frame);
+            double x = xy[i * 2];
+            double y = xy[i * 2 + 1];
+            if (culler == null || culler.isRectVisible(state, x, y,
+                    atlas.getFrameWidth(frame), atlas.getFrameHeight(frame),
+                    false)) {
+                sprites[size++] = frame;
+                sprites[size++] = x;
+                sprites[size++] = y;
+            }
+        }
+        if (size == 0) {
+            // Nothing to draw, all culled or no frames given
+            return;
+        }
+        buffer().op(Opcodes.DRAW_SPRITES).add(atlasId)
+                .addArray(Arrays.copyOf(sprites, size));
+    }
+
+    /**
+     * Replaces pixels of the canvas with the given image data. The current
+     * transformation, clip, alpha and compositing are not applied, as in the
+     * browser.
+     * <p>
+     * The pixels are sent as binary data rather than as an encoded image,
+     * deflated if enabled with {@link #setImageDataCompressed(boolean)}.
+     *
+     * @param imageData
+     *            the pixels
+     * @param dx
+     *            the x coordinate on the canvas of the left edge
+     * @param dy
+     *            the y coordinate on the canvas of the top edge
+     */
+    public void putImageData(ImageData imageData, int dx, int dy) {
+        putImageData(imageData, dx, dy, 0, 0, imageData.getWidth(),
+                imageData.getHeight());
+    }
+
+    /**
+     * Replaces pixels of the canvas with a rectangle of the given image
+     * data. Only the pixels of the rectangle are sent to the browser, so this
+     * is the way to update a part of a large pixel buffer, see
+     * {@link PixelSurface}.
+     *
+     * @param imageData
+     *            the pixels
+     * @param dx
+     *            the x coordinate on the canvas of the image data's left
+     *            edge
+     * @param dy
+     *            the y coordinate on the canvas of the image data's top edge
+     * @param dirtyX
+     *            the x coordinate of the rectangle in the image data
+     * @param dirtyY
+     *            the y coordinate of the rectangle in the image data
+     * @param dirtyWidth
+     *            the width of the rectangle
+     * @param dirtyHeight
+     *            the height of the rectangle
+     */
+    public void putImageData(ImageData imageData, int dx, int dy, int dirtyX,
+            int dirtyY, int dirtyWidth, int dirtyHeight) {
+        int minX = Math.max(0, Math.min(dirtyX, dirtyX + dirtyWidth));
+        int minY = Math.max(0, Math.min(dirtyY, dirtyY + dirtyHeight));
+        int maxX = Math.min(imageData.getWidth(),
+                Math.max(dirtyX, dirtyX + dirtyWidth));
+        int maxY = Math.min(imageData.getHeight(),
+                Math.max(dirtyY, dirtyY + dirtyHeight));
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+        int width = maxX - minX;
+        int height = maxY - minY;
+        byte[] pixels = new byte[width * height * 4];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(imageData.getData(),
+                    ((minY + row) * imageData.getWidth() + minX) * 4, pixels,
+                    row * width * 4, width * 4);
+        }
+        byte[] payload = imageDataCompressed ? deflate(pixels) : null;
+        boolean deflated = payload != null && payload.length < pixels.length;
+        buffer().op(Opcodes.PUT_IMAGE_DATA).add(dx + minX).add(dy + minY)
+                .add(width).add(height).add(deflated)
+                .add(Base64.getEncoder()
+                        .encodeToString(deflated ? payload : pixels));
+    }
+
+    /**
+     * Sets whether the pixels of {@link #putImageData(ImageData, int, int)}
+     * are compressed with deflate before they are sent. This makes smooth
+     * content such as heatmaps much smaller at the cost of some CPU time on
+     * both sides. It is off by default.
+     *
+     * @param imageDataCompressed
+     *            <code>true</code> to compress pixels
+     */
+    public void setImageDataCompressed(boolean imageDataCompressed) {
+        this.imageDataCompressed = imageDataCompressed;
+    }
+
+    /**
+     * @return whether pixels are compressed before they are sent
+     * @see #setImageDataCompressed(boolean)
+     */
+    public boolean isImageDataCompressed() {
+        return imageDataCompressed;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    bytes.length / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Sets a strategy for reducing the points given to the
+     * <code>polyline</code> methods to what the canvas can show, before they
+     * are sent to the browser. The resolution is determined by the current
+     * transformation: one unit of the canvas coordinate system is one pixel.
+     * <p>
+     * By default no decimation is done. {@link MinMaxDecimator} is the
+     * fastest and preserves every peak and trough of a time series.
+     *
+     * @param decimator
+     *            the decimation strategy, or <code>null</code> to send all
+     *            points
+     */
+    public void setDecimator(Decimator decimator) {
+        this.decimator = decimator;
+    }
+
+    /**
+     * @return the decimation strategy, or <code>null</code> if not set
+     * @see #setDecimator(Decimator)
+     */
+    public Decimator getDecimator() {
+        return decimator;
+    }
+
+    private double[] decimate(double[] xy) {
+        if (decimator == null) {
+            return xy;
+        }
+        AffineTransform transform = state.transform != null ? state.transform
+                : new AffineTransform();
+        // The size of one pixel in user space, along the x and y axes
+        double pixelWidth = 1 / Math.hypot(transform.getScaleX(),
+                transform.getShearY());
+        double pixelHeight = 1 / Math.hypot(transform.getShearX(),
+                transform.getScaleY());
+        return decimator.decimate(xy, pixelWidth, pixelHeight);
+    }
+
+    /**
+     * Sets whether drawing commands that cannot paint anything inside the
+     * canvas or the current clip region are dropped before they are sent to
+     * the browser. This helps e.g. when drawing a zoomed-in part of a large
+     * map or diagram.
+     * <p>
+     * The transformation and the bounds of the clip region are tracked on the
+     * server for this. Paths are sent only when they are filled, stroked or
+     * clipped and at least partially visible. Rectangles, scaled images and
+     * the items given to the bulk methods are checked one by one. Text and
+     * images drawn in their natural size are always sent, and shadows are
+     * not taken into account.
+     *
+     * @param cullingEnabled
+     *            <code>true</code> to drop invisible commands,
+     *            <code>false</code> to send everything
+     */
+    public void setCullingEnabled(boolean cullingEnabled) {
+        if (cullingEnabled && culler == null) {
+            culler = new ViewportCuller(surface);
+        } else if (!cullingEnabled && culler != null) {
+            flushPath();
+            culler = null;
+        }
+    }
+
+    /**
+     * @return whether invisible drawing commands are dropped
+     * @see #setCullingEnabled(boolean)
+     */
+    public boolean isCullingEnabled() {
+        return culler != null;
+    }
+
+    /**
+     * @return the buffer path commands are added to; held back until the
+     *         path is used when culling
+     */
+    private CommandBuffer pathBuffer() {
+        return culler != null ? culler.pathBuffer() : buffer();
     }
 
+    /**
+     * Sends the path commands held back for culling.
+     */
+    private void flushPath() {
+        if (culler != null) {
+            culler.flushPath(buffer());
+        }
+    }
+
+    private static double[] toArray(DoubleBuffer buffer) {
+        double[] values = new double[buffer.remaining()];
+        buffer.duplicate().get(values);
+        return values;
+    }
+
+    private static double[] toArray(FloatBuffer buffer) {
+        double[] values = new double[buffer.remaining()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.get(buffer.position() + i);
+        }
+        return values;
+    }
+
+    private static void checkLength(int length, int stride) {
+        if (length % stride != 0) {
+            throw new IllegalArgumentException("Expected a multiple of "
+                    + stride + " values but got " + length);
+        }
+    }
+
+    /**
+     * Sets a property of the context. Nothing is sent to the browser if the
+     * property already has the same value.
+     *
+     * @param propertyName
+     *            the name of the property
+     * @param value
+     *            the value, converted to a string
+     */
     protected void setProperty(String propertyName, Serializable value) {
-        runScript("$0.getContext('2d').%s='%s'".formatted(propertyName,
-                value));
+        String text = String.valueOf(value);
+        if (text.equals(state.properties.get(propertyName))) {
+            return;
+        }
+        changeState();
+        state.properties.put(propertyName, text);
+        buffer().op(Opcodes.SET_PROPERTY).add(propertyName).add(text);
+    }
+
+    private void transform(Consumer<AffineTransform> operation) {
+        if (state.transform != null) {
+            operation.accept(state.transform);
+        }
     }
 
     /**
-     * Runs the given js so that the execution order works with callJsMethod().
-     * Any $0 in the script will refer to the canvas element.
+     * Sends the saves that have been postponed until the state changes.
      */
-    private void runScript(String script) {
+    private void changeState() {
+        Iterator<ContextState> bottomUp = savedStates.descendingIterator();
+        while (bottomUp.hasNext()) {
+            ContextState saved = bottomUp.next();
+            if (!saved.saveSent) {
+                buffer().op(Opcodes.SAVE);
+                saved.saveSent = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the buffer that drawing commands are appended to. The buffer is
+     * sent to the browser as a single invocation before the next response,
+     * so that all commands issued during one server round trip are executed
+     * with one call on the client.
+     */
+    CommandBuffer buffer() {
+        if (recording != null) {
+            return recording;
+        }
+        if (pending == null) {
+            CommandBuffer buffer = new CommandBuffer();
+            runBeforeClientResponse(ui -> {
+                if (pending == buffer) {
+                    pending = null;
+                }
+                execute(ui, buffer);
+                if (log != null) {
+                    log.append(buffer);
+                }
+            });
+            pending = buffer;
+        }
+        return pending;
+    }
+
+    protected void callJsMethod(String methodName, Serializable... parameters) {
+        if (canvas == null) {
+            throw new UnsupportedOperationException(
+                    "Only supported when drawing on a canvas");
+        }
+        // The method may change any state
+        flushPath();
+        changeState();
+        state.reset();
+        state.transform = null;
+        // Runs after the commands buffered so far
+        runBeforeClientResponse(ui -> {
+            StringBuilder args = new StringBuilder();
+            for (int i = 0; i < parameters.length; i++) {
+                args.append(i > 0 ? ", " : "").append('$').append(i + 2);
+            }
+            Serializable[] values = new Serializable[parameters.length + 2];
+            values[0] = canvas.getElement();
+            values[1] = methodName;
+            System.arraycopy(parameters, 0, values, 2, parameters.length);
+            ui.getPage().executeJs(
+                    "window.Vaadin.Flow.canvasConnector.call($0, $1, [" + args
+                            + "])",
+                    values);
+        });
+    }
+
+    /**
+     * Runs a command with the UI when the buffered commands are sent, after
+     * the commands buffered so far and before any later ones, e.g. for
+     * reading the canvas content.
+     */
+    void runInOrder(SerializableConsumer<UI> command) {
+        flushPath();
+        runBeforeClientResponse(command);
+    }
+
+    /**
+     * Draws a frame recorded by a {@link RenderLoop} after the commands
+     * buffered so far, and runs the callback once the browser has shown it.
+     */
+    void drawFrame(SerializableRunnable shown, CommandBuffer... frame) {
+        flushPath();
+        runBeforeClientResponse(ui -> {
+            for (CommandBuffer buffer : frame) {
+                execute(ui, buffer);
+                if (log != null) {
+                    log.append(buffer);
+                }
+            }
+            ui.getPage().executeJs(
+                    "return window.Vaadin.Flow.canvasConnector.presented($0)",
+                    canvas.getElement())
+                    .then(value -> shown.run(), error -> shown.run());
+        });
+    }
+
+    private void runBeforeClientResponse(SerializableConsumer<UI> command) {
+        // Any later commands go to a new buffer that is executed after this
+        pending = null;
         canvas.getElement().getNode().runWhenAttached(
-                // This structure is needed to make the execution order work
-                // with Element.callFunction() which is used in callJsMethod()
+                // Callbacks run in the order they are registered, which keeps
+                // the buffers and callJsMethod() calls in order
                 ui -> ui.getInternals().getStateTree().beforeClientResponse(
-                        canvas.getElement().getNode(),
-                        context -> ui.getPage().executeJs(script,
-                                canvas.getElement())));
+                        canvas.getElement().getNode(), context -> {
+                            replayIfNeeded(ui);
+                            command.accept(ui);
+                        }));
     }
 
-    protected void callJsMethod(String methodName, Serializable... parameters) {
-        canvas.getElement().callJsFunction("getContext('2d')." + methodName,
-                parameters);
+    private void execute(UI ui, CommandBuffer buffer) {
+        ui.getPage().executeJs(
+                "window.Vaadin.Flow.canvasConnector.exec($0, $1, $2)",
+                canvas.getElement(), buffer.encodeData(),
+                buffer.encodeStrings());
+    }
+
+    /**
+     * Starts or stops keeping a log of the commands for restoring the content
+     * of a new canvas element.
+     */
+    void setLogEnabled(boolean enabled) {
+        if (!enabled) {
+            log = null;
+        } else if (log == null) {
+            log = new CommandLog(canvas, CommandLog.DEFAULT_LIMIT);
+        }
+    }
+
+    boolean isLogEnabled() {
+        return log != null;
+    }
+
+    /**
+     * Called when the canvas is attached. The browser has a new, empty canvas
+     * element, so the logged content is replayed before any new commands.
+     */
+    void onAttach() {
+        if (log == null || !log.isReplayable()) {
+            state.reset();
+            savedStates.forEach(ContextState::reset);
+            clientStyles.clear();
+            clientPaths.clear();
+            // The new element has none of the atlases either
+            atlases.clear();
+        }
+        if (log != null) {
+            replayNeeded = true;
+            runBeforeClientResponse(ui -> {
+            });
+        }
+    }
+
+    private void replayIfNeeded(UI ui) {
+        if (!replayNeeded) {
+            return;
+        }
+        replayNeeded = false;
+        if (log != null && log.isReplayable()) {
+            log.replay(buffer -> execute(ui, buffer));
+        }
     }
 
 }
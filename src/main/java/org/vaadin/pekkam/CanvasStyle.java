@@ -0,0 +1,51 @@
+package org.vaadin.pekkam;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fill or stroke style that is created once in the browser and referenced
+ * by a handle afterwards, see {@link CanvasGradient} and
+ * {@link CanvasPattern}.
+ * <p>
+ * A style is sent to the browser when it is first set with
+ * {@link RenderingContext2D#setFillStyle(CanvasStyle)} or
+ * {@link RenderingContext2D#setStrokeStyle(CanvasStyle)}, and again only if
+ * it has changed since. The browser keeps a limited number of styles per
+ * canvas, dropping the least recently used ones, which are sent again if
+ * needed. Styles that are no longer needed can be dropped right away with
+ * {@link CanvasRenderingContext2D#disposeStyle(CanvasStyle)}.
+ */
+public abstract class CanvasStyle implements Serializable {
+
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private final String id = "style-" + nextId.incrementAndGet();
+    private int version;
+
+    CanvasStyle() {
+    }
+
+    /**
+     * @return the id of the style, unique within the application
+     */
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return a number that changes whenever the style changes
+     */
+    int getVersion() {
+        return version;
+    }
+
+    void changed() {
+        version++;
+    }
+
+    /**
+     * Appends the command that creates the style in the browser.
+     */
+    abstract void define(CommandBuffer buffer);
+}
@@ -0,0 +1,199 @@
+package org.vaadin.pekkam;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact buffer of drawing commands that is sent to the browser in one go.
+ * <p>
+ * Each command is an opcode from {@link Opcodes} followed by its arguments,
+ * all stored as primitive doubles. Booleans are stored as <code>0</code> or
+ * <code>1</code> and strings as an index to a separate string table, so that
+ * repeated strings are only sent once per flush.
+ * <p>
+ * On the wire the doubles are a base64 encoded little-endian
+ * <code>Float64Array</code>, which the client-side interpreter in
+ * <code>canvas-interpreter.js</code> decodes and executes against the canvas.
+ */
+final class CommandBuffer implements Serializable {
+
+    private double[] data = new double[64];
+    private int size;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private long stringChars;
+
+    CommandBuffer op(int opcode) {
+        return add(opcode);
+    }
+
+    CommandBuffer add(double value) {
+        ensureCapacity(1);
+        data[size++] = value;
+        return this;
+    }
+
+    /**
+     * Adds a count followed by the given values.
+     */
+    CommandBuffer addArray(double[] values) {
+        add(values.length);
+        ensureCapacity(values.length);
+        System.arraycopy(values, 0, data, size, values.length);
+        size += values.length;
+        return this;
+    }
+
+    /**
+     * Adds a count followed by the remaining values of the given buffer. The
+     * position of the buffer is not changed.
+     */
+    CommandBuffer addArray(DoubleBuffer values) {
+        int count = values.remaining();
+        add(count);
+        ensureCapacity(count);
+        values.duplicate().get(data, size, count);
+        size += count;
+        return this;
+    }
+
+    /**
+     * Adds a count followed by the remaining values of the given buffer. The
+     * position of the buffer is not changed.
+     */
+    CommandBuffer addArray(FloatBuffer values) {
+        int count = values.remaining();
+        add(count);
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            data[size++] = values.get(values.position() + i);
+        }
+        return this;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > data.length) {
+            data = Arrays.copyOf(data,
+                    Math.max(size + additional, data.length * 2));
+        }
+    }
+
+    CommandBuffer add(boolean value) {
+        return add(value ? 1 : 0);
+    }
+
+    CommandBuffer add(String value) {
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+            stringChars += value.length();
+        }
+        return add(index);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of values in this buffer
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the approximate memory taken by the values and the string
+     *         table in bytes
+     */
+    long byteSize() {
+        return (long) size * Double.BYTES + stringChars * Character.BYTES;
+    }
+
+    double get(int position) {
+        return data[position];
+    }
+
+    String getString(int position) {
+        return strings.get((int) data[position]);
+    }
+
+    /**
+     * Appends the command at the given position of another buffer to this
+     * buffer.
+     *
+     * @param source
+     *            the buffer to copy from
+     * @param position
+     *            the position of the opcode in the source buffer
+     * @return the position of the next command in the source buffer
+     */
+    int copyCommand(CommandBuffer source, int position) {
+        int opcode = (int) source.get(position);
+        op(opcode);
+        int next = position + 1;
+        for (char type : Opcodes.signature(opcode).toCharArray()) {
+            if (type == 's') {
+                add(source.getString(next++));
+            } else if (type == 'n') {
+                int count = (int) source.get(next);
+                for (int i = 0; i <= count; i++) {
+                    add(source.get(next++));
+                }
+            } else {
+                add(source.get(next++));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @param position
+     *            the position of a command in this buffer
+     * @return the position of the next command
+     */
+    int next(int position) {
+        int next = position + 1;
+        for (char type : Opcodes.signature((int) data[position])
+                .toCharArray()) {
+            next += type == 'n' ? 1 + (int) data[next] : 1;
+        }
+        return next;
+    }
+
+    /**
+     * @return the command data as a base64 encoded little-endian
+     *         <code>Float64Array</code>
+     */
+    String encodeData() {
+        ByteBuffer bytes = ByteBuffer.allocate(size * Double.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asDoubleBuffer().put(data, 0, size);
+        return Base64.getEncoder().encodeToString(bytes.array());
+    }
+
+    /**
+     * @return the string table referenced by the command data
+     */
+    JsonArray encodeStrings() {
+        JsonArray array = Json.createArray();
+        for (int i = 0; i < strings.size(); i++) {
+            array.set(i, strings.get(i));
+        }
+        return array;
+    }
+}
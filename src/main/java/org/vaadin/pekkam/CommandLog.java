@@ -0,0 +1,441 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.function.SerializableConsumer;
+import org.slf4j.LoggerFactory;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A server-side log of the commands sent to a canvas, used for restoring the
+ * canvas content when a new canvas element is attached in the browser.
+ * <p>
+ * The log is compacted whenever the whole canvas is cleared outside any
+ * save/restore block and without a clip: everything before the clear is
+ * replaced by the style settings that are still in effect, keeping only the
+ * latest value of each property, the images, sprite atlases, gradients,
+ * patterns and paths that have been defined, and the transformation. As the
+ * current path is not part of the saved state and may still be used after
+ * the clear, the commands that built it are kept as well.
+ * <p>
+ * If the log grows beyond its limit without the canvas being cleared, only
+ * the style settings are kept and the log cannot be replayed until the next
+ * full clear.
+ */
+final class CommandLog implements Serializable {
+
+    /**
+     * The default maximum size of the log in bytes, counting both the
+     * values and the strings of the commands.
+     */
+    static final long DEFAULT_LIMIT = 2 * 1024 * 1024;
+
+    private final Canvas canvas;
+    private final long limit;
+
+    private CommandBuffer log = new CommandBuffer();
+    private Level level = new Level();
+    private final Deque<Level> savedLevels = new ArrayDeque<>();
+    /**
+     * The position of the command that started the current path, or -1 if
+     * the log does not have the commands of the current path
+     */
+    private int pathStart;
+    /** The transformations when the current path was started, outermost first */
+    private List<AffineTransform> pathTransforms = List
+            .of(new AffineTransform());
+    private boolean overflowed;
+
+    /** The transformation and clip of one save/restore level */
+    private static final class Level implements Serializable {
+        private AffineTransform transform = new AffineTransform();
+        private boolean clipped;
+
+        private Level copy() {
+            Level copy = new Level();
+            copy.transform = new AffineTransform(transform);
+            copy.clipped = clipped;
+            return copy;
+        }
+    }
+
+    CommandLog(Canvas canvas, long limit) {
+        this.canvas = canvas;
+        this.limit = limit;
+    }
+
+    /**
+     * Adds the commands of the given buffer to the log.
+     */
+    void append(CommandBuffer buffer) {
+        for (int position = 0; position < buffer.size();) {
+            position = appendCommand(buffer, position);
+        }
+        if (overflowed) {
+            log = topLevelState(log, log.size());
+        } else if (log.byteSize() > limit) {
+            LoggerFactory.getLogger(CommandLog.class).warn(
+                    "Canvas content log exceeded {} bytes. The content will "
+                            + "not be restored before the canvas is cleared.",
+                    limit);
+            overflow();
+            log = topLevelState(log, log.size());
+        }
+    }
+
+    /**
+     * @return whether the log holds everything needed for restoring the
+     *         canvas content
+     */
+    boolean isReplayable() {
+        return !overflowed;
+    }
+
+    /**
+     * Passes the logged commands to the given consumer as one buffer.
+     */
+    void replay(SerializableConsumer<CommandBuffer> commands) {
+        if (!log.isEmpty()) {
+            commands.accept(log);
+        }
+    }
+
+    private int appendCommand(CommandBuffer buffer, int position) {
+        int opcode = (int) buffer.get(position);
+        if (startsNewPath(opcode)) {
+            pathStart = overflowed ? -1 : log.size();
+            pathTransforms = transforms();
+        } else if (isPathCommand(opcode) && pathStart < 0 && !overflowed) {
+            // The path was started before the log was valid
+            overflow();
+        }
+        switch (opcode) {
+        case Opcodes.SAVE -> {
+            savedLevels.push(level);
+            level = level.copy();
+        }
+        case Opcodes.RESTORE -> {
+            if (!savedLevels.isEmpty()) {
+                level = savedLevels.pop();
+            }
+        }
+        case Opcodes.TRANSLATE -> level.transform.translate(
+                buffer.get(position + 1), buffer.get(position + 2));
+        case Opcodes.SCALE -> level.transform.scale(buffer.get(position + 1),
+                buffer.get(position + 2));
+        case Opcodes.ROTATE -> level.transform.rotate(buffer.get(position + 1));
+        case Opcodes.CLIP, Opcodes.CLIP_PATH -> level.clipped = true;
+        case Opcodes.CLEAR_RECT -> {
+            if (savedLevels.isEmpty() && !level.clipped
+                    && coversCanvas(buffer, position)) {
+                compact(buffer, position);
+                return buffer.next(position);
+            }
+        }
+        default -> {
+        }
+        }
+        if (overflowed && !(isStateCommand(buffer, position)
+                && (savedLevels.isEmpty() || isDefinition(opcode)))) {
+            return buffer.next(position);
+        }
+        return log.copyCommand(buffer, position);
+    }
+
+    private void overflow() {
+        overflowed = true;
+        pathStart = -1;
+    }
+
+    /**
+     * Replaces everything before a full clear with the state in effect at
+     * that point and the commands building the current path, and appends
+     * the clear.
+     */
+    private void compact(CommandBuffer buffer, int clear) {
+        CommandBuffer compacted = topLevelState(log, log.size());
+        // An overflowed log only has state, so it is valid from here on
+        // unless the old path is still used
+        overflowed = false;
+        List<AffineTransform> transforms = pathStart >= 0
+                && hasSegments(pathStart) ? relativePathTransforms() : null;
+        if (pathStart >= 0 && transforms == null) {
+            // An empty path is as good as one started at the clear
+            appendTransform(compacted, level.transform);
+            pathStart = compacted.size();
+            pathTransforms = transforms();
+        } else if (transforms != null) {
+            // The path is built with the transformations of its time, and
+            // the commands after it lead to the current transformation
+            appendTransform(compacted, transforms.get(0));
+            transforms.subList(1, transforms.size()).forEach(relative -> {
+                compacted.op(Opcodes.SAVE);
+                appendTransform(compacted, relative);
+            });
+            int start = compacted.size();
+            for (int position = pathStart; position < log.size(); position = log
+                    .next(position)) {
+                if (buildsPath((int) log.get(position))) {
+                    compacted.copyCommand(log, position);
+                }
+            }
+            pathStart = start;
+        } else {
+            appendTransform(compacted, level.transform);
+            pathStart = -1;
+        }
+        compacted.copyCommand(buffer, clear);
+        log = compacted;
+    }
+
+    /**
+     * @return whether the current path has segments
+     */
+    private boolean hasSegments(int start) {
+        for (int position = start; position < log.size(); position = log
+                .next(position)) {
+            int opcode = (int) log.get(position);
+            if (isPathCommand(opcode) && buildsPath(opcode)
+                    && opcode != Opcodes.BEGIN_PATH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the outermost transformation when the current path was
+     *         started, followed by the transformation each inner level added
+     *         to it, or <code>null</code> if they cannot be computed
+     */
+    private List<AffineTransform> relativePathTransforms() {
+        List<AffineTransform> transforms = new ArrayList<>();
+        transforms.add(pathTransforms.get(0));
+        for (int i = 1; i < pathTransforms.size(); i++) {
+            try {
+                AffineTransform relative = pathTransforms.get(i - 1)
+                        .createInverse();
+                relative.concatenate(pathTransforms.get(i));
+                transforms.add(relative);
+            } catch (NoninvertibleTransformException e) {
+                return null;
+            }
+        }
+        return transforms;
+    }
+
+    /**
+     * Appends commands applying a transformation. Any transformation can be
+     * written as a translation, a rotation, a scaling and another rotation.
+     */
+    private static void appendTransform(CommandBuffer buffer,
+            AffineTransform transform) {
+        if (transform.getTranslateX() != 0 || transform.getTranslateY() != 0) {
+            buffer.op(Opcodes.TRANSLATE).add(transform.getTranslateX())
+                    .add(transform.getTranslateY());
+        }
+        double e = (transform.getScaleX() + transform.getScaleY()) / 2;
+        double f = (transform.getScaleX() - transform.getScaleY()) / 2;
+        double g = (transform.getShearY() + transform.getShearX()) / 2;
+        double h = (transform.getShearY() - transform.getShearX()) / 2;
+        double q = Math.hypot(e, h);
+        double r = Math.hypot(f, g);
+        double a1 = Math.atan2(g, f);
+        double a2 = Math.atan2(h, e);
+        double first = (a2 + a1) / 2;
+        double second = (a2 - a1) / 2;
+        if (first != 0) {
+            buffer.op(Opcodes.ROTATE).add(first);
+        }
+        if (q + r != 1 || q - r != 1) {
+            buffer.op(Opcodes.SCALE).add(q + r).add(q - r);
+        }
+        if (second != 0) {
+            buffer.op(Opcodes.ROTATE).add(second);
+        }
+    }
+
+    /**
+     * @return the transformations of all levels, outermost first
+     */
+    private List<AffineTransform> transforms() {
+        List<AffineTransform> transforms = new ArrayList<>();
+        savedLevels.descendingIterator().forEachRemaining(
+                saved -> transforms.add(new AffineTransform(saved.transform)));
+        transforms.add(new AffineTransform(level.transform));
+        return transforms;
+    }
+
+    /**
+     * Collects the latest state commands outside any save/restore block,
+     * and the latest definitions anywhere, in the given range of the log.
+     */
+    private static CommandBuffer topLevelState(CommandBuffer source,
+            int end) {
+        Map<String, Integer> latest = new LinkedHashMap<>();
+        int level = 0;
+        for (int position = 0; position < end; position = source
+                .next(position)) {
+            int opcode = (int) source.get(position);
+            if (opcode == Opcodes.SAVE) {
+                level++;
+            } else if (opcode == Opcodes.RESTORE) {
+                level = Math.max(0, level - 1);
+            } else if ((level == 0 || isDefinition(opcode))
+                    && isStateCommand(source, position)) {
+                String key = stateKey(source, position);
+                latest.remove(key);
+                latest.put(key, position);
+            }
+        }
+        CommandBuffer state = new CommandBuffer();
+        // Definitions go first, as a style may be redefined after it was set
+        latest.values().stream()
+                .filter(position -> isDefinition((int) source.get(position)))
+                // A disposed style or path needs no command at all
+                .filter(position -> !isDisposal((int) source.get(position)))
+                .forEach(position -> state.copyCommand(source, position));
+        latest.values().stream()
+                .filter(position -> !isDefinition((int) source.get(position)))
+                .forEach(position -> state.copyCommand(source, position));
+        return state;
+    }
+
+    /**
+     * Collects the latest definition of each image, atlas, style and path in
+     * a buffer that is dropped instead of sent, so that the commands sent
+     * later can still refer to them. Disposals are kept, as the browser may
+     * have an earlier definition.
+     */
+    static CommandBuffer definitions(CommandBuffer source) {
+        Map<String, Integer> latest = new LinkedHashMap<>();
+        for (int position = 0; position < source.size(); position = source
+                .next(position)) {
+            if (isDefinition((int) source.get(position))) {
+                String key = stateKey(source, position);
+                latest.remove(key);
+                latest.put(key, position);
+            }
+        }
+        CommandBuffer definitions = new CommandBuffer();
+        latest.values()
+                .forEach(position -> definitions.copyCommand(source, position));
+        return definitions;
+    }
+
+    /**
+     * @return whether the command defines something that is not part of the
+     *         saved drawing state, so that it outlives a restore
+     */
+    private static boolean isDefinition(int opcode) {
+        return switch (opcode) {
+        case Opcodes.LOAD_IMAGE, Opcodes.DEFINE_ATLAS, Opcodes.DEFINE_GRADIENT,
+                Opcodes.DEFINE_PATTERN, Opcodes.DISPOSE_STYLE,
+                Opcodes.DEFINE_PATH, Opcodes.DISPOSE_PATH ->
+            true;
+        default -> false;
+        };
+    }
+
+    private static boolean isDisposal(int opcode) {
+        return opcode == Opcodes.DISPOSE_STYLE
+                || opcode == Opcodes.DISPOSE_PATH;
+    }
+
+    private static boolean isStateCommand(CommandBuffer buffer,
+            int position) {
+        return stateKey(buffer, position) != null;
+    }
+
+    /**
+     * @return the name of the state the command sets, or <code>null</code>
+     *         if the command does not set state that outlives a clear
+     */
+    private static String stateKey(CommandBuffer buffer, int position) {
+        return switch ((int) buffer.get(position)) {
+        case Opcodes.SET_PROPERTY, Opcodes.SET_STYLE ->
+            buffer.getString(position + 1);
+        case Opcodes.SET_LINE_DASH -> "lineDash";
+        // Loaded images are needed for drawing after the clear
+        case Opcodes.LOAD_IMAGE -> "image " + buffer.getString(position + 1);
+        case Opcodes.DEFINE_ATLAS -> "atlas " + buffer.getString(position + 1);
+        case Opcodes.DEFINE_GRADIENT, Opcodes.DEFINE_PATTERN,
+                Opcodes.DISPOSE_STYLE ->
+            "style " + buffer.getString(position + 1);
+        case Opcodes.DEFINE_PATH, Opcodes.DISPOSE_PATH ->
+            "path " + buffer.getString(position + 1);
+        default -> null;
+        };
+    }
+
+    private static boolean isPathCommand(int opcode) {
+        return switch (opcode) {
+        case Opcodes.ARC, Opcodes.ARC_TO, Opcodes.BEGIN_PATH,
+                Opcodes.BEZIER_CURVE_TO, Opcodes.CLIP, Opcodes.CLOSE_PATH,
+                Opcodes.ELLIPSE, Opcodes.FILL, Opcodes.LINE_TO, Opcodes.MOVE_TO,
+                Opcodes.QUADRATIC_CURVE_TO, Opcodes.RECT, Opcodes.STROKE,
+                Opcodes.POLYLINE, Opcodes.DRAW_POINTS, Opcodes.STROKE_SEGMENTS ->
+            true;
+        default -> false;
+        };
+    }
+
+    /**
+     * @return whether the command is needed for building the current path
+     *         again: path segments, and the transformations they are added
+     *         with
+     */
+    private static boolean buildsPath(int opcode) {
+        return switch (opcode) {
+        case Opcodes.FILL, Opcodes.STROKE, Opcodes.CLIP -> false;
+        case Opcodes.SAVE, Opcodes.RESTORE, Opcodes.TRANSLATE, Opcodes.SCALE,
+                Opcodes.ROTATE ->
+            true;
+        default -> isPathCommand(opcode);
+        };
+    }
+
+    private static boolean startsNewPath(int opcode) {
+        return opcode == Opcodes.BEGIN_PATH || opcode == Opcodes.DRAW_POINTS
+                || opcode == Opcodes.STROKE_SEGMENTS;
+    }
+
+    /**
+     * @return whether a clearRect command clears the whole canvas with the
+     *         current transformation
+     */
+    private boolean coversCanvas(CommandBuffer buffer, int position) {
+        double x = buffer.get(position + 1);
+        double y = buffer.get(position + 2);
+        double width = buffer.get(position + 3);
+        double height = buffer.get(position + 4);
+        Rectangle2D rect = new Rectangle2D.Double(Math.min(x, x + width),
+                Math.min(y, y + height), Math.abs(width), Math.abs(height));
+        double[] corners = { 0, 0, canvas.getCanvasWidth(), 0,
+                canvas.getCanvasWidth(), canvas.getCanvasHeight(), 0,
+                canvas.getCanvasHeight() };
+        try {
+            level.transform.inverseTransform(corners, 0, corners, 0, 4);
+        } catch (NoninvertibleTransformException e) {
+            return false;
+        }
+        for (int i = 0; i < corners.length; i += 2) {
+            // Allow for rounding errors of the inverse
+            if (corners[i] < rect.getMinX() - 1e-9
+                    || corners[i] > rect.getMaxX() + 1e-9
+                    || corners[i + 1] < rect.getMinY() - 1e-9
+                    || corners[i + 1] > rect.getMaxY() + 1e-9) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+package org.vaadin.pekkam;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Server-side mirror of the drawing state of a 2D context, as far as it is
+ * known. A missing value means that the state on the client is unknown, so
+ * the next setting must be sent.
+ */
+final class ContextState implements Serializable {
+
+    /**
+     * The property values as they were last sent to the client.
+     */
+    final Map<String, String> properties = new HashMap<>();
+
+    /**
+     * The current line dash segments, or <code>null</code> if unknown.
+     */
+    double[] lineDash;
+
+    /**
+     * The current transformation matrix, or <code>null</code> if unknown.
+     */
+    AffineTransform transform = new AffineTransform();
+
+    /**
+     * The bounds of the clip region in canvas pixels, or <code>null</code>
+     * if not clipped or unknown. Only tracked when culling is enabled.
+     */
+    Rectangle2D clip;
+
+    /**
+     * Whether the <code>save()</code> that pushed this state to the stack
+     * has been sent to the client. Saves are only sent when the state is
+     * about to change, so save/restore pairs with no state changes in
+     * between are not sent at all.
+     */
+    boolean saveSent;
+
+    ContextState copy() {
+        ContextState copy = new ContextState();
+        copy.properties.putAll(properties);
+        copy.lineDash = lineDash;
+        copy.transform = transform != null ? new AffineTransform(transform)
+                : null;
+        copy.clip = clip;
+        return copy;
+    }
+
+    /**
+     * Resets to the state of a new canvas element. Styles are forgotten
+     * rather than set to their defaults, so that they are always sent again.
+     */
+    void reset() {
+        properties.clear();
+        lineDash = null;
+        transform = new AffineTransform();
+        clip = null;
+    }
+}
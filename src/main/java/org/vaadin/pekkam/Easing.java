@@ -0,0 +1,28 @@
+package org.vaadin.pekkam;
+
+/**
+ * How the values of an {@link Animation} change over the duration of a
+ * keyframe.
+ */
+public enum Easing {
+
+    /**
+     * At a constant speed.
+     */
+    LINEAR,
+
+    /**
+     * Starting slowly and accelerating.
+     */
+    EASE_IN,
+
+    /**
+     * Starting fast and decelerating.
+     */
+    EASE_OUT,
+
+    /**
+     * Accelerating in the first half and decelerating in the second.
+     */
+    EASE_IN_OUT
+}
@@ -0,0 +1,106 @@
+package org.vaadin.pekkam;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * An area of a {@link Canvas} that is hit tested in the browser. The browser
+ * finds the region under the pointer by itself and sends only shape enter,
+ * leave and click events to the server, instead of every mouse movement.
+ * <p>
+ * The coordinates are in the coordinate system of the canvas, as given in
+ * its constructor. The transformation of the rendering context is not
+ * applied.
+ *
+ * @see Canvas#addHitRegion(String, HitRegion)
+ */
+public final class HitRegion implements Serializable {
+
+    private final String type;
+    private final double[] coordinates;
+    private final String path;
+    private final String tooltip;
+
+    private HitRegion(String type, double[] coordinates, String path,
+            String tooltip) {
+        this.type = type;
+        this.coordinates = coordinates;
+        this.path = path;
+        this.tooltip = tooltip;
+    }
+
+    /**
+     * Creates a rectangular region.
+     */
+    public static HitRegion rect(double x, double y, double width,
+            double height) {
+        return new HitRegion("rect", new double[] { x, y, width, height },
+                null, null);
+    }
+
+    /**
+     * Creates a circular region.
+     */
+    public static HitRegion circle(double centerX, double centerY,
+            double radius) {
+        return new HitRegion("circle",
+                new double[] { centerX, centerY, radius }, null, null);
+    }
+
+    /**
+     * Creates a polygonal region. Self-intersecting polygons use the even-odd
+     * rule.
+     *
+     * @param xy
+     *            the corners as <code>x, y</code> pairs, at least three
+     *            corners
+     */
+    public static HitRegion polygon(double... xy) {
+        if (xy.length < 6 || xy.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                    "A polygon needs at least three x, y pairs");
+        }
+        return new HitRegion("polygon", xy.clone(), null, null);
+    }
+
+    /**
+     * Creates a region of an arbitrary path.
+     *
+     * @param svgPath
+     *            the path in SVG path data syntax, as accepted by the
+     *            <code>Path2D</code> constructor of the browser
+     */
+    public static HitRegion path(String svgPath) {
+        return new HitRegion("path", new double[0],
+                Objects.requireNonNull(svgPath), null);
+    }
+
+    /**
+     * @param tooltip
+     *            the text shown when the pointer rests over the region, or
+     *            <code>null</code> for no tooltip
+     * @return a copy of this region with the given tooltip
+     */
+    public HitRegion withTooltip(String tooltip) {
+        return new HitRegion(type, coordinates, path, tooltip);
+    }
+
+    /**
+     * @return the tooltip text, or <code>null</code> if there is none
+     */
+    public String getTooltip() {
+        return tooltip;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    double[] getCoordinates() {
+        return coordinates;
+    }
+
+    String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,106 @@
+package org.vaadin.pekkam;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The hit regions of a canvas. Changes are collected and sent to the browser
+ * once per round trip. A new canvas element gets all regions again.
+ */
+final class HitRegions implements Serializable {
+
+    private final Canvas canvas;
+    private final Map<String, HitRegion> regions = new LinkedHashMap<>();
+    private final Set<String> changed = new LinkedHashSet<>();
+    private boolean syncScheduled;
+
+    HitRegions(Canvas canvas) {
+        this.canvas = canvas;
+    }
+
+    void put(String id, HitRegion region) {
+        regions.put(id, region);
+        changed.add(id);
+        scheduleSync();
+    }
+
+    void remove(String id) {
+        if (regions.remove(id) != null) {
+            changed.add(id);
+            scheduleSync();
+        }
+    }
+
+    void clear() {
+        changed.addAll(regions.keySet());
+        regions.clear();
+        scheduleSync();
+    }
+
+    Set<String> getIds() {
+        return Collections.unmodifiableSet(regions.keySet());
+    }
+
+    void onAttach() {
+        if (!regions.isEmpty()) {
+            changed.addAll(regions.keySet());
+            // A sync scheduled before a detach may have been dropped
+            syncScheduled = false;
+            scheduleSync();
+        }
+    }
+
+    private void scheduleSync() {
+        if (!syncScheduled) {
+            syncScheduled = true;
+            canvas.getElement().getNode().runWhenAttached(ui -> ui
+                    .beforeClientResponse(canvas, context -> sync()));
+        }
+    }
+
+    private void sync() {
+        syncScheduled = false;
+        if (changed.isEmpty()) {
+            return;
+        }
+        JsonArray updates = Json.createArray();
+        for (String id : changed) {
+            updates.set(updates.length(), toJson(id, regions.get(id)));
+        }
+        changed.clear();
+        canvas.getElement().executeJs(
+                "window.Vaadin.Flow.canvasConnector.updateHitRegions(this, $0)",
+                updates);
+    }
+
+    /**
+     * @return the region as JSON, with only the id if it was removed
+     */
+    private static JsonObject toJson(String id, HitRegion region) {
+        JsonObject json = Json.createObject();
+        json.put("id", id);
+        if (region != null) {
+            json.put("type", region.getType());
+            JsonArray coordinates = Json.createArray();
+            for (double value : region.getCoordinates()) {
+                coordinates.set(coordinates.length(), value);
+            }
+            json.put("coordinates", coordinates);
+            if (region.getPath() != null) {
+                json.put("path", region.getPath());
+            }
+            if (region.getTooltip() != null) {
+                json.put("tooltip", region.getTooltip());
+            }
+        }
+        return json;
+    }
+}
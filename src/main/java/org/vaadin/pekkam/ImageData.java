@@ -0,0 +1,168 @@
+package org.vaadin.pekkam;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * A rectangle of pixels, as the <a href=
+ * "https://developer.mozilla.org/en-US/docs/Web/API/ImageData">client-side
+ * ImageData</a>: four bytes per pixel in the order red, green, blue and
+ * alpha, not premultiplied, row by row from the top left corner.
+ * <p>
+ * The pixel array is not copied, so changes to it are visible in the image
+ * data and the other way round.
+ */
+public final class ImageData implements Serializable {
+
+    private final int width;
+    private final int height;
+    private final byte[] data;
+
+    /**
+     * Creates transparent black image data.
+     *
+     * @param width
+     *            the width in pixels
+     * @param height
+     *            the height in pixels
+     */
+    public ImageData(int width, int height) {
+        this(width, height, new byte[checkSize(width, height) * 4]);
+    }
+
+    /**
+     * Creates image data of the given pixels.
+     *
+     * @param width
+     *            the width in pixels
+     * @param height
+     *            the height in pixels
+     * @param rgba
+     *            the pixels, <code>width * height * 4</code> bytes
+     */
+    public ImageData(int width, int height, byte[] rgba) {
+        if (rgba.length != checkSize(width, height) * 4) {
+            throw new IllegalArgumentException("Expected " + width * height * 4
+                    + " bytes for " + width + "x" + height + " pixels, got "
+                    + rgba.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.data = rgba;
+    }
+
+    /**
+     * Creates image data of the remaining bytes of the given buffer. The
+     * bytes are copied and the position of the buffer is not changed.
+     *
+     * @param width
+     *            the width in pixels
+     * @param height
+     *            the height in pixels
+     * @param rgba
+     *            the pixels, <code>width * height * 4</code> bytes
+     */
+    public ImageData(int width, int height, ByteBuffer rgba) {
+        this(width, height, copy(rgba));
+    }
+
+    /**
+     * Creates image data of pixels in the format of
+     * {@link java.awt.image.BufferedImage#getRGB(int, int)}.
+     *
+     * @param width
+     *            the width in pixels
+     * @param height
+     *            the height in pixels
+     * @param argb
+     *            one int per pixel, alpha in the highest byte
+     * @return the new image data
+     */
+    public static ImageData fromARGB(int width, int height, int[] argb) {
+        if (argb.length != checkSize(width, height)) {
+            throw new IllegalArgumentException("Expected " + width * height
+                    + " pixels, got " + argb.length);
+        }
+        ImageData imageData = new ImageData(width, height);
+        for (int i = 0; i < argb.length; i++) {
+            imageData.setARGB(i, argb[i]);
+        }
+        return imageData;
+    }
+
+    /**
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the pixels, not a copy
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @param x
+     *            the x coordinate of the pixel
+     * @param y
+     *            the y coordinate of the pixel
+     * @return the pixel with alpha in the highest byte
+     */
+    public int getARGB(int x, int y) {
+        int i = index(x, y) * 4;
+        return (data[i + 3] & 0xff) << 24 | (data[i] & 0xff) << 16
+                | (data[i + 1] & 0xff) << 8 | data[i + 2] & 0xff;
+    }
+
+    /**
+     * @param x
+     *            the x coordinate of the pixel
+     * @param y
+     *            the y coordinate of the pixel
+     * @param argb
+     *            the pixel with alpha in the highest byte
+     */
+    public void setARGB(int x, int y, int argb) {
+        setARGB(index(x, y), argb);
+    }
+
+    private void setARGB(int pixel, int argb) {
+        int i = pixel * 4;
+        data[i] = (byte) (argb >> 16);
+        data[i + 1] = (byte) (argb >> 8);
+        data[i + 2] = (byte) argb;
+        data[i + 3] = (byte) (argb >>> 24);
+    }
+
+    private int index(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IndexOutOfBoundsException("Pixel " + x + ", " + y
+                    + " is outside " + width + "x" + height);
+        }
+        return y * width + x;
+    }
+
+    private static int checkSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(
+                    "Invalid size " + width + "x" + height);
+        }
+        return Math.multiplyExact(width, height);
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,330 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.ComponentEventListener;
+import com.vaadin.flow.component.HasSize;
+import com.vaadin.flow.component.HasStyle;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.shared.Registration;
+import org.vaadin.pekkam.event.MouseClickEvent;
+import org.vaadin.pekkam.event.MouseDblClickEvent;
+import org.vaadin.pekkam.event.MouseDownEvent;
+import org.vaadin.pekkam.event.MouseMoveBatchEvent;
+import org.vaadin.pekkam.event.MouseMoveEvent;
+import org.vaadin.pekkam.event.MouseUpEvent;
+import org.vaadin.pekkam.event.PointerCancelEvent;
+import org.vaadin.pekkam.event.PointerDownEvent;
+import org.vaadin.pekkam.event.PointerMoveBatchEvent;
+import org.vaadin.pekkam.event.PointerUpEvent;
+import org.vaadin.pekkam.event.SampleDelivery;
+import org.vaadin.pekkam.event.ShapeClickEvent;
+import org.vaadin.pekkam.event.ShapeEnterEvent;
+import org.vaadin.pekkam.event.ShapeLeaveEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A stack of canvases that share the same size and coordinate system. Each
+ * layer is a {@link Canvas} with its own rendering context, so a layer can be
+ * cleared and redrawn without touching the others. This is useful for keeping
+ * a static background, such as a grid or an image, below content that changes
+ * often, such as a cursor or a selection.
+ * <p>
+ * Layers are stacked in the order of {@link #getLayers()}, the last layer
+ * being on top. The layer created with the component is the base layer. It
+ * is at the bottom unless moved, and it cannot be removed. Only the base
+ * layer receives mouse and pointer events, so only its hit regions are hit
+ * tested; the other layers let the events through, so the listeners of the
+ * base layer work as with a single {@link Canvas}. The listener and hit
+ * region methods of this component are those of the base layer.
+ */
+@Tag("div")
+@SuppressWarnings("serial")
+public class LayeredCanvas extends Component implements HasStyle, HasSize {
+
+    private final int width;
+    private final int height;
+    private final List<Canvas> layers = new ArrayList<>();
+    private final Canvas baseLayer;
+
+    /**
+     * Creates a new layered canvas with one layer of the given size.
+     * <p>
+     * The width and height parameters will be used for the coordinate system
+     * of all layers. They will determine the size of the component in pixels,
+     * unless you explicitly set the component's size with
+     * {@link #setWidth(String)} or {@link #setHeight(String)}.
+     *
+     * @param width
+     *            the width of the layers
+     * @param height
+     *            the height of the layers
+     */
+    public LayeredCanvas(int width, int height) {
+        this.width = width;
+        this.height = height;
+        getStyle().set("position", "relative").set("display", "inline-block")
+                .set("width", width + "px").set("height", height + "px");
+        baseLayer = addLayer();
+        baseLayer.getStyle().remove("pointer-events");
+    }
+
+    /**
+     * Adds a new empty layer on top of the existing layers.
+     *
+     * @return the canvas of the new layer
+     */
+    public Canvas addLayer() {
+        Canvas layer = new Canvas(width, height);
+        layer.getStyle().set("position", "absolute").set("left", "0")
+                .set("top", "0").set("width", "100%").set("height", "100%")
+                .set("pointer-events", "none");
+        layers.add(layer);
+        getElement().appendChild(layer.getElement());
+        return layer;
+    }
+
+    /**
+     * @return the base layer, which receives the mouse and pointer events
+     */
+    public Canvas getBaseLayer() {
+        return baseLayer;
+    }
+
+    /**
+     * @param index
+     *            the index of the layer, <code>0</code> being the bottom
+     * @return the canvas of the layer
+     */
+    public Canvas getLayer(int index) {
+        return layers.get(index);
+    }
+
+    /**
+     * @return the layers from bottom to top
+     */
+    public List<Canvas> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * Moves a layer to the given position in the stack.
+     *
+     * @param layer
+     *            the layer to move
+     * @param index
+     *            the new index of the layer, <code>0</code> being the bottom
+     */
+    public void moveLayer(Canvas layer, int index) {
+        checkLayer(layer);
+        if (index < 0 || index >= layers.size()) {
+            throw new IndexOutOfBoundsException(
+                    "Layer index " + index + " out of bounds");
+        }
+        // Removed first, so that the index means the same for the list and
+        // the element's children
+        layers.remove(layer);
+        getElement().removeChild(layer.getElement());
+        layers.add(index, layer);
+        getElement().insertChild(index, layer.getElement());
+    }
+
+    /**
+     * Removes a layer. The base layer cannot be removed.
+     *
+     * @param layer
+     *            the layer to remove
+     */
+    public void removeLayer(Canvas layer) {
+        checkLayer(layer);
+        if (layer == baseLayer) {
+            throw new IllegalArgumentException(
+                    "The base layer cannot be removed");
+        }
+        layers.remove(layer);
+        getElement().removeChild(layer.getElement());
+    }
+
+    private void checkLayer(Canvas layer) {
+        if (!layers.contains(layer)) {
+            throw new IllegalArgumentException(
+                    "The canvas is not a layer of this component");
+        }
+    }
+
+    /**
+     * @return the width of the layers' coordinate system, as given in the
+     *         constructor
+     */
+    public int getCanvasWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the layers' coordinate system, as given in the
+     *         constructor
+     */
+    public int getCanvasHeight() {
+        return height;
+    }
+
+    /**
+     * @see Canvas#addMouseDownListener(ComponentEventListener)
+     */
+    public Registration addMouseDownListener(
+            ComponentEventListener<MouseDownEvent> listener) {
+        return baseLayer.addMouseDownListener(listener);
+    }
+
+    /**
+     * @see Canvas#addMouseUpListener(ComponentEventListener)
+     */
+    public Registration addMouseUpListener(
+            ComponentEventListener<MouseUpEvent> listener) {
+        return baseLayer.addMouseUpListener(listener);
+    }
+
+    /**
+     * @see Canvas#addMouseMoveListener(ComponentEventListener)
+     */
+    public Registration addMouseMoveListener(
+            ComponentEventListener<MouseMoveEvent> listener) {
+        return baseLayer.addMouseMoveListener(listener);
+    }
+
+    /**
+     * @see Canvas#addMouseMoveBatchListener(ComponentEventListener)
+     */
+    public Registration addMouseMoveBatchListener(
+            ComponentEventListener<MouseMoveBatchEvent> listener) {
+        return baseLayer.addMouseMoveBatchListener(listener);
+    }
+
+    /**
+     * @see Canvas#setMouseMoveDelivery(SampleDelivery, int)
+     */
+    public void setMouseMoveDelivery(SampleDelivery delivery, int interval) {
+        baseLayer.setMouseMoveDelivery(delivery, interval);
+    }
+
+    /**
+     * @see Canvas#addMouseClickListener(ComponentEventListener)
+     */
+    public Registration addMouseClickListener(
+            ComponentEventListener<MouseClickEvent> listener) {
+        return baseLayer.addMouseClickListener(listener);
+    }
+
+    /**
+     * @see Canvas#addMouseDblClickListener(ComponentEventListener)
+     */
+    public Registration addMouseDblClickListener(
+            ComponentEventListener<MouseDblClickEvent> listener) {
+        return baseLayer.addMouseDblClickListener(listener);
+    }
+
+    /**
+     * @see Canvas#addPointerDownListener(ComponentEventListener)
+     */
+    public Registration addPointerDownListener(
+            ComponentEventListener<PointerDownEvent> listener) {
+        return baseLayer.addPointerDownListener(listener);
+    }
+
+    /**
+     * @see Canvas#addPointerUpListener(ComponentEventListener)
+     */
+    public Registration addPointerUpListener(
+            ComponentEventListener<PointerUpEvent> listener) {
+        return baseLayer.addPointerUpListener(listener);
+    }
+
+    /**
+     * @see Canvas#addPointerCancelListener(ComponentEventListener)
+     */
+    public Registration addPointerCancelListener(
+            ComponentEventListener<PointerCancelEvent> listener) {
+        return baseLayer.addPointerCancelListener(listener);
+    }
+
+    /**
+     * @see Canvas#addPointerMoveBatchListener(ComponentEventListener)
+     */
+    public Registration addPointerMoveBatchListener(
+            ComponentEventListener<PointerMoveBatchEvent> listener) {
+        return baseLayer.addPointerMoveBatchListener(listener);
+    }
+
+    /**
+     * @see Canvas#setPointerMoveDelivery(SampleDelivery, int)
+     */
+    public void setPointerMoveDelivery(SampleDelivery delivery,
+            int interval) {
+        baseLayer.setPointerMoveDelivery(delivery, interval);
+    }
+
+    /**
+     * Adds a hit region to the base layer, or replaces the region with the
+     * same id.
+     *
+     * @param id
+     *            the id of the region, passed to the events
+     * @param region
+     *            the area of the region
+     * @see Canvas#addHitRegion(String, HitRegion)
+     */
+    public void addHitRegion(String id, HitRegion region) {
+        baseLayer.addHitRegion(id, region);
+    }
+
+    /**
+     * @param id
+     *            the id of the region
+     * @see Canvas#removeHitRegion(String)
+     */
+    public void removeHitRegion(String id) {
+        baseLayer.removeHitRegion(id);
+    }
+
+    /**
+     * @see Canvas#clearHitRegions()
+     */
+    public void clearHitRegions() {
+        baseLayer.clearHitRegions();
+    }
+
+    /**
+     * @return the ids of the hit regions in their stacking order
+     * @see Canvas#getHitRegionIds()
+     */
+    public Set<String> getHitRegionIds() {
+        return baseLayer.getHitRegionIds();
+    }
+
+    /**
+     * @see Canvas#addShapeEnterListener(ComponentEventListener)
+     */
+    public Registration addShapeEnterListener(
+            ComponentEventListener<ShapeEnterEvent> listener) {
+        return baseLayer.addShapeEnterListener(listener);
+    }
+
+    /**
+     * @see Canvas#addShapeLeaveListener(ComponentEventListener)
+     */
+    public Registration addShapeLeaveListener(
+            ComponentEventListener<ShapeLeaveEvent> listener) {
+        return baseLayer.addShapeLeaveListener(listener);
+    }
+
+    /**
+     * @see Canvas#addShapeClickListener(ComponentEventListener)
+     */
+    public Registration addShapeClickListener(
+            ComponentEventListener<ShapeClickEvent> listener) {
+        return baseLayer.addShapeClickListener(listener);
+    }
+}
@@ -0,0 +1,102 @@
+package org.vaadin.pekkam;
+
+/**
+ * Opcodes of the commands in a {@link CommandBuffer}. The comment after each
+ * opcode lists its arguments; <code>s</code> marks a string table index,
+ * <code>b</code> a boolean and <code>n</code> a count followed by that many
+ * numbers.
+ * <p>
+ * These must be kept in sync with <code>canvas-interpreter.js</code> and
+ * {@link #signature(int)}.
+ */
+final class Opcodes {
+
+    static final int ARC = 1; // x, y, radius, startAngle, endAngle, b
+    static final int ARC_TO = 2; // x1, y1, x2, y2, radius
+    static final int BEGIN_PATH = 3;
+    static final int BEZIER_CURVE_TO = 4; // cp1x, cp1y, cp2x, cp2y, x, y
+    static final int CLEAR_RECT = 5; // x, y, width, height
+    static final int CLIP = 6;
+    static final int CLOSE_PATH = 7;
+    static final int ELLIPSE = 8; // x, y, rx, ry, rotation, start, end, b
+    static final int FILL = 9;
+    static final int FILL_RECT = 10; // x, y, width, height
+    static final int FILL_TEXT = 11; // s, x, y
+    static final int LINE_TO = 12; // x, y
+    static final int MOVE_TO = 13; // x, y
+    static final int QUADRATIC_CURVE_TO = 14; // cpx, cpy, x, y
+    static final int RECT = 15; // x, y, width, height
+    static final int RESTORE = 16;
+    static final int ROTATE = 17; // angle
+    static final int SAVE = 18;
+    static final int SCALE = 19; // x, y
+    static final int STROKE = 20;
+    static final int STROKE_RECT = 21; // x, y, width, height
+    static final int STROKE_TEXT = 22; // s, x, y
+    static final int TRANSLATE = 23; // x, y
+    static final int SET_PROPERTY = 24; // s name, s value
+    static final int DRAW_IMAGE = 25; // s src, x, y
+    static final int DRAW_IMAGE_SCALED = 26; // s src, x, y, width, height
+    static final int SET_LINE_DASH = 28; // n segments
+    static final int LOAD_IMAGE = 29; // s src
+    static final int POLYLINE = 30; // n x, y pairs
+    static final int FILL_RECTS = 31; // n x, y, width, height quadruples
+    static final int DRAW_POINTS = 32; // radius, n x, y pairs
+    static final int STROKE_SEGMENTS = 33; // n x1, y1, x2, y2 quadruples
+    static final int DEFINE_ATLAS = 34; // s id, s src, n x, y, width, height quadruples
+    static final int DRAW_SPRITES = 35; // s atlas id, n frame, x, y triples
+    static final int PUT_IMAGE_DATA = 36; // x, y, width, height, b deflated, s base64 RGBA
+    static final int DEFINE_GRADIENT = 37; // s id, s kind, n arguments, n offsets, s JSON colors
+    static final int DEFINE_PATTERN = 38; // s id, s src, s repetition
+    static final int SET_STYLE = 39; // s property, s style id
+    static final int DISPOSE_STYLE = 40; // s style id
+    static final int DEFINE_PATH = 41; // s id, n segments
+    static final int FILL_PATH = 42; // s path id
+    static final int STROKE_PATH = 43; // s path id
+    static final int CLIP_PATH = 44; // s path id
+    static final int FILL_PATH_AT = 45; // s path id, stride, n translations or transforms
+    static final int DISPOSE_PATH = 46; // s path id
+
+    private Opcodes() {
+    }
+
+    /**
+     * Gets the argument types of a command: <code>d</code> for a number or a
+     * boolean, <code>s</code> for a string and <code>n</code> for a count
+     * followed by that many numbers.
+     *
+     * @param opcode
+     *            the opcode of the command
+     * @return the argument types in order
+     */
+    static String signature(int opcode) {
+        return switch (opcode) {
+        case BEGIN_PATH, CLIP, CLOSE_PATH, FILL, RESTORE, SAVE, STROKE -> "";
+        case ROTATE -> "d";
+        case LOAD_IMAGE -> "s";
+        case SET_LINE_DASH, POLYLINE, FILL_RECTS, STROKE_SEGMENTS -> "n";
+        case DRAW_POINTS -> "dn";
+        case DRAW_SPRITES -> "sn";
+        case DEFINE_ATLAS -> "ssn";
+        case PUT_IMAGE_DATA -> "ddddds";
+        case DEFINE_GRADIENT -> "ssnns";
+        case DEFINE_PATTERN -> "sss";
+        case SET_STYLE -> "ss";
+        case DISPOSE_STYLE, FILL_PATH, STROKE_PATH, CLIP_PATH, DISPOSE_PATH ->
+            "s";
+        case DEFINE_PATH -> "sn";
+        case FILL_PATH_AT -> "sdn";
+        case LINE_TO, MOVE_TO, SCALE, TRANSLATE -> "dd";
+        case CLEAR_RECT, FILL_RECT, QUADRATIC_CURVE_TO, RECT, STROKE_RECT ->
+            "dddd";
+        case ARC_TO -> "ddddd";
+        case ARC, BEZIER_CURVE_TO -> "dddddd";
+        case ELLIPSE -> "dddddddd";
+        case DRAW_IMAGE, FILL_TEXT, STROKE_TEXT -> "sdd";
+        case DRAW_IMAGE_SCALED -> "sdddd";
+        case SET_PROPERTY -> "ss";
+        default -> throw new IllegalArgumentException(
+                "Unknown opcode " + opcode);
+        };
+    }
+}
@@ -0,0 +1,300 @@
+package org.vaadin.pekkam;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A path that is built once and drawn many times, as the <a href=
+ * "https://developer.mozilla.org/en-US/docs/Web/API/Path2D">client-side
+ * Path2D</a>. Useful for glyphs, markers and outlines that are drawn
+ * repeatedly.
+ * <p>
+ * The path is sent to the browser as one compact array the first time it is
+ * drawn with {@link RenderingContext2D#fill(Path2D)},
+ * {@link RenderingContext2D#stroke(Path2D)},
+ * {@link RenderingContext2D#clip(Path2D)} or
+ * {@link RenderingContext2D#fillPathAt(Path2D, double[])}, and only referenced
+ * by its id after that. Changing the path sends it again when it is next
+ * drawn. Drawing a path does not change the current path of the context.
+ */
+public final class Path2D implements Serializable {
+
+    /* The segment types, must be kept in sync with canvas-interpreter.js */
+    static final int MOVE_TO = 0;
+    static final int LINE_TO = 1;
+    static final int BEZIER_CURVE_TO = 2;
+    static final int QUADRATIC_CURVE_TO = 3;
+    static final int ARC = 4;
+    static final int ARC_TO = 5;
+    static final int ELLIPSE = 6;
+    static final int RECT = 7;
+    static final int CLOSE_PATH = 8;
+
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private final String id = "path-" + nextId.incrementAndGet();
+    private double[] segments = new double[16];
+    private int size;
+    private int version;
+    private Rectangle2D bounds;
+    private boolean unbounded;
+
+    /**
+     * Creates an empty path.
+     */
+    public Path2D() {
+    }
+
+    /**
+     * Creates a copy of a path.
+     *
+     * @param path
+     *            the path to copy
+     */
+    public Path2D(Path2D path) {
+        segments = Arrays.copyOf(path.segments, Math.max(16, path.size));
+        size = path.size;
+        bounds = path.bounds != null ? path.bounds.getBounds2D() : null;
+        unbounded = path.unbounded;
+    }
+
+    /**
+     * Creates a path of SVG path data, e.g. <code>"M 0 0 L 10 0 L 5 8 Z"</code>.
+     * All commands of the SVG path syntax are supported.
+     *
+     * @param svgPath
+     *            the path data
+     * @return the new path
+     * @throws IllegalArgumentException
+     *             if the path data is invalid
+     */
+    public static Path2D fromSvg(String svgPath) {
+        Path2D path = new Path2D();
+        new SvgPathParser(svgPath, path).parse();
+        return path;
+    }
+
+    /**
+     * Starts a new subpath at the given point.
+     *
+     * @return this path
+     */
+    public Path2D moveTo(double x, double y) {
+        include(x, y);
+        return add(MOVE_TO, x, y);
+    }
+
+    /**
+     * Adds a straight line to the given point.
+     *
+     * @return this path
+     */
+    public Path2D lineTo(double x, double y) {
+        include(x, y);
+        return add(LINE_TO, x, y);
+    }
+
+    /**
+     * Adds a cubic Bézier curve.
+     *
+     * @return this path
+     */
+    public Path2D bezierCurveTo(double cp1x, double cp1y, double cp2x,
+            double cp2y, double x, double y) {
+        include(cp1x, cp1y);
+        include(cp2x, cp2y);
+        include(x, y);
+        return add(BEZIER_CURVE_TO, cp1x, cp1y, cp2x, cp2y, x, y);
+    }
+
+    /**
+     * Adds a quadratic Bézier curve.
+     *
+     * @return this path
+     */
+    public Path2D quadraticCurveTo(double cpx, double cpy, double x,
+            double y) {
+        include(cpx, cpy);
+        include(x, y);
+        return add(QUADRATIC_CURVE_TO, cpx, cpy, x, y);
+    }
+
+    /**
+     * Adds a clockwise circular arc.
+     *
+     * @return this path
+     */
+    public Path2D arc(double x, double y, double radius, double startAngle,
+            double endAngle) {
+        return arc(x, y, radius, startAngle, endAngle, false);
+    }
+
+    /**
+     * Adds a circular arc.
+     *
+     * @return this path
+     */
+    public Path2D arc(double x, double y, double radius, double startAngle,
+            double endAngle, boolean counterclockwise) {
+        include(x - radius, y - radius);
+        include(x + radius, y + radius);
+        return add(ARC, x, y, radius, startAngle, endAngle,
+                counterclockwise ? 1 : 0);
+    }
+
+    /**
+     * Adds a circular arc connecting two tangents.
+     *
+     * @return this path
+     */
+    public Path2D arcTo(double x1, double y1, double x2, double y2,
+            double radius) {
+        // The arc may end anywhere along the second tangent
+        unbounded = true;
+        return add(ARC_TO, x1, y1, x2, y2, radius);
+    }
+
+    /**
+     * Adds an elliptical arc.
+     *
+     * @return this path
+     */
+    public Path2D ellipse(double x, double y, double radiusX, double radiusY,
+            double rotation, double startAngle, double endAngle,
+            boolean counterclockwise) {
+        double radius = Math.max(Math.abs(radiusX), Math.abs(radiusY));
+        include(x - radius, y - radius);
+        include(x + radius, y + radius);
+        return add(ELLIPSE, x, y, radiusX, radiusY, rotation, startAngle,
+                endAngle, counterclockwise ? 1 : 0);
+    }
+
+    /**
+     * Adds a rectangle as a closed subpath.
+     *
+     * @return this path
+     */
+    public Path2D rect(double x, double y, double width, double height) {
+        include(x, y);
+        include(x + width, y + height);
+        return add(RECT, x, y, width, height);
+    }
+
+    /**
+     * Closes the current subpath with a straight line to its start.
+     *
+     * @return this path
+     */
+    public Path2D closePath() {
+        return add(CLOSE_PATH);
+    }
+
+    /**
+     * @return whether the path has no segments
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets a rectangle that contains the path. It may be larger than the
+     * path, as it contains the control points of curves and the whole
+     * circles of arcs.
+     *
+     * @return the bounds, or <code>null</code> if the path is empty or has
+     *         segments whose extent is not computed
+     */
+    public Rectangle2D getBounds() {
+        return unbounded || bounds == null ? null : bounds.getBounds2D();
+    }
+
+    /**
+     * Adds the segments of this path to the current path of a context, e.g.
+     * for drawing it on a context that has no path objects of its own.
+     *
+     * @param ctx
+     *            the context
+     */
+    public void appendTo(RenderingContext2D ctx) {
+        double[] s = segments;
+        for (int i = 0; i < size;) {
+            switch ((int) s[i++]) {
+            case MOVE_TO -> ctx.moveTo(s[i], s[i + 1]);
+            case LINE_TO -> ctx.lineTo(s[i], s[i + 1]);
+            case BEZIER_CURVE_TO -> ctx.bezierCurveTo(s[i], s[i + 1],
+                    s[i + 2], s[i + 3], s[i + 4], s[i + 5]);
+            case QUADRATIC_CURVE_TO -> ctx.quadraticCurveTo(s[i], s[i + 1],
+                    s[i + 2], s[i + 3]);
+            case ARC -> ctx.arc(s[i], s[i + 1], s[i + 2], s[i + 3], s[i + 4],
+                    s[i + 5] != 0);
+            case ARC_TO -> ctx.arcTo(s[i], s[i + 1], s[i + 2], s[i + 3],
+                    s[i + 4]);
+            case ELLIPSE -> ctx.ellipse(s[i], s[i + 1], s[i + 2], s[i + 3],
+                    s[i + 4], s[i + 5], s[i + 6], s[i + 7] != 0);
+            case RECT -> ctx.rect(s[i], s[i + 1], s[i + 2], s[i + 3]);
+            default -> {
+                // CLOSE_PATH
+                ctx.closePath();
+            }
+            }
+            i += length(s[i - 1]);
+        }
+    }
+
+    /**
+     * @return the number of values following a segment type
+     */
+    static int length(double type) {
+        return switch ((int) type) {
+        case MOVE_TO, LINE_TO -> 2;
+        case BEZIER_CURVE_TO, ARC -> 6;
+        case QUADRATIC_CURVE_TO, RECT -> 4;
+        case ARC_TO -> 5;
+        case ELLIPSE -> 8;
+        default -> 0;
+        };
+    }
+
+    /**
+     * @return the id of this path in the browser
+     */
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return a number that changes whenever the path changes
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the segments as types followed by their values
+     */
+    double[] getSegments() {
+        return Arrays.copyOf(segments, size);
+    }
+
+    private Path2D add(int type, double... values) {
+        if (size + 1 + values.length > segments.length) {
+            segments = Arrays.copyOf(segments,
+                    Math.max(segments.length * 2, size + 1 + values.length));
+        }
+        segments[size++] = type;
+        System.arraycopy(values, 0, segments, size, values.length);
+        size += values.length;
+        version++;
+        return this;
+    }
+
+    private void include(double x, double y) {
+        if (bounds == null) {
+            bounds = new Rectangle2D.Double(x, y, 0, 0);
+        } else {
+            bounds.add(x, y);
+        }
+    }
+}
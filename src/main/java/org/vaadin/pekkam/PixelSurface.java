@@ -0,0 +1,237 @@
+package org.vaadin.pekkam;
+
+import java.awt.Rectangle;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A server-side pixel buffer shown on a {@link Canvas}, for content that is
+ * computed pixel by pixel such as heatmaps and spectrograms.
+ * <p>
+ * Changing pixels marks the changed rectangles as dirty. Before the next
+ * response to the browser, only the pixels of the dirty rectangles are sent
+ * with {@link CanvasRenderingContext2D#putImageData(ImageData, int, int, int, int, int, int)},
+ * as binary data rather than as an encoded image. Enable
+ * {@link CanvasRenderingContext2D#setImageDataCompressed(boolean)} to deflate
+ * them as well. A new canvas element gets all pixels again.
+ * <p>
+ * The pixels can also be changed directly in {@link #getImageData()}, after
+ * which the changed area must be marked with
+ * {@link #markDirty(int, int, int, int)}.
+ */
+public class PixelSurface implements Serializable {
+
+    /**
+     * The maximum number of separate rectangles to send. If more areas are
+     * dirty, their union is sent instead.
+     */
+    private static final int MAX_DIRTY_RECTS = 8;
+
+    private final Canvas canvas;
+    private final ImageData imageData;
+    private int x;
+    private int y;
+    private final List<Rectangle> dirty = new ArrayList<>();
+    private boolean flushScheduled;
+
+    /**
+     * Creates a transparent surface at the top left corner of the canvas.
+     *
+     * @param canvas
+     *            the canvas to show the pixels on
+     * @param width
+     *            the width in pixels
+     * @param height
+     *            the height in pixels
+     */
+    public PixelSurface(Canvas canvas, int width, int height) {
+        this.canvas = Objects.requireNonNull(canvas);
+        this.imageData = new ImageData(width, height);
+        canvas.addAttachListener(event -> {
+            // A new canvas element is empty
+            flushScheduled = false;
+            markDirty(0, 0, width, height);
+        });
+    }
+
+    /**
+     * @return the pixels of this surface, not a copy
+     */
+    public ImageData getImageData() {
+        return imageData;
+    }
+
+    /**
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return imageData.getWidth();
+    }
+
+    /**
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return imageData.getHeight();
+    }
+
+    /**
+     * Moves the surface on the canvas. All pixels are sent again; the pixels
+     * at the old position are left as they are.
+     *
+     * @param x
+     *            the x coordinate on the canvas of the left edge
+     * @param y
+     *            the y coordinate on the canvas of the top edge
+     */
+    public void setPosition(int x, int y) {
+        this.x = x;
+        this.y = y;
+        markDirty(0, 0, getWidth(), getHeight());
+    }
+
+    /**
+     * @param x
+     *            the x coordinate of the pixel
+     * @param y
+     *            the y coordinate of the pixel
+     * @return the pixel with alpha in the highest byte
+     */
+    public int getPixel(int x, int y) {
+        return imageData.getARGB(x, y);
+    }
+
+    /**
+     * Sets a pixel.
+     *
+     * @param x
+     *            the x coordinate of the pixel
+     * @param y
+     *            the y coordinate of the pixel
+     * @param argb
+     *            the pixel with alpha in the highest byte
+     */
+    public void setPixel(int x, int y, int argb) {
+        imageData.setARGB(x, y, argb);
+        markDirty(x, y, 1, 1);
+    }
+
+    /**
+     * Sets the pixels of a rectangle.
+     *
+     * @param x
+     *            the x coordinate of the rectangle
+     * @param y
+     *            the y coordinate of the rectangle
+     * @param width
+     *            the width of the rectangle
+     * @param height
+     *            the height of the rectangle
+     * @param argb
+     *            the pixels row by row, alpha in the highest byte of each
+     */
+    public void setPixels(int x, int y, int width, int height, int[] argb) {
+        if (argb.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height
+                    + " pixels, got " + argb.length);
+        }
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                imageData.setARGB(x + column, y + row,
+                        argb[row * width + column]);
+            }
+        }
+        markDirty(x, y, width, height);
+    }
+
+    /**
+     * Sets all pixels of a rectangle to the same value.
+     *
+     * @param x
+     *            the x coordinate of the rectangle
+     * @param y
+     *            the y coordinate of the rectangle
+     * @param width
+     *            the width of the rectangle
+     * @param height
+     *            the height of the rectangle
+     * @param argb
+     *            the pixel with alpha in the highest byte
+     */
+    public void fillRect(int x, int y, int width, int height, int argb) {
+        Rectangle area = new Rectangle(x, y, width, height)
+                .intersection(new Rectangle(getWidth(), getHeight()));
+        for (int row = area.y; row < area.y + area.height; row++) {
+            for (int column = area.x; column < area.x + area.width; column++) {
+                imageData.setARGB(column, row, argb);
+            }
+        }
+        markDirty(area.x, area.y, area.width, area.height);
+    }
+
+    /**
+     * Marks pixels changed directly in {@link #getImageData()} to be sent to
+     * the browser.
+     *
+     * @param x
+     *            the x coordinate of the changed rectangle
+     * @param y
+     *            the y coordinate of the changed rectangle
+     * @param width
+     *            the width of the changed rectangle
+     * @param height
+     *            the height of the changed rectangle
+     */
+    public void markDirty(int x, int y, int width, int height) {
+        Rectangle area = new Rectangle(x, y, width, height)
+                .intersection(new Rectangle(getWidth(), getHeight()));
+        if (area.isEmpty()) {
+            return;
+        }
+        // Touching rectangles are merged, as rows are sent whole anyway
+        boolean merged;
+        do {
+            merged = false;
+            for (int i = 0; i < dirty.size(); i++) {
+                Rectangle other = dirty.get(i);
+                if (area.intersects(new Rectangle(other.x - 1, other.y - 1,
+                        other.width + 2, other.height + 2))) {
+                    area = area.union(other);
+                    dirty.remove(i);
+                    merged = true;
+                    break;
+                }
+            }
+        } while (merged);
+        dirty.add(area);
+        if (dirty.size() > MAX_DIRTY_RECTS) {
+            Rectangle union = dirty.get(0);
+            for (Rectangle rect : dirty) {
+                union = union.union(rect);
+            }
+            dirty.clear();
+            dirty.add(union);
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            canvas.getElement().getNode().runWhenAttached(ui -> ui
+                    .beforeClientResponse(canvas, context -> flush()));
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        CanvasRenderingContext2D ctx = canvas.getContext();
+        for (Rectangle rect : dirty) {
+            ctx.putImageData(imageData, x, y, rect.x, rect.y, rect.width,
+                    rect.height);
+        }
+        dirty.clear();
+    }
+}
@@ -0,0 +1,24 @@
+package org.vaadin.pekkam;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+
+/**
+ * Draws the content of a {@link VirtualCanvas} when the browser needs a
+ * region of it. It is called with the session locked, like other listeners.
+ */
+@FunctionalInterface
+public interface RegionRenderer extends Serializable {
+
+    /**
+     * Draws the part of the content in the given region.
+     *
+     * @param ctx
+     *            the context to draw on, transformed so that the content is
+     *            drawn in its own coordinates
+     * @param region
+     *            the region in content coordinates; content outside of it is
+     *            clipped, so it can be skipped
+     */
+    void renderRegion(RenderingContext2D ctx, Rectangle2D region);
+}
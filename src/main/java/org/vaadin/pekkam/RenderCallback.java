@@ -0,0 +1,24 @@
+package org.vaadin.pekkam;
+
+import java.io.Serializable;
+
+/**
+ * Draws a frame of a {@link RenderLoop}. It is called on the loop's own
+ * thread without the session being locked, so it must not touch components
+ * or the session. Data shared with other threads must be synchronized.
+ */
+@FunctionalInterface
+public interface RenderCallback extends Serializable {
+
+    /**
+     * Draws one frame.
+     *
+     * @param ctx
+     *            the context to draw on, which records the frame without
+     *            sending it. The drawing state is reset for each frame, and
+     *            everything drawn before stays on the canvas unless cleared.
+     * @param time
+     *            the time since the loop was started, in seconds
+     */
+    void render(CanvasRenderingContext2D ctx, double time);
+}
@@ -0,0 +1,317 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.shared.Registration;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws a {@link Canvas} continuously from a background thread, e.g. for
+ * live telemetry, see {@link Canvas#startRenderLoop(double, RenderCallback)}.
+ * <p>
+ * The {@link RenderCallback} is called at most at the target frame rate on
+ * the loop's own thread, a virtual thread where the Java version has them.
+ * It draws into a frame buffer without locking the session. The session is
+ * locked only briefly to send a finished frame.
+ * <p>
+ * Frames are never queued. Only one frame is on its way to the browser at
+ * a time, and the next one is sent once the browser has shown it. If the
+ * browser or the network is slower than the loop, the loop skips rendering
+ * while a frame is already waiting to be sent. A new frame that is rendered
+ * before the waiting one is sent replaces it, so the browser always gets
+ * the latest frame and memory use stays bounded. Gradients, patterns and
+ * paths defined by a dropped frame are still sent, so later frames can use
+ * them. See {@link #getStatistics()} for how many frames have been dropped.
+ * <p>
+ * The loop assumes it owns the canvas: each frame starts with the default
+ * drawing state. The loop runs while the canvas is attached, and continues
+ * when it is attached again.
+ */
+public class RenderLoop implements Serializable {
+
+    private final Canvas canvas;
+    private final RenderCallback callback;
+    private final long period;
+    private final Registration attachRegistration;
+    private final Registration detachRegistration;
+    private transient volatile Thread thread;
+    private boolean stopped;
+
+    // The fields below are guarded by this object
+    private CommandBuffer pending;
+    private CommandBuffer carried;
+    private long pendingRendered;
+    private boolean commitScheduled;
+    /** The number of the frame on its way to the browser, or 0 */
+    private long inFlight;
+    private long inFlightRendered;
+    private long frameCount;
+    private Statistics statistics = Statistics.EMPTY;
+
+    /**
+     * Statistics of a render loop since it was started or the statistics
+     * were reset. The latency is the time from a frame being rendered to
+     * the browser reporting it shown, including the time waiting for the
+     * previous frame.
+     *
+     * @param rendered
+     *            the number of frames rendered
+     * @param shown
+     *            the number of frames the browser has shown
+     * @param dropped
+     *            the number of frames replaced by a newer one before being
+     *            sent
+     * @param lastLatency
+     *            the latency of the latest shown frame in milliseconds
+     * @param averageLatency
+     *            the average latency of the shown frames in milliseconds
+     * @param maxLatency
+     *            the largest latency of a shown frame in milliseconds
+     */
+    public record Statistics(long rendered, long shown, long dropped,
+            double lastLatency, double averageLatency, double maxLatency)
+            implements Serializable {
+
+        private static final Statistics EMPTY = new Statistics(0, 0, 0, 0, 0,
+                0);
+
+        private Statistics withRendered() {
+            return new Statistics(rendered + 1, shown, dropped, lastLatency,
+                    averageLatency, maxLatency);
+        }
+
+        private Statistics withDropped() {
+            return new Statistics(rendered, shown, dropped + 1, lastLatency,
+                    averageLatency, maxLatency);
+        }
+
+        private Statistics withShown(double latency) {
+            return new Statistics(rendered, shown + 1, dropped, latency,
+                    averageLatency + (latency - averageLatency) / (shown + 1),
+                    Math.max(maxLatency, latency));
+        }
+    }
+
+    RenderLoop(Canvas canvas, double targetFps, RenderCallback callback) {
+        if (!(targetFps > 0)) {
+            throw new IllegalArgumentException(
+                    "The frame rate must be positive");
+        }
+        this.canvas = canvas;
+        this.callback = Objects.requireNonNull(callback);
+        this.period = (long) (TimeUnit.SECONDS.toNanos(1) / targetFps);
+        attachRegistration = canvas
+                .addAttachListener(event -> start(event.getUI()));
+        detachRegistration = canvas.addDetachListener(event -> stopThread());
+        canvas.getUI().ifPresent(this::start);
+    }
+
+    /**
+     * Stops the loop. A frame being rendered is not sent.
+     */
+    public void stop() {
+        stopped = true;
+        attachRegistration.remove();
+        detachRegistration.remove();
+        stopThread();
+    }
+
+    /**
+     * @return whether the loop is rendering frames, which it does while the
+     *         canvas is attached until stopped
+     */
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * @return the frame rate the loop renders at, at most
+     */
+    public double getTargetFps() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / period;
+    }
+
+    /**
+     * @return a snapshot of the statistics
+     */
+    public synchronized Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Starts collecting the statistics again.
+     */
+    public synchronized void resetStatistics() {
+        statistics = Statistics.EMPTY;
+    }
+
+    private void start(UI ui) {
+        if (stopped) {
+            return;
+        }
+        stopThread();
+        synchronized (this) {
+            // A new canvas element has none of the frames sent before
+            pending = null;
+            carried = null;
+            commitScheduled = false;
+            inFlight = 0;
+        }
+        // The browser has no styles or paths defined by an earlier context
+        CanvasRenderingContext2D context = new CanvasRenderingContext2D(
+                new CommandBuffer(), canvas.getCanvasWidth(),
+                canvas.getCanvasHeight());
+        Thread loop = newThread(() -> run(ui, context));
+        loop.setName("canvas-render-loop");
+        thread = loop;
+        loop.start();
+    }
+
+    private void stopThread() {
+        Thread loop = thread;
+        thread = null;
+        if (loop != null) {
+            loop.interrupt();
+        }
+    }
+
+    private void run(UI ui, CanvasRenderingContext2D context) {
+        long start = System.nanoTime();
+        long next = start;
+        try {
+            while (thread == Thread.currentThread()) {
+                long now = System.nanoTime();
+                if (now < next) {
+                    TimeUnit.NANOSECONDS.sleep(next - now);
+                    continue;
+                }
+                // Frames that could not be rendered in time are skipped
+                next = Math.max(next + period, now);
+                if (isBacklogged()) {
+                    // The frame would only replace the one already waiting
+                    continue;
+                }
+                context.save();
+                callback.render(context, (now - start) / 1e9);
+                while (context.getSaveDepth() > 0) {
+                    context.restore();
+                }
+                CommandBuffer frame = context.takeRecording();
+                if (thread == Thread.currentThread()) {
+                    offer(ui, frame);
+                }
+            }
+        } catch (InterruptedException | UIDetachedException e) {
+            // Stopped or detached
+        } catch (RuntimeException e) {
+            LoggerFactory.getLogger(RenderLoop.class)
+                    .error("Rendering a frame failed, stopping the loop", e);
+        } finally {
+            if (thread == Thread.currentThread()) {
+                thread = null;
+            }
+        }
+    }
+
+    /**
+     * @return whether a frame is on its way to the browser and another one
+     *         is waiting to be sent
+     */
+    private synchronized boolean isBacklogged() {
+        return inFlight != 0 && pending != null;
+    }
+
+    /**
+     * Makes a rendered frame the next one to send, replacing a frame that
+     * has not been sent yet.
+     */
+    private void offer(UI ui, CommandBuffer frame) {
+        boolean commit;
+        synchronized (this) {
+            statistics = statistics.withRendered();
+            if (pending != null) {
+                statistics = statistics.withDropped();
+                CommandBuffer definitions = carried != null ? carried
+                        : new CommandBuffer();
+                CommandBuffer dropped = CommandLog.definitions(pending);
+                for (int position = 0; position < dropped.size();) {
+                    position = definitions.copyCommand(dropped, position);
+                }
+                carried = CommandLog.definitions(definitions);
+            }
+            pending = frame;
+            pendingRendered = System.nanoTime();
+            commit = inFlight == 0 && !commitScheduled;
+            commitScheduled |= commit;
+        }
+        if (commit) {
+            ui.access(this::commit);
+        }
+    }
+
+    /**
+     * Sends the pending frame. Called with the session locked.
+     */
+    private void commit() {
+        CommandBuffer definitions;
+        CommandBuffer frame;
+        long number;
+        synchronized (this) {
+            commitScheduled = false;
+            if (pending == null || thread == null) {
+                return;
+            }
+            definitions = carried;
+            frame = pending;
+            carried = null;
+            pending = null;
+            number = ++frameCount;
+            inFlight = number;
+            inFlightRendered = pendingRendered;
+        }
+        CanvasRenderingContext2D context = canvas.getContext();
+        if (definitions != null) {
+            context.drawFrame(() -> shown(number), definitions, frame);
+        } else {
+            context.drawFrame(() -> shown(number), frame);
+        }
+    }
+
+    /**
+     * Called with the session locked when the browser has shown a frame.
+     */
+    private void shown(long number) {
+        boolean commit;
+        synchronized (this) {
+            if (inFlight != number) {
+                // Shown by a canvas element that has been replaced since
+                return;
+            }
+            inFlight = 0;
+            statistics = statistics.withShown(
+                    (System.nanoTime() - inFlightRendered) / 1e6);
+            commit = pending != null && !commitScheduled;
+        }
+        if (commit) {
+            commit();
+        }
+    }
+
+    private static Thread newThread(Runnable task) {
+        try {
+            // Virtual threads are available from Java 21 on
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (Thread) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("unstarted", Runnable.class)
+                    .invoke(builder, task);
+        } catch (ReflectiveOperationException e) {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
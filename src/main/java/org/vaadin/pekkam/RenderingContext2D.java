@@ -0,0 +1,452 @@
+package org.vaadin.pekkam;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * The drawing API of a 2D rendering context, modeled after the <a href=
+ * "https://developer.mozilla.org/en-US/docs/Web/API/CanvasRenderingContext2D">client-side
+ * API</a>.
+ * <p>
+ * {@link CanvasRenderingContext2D} draws on a {@link Canvas} in the browser.
+ * {@link org.vaadin.pekkam.headless.Java2DRenderingContext} draws the same
+ * calls on a server-side image, without a browser.
+ */
+public interface RenderingContext2D {
+
+    void setFillStyle(String fillStyle);
+
+    /**
+     * Sets a gradient or a pattern as the fill style.
+     *
+     * @param fillStyle
+     *            the gradient or pattern
+     */
+    void setFillStyle(CanvasStyle fillStyle);
+
+    /**
+     * Creates a gradient along the line between two points. Add colors to
+     * it with {@link CanvasGradient#addColorStop(double, String)}.
+     *
+     * @param x0
+     *            the x coordinate of the start point
+     * @param y0
+     *            the y coordinate of the start point
+     * @param x1
+     *            the x coordinate of the end point
+     * @param y1
+     *            the y coordinate of the end point
+     * @return the new gradient
+     */
+    default CanvasGradient createLinearGradient(double x0, double y0,
+            double x1, double y1) {
+        return new CanvasGradient(CanvasGradient.Kind.LINEAR, x0, y0, x1, y1);
+    }
+
+    /**
+     * Creates a gradient between two circles.
+     *
+     * @param x0
+     *            the x coordinate of the center of the start circle
+     * @param y0
+     *            the y coordinate of the center of the start circle
+     * @param r0
+     *            the radius of the start circle
+     * @param x1
+     *            the x coordinate of the center of the end circle
+     * @param y1
+     *            the y coordinate of the center of the end circle
+     * @param r1
+     *            the radius of the end circle
+     * @return the new gradient
+     */
+    default CanvasGradient createRadialGradient(double x0, double y0,
+            double r0, double x1, double y1, double r1) {
+        return new CanvasGradient(CanvasGradient.Kind.RADIAL, x0, y0, r0, x1,
+                y1, r1);
+    }
+
+    /**
+     * Creates a gradient around a point.
+     *
+     * @param startAngle
+     *            the angle where the gradient starts, in radians clockwise
+     *            from the positive x axis
+     * @param x
+     *            the x coordinate of the center
+     * @param y
+     *            the y coordinate of the center
+     * @return the new gradient
+     */
+    default CanvasGradient createConicGradient(double startAngle, double x,
+            double y) {
+        return new CanvasGradient(CanvasGradient.Kind.CONIC, startAngle, x,
+                y);
+    }
+
+    /**
+     * Creates a pattern of an image.
+     *
+     * @param src
+     *            the url of the image
+     * @param repetition
+     *            "repeat", "repeat-x", "repeat-y" or "no-repeat"
+     * @return the new pattern
+     */
+    default CanvasPattern createPattern(String src, String repetition) {
+        return new CanvasPattern(src, repetition);
+    }
+
+    /**
+     * Sets a pattern of the given image as the fill style.
+     *
+     * @param src
+     *            the path to the image resource
+     * @param type
+     *            the pattern repeat type (see the Canvas API)
+     */
+    void setPatternFillStyle(String src, String type);
+
+    void setStrokeStyle(String strokeStyle);
+
+    /**
+     * Sets a gradient or a pattern as the stroke style.
+     *
+     * @param strokeStyle
+     *            the gradient or pattern
+     */
+    void setStrokeStyle(CanvasStyle strokeStyle);
+
+    /**
+     * Sets a pattern of the given image as the stroke style.
+     *
+     * @param src
+     *            the path to the image resource
+     * @param type
+     *            the pattern repeat type (see the Canvas API)
+     */
+    void setPatternStrokeStyle(String src, String type);
+
+    void setLineWidth(double lineWidth);
+
+    /**
+     * @param lineCap
+     *            how the ends of lines are drawn: "butt", "round" or "square"
+     */
+    void setLineCap(String lineCap);
+
+    /**
+     * @param lineJoin
+     *            how the corners of lines are drawn: "miter", "round" or
+     *            "bevel"
+     */
+    void setLineJoin(String lineJoin);
+
+    void setFont(String font);
+
+    void setLineDash(double... segments);
+
+    void arc(double x, double y, double radius, double startAngle,
+            double endAngle, boolean antiClockwise);
+
+    void arcTo(double x1, double y1, double x2, double y2, double radius);
+
+    void beginPath();
+
+    void bezierCurveTo(double cp1x, double cp1y, double cp2x, double cp2y,
+            double x, double y);
+
+    void clearRect(double x, double y, double width, double height);
+
+    void closePath();
+
+    void ellipse(double x, double y, double radiusX, double radiusY,
+            double rotation, double startAngle, double endAngle);
+
+    void ellipse(double x, double y, double radiusX, double radiusY,
+            double rotation, double startAngle, double endAngle,
+            boolean clockwise);
+
+    void drawImage(String src, double x, double y);
+
+    void drawImage(String src, double x, double y, double width,
+            double height);
+
+    void fill();
+
+    void fillRect(double x, double y, double width, double height);
+
+    void fillText(String text, double x, double y);
+
+    void lineTo(double x, double y);
+
+    void moveTo(double x, double y);
+
+    void quadraticCurveTo(double cpx, double cpy, double x, double y);
+
+    void rect(double x, double y, double width, double height);
+
+    void save();
+
+    void restore();
+
+    void rotate(double angle);
+
+    void scale(double x, double y);
+
+    void translate(double x, double y);
+
+    void stroke();
+
+    void strokeRect(double x, double y, double width, double height);
+
+    void strokeText(String text, double x, double y);
+
+    void clip();
+
+    /**
+     * Adds a polyline to the current path: a {@link #moveTo(double, double)}
+     * to the first point and a {@link #lineTo(double, double)} to each of the
+     * following points.
+     *
+     * @param xy
+     *            the points as a flat array of <code>x, y</code> pairs
+     */
+    void polyline(double[] xy);
+
+    /**
+     * @see #polyline(double[])
+     */
+    default void polyline(DoubleBuffer xy) {
+        polyline(toArray(xy));
+    }
+
+    /**
+     * @see #polyline(double[])
+     */
+    default void polyline(FloatBuffer xy) {
+        polyline(toArray(xy));
+    }
+
+    /**
+     * Fills many rectangles with the current fill style, as if calling
+     * {@link #fillRect(double, double, double, double)} for each of them.
+     *
+     * @param xywh
+     *            the rectangles as a flat array of
+     *            <code>x, y, width, height</code> values
+     */
+    void fillRects(double[] xywh);
+
+    /**
+     * @see #fillRects(double[])
+     */
+    default void fillRects(DoubleBuffer xywh) {
+        fillRects(toArray(xywh));
+    }
+
+    /**
+     * @see #fillRects(double[])
+     */
+    default void fillRects(FloatBuffer xywh) {
+        fillRects(toArray(xywh));
+    }
+
+    /**
+     * Draws a filled circle with the current fill style at each of the given
+     * points. All circles are filled at once as one path, which replaces the
+     * current path.
+     *
+     * @param xy
+     *            the centers of the circles as a flat array of
+     *            <code>x, y</code> pairs
+     * @param radius
+     *            the radius of the circles
+     */
+    void drawPoints(double[] xy, double radius);
+
+    /**
+     * @see #drawPoints(double[], double)
+     */
+    default void drawPoints(DoubleBuffer xy, double radius) {
+        drawPoints(toArray(xy), radius);
+    }
+
+    /**
+     * @see #drawPoints(double[], double)
+     */
+    default void drawPoints(FloatBuffer xy, double radius) {
+        drawPoints(toArray(xy), radius);
+    }
+
+    /**
+     * Strokes many separate line segments with the current stroke style. All
+     * segments are stroked at once as one path, which replaces the current
+     * path.
+     *
+     * @param x1y1x2y2
+     *            the segments as a flat array of <code>x1, y1, x2, y2</code>
+     *            values
+     */
+    void strokeSegments(double[] x1y1x2y2);
+
+    /**
+     * @see #strokeSegments(double[])
+     */
+    default void strokeSegments(DoubleBuffer x1y1x2y2) {
+        strokeSegments(toArray(x1y1x2y2));
+    }
+
+    /**
+     * @see #strokeSegments(double[])
+     */
+    default void strokeSegments(FloatBuffer x1y1x2y2) {
+        strokeSegments(toArray(x1y1x2y2));
+    }
+
+    /**
+     * Defines a sprite atlas for
+     * {@link #drawSprites(String, int[], double[])}, replacing an atlas with
+     * the same id. The browser starts loading the image, and an
+     * {@link org.vaadin.pekkam.event.ImageLoadEvent} is fired once it has
+     * been decoded.
+     *
+     * @param id
+     *            the id of the atlas
+     * @param atlas
+     *            the atlas
+     */
+    void defineSpriteAtlas(String id, SpriteAtlas atlas);
+
+    /**
+     * Draws frames of a sprite atlas at their natural size. Sprites drawn
+     * before the image of the atlas has been loaded are drawn once it has
+     * been loaded, with the context state of that time.
+     *
+     * @param atlasId
+     *            the id of an atlas defined with
+     *            {@link #defineSpriteAtlas(String, SpriteAtlas)}
+     * @param frames
+     *            the number of the frame to draw for each sprite
+     * @param xy
+     *            the top left corners of the sprites as a flat array of
+     *            <code>x, y</code> pairs, one for each frame
+     */
+    void drawSprites(String atlasId, int[] frames, double[] xy);
+
+    /**
+     * Replaces pixels with the given image data. The current transformation,
+     * clip, alpha and compositing are not applied.
+     *
+     * @param imageData
+     *            the pixels
+     * @param dx
+     *            the x coordinate of the left edge
+     * @param dy
+     *            the y coordinate of the top edge
+     */
+    void putImageData(ImageData imageData, int dx, int dy);
+
+    /**
+     * Replaces pixels with a rectangle of the given image data.
+     *
+     * @param imageData
+     *            the pixels
+     * @param dx
+     *            the x coordinate of the image data's left edge
+     * @param dy
+     *            the y coordinate of the image data's top edge
+     * @param dirtyX
+     *            the x coordinate of the rectangle in the image data
+     * @param dirtyY
+     *            the y coordinate of the rectangle in the image data
+     * @param dirtyWidth
+     *            the width of the rectangle
+     * @param dirtyHeight
+     *            the height of the rectangle
+     */
+    void putImageData(ImageData imageData, int dx, int dy, int dirtyX,
+            int dirtyY, int dirtyWidth, int dirtyHeight);
+
+    /**
+     * Fills a path with the current fill style. The current path is not
+     * changed.
+     *
+     * @param path
+     *            the path
+     */
+    void fill(Path2D path);
+
+    /**
+     * Strokes a path with the current stroke style. The current path is not
+     * changed.
+     *
+     * @param path
+     *            the path
+     */
+    void stroke(Path2D path);
+
+    /**
+     * Narrows the clip region to a path. The current path is not changed.
+     *
+     * @param path
+     *            the path
+     */
+    void clip(Path2D path);
+
+    /**
+     * Fills a path at many positions, as if translating the context to each
+     * position and calling {@link #fill(Path2D)}. The path is drawn around
+     * its origin, so e.g. a marker centered at (0, 0) is centered at each
+     * position.
+     *
+     * @param path
+     *            the path
+     * @param xy
+     *            the positions as a flat array of <code>x, y</code> pairs
+     */
+    default void fillPathAt(Path2D path, double[] xy) {
+        for (int i = 0; i + 1 < xy.length; i += 2) {
+            save();
+            translate(xy[i], xy[i + 1]);
+            fill(path);
+            restore();
+        }
+    }
+
+    /**
+     * Fills a path many times, each time with a transformation applied on
+     * top of the current one, as if calling <code>transform(a, b, c, d, e,
+     * f)</code> and {@link #fill(Path2D)} for each of them.
+     *
+     * @param path
+     *            the path
+     * @param transforms
+     *            the transformations as a flat array of
+     *            <code>a, b, c, d, e, f</code> values, the matrix
+     *            <code>[a c e; b d f; 0 0 1]</code>
+     */
+    void fillPathTransformed(Path2D path, double[] transforms);
+
+    /**
+     * @return the remaining values of the buffer, without changing its
+     *         position
+     */
+    private static double[] toArray(DoubleBuffer buffer) {
+        double[] values = new double[buffer.remaining()];
+        buffer.duplicate().get(values);
+        return values;
+    }
+
+    /**
+     * @return the remaining values of the buffer, without changing its
+     *         position
+     */
+    private static double[] toArray(FloatBuffer buffer) {
+        double[] values = new double[buffer.remaining()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.get(buffer.position() + i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,125 @@
+package org.vaadin.pekkam;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An image containing many small images, the frames, for drawing them with
+ * {@link RenderingContext2D#drawSprites(String, int[], double[])}.
+ * <p>
+ * The frames are rectangles of the image, numbered from 0 in the order they
+ * are given. An atlas is defined once on a context with
+ * {@link RenderingContext2D#defineSpriteAtlas(String, SpriteAtlas)}, which
+ * makes the browser load and decode the image.
+ */
+public final class SpriteAtlas implements Serializable {
+
+    private final String src;
+    private final double[] frames;
+
+    /**
+     * Creates an atlas with the given frames.
+     *
+     * @param src
+     *            the url of the image
+     * @param frames
+     *            the frames as a flat array of
+     *            <code>x, y, width, height</code> values in image pixels
+     */
+    public SpriteAtlas(String src, double... frames) {
+        if (frames.length % 4 != 0) {
+            throw new IllegalArgumentException(
+                    "The number of values must be divisible by 4");
+        }
+        this.src = src;
+        this.frames = frames.clone();
+    }
+
+    /**
+     * Creates an atlas of frames of the same size, laid out in a grid
+     * starting from the top left corner. The frames are numbered row by row.
+     *
+     * @param src
+     *            the url of the image
+     * @param frameWidth
+     *            the width of a frame in image pixels
+     * @param frameHeight
+     *            the height of a frame in image pixels
+     * @param columns
+     *            the number of frames on each row
+     * @param rows
+     *            the number of rows
+     * @return the new atlas
+     */
+    public static SpriteAtlas grid(String src, double frameWidth,
+            double frameHeight, int columns, int rows) {
+        double[] frames = new double[columns * rows * 4];
+        int i = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                frames[i++] = column * frameWidth;
+                frames[i++] = row * frameHeight;
+                frames[i++] = frameWidth;
+                frames[i++] = frameHeight;
+            }
+        }
+        return new SpriteAtlas(src, frames);
+    }
+
+    /**
+     * @return the url of the image
+     */
+    public String getSrc() {
+        return src;
+    }
+
+    /**
+     * @return the number of frames
+     */
+    public int getFrameCount() {
+        return frames.length / 4;
+    }
+
+    /**
+     * @param frame
+     *            the number of the frame
+     * @return the rectangle of the frame in image pixels
+     */
+    public Rectangle2D getFrame(int frame) {
+        checkFrame(frame);
+        return new Rectangle2D.Double(frames[frame * 4],
+                frames[frame * 4 + 1], frames[frame * 4 + 2],
+                frames[frame * 4 + 3]);
+    }
+
+    double getFrameWidth(int frame) {
+        return frames[frame * 4 + 2];
+    }
+
+    double getFrameHeight(int frame) {
+        return frames[frame * 4 + 3];
+    }
+
+    double[] getFrames() {
+        return frames;
+    }
+
+    void checkFrame(int frame) {
+        if (frame < 0 || frame >= getFrameCount()) {
+            throw new IndexOutOfBoundsException("No frame " + frame
+                    + " in an atlas of " + getFrameCount() + " frames");
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SpriteAtlas other && src.equals(other.src)
+                && Arrays.equals(frames, other.frames);
+    }
+
+    @Override
+    public int hashCode() {
+        return src.hashCode() * 31 + Arrays.hashCode(frames);
+    }
+}
@@ -0,0 +1,237 @@
+package org.vaadin.pekkam;
+
+/**
+ * Parses SVG path data into a {@link Path2D}. Relative and shorthand
+ * commands are converted to absolute canvas path segments, and elliptical
+ * arcs from their endpoint form to the center form of
+ * {@link Path2D#ellipse}.
+ *
+ * @see <a href="https://www.w3.org/TR/SVG/paths.html#PathData">SVG path
+ *      data</a>
+ */
+final class SvgPathParser {
+
+    private final String data;
+    private final Path2D path;
+    private int position;
+
+    private double x;
+    private double y;
+    private double startX;
+    private double startY;
+    /** The last control point of a curve, for the smooth curve commands */
+    private double controlX;
+    private double controlY;
+    private char previous;
+
+    SvgPathParser(String data, Path2D path) {
+        this.data = data;
+        this.path = path;
+    }
+
+    void parse() {
+        skipSeparators();
+        char command = 0;
+        while (position < data.length()) {
+            char c = data.charAt(position);
+            if (Character.isLetter(c)) {
+                command = c;
+                position++;
+            } else if (command == 0) {
+                throw error("Expected a command");
+            } else if (command == 'M') {
+                // Coordinates after a move are lines
+                command = 'L';
+            } else if (command == 'm') {
+                command = 'l';
+            } else if (command == 'Z' || command == 'z') {
+                throw error("Unexpected number");
+            }
+            execute(command);
+            previous = Character.toUpperCase(command);
+            skipSeparators();
+        }
+    }
+
+    private void execute(char command) {
+        boolean relative = Character.isLowerCase(command);
+        double dx = relative ? x : 0;
+        double dy = relative ? y : 0;
+        switch (Character.toUpperCase(command)) {
+        case 'M' -> {
+            x = dx + number();
+            y = dy + number();
+            startX = x;
+            startY = y;
+            path.moveTo(x, y);
+        }
+        case 'L' -> {
+            x = dx + number();
+            y = dy + number();
+            path.lineTo(x, y);
+        }
+        case 'H' -> {
+            x = dx + number();
+            path.lineTo(x, y);
+        }
+        case 'V' -> {
+            y = dy + number();
+            path.lineTo(x, y);
+        }
+        case 'C' -> curve(dx + number(), dy + number(), dx, dy);
+        case 'S' -> {
+            boolean smooth = previous == 'C' || previous == 'S';
+            curve(smooth ? 2 * x - controlX : x, smooth ? 2 * y - controlY : y,
+                    dx, dy);
+        }
+        case 'Q' -> quadratic(dx + number(), dy + number(), dx, dy);
+        case 'T' -> {
+            boolean smooth = previous == 'Q' || previous == 'T';
+            quadratic(smooth ? 2 * x - controlX : x,
+                    smooth ? 2 * y - controlY : y, dx, dy);
+        }
+        case 'A' -> arc(number(), number(), number(), flag(), flag(),
+                dx + number(), dy + number());
+        case 'Z' -> {
+            path.closePath();
+            x = startX;
+            y = startY;
+        }
+        default -> throw error("Unknown command " + command);
+        }
+    }
+
+    private void curve(double cp1x, double cp1y, double dx, double dy) {
+        double cp2x = dx + number();
+        double cp2y = dy + number();
+        x = dx + number();
+        y = dy + number();
+        path.bezierCurveTo(cp1x, cp1y, cp2x, cp2y, x, y);
+        controlX = cp2x;
+        controlY = cp2y;
+    }
+
+    private void quadratic(double cpx, double cpy, double dx, double dy) {
+        x = dx + number();
+        y = dy + number();
+        path.quadraticCurveTo(cpx, cpy, x, y);
+        controlX = cpx;
+        controlY = cpy;
+    }
+
+    /**
+     * Converts an arc from the endpoint form to the center form, see
+     * appendix B.2.4 of the SVG specification.
+     */
+    private void arc(double rx, double ry, double rotationDegrees,
+            boolean largeArc, boolean sweep, double endX, double endY) {
+        double fromX = x;
+        double fromY = y;
+        x = endX;
+        y = endY;
+        rx = Math.abs(rx);
+        ry = Math.abs(ry);
+        if (fromX == endX && fromY == endY) {
+            return;
+        }
+        if (rx == 0 || ry == 0) {
+            path.lineTo(endX, endY);
+            return;
+        }
+        double phi = Math.toRadians(rotationDegrees % 360);
+        double cos = Math.cos(phi);
+        double sin = Math.sin(phi);
+        double hx = (fromX - endX) / 2;
+        double hy = (fromY - endY) / 2;
+        double x1 = cos * hx + sin * hy;
+        double y1 = -sin * hx + cos * hy;
+        // Radii that are too small are scaled up
+        double lambda = (x1 * x1) / (rx * rx) + (y1 * y1) / (ry * ry);
+        if (lambda > 1) {
+            rx *= Math.sqrt(lambda);
+            ry *= Math.sqrt(lambda);
+        }
+        double numerator = rx * rx * ry * ry - rx * rx * y1 * y1
+                - ry * ry * x1 * x1;
+        double denominator = rx * rx * y1 * y1 + ry * ry * x1 * x1;
+        double factor = Math.sqrt(Math.max(0, numerator / denominator));
+        if (largeArc == sweep) {
+            factor = -factor;
+        }
+        double cx1 = factor * rx * y1 / ry;
+        double cy1 = -factor * ry * x1 / rx;
+        double cx = cos * cx1 - sin * cy1 + (fromX + endX) / 2;
+        double cy = sin * cx1 + cos * cy1 + (fromY + endY) / 2;
+        double start = Math.atan2((y1 - cy1) / ry, (x1 - cx1) / rx);
+        double end = Math.atan2((-y1 - cy1) / ry, (-x1 - cx1) / rx);
+        path.ellipse(cx, cy, rx, ry, phi, start, end, !sweep);
+    }
+
+    private double number() {
+        skipSeparators();
+        int start = position;
+        if (position < data.length()
+                && (data.charAt(position) == '+' || data.charAt(position) == '-')) {
+            position++;
+        }
+        boolean dot = false;
+        boolean digits = false;
+        while (position < data.length()) {
+            char c = data.charAt(position);
+            if (Character.isDigit(c)) {
+                digits = true;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (digits && position < data.length()
+                && (data.charAt(position) == 'e' || data.charAt(position) == 'E')) {
+            position++;
+            if (position < data.length() && (data.charAt(position) == '+'
+                    || data.charAt(position) == '-')) {
+                position++;
+            }
+            while (position < data.length()
+                    && Character.isDigit(data.charAt(position))) {
+                position++;
+            }
+        }
+        if (!digits) {
+            throw error("Expected a number");
+        }
+        return Double.parseDouble(data.substring(start, position));
+    }
+
+    /**
+     * Reads an arc flag, which may be written without a separator before
+     * the next value.
+     */
+    private boolean flag() {
+        skipSeparators();
+        if (position < data.length()) {
+            char c = data.charAt(position);
+            if (c == '0' || c == '1') {
+                position++;
+                return c == '1';
+            }
+        }
+        throw error("Expected a flag");
+    }
+
+    private void skipSeparators() {
+        while (position < data.length()
+                && (Character.isWhitespace(data.charAt(position))
+                        || data.charAt(position) == ',')) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(
+                message + " at position " + position + " of path data: "
+                        + data);
+    }
+}
@@ -0,0 +1,292 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.function.SerializableSupplier;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Drops drawing commands that cannot paint anything inside the canvas or the
+ * current clip region.
+ * <p>
+ * All bounds are tracked in canvas pixels, i.e. after applying the current
+ * transformation. Path commands are held back until the path is filled,
+ * stroked or used as a clip, so that paths that are entirely outside the
+ * visible area are never sent. Shadows are not taken into account.
+ */
+final class ViewportCuller implements Serializable {
+
+    private static final double ANTIALIASING_MARGIN = 1;
+
+    /**
+     * The area that can be painted, in canvas pixels.
+     */
+    private final SerializableSupplier<Rectangle2D> surface;
+
+    /**
+     * Path commands that have not been sent yet.
+     */
+    private CommandBuffer pendingPath = new CommandBuffer();
+
+    /**
+     * The bounds of the current path, <code>null</code> if the path is
+     * empty.
+     */
+    private Rectangle2D pathBounds;
+
+    /**
+     * Whether the path may extend anywhere, e.g. because its transformation
+     * is unknown.
+     */
+    private boolean pathUnbounded;
+
+    ViewportCuller(SerializableSupplier<Rectangle2D> surface) {
+        this.surface = surface;
+        // Parts of the current path may have been sent before culling
+        pathUnbounded = true;
+    }
+
+    /**
+     * @return the buffer to add path commands to
+     */
+    CommandBuffer pathBuffer() {
+        return pendingPath;
+    }
+
+    void beginPath() {
+        pendingPath = new CommandBuffer();
+        pendingPath.op(Opcodes.BEGIN_PATH);
+        pathBounds = null;
+        pathUnbounded = false;
+    }
+
+    /**
+     * Marks the current path as replaced by a path that has been sent
+     * already.
+     */
+    void replacePath() {
+        pendingPath = new CommandBuffer();
+        pathBounds = null;
+        pathUnbounded = true;
+    }
+
+    /**
+     * Sends the held back path commands.
+     */
+    void flushPath(CommandBuffer target) {
+        for (int position = 0; position < pendingPath.size();) {
+            position = target.copyCommand(pendingPath, position);
+        }
+        pendingPath = new CommandBuffer();
+    }
+
+    /**
+     * Adds points to the bounds of the current path.
+     *
+     * @param xy
+     *            points in user space as <code>x, y</code> pairs
+     */
+    void includeInPath(ContextState state, double... xy) {
+        if (state.transform == null) {
+            pathUnbounded = true;
+            return;
+        }
+        Rectangle2D bounds = toCanvas(state.transform, xy, 0, xy.length);
+        pathBounds = pathBounds == null ? bounds
+                : pathBounds.createUnion(bounds);
+    }
+
+    /**
+     * Adds a rectangle to the bounds of the current path.
+     */
+    void includeRectInPath(ContextState state, double x, double y,
+            double width, double height) {
+        includeInPath(state, x, y, x + width, y, x, y + height, x + width,
+                y + height);
+    }
+
+    void includeAnywhereInPath() {
+        pathUnbounded = true;
+    }
+
+    /**
+     * @param stroke
+     *            whether the path is stroked rather than filled
+     * @return whether filling or stroking the current path can paint
+     *         anything visible
+     */
+    boolean isPathVisible(ContextState state, boolean stroke) {
+        if (pathUnbounded || state.transform == null) {
+            return true;
+        }
+        if (pathBounds == null) {
+            return false;
+        }
+        double margin = ANTIALIASING_MARGIN
+                + (stroke ? strokeMargin(state) * scale(state.transform) : 0);
+        return intersectsVisibleArea(state, pathBounds, margin);
+    }
+
+    /**
+     * Narrows the clip region of the state to the current path.
+     */
+    void clip(ContextState state) {
+        if (pathUnbounded || state.transform == null) {
+            return;
+        }
+        Rectangle2D bounds = pathBounds != null ? pathBounds
+                : new Rectangle2D.Double();
+        state.clip = state.clip == null ? bounds
+                : state.clip.createIntersection(bounds);
+    }
+
+    /**
+     * Narrows the clip region of the state to a rectangle in user space.
+     */
+    void clip(ContextState state, Rectangle2D bounds) {
+        if (state.transform == null) {
+            return;
+        }
+        Rectangle2D clip = toCanvas(state.transform,
+                new double[] { bounds.getMinX(), bounds.getMinY(),
+                        bounds.getMaxX(), bounds.getMinY(), bounds.getMinX(),
+                        bounds.getMaxY(), bounds.getMaxX(), bounds.getMaxY() },
+                0, 8);
+        state.clip = state.clip == null ? clip
+                : state.clip.createIntersection(clip);
+    }
+
+    /**
+     * @return whether the given rectangle in user space can be visible
+     */
+    boolean isRectVisible(ContextState state, double x, double y,
+            double width, double height, boolean stroke) {
+        if (state.transform == null) {
+            return true;
+        }
+        Rectangle2D bounds = toCanvas(state.transform, new double[] { x, y,
+                x + width, y, x, y + height, x + width, y + height }, 0, 8);
+        double margin = ANTIALIASING_MARGIN
+                + (stroke ? strokeMargin(state) * scale(state.transform) : 0);
+        return intersectsVisibleArea(state, bounds, margin);
+    }
+
+    /**
+     * Removes the items of a flat array that cannot be visible.
+     *
+     * @param values
+     *            the items as a flat array
+     * @param stride
+     *            the number of values per item
+     * @param pointsPerItem
+     *            the number of <code>x, y</code> pairs at the start of an
+     *            item that define its bounds
+     * @param extent
+     *            how much an item extends around its points in user space
+     * @return the visible items, or the given array if all are visible
+     */
+    double[] filter(ContextState state, double[] values, int stride,
+            int pointsPerItem, double extent) {
+        if (state.transform == null) {
+            return values;
+        }
+        double margin = ANTIALIASING_MARGIN
+                + extent * scale(state.transform);
+        double[] visible = new double[values.length];
+        int size = 0;
+        for (int i = 0; i < values.length; i += stride) {
+            Rectangle2D bounds = toCanvas(state.transform, values, i,
+                    2 * pointsPerItem);
+            if (intersectsVisibleArea(state, bounds, margin)) {
+                System.arraycopy(values, i, visible, size, stride);
+                size += stride;
+            }
+        }
+        return size < values.length ? Arrays.copyOf(visible, size) : values;
+    }
+
+    /**
+     * Removes the rectangles that cannot be visible.
+     *
+     * @param xywh
+     *            the rectangles as a flat array of
+     *            <code>x, y, width, height</code> values
+     * @return the visible rectangles, or the given array if all are visible
+     */
+    double[] filterRects(ContextState state, double[] xywh) {
+        if (state.transform == null) {
+            return xywh;
+        }
+        double[] visible = new double[xywh.length];
+        int size = 0;
+        for (int i = 0; i < xywh.length; i += 4) {
+            if (isRectVisible(state, xywh[i], xywh[i + 1], xywh[i + 2],
+                    xywh[i + 3], false)) {
+                System.arraycopy(xywh, i, visible, size, 4);
+                size += 4;
+            }
+        }
+        return size < xywh.length ? Arrays.copyOf(visible, size) : xywh;
+    }
+
+    /**
+     * @return how far a stroke can extend from the path in user space,
+     *         including miter joins
+     */
+    double strokeMargin(ContextState state) {
+        double lineWidth = parse(state.properties.get("lineWidth"), 1);
+        double miterLimit = parse(state.properties.get("miterLimit"), 10);
+        return lineWidth / 2 * Math.max(miterLimit, Math.sqrt(2));
+    }
+
+    private boolean intersectsVisibleArea(ContextState state,
+            Rectangle2D bounds, double margin) {
+        Rectangle2D visible = surface.get();
+        if (state.clip != null) {
+            visible = visible.createIntersection(state.clip);
+        }
+        if (visible.isEmpty()) {
+            return false;
+        }
+        return bounds.getMaxX() + margin > visible.getMinX()
+                && bounds.getMinX() - margin < visible.getMaxX()
+                && bounds.getMaxY() + margin > visible.getMinY()
+                && bounds.getMinY() - margin < visible.getMaxY();
+    }
+
+    private static Rectangle2D toCanvas(AffineTransform transform,
+            double[] xy, int offset, int length) {
+        double[] points = new double[length];
+        transform.transform(xy, offset, points, 0, length / 2);
+        double minX = points[0];
+        double minY = points[1];
+        double maxX = minX;
+        double maxY = minY;
+        for (int i = 2; i < length; i += 2) {
+            minX = Math.min(minX, points[i]);
+            maxX = Math.max(maxX, points[i]);
+            minY = Math.min(minY, points[i + 1]);
+            maxY = Math.max(maxY, points[i + 1]);
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * @return the largest factor by which the transformation scales a length
+     */
+    private static double scale(AffineTransform transform) {
+        return Math.max(
+                Math.hypot(transform.getScaleX(), transform.getShearY()),
+                Math.hypot(transform.getShearX(), transform.getScaleY()));
+    }
+
+    private static double parse(String value, double defaultValue) {
+        try {
+            return value != null ? Double.parseDouble(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
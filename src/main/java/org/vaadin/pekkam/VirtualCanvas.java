@@ -0,0 +1,357 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.HasSize;
+import com.vaadin.flow.component.HasStyle;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.dependency.JsModule;
+import com.vaadin.flow.dom.Element;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Objects;
+
+/**
+ * A scrollable and zoomable view of content that is much larger than what
+ * fits on a canvas, such as a floor plan or a long timeline.
+ * <p>
+ * The content is never drawn as a whole. It is split into square regions of
+ * {@value #REGION_SIZE} screen pixels at each zoom level, which is a power
+ * of two. When the user pans or zooms, the browser asks for the regions that
+ * became visible and do not yet have content, and the
+ * {@link RegionRenderer} draws each of them with its own rendering context.
+ * The browser keeps the most recently used regions, so small pans and
+ * zooming back to an earlier level do not need the server at all. While
+ * regions are loading, coarser regions are shown scaled if available.
+ * <p>
+ * The user pans by dragging or with the mouse wheel and zooms with the
+ * mouse wheel while holding down Ctrl, around the mouse position. When the
+ * content changes, call {@link #invalidate(double, double, double, double)}
+ * with the changed area to have the affected regions drawn again.
+ */
+@Tag("div")
+@JsModule("./canvas-java/canvas-viewport.js")
+@SuppressWarnings("serial")
+public class VirtualCanvas extends Component implements HasStyle, HasSize {
+
+    /**
+     * The width and height of the regions in screen pixels.
+     */
+    public static final int REGION_SIZE = 256;
+
+    /**
+     * The maximum number of regions rendered for one request, which is more
+     * than fit on any screen.
+     */
+    private static final int MAX_REGIONS_PER_REQUEST = 256;
+
+    private final double contentWidth;
+    private final double contentHeight;
+    private final RegionRenderer renderer;
+    private double minZoom = 1.0 / 64;
+    private double maxZoom = 64;
+    private int cacheSize = 512;
+    private int reportInterval = 100;
+    private boolean cullingEnabled;
+
+    private double viewX;
+    private double viewY;
+    private double zoom = 1;
+    private double viewWidth;
+    private double viewHeight;
+    private boolean viewChanged;
+    private boolean syncScheduled;
+
+    /**
+     * Creates a new view of content with the given size. The component has
+     * no size of its own, so set it e.g. with {@link #setSizeFull()}.
+     *
+     * @param contentWidth
+     *            the width of the content in its own coordinates
+     * @param contentHeight
+     *            the height of the content in its own coordinates
+     * @param renderer
+     *            draws the regions of the content
+     */
+    public VirtualCanvas(double contentWidth, double contentHeight,
+            RegionRenderer renderer) {
+        this.contentWidth = contentWidth;
+        this.contentHeight = contentHeight;
+        this.renderer = Objects.requireNonNull(renderer);
+
+        getStyle().set("position", "relative").set("overflow", "hidden")
+                .set("touch-action", "none");
+        Element canvas = new Element("canvas");
+        canvas.getStyle().set("position", "absolute").set("left", "0")
+                .set("top", "0").set("width", "100%").set("height", "100%");
+        getElement().appendChild(canvas);
+
+        getElement().addEventListener("canvas-viewport-request",
+                event -> render(event.getEventData()
+                        .getObject("event.detail")))
+                .addEventData("event.detail");
+        addAttachListener(event -> {
+            // A new element has no view, so it gets the last known one
+            viewChanged = true;
+            syncScheduled = false;
+            scheduleSync();
+        });
+    }
+
+    /**
+     * @return the width of the content in its own coordinates
+     */
+    public double getContentWidth() {
+        return contentWidth;
+    }
+
+    /**
+     * @return the height of the content in its own coordinates
+     */
+    public double getContentHeight() {
+        return contentHeight;
+    }
+
+    /**
+     * Shows the given point of the content at the top left corner with the
+     * given zoom. The view is kept inside the content.
+     *
+     * @param x
+     *            the x coordinate of the content at the left edge
+     * @param y
+     *            the y coordinate of the content at the top edge
+     * @param zoom
+     *            the number of screen pixels per content unit
+     */
+    public void setView(double x, double y, double zoom) {
+        this.viewX = x;
+        this.viewY = y;
+        this.zoom = Math.max(minZoom, Math.min(maxZoom, zoom));
+        viewChanged = true;
+        scheduleSync();
+    }
+
+    /**
+     * @return the x coordinate of the content at the left edge, as last
+     *         reported by the browser or set with
+     *         {@link #setView(double, double, double)}
+     */
+    public double getViewX() {
+        return viewX;
+    }
+
+    /**
+     * @return the y coordinate of the content at the top edge, as last
+     *         reported by the browser or set with
+     *         {@link #setView(double, double, double)}
+     */
+    public double getViewY() {
+        return viewY;
+    }
+
+    /**
+     * @return the number of screen pixels per content unit, as last reported
+     *         by the browser or set with
+     *         {@link #setView(double, double, double)}
+     */
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @return the visible area in content coordinates, as last reported by
+     *         the browser, which happens when it needs new regions
+     */
+    public Rectangle2D getVisibleArea() {
+        return new Rectangle2D.Double(viewX, viewY, viewWidth, viewHeight);
+    }
+
+    /**
+     * Sets the range the user can zoom in, 1/64 to 64 by default.
+     *
+     * @param minZoom
+     *            the smallest number of screen pixels per content unit
+     * @param maxZoom
+     *            the largest number of screen pixels per content unit
+     */
+    public void setZoomRange(double minZoom, double maxZoom) {
+        if (minZoom <= 0 || maxZoom < minZoom) {
+            throw new IllegalArgumentException(
+                    "Invalid zoom range " + minZoom + " - " + maxZoom);
+        }
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        scheduleSync();
+    }
+
+    /**
+     * Sets how many rendered regions the browser keeps, 512 by default. Each
+     * region takes {@value #REGION_SIZE}&times;{@value #REGION_SIZE} pixels
+     * of memory.
+     *
+     * @param cacheSize
+     *            the number of regions
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+        scheduleSync();
+    }
+
+    /**
+     * Sets the minimum time between two requests for new regions while the
+     * user pans or zooms, 100 milliseconds by default.
+     *
+     * @param reportInterval
+     *            the interval in milliseconds
+     */
+    public void setReportInterval(int reportInterval) {
+        this.reportInterval = reportInterval;
+        scheduleSync();
+    }
+
+    /**
+     * Sets whether drawing commands outside the rendered region are dropped
+     * before they are sent to the browser, see
+     * {@link CanvasRenderingContext2D#setCullingEnabled(boolean)}. This
+     * makes a renderer that draws everything cheap, but a renderer that
+     * skips what is outside of its region is faster still.
+     *
+     * @param cullingEnabled
+     *            <code>true</code> to drop invisible commands
+     */
+    public void setCullingEnabled(boolean cullingEnabled) {
+        this.cullingEnabled = cullingEnabled;
+    }
+
+    /**
+     * Draws all regions again.
+     */
+    public void invalidate() {
+        sendInvalidate(null);
+    }
+
+    /**
+     * Draws the regions overlapping the given area again.
+     *
+     * @param x
+     *            the x coordinate of the area in content coordinates
+     * @param y
+     *            the y coordinate of the area in content coordinates
+     * @param width
+     *            the width of the area
+     * @param height
+     *            the height of the area
+     */
+    public void invalidate(double x, double y, double width, double height) {
+        JsonArray area = Json.createArray();
+        area.set(0, Math.min(x, x + width));
+        area.set(1, Math.min(y, y + height));
+        area.set(2, Math.abs(width));
+        area.set(3, Math.abs(height));
+        sendInvalidate(area);
+    }
+
+    private void sendInvalidate(JsonArray area) {
+        // An element that is not attached has no regions yet
+        if (getElement().getNode().isAttached()) {
+            getElement().executeJs(
+                    "window.Vaadin.Flow.canvasViewport.invalidate(this, $0)",
+                    area);
+        }
+    }
+
+    private void scheduleSync() {
+        if (!syncScheduled) {
+            syncScheduled = true;
+            getElement().getNode().runWhenAttached(ui -> ui
+                    .beforeClientResponse(this, context -> sync()));
+        }
+    }
+
+    private void sync() {
+        syncScheduled = false;
+        JsonObject options = Json.createObject();
+        options.put("contentWidth", contentWidth);
+        options.put("contentHeight", contentHeight);
+        options.put("regionSize", REGION_SIZE);
+        options.put("minZoom", minZoom);
+        options.put("maxZoom", maxZoom);
+        options.put("cacheSize", cacheSize);
+        options.put("reportInterval", reportInterval);
+        if (viewChanged) {
+            viewChanged = false;
+            JsonArray view = Json.createArray();
+            view.set(0, viewX);
+            view.set(1, viewY);
+            view.set(2, zoom);
+            options.put("view", view);
+        }
+        getElement().executeJs(
+                "window.Vaadin.Flow.canvasViewport.configure(this, $0)",
+                options);
+    }
+
+    /**
+     * Renders the regions requested by the browser.
+     */
+    private void render(JsonObject request) {
+        viewX = request.getNumber("x");
+        viewY = request.getNumber("y");
+        viewWidth = request.getNumber("width");
+        viewHeight = request.getNumber("height");
+        zoom = Math.max(minZoom, Math.min(maxZoom, request.getNumber("zoom")));
+
+        // The keys come from the browser, so they are kept to the levels of
+        // the zoom range and to the regions of the content
+        int minLevel = (int) Math.round(Math.log(minZoom) / Math.log(2));
+        int maxLevel = (int) Math.round(Math.log(maxZoom) / Math.log(2));
+        JsonArray keys = request.getArray("regions");
+        JsonArray regions = Json.createArray();
+        for (int i = 0; i < Math.min(keys.length(),
+                MAX_REGIONS_PER_REQUEST); i++) {
+            JsonArray requested = keys.getArray(i);
+            int level = clamp((int) requested.getNumber(0), minLevel,
+                    maxLevel);
+            double size = REGION_SIZE / Math.pow(2, level);
+            int column = clamp((int) requested.getNumber(1), 0,
+                    (int) Math.ceil(contentWidth / size) - 1);
+            int row = clamp((int) requested.getNumber(2), 0,
+                    (int) Math.ceil(contentHeight / size) - 1);
+            CommandBuffer buffer = renderRegion(level, column, row);
+            JsonArray key = Json.createArray();
+            key.set(0, level);
+            key.set(1, column);
+            key.set(2, row);
+            JsonObject region = Json.createObject();
+            region.put("key", key);
+            region.put("data", buffer.encodeData());
+            region.put("strings", buffer.encodeStrings());
+            regions.set(regions.length(), region);
+        }
+        // Regions invalidated after the request are dropped by the browser
+        getElement().executeJs(
+                "window.Vaadin.Flow.canvasViewport.regions(this, $0, $1)",
+                regions, request.getNumber("generation"));
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private CommandBuffer renderRegion(int level, int column, int row) {
+        double scale = Math.pow(2, level);
+        double size = REGION_SIZE / scale;
+        Rectangle2D region = new Rectangle2D.Double(column * size,
+                row * size, size, size);
+        CommandBuffer buffer = new CommandBuffer();
+        CanvasRenderingContext2D ctx = new CanvasRenderingContext2D(buffer,
+                REGION_SIZE, REGION_SIZE);
+        ctx.setCullingEnabled(cullingEnabled);
+        ctx.scale(scale, scale);
+        ctx.translate(-region.getX(), -region.getY());
+        renderer.renderRegion(ctx, region);
+        return buffer;
+    }
+}
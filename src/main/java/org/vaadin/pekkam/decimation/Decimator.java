@@ -0,0 +1,30 @@
+package org.vaadin.pekkam.decimation;
+
+import java.io.Serializable;
+
+/**
+ * A strategy for reducing the number of points of a polyline to what can be
+ * seen on the canvas, before the points are sent to the browser.
+ *
+ * @see org.vaadin.pekkam.CanvasRenderingContext2D#setDecimator(Decimator)
+ */
+@FunctionalInterface
+public interface Decimator extends Serializable {
+
+    /**
+     * Reduces the points of a polyline.
+     *
+     * @param xy
+     *            the points as a flat array of <code>x, y</code> pairs; must
+     *            not be modified
+     * @param pixelWidth
+     *            the width of one canvas pixel in the coordinates of the
+     *            points
+     * @param pixelHeight
+     *            the height of one canvas pixel in the coordinates of the
+     *            points
+     * @return the remaining points as a flat array of <code>x, y</code>
+     *         pairs, or the given array if nothing could be removed
+     */
+    double[] decimate(double[] xy, double pixelWidth, double pixelHeight);
+}
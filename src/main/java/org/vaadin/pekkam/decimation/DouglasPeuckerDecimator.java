@@ -0,0 +1,103 @@
+package org.vaadin.pekkam.decimation;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Simplifies a polyline with the Ramer-Douglas-Peucker algorithm, removing
+ * points that are closer than a tolerance to the simplified line.
+ * <p>
+ * Unlike the other strategies this works for any polyline, not only for
+ * series where x grows monotonically. Peaks and troughs that stick out more
+ * than the tolerance are kept.
+ */
+public class DouglasPeuckerDecimator implements Decimator {
+
+    private final double tolerance;
+
+    /**
+     * Creates a decimator with a tolerance of half a pixel.
+     */
+    public DouglasPeuckerDecimator() {
+        this(0.5);
+    }
+
+    /**
+     * @param tolerance
+     *            the maximum distance in canvas pixels between a removed
+     *            point and the simplified line
+     */
+    public DouglasPeuckerDecimator(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public double[] decimate(double[] xy, double pixelWidth,
+            double pixelHeight) {
+        int points = xy.length / 2;
+        if (points < 3 || !(pixelWidth > 0) || !(pixelHeight > 0)) {
+            return xy;
+        }
+
+        boolean[] keep = new boolean[points];
+        keep[0] = true;
+        keep[points - 1] = true;
+        // Iterative to not overflow the stack with long lines
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[] { 0, points - 1 });
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int first = range[0];
+            int last = range[1];
+            double maxDistance = 0;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = distance(xy, i, first, last, pixelWidth,
+                        pixelHeight);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && maxDistance > tolerance) {
+                keep[farthest] = true;
+                ranges.push(new int[] { first, farthest });
+                ranges.push(new int[] { farthest, last });
+            }
+        }
+
+        double[] result = new double[xy.length];
+        int size = 0;
+        for (int i = 0; i < points; i++) {
+            if (keep[i]) {
+                result[size++] = xy[2 * i];
+                result[size++] = xy[2 * i + 1];
+            }
+        }
+        return size < xy.length ? Arrays.copyOf(result, size) : xy;
+    }
+
+    /**
+     * @return the distance in pixels of a point from the segment between two
+     *         other points
+     */
+    private static double distance(double[] xy, int point, int first,
+            int last, double pixelWidth, double pixelHeight) {
+        double x = xy[2 * point] / pixelWidth;
+        double y = xy[2 * point + 1] / pixelHeight;
+        double x1 = xy[2 * first] / pixelWidth;
+        double y1 = xy[2 * first + 1] / pixelHeight;
+        double x2 = xy[2 * last] / pixelWidth;
+        double y2 = xy[2 * last + 1] / pixelHeight;
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return Math.hypot(x - x1, y - y1);
+        }
+        double t = Math.max(0,
+                Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+        return Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+    }
+}
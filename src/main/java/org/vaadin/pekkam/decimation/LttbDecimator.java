@@ -0,0 +1,93 @@
+package org.vaadin.pekkam.decimation;
+
+/**
+ * Reduces a series with the Largest-Triangle-Three-Buckets algorithm to a
+ * given number of points per pixel column.
+ * <p>
+ * LTTB keeps the visual shape of a series well with few points, but unlike
+ * {@link MinMaxDecimator} it does not guarantee that every peak and trough
+ * is kept. It expects x to grow monotonically.
+ *
+ * @see <a href="https://skemman.is/handle/1946/15343">Downsampling Time
+ *      Series for Visual Representation</a>
+ */
+public class LttbDecimator implements Decimator {
+
+    private final double pointsPerPixel;
+
+    /**
+     * Creates a decimator that keeps two points per pixel column.
+     */
+    public LttbDecimator() {
+        this(2);
+    }
+
+    /**
+     * @param pointsPerPixel
+     *            the number of points to keep per pixel column
+     */
+    public LttbDecimator(double pointsPerPixel) {
+        this.pointsPerPixel = pointsPerPixel;
+    }
+
+    @Override
+    public double[] decimate(double[] xy, double pixelWidth,
+            double pixelHeight) {
+        int points = xy.length / 2;
+        if (points < 3 || !(pixelWidth > 0)) {
+            return xy;
+        }
+        double range = xy[xy.length - 2] - xy[0];
+        int threshold = (int) Math.max(3,
+                Math.ceil(Math.abs(range) / pixelWidth * pointsPerPixel));
+        if (threshold >= points) {
+            return xy;
+        }
+
+        double[] result = new double[2 * threshold];
+        result[0] = xy[0];
+        result[1] = xy[1];
+        int size = 2;
+
+        double bucketSize = (double) (points - 2) / (threshold - 2);
+        int selected = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket is the third point of the triangle
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1,
+                    points);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += xy[2 * i];
+                averageY += xy[2 * i + 1];
+            }
+            int nextCount = Math.max(1, nextEnd - nextStart);
+            averageX /= nextCount;
+            averageY /= nextCount;
+
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double selectedX = xy[2 * selected];
+            double selectedY = xy[2 * selected + 1];
+            double maxArea = -1;
+            int next = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((selectedX - averageX)
+                        * (xy[2 * i + 1] - selectedY)
+                        - (selectedX - xy[2 * i]) * (averageY - selectedY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            result[size++] = xy[2 * next];
+            result[size++] = xy[2 * next + 1];
+            selected = next;
+        }
+
+        result[size++] = xy[xy.length - 2];
+        result[size] = xy[xy.length - 1];
+        return result;
+    }
+}
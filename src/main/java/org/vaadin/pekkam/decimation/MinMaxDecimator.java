@@ -0,0 +1,110 @@
+package org.vaadin.pekkam.decimation;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps the first, last, lowest and highest point of each pixel column.
+ * <p>
+ * This is the fastest strategy and the only one that guarantees that every
+ * peak and trough of the series is preserved, so the decimated line covers
+ * exactly the same pixels vertically as the original. It is meant for series
+ * where x grows monotonically, such as time series; other polylines are
+ * passed through mostly unchanged.
+ * <p>
+ * Large inputs are processed in parallel with the common fork-join pool.
+ */
+public class MinMaxDecimator implements Decimator {
+
+    /**
+     * The number of points from which on the columns are processed in
+     * parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    @Override
+    public double[] decimate(double[] xy, double pixelWidth,
+            double pixelHeight) {
+        int points = xy.length / 2;
+        if (points <= 4 || !(pixelWidth > 0)) {
+            return xy;
+        }
+        double origin = xy[0];
+
+        double[] result;
+        if (points < PARALLEL_THRESHOLD) {
+            result = decimate(xy, origin, pixelWidth, 0, points);
+        } else {
+            int chunks = Runtime.getRuntime().availableProcessors() * 4;
+            int[] bounds = new int[chunks + 1];
+            bounds[chunks] = points;
+            for (int i = 1; i < chunks; i++) {
+                // Move the boundary to the start of the next column, so that
+                // no column is split between chunks
+                int boundary = Math.max(bounds[i - 1],
+                        (int) ((long) points * i / chunks));
+                while (boundary > 0 && boundary < points
+                        && column(xy, boundary, origin, pixelWidth) == column(
+                                xy, boundary - 1, origin, pixelWidth)) {
+                    boundary++;
+                }
+                bounds[i] = boundary;
+            }
+            result = IntStream.range(0, chunks).parallel()
+                    .mapToObj(i -> decimate(xy, origin, pixelWidth, bounds[i],
+                            bounds[i + 1]))
+                    .reduce(MinMaxDecimator::concat).orElse(xy);
+        }
+        return result.length < xy.length ? result : xy;
+    }
+
+    private static double[] decimate(double[] xy, double origin,
+            double pixelWidth, int from, int to) {
+        double[] result = new double[Math.min(2 * (to - from), 64)];
+        int size = 0;
+        int[] kept = new int[4];
+        for (int first = from; first < to;) {
+            long column = column(xy, first, origin, pixelWidth);
+            int min = first;
+            int max = first;
+            int last = first;
+            while (last + 1 < to
+                    && column(xy, last + 1, origin, pixelWidth) == column) {
+                last++;
+                if (xy[2 * last + 1] < xy[2 * min + 1]) {
+                    min = last;
+                } else if (xy[2 * last + 1] > xy[2 * max + 1]) {
+                    max = last;
+                }
+            }
+            kept[0] = first;
+            kept[1] = min;
+            kept[2] = max;
+            kept[3] = last;
+            Arrays.sort(kept);
+            for (int i = 0; i < kept.length; i++) {
+                if (i > 0 && kept[i] == kept[i - 1]) {
+                    continue;
+                }
+                if (size + 2 > result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                result[size++] = xy[2 * kept[i]];
+                result[size++] = xy[2 * kept[i] + 1];
+            }
+            first = last + 1;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static long column(double[] xy, int point, double origin,
+            double pixelWidth) {
+        return (long) Math.floor((xy[2 * point] - origin) / pixelWidth);
+    }
+
+    private static double[] concat(double[] a, double[] b) {
+        double[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
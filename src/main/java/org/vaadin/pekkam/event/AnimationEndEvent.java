@@ -0,0 +1,60 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.ComponentEvent;
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import org.vaadin.pekkam.Animator;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * An animation played by the browser has ended, either by completing all of
+ * its rounds or by being replaced or removed before that.
+ *
+ * @see Animator#animate(String, org.vaadin.pekkam.Animation)
+ */
+@DomEvent("canvas-animation-end")
+public class AnimationEndEvent extends ComponentEvent<Canvas>
+{
+   private final String actor;
+   private final int animation;
+   private final boolean cancelled;
+
+   public AnimationEndEvent(
+      Canvas source,
+      boolean fromClient,
+      @EventData("event.detail.actor") String actor,
+      @EventData("event.detail.animation") int animation,
+      @EventData("event.detail.cancelled") boolean cancelled
+   )
+   {
+      super(source, fromClient);
+      this.actor = actor;
+      this.animation = animation;
+      this.cancelled = cancelled;
+   }
+
+   /**
+    * @return the id of the animated actor
+    */
+   public String getActor()
+   {
+      return actor;
+   }
+
+   /**
+    * @return the number of the animation, unique within the animator
+    */
+   public int getAnimation()
+   {
+      return animation;
+   }
+
+   /**
+    * @return whether the animation was replaced or removed before it
+    *         completed
+    */
+   public boolean isCancelled()
+   {
+      return cancelled;
+   }
+}
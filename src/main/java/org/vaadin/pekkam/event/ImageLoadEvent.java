@@ -3,24 +3,63 @@ package org.vaadin.pekkam.event;
 import com.vaadin.flow.component.ComponentEvent;
 import org.vaadin.pekkam.Canvas;
 
+import java.util.List;
+
 /**
  * This event is sent when an Image has completed loading into the browser.
+ * For images preloaded together with
+ * {@link org.vaadin.pekkam.CanvasImages#preload(String...)}, one event is
+ * sent once all of them have been loaded. Images that failed to load count
+ * as completed, and they are listed in {@link #getFailedSources()}.
  */
 public class ImageLoadEvent extends ComponentEvent<Canvas>
 {
    protected String src;
+   private final List<String> sources;
+   private final List<String> failedSources;
 
    public ImageLoadEvent(Canvas source, boolean fromClient, String src)
+   {
+      this(source, fromClient, List.of(src));
+   }
+
+   public ImageLoadEvent(Canvas source, boolean fromClient, List<String> sources)
+   {
+      this(source, fromClient, sources, List.of());
+   }
+
+   public ImageLoadEvent(Canvas source, boolean fromClient, List<String> sources,
+         List<String> failedSources)
    {
       super(source, fromClient);
-      this.src = src;
+      this.src = sources.get(0);
+      this.sources = List.copyOf(sources);
+      this.failedSources = List.copyOf(failedSources);
    }
 
    /**
-    * @return the image resource path
+    * @return the image resource path, the first one if several images were
+    *         loaded together
     */
    public String getSrc()
    {
       return src;
    }
+
+   /**
+    * @return the paths of all images that were loaded together
+    */
+   public List<String> getSources()
+   {
+      return sources;
+   }
+
+   /**
+    * @return the paths of the images that could not be loaded, empty if all
+    *         of them were loaded
+    */
+   public List<String> getFailedSources()
+   {
+      return failedSources;
+   }
 }
@@ -0,0 +1,57 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import elemental.json.JsonArray;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * The mouse movements over a canvas since the previous batch. Each sample has
+ * the values <code>offsetX, offsetY, buttons, timestamp</code>.
+ *
+ * @see Canvas#setMouseMoveDelivery(SampleDelivery, int)
+ */
+@DomEvent("canvas-mouse-move-batch")
+public class MouseMoveBatchEvent extends SampleBatchEvent
+{
+   /**
+    * The number of values per sample.
+    */
+   public static final int STRIDE = 4;
+
+   public MouseMoveBatchEvent(
+      Canvas source,
+      boolean fromClient,
+      @EventData("event.detail.samples") JsonArray samples
+   )
+   {
+      super(source, fromClient, samples, STRIDE);
+   }
+
+   public double getOffsetX(int index)
+   {
+      return get(index, 0);
+   }
+
+   public double getOffsetY(int index)
+   {
+      return get(index, 1);
+   }
+
+   /**
+    * @return the pressed buttons as a bit mask, as in
+    *         <code>MouseEvent.buttons</code>
+    */
+   public int getButtons(int index)
+   {
+      return (int) get(index, 2);
+   }
+
+   /**
+    * @return the time of the sample in milliseconds since the page was loaded
+    */
+   public double getTimestamp(int index)
+   {
+      return get(index, 3);
+   }
+}
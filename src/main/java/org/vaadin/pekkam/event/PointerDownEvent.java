@@ -0,0 +1,26 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import org.vaadin.pekkam.Canvas;
+
+@DomEvent("pointerdown")
+public class PointerDownEvent extends PointerEvent
+{
+   public PointerDownEvent(
+      Canvas source,
+      boolean fromClient,
+      @EventData("event.offsetX") double offsetX,
+      @EventData("event.offsetY") double offsetY,
+      @EventData("event.pointerId") int pointerId,
+      @EventData("event.pointerType") String pointerType,
+      @EventData("event.pressure") double pressure,
+      @EventData("event.tiltX") int tiltX,
+      @EventData("event.tiltY") int tiltY,
+      @EventData("event.button") int button,
+      @EventData("event.buttons") int buttons
+   )
+   {
+      super(source, fromClient, offsetX, offsetY, pointerId, pointerType, pressure, tiltX, tiltY, button, buttons);
+   }
+}
@@ -0,0 +1,113 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.ComponentEvent;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * Base class for pointer events, which cover mouse, pen and touch input.
+ *
+ * @see <a href="https://developer.mozilla.org/en-US/docs/Web/API/PointerEvent">PointerEvent</a>
+ */
+public class PointerEvent extends ComponentEvent<Canvas>
+{
+   private final double offsetX;
+   private final double offsetY;
+   private final int pointerId;
+   private final String pointerType;
+   private final double pressure;
+   private final int tiltX;
+   private final int tiltY;
+   private final int button;
+   private final int buttons;
+
+   public PointerEvent(
+      Canvas source,
+      boolean fromClient,
+      double offsetX,
+      double offsetY,
+      int pointerId,
+      String pointerType,
+      double pressure,
+      int tiltX,
+      int tiltY,
+      int button,
+      int buttons
+   )
+   {
+      super(source, fromClient);
+      this.offsetX = offsetX;
+      this.offsetY = offsetY;
+      this.pointerId = pointerId;
+      this.pointerType = pointerType;
+      this.pressure = pressure;
+      this.tiltX = tiltX;
+      this.tiltY = tiltY;
+      this.button = button;
+      this.buttons = buttons;
+   }
+
+   public double getOffsetX()
+   {
+      return offsetX;
+   }
+
+   public double getOffsetY()
+   {
+      return offsetY;
+   }
+
+   /**
+    * @return the id that identifies the pointer, e.g. a finger, across
+    *         events
+    */
+   public int getPointerId()
+   {
+      return pointerId;
+   }
+
+   /**
+    * @return <code>"mouse"</code>, <code>"pen"</code> or
+    *         <code>"touch"</code>
+    */
+   public String getPointerType()
+   {
+      return pointerType;
+   }
+
+   /**
+    * @return the pressure from <code>0</code> to <code>1</code>
+    */
+   public double getPressure()
+   {
+      return pressure;
+   }
+
+   /**
+    * @return the tilt of a pen in the X direction in degrees
+    */
+   public int getTiltX()
+   {
+      return tiltX;
+   }
+
+   /**
+    * @return the tilt of a pen in the Y direction in degrees
+    */
+   public int getTiltY()
+   {
+      return tiltY;
+   }
+
+   public int getButton()
+   {
+      return button;
+   }
+
+   /**
+    * @return the pressed buttons as a bit mask
+    */
+   public int getButtons()
+   {
+      return buttons;
+   }
+}
@@ -0,0 +1,96 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import elemental.json.JsonArray;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * The pointer movements over a canvas since the previous batch, including the
+ * samples the browser coalesced into a single <code>pointermove</code>
+ * event. Each sample has the values
+ * <code>pointerId, pointerType, offsetX, offsetY, buttons, pressure, tiltX,
+ * tiltY, timestamp</code>, where the pointer type is coded as <code>0</code>
+ * for mouse, <code>1</code> for pen, <code>2</code> for touch and
+ * <code>-1</code> for an unknown type.
+ *
+ * @see Canvas#setPointerMoveDelivery(SampleDelivery, int)
+ */
+@DomEvent("canvas-pointer-move-batch")
+public class PointerMoveBatchEvent extends SampleBatchEvent
+{
+   /**
+    * The number of values per sample.
+    */
+   public static final int STRIDE = 9;
+
+   private static final String[] POINTER_TYPES = { "mouse", "pen", "touch" };
+
+   public PointerMoveBatchEvent(
+      Canvas source,
+      boolean fromClient,
+      @EventData("event.detail.samples") JsonArray samples
+   )
+   {
+      super(source, fromClient, samples, STRIDE);
+   }
+
+   public int getPointerId(int index)
+   {
+      return (int) get(index, 0);
+   }
+
+   /**
+    * @return <code>"mouse"</code>, <code>"pen"</code>, <code>"touch"</code>
+    *         or an empty string if unknown
+    */
+   public String getPointerType(int index)
+   {
+      int code = (int) get(index, 1);
+      return code >= 0 && code < POINTER_TYPES.length ? POINTER_TYPES[code] : "";
+   }
+
+   public double getOffsetX(int index)
+   {
+      return get(index, 2);
+   }
+
+   public double getOffsetY(int index)
+   {
+      return get(index, 3);
+   }
+
+   /**
+    * @return the pressed buttons as a bit mask
+    */
+   public int getButtons(int index)
+   {
+      return (int) get(index, 4);
+   }
+
+   /**
+    * @return the pressure from <code>0</code> to <code>1</code>
+    */
+   public double getPressure(int index)
+   {
+      return get(index, 5);
+   }
+
+   public int getTiltX(int index)
+   {
+      return (int) get(index, 6);
+   }
+
+   public int getTiltY(int index)
+   {
+      return (int) get(index, 7);
+   }
+
+   /**
+    * @return the time of the sample in milliseconds since the page was loaded
+    */
+   public double getTimestamp(int index)
+   {
+      return get(index, 8);
+   }
+}
@@ -0,0 +1,75 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.ComponentEvent;
+import elemental.json.JsonArray;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * Base class for events that carry a batch of movement samples collected in
+ * the browser. The samples are packed in one array with a fixed number of
+ * values per sample, in the order they were recorded.
+ */
+public abstract class SampleBatchEvent extends ComponentEvent<Canvas>
+{
+   private final double[] samples;
+   private final int stride;
+
+   /**
+    * @param samples the packed samples as sent by the browser
+    * @param stride the number of values per sample
+    */
+   protected SampleBatchEvent(
+      Canvas source,
+      boolean fromClient,
+      JsonArray samples,
+      int stride
+   )
+   {
+      super(source, fromClient);
+      this.samples = new double[samples.length()];
+      for (int i = 0; i < this.samples.length; i++)
+      {
+         this.samples[i] = samples.getNumber(i);
+      }
+      this.stride = stride;
+   }
+
+   /**
+    * @return the number of samples in this batch
+    */
+   public int getSampleCount()
+   {
+      return samples.length / stride;
+   }
+
+   /**
+    * @return the number of values per sample in {@link #getSamples()}
+    */
+   public int getStride()
+   {
+      return stride;
+   }
+
+   /**
+    * @return a copy of all samples packed in one array, with
+    *         {@link #getStride()} values per sample
+    */
+   public double[] getSamples()
+   {
+      return samples.clone();
+   }
+
+   /**
+    * @param index the index of the sample
+    * @param field the index of the value within the sample
+    * @return the value
+    */
+   protected double get(int index, int field)
+   {
+      if (index < 0 || index >= getSampleCount())
+      {
+         throw new IndexOutOfBoundsException("Sample index " + index + " out of bounds");
+      }
+      return samples[index * stride + field];
+   }
+}
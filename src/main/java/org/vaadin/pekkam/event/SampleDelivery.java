@@ -0,0 +1,25 @@
+package org.vaadin.pekkam.event;
+
+/**
+ * How often batches of movement samples are sent from the browser to the
+ * server. The samples collected in between are never dropped, they are sent
+ * together in the next batch.
+ */
+public enum SampleDelivery
+{
+   /**
+    * Sends a batch at most once per interval while the pointer is moving.
+    */
+   THROTTLE,
+
+   /**
+    * Sends a batch once the pointer has not moved for the interval.
+    */
+   DEBOUNCE,
+
+   /**
+    * Sends a batch at most once per animation frame of the browser. The
+    * interval is not used.
+    */
+   ANIMATION_FRAME
+}
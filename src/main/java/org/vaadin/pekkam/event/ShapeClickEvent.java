@@ -0,0 +1,23 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * A hit region has been clicked. If regions overlap, the topmost one is used.
+ */
+@DomEvent("canvas-shape-click")
+public class ShapeClickEvent extends ShapeEvent
+{
+   public ShapeClickEvent(
+      Canvas source,
+      boolean fromClient,
+      @EventData("event.detail.id") String regionId,
+      @EventData("event.detail.x") double offsetX,
+      @EventData("event.detail.y") double offsetY
+   )
+   {
+      super(source, fromClient, regionId, offsetX, offsetY);
+   }
+}
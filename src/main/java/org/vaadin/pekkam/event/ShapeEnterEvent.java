@@ -0,0 +1,23 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * The pointer has moved over a hit region.
+ */
+@DomEvent("canvas-shape-enter")
+public class ShapeEnterEvent extends ShapeEvent
+{
+   public ShapeEnterEvent(
+      Canvas source,
+      boolean fromClient,
+      @EventData("event.detail.id") String regionId,
+      @EventData("event.detail.x") double offsetX,
+      @EventData("event.detail.y") double offsetY
+   )
+   {
+      super(source, fromClient, regionId, offsetX, offsetY);
+   }
+}
@@ -0,0 +1,55 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.ComponentEvent;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * Base class for events of the hit regions of a canvas, detected in the
+ * browser.
+ *
+ * @see Canvas#addHitRegion(String, org.vaadin.pekkam.HitRegion)
+ */
+public class ShapeEvent extends ComponentEvent<Canvas>
+{
+   private final String regionId;
+   private final double offsetX;
+   private final double offsetY;
+
+   public ShapeEvent(
+      Canvas source,
+      boolean fromClient,
+      String regionId,
+      double offsetX,
+      double offsetY
+   )
+   {
+      super(source, fromClient);
+      this.regionId = regionId;
+      this.offsetX = offsetX;
+      this.offsetY = offsetY;
+   }
+
+   /**
+    * @return the id of the hit region
+    */
+   public String getRegionId()
+   {
+      return regionId;
+   }
+
+   /**
+    * @return the X coordinate of the pointer in the canvas' coordinate system
+    */
+   public double getOffsetX()
+   {
+      return offsetX;
+   }
+
+   /**
+    * @return the Y coordinate of the pointer in the canvas' coordinate system
+    */
+   public double getOffsetY()
+   {
+      return offsetY;
+   }
+}
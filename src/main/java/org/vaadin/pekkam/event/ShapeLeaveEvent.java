@@ -0,0 +1,23 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * The pointer has moved out of a hit region, or the region has been removed.
+ */
+@DomEvent("canvas-shape-leave")
+public class ShapeLeaveEvent extends ShapeEvent
+{
+   public ShapeLeaveEvent(
+      Canvas source,
+      boolean fromClient,
+      @EventData("event.detail.id") String regionId,
+      @EventData("event.detail.x") double offsetX,
+      @EventData("event.detail.y") double offsetY
+   )
+   {
+      super(source, fromClient, regionId, offsetX, offsetY);
+   }
+}
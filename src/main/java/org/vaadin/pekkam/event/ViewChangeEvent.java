@@ -0,0 +1,84 @@
+package org.vaadin.pekkam.event;
+
+import com.vaadin.flow.component.ComponentEvent;
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import org.vaadin.pekkam.Canvas;
+
+/**
+ * The browser has drawn the canvas again after its displayed size, the
+ * device pixel ratio or the client-side view has changed. Fired once the
+ * changes settle.
+ *
+ * @see Canvas#setClientRescaling(boolean)
+ */
+@DomEvent("canvas-view-change")
+public class ViewChangeEvent extends ComponentEvent<Canvas>
+{
+   private final double zoom;
+   private final double viewX;
+   private final double viewY;
+   private final double pixelRatio;
+   private final boolean replayed;
+
+   public ViewChangeEvent(
+      Canvas source,
+      boolean fromClient,
+      @EventData("event.detail.zoom") double zoom,
+      @EventData("event.detail.x") double viewX,
+      @EventData("event.detail.y") double viewY,
+      @EventData("event.detail.pixelRatio") double pixelRatio,
+      @EventData("event.detail.replayed") boolean replayed
+   )
+   {
+      super(source, fromClient);
+      this.zoom = zoom;
+      this.viewX = viewX;
+      this.viewY = viewY;
+      this.pixelRatio = pixelRatio;
+      this.replayed = replayed;
+   }
+
+   /**
+    * @return the zoom factor of the client-side view, 1 if not zoomed
+    */
+   public double getZoom()
+   {
+      return zoom;
+   }
+
+   /**
+    * @return the X coordinate in the canvas' coordinate system shown at the
+    *         left edge
+    */
+   public double getViewX()
+   {
+      return viewX;
+   }
+
+   /**
+    * @return the Y coordinate in the canvas' coordinate system shown at the
+    *         top edge
+    */
+   public double getViewY()
+   {
+      return viewY;
+   }
+
+   /**
+    * @return the device pixel ratio of the browser
+    */
+   public double getPixelRatio()
+   {
+      return pixelRatio;
+   }
+
+   /**
+    * @return whether the browser could draw the content again by itself; if
+    *         not, the canvas is empty and should be drawn again
+    */
+   public boolean isReplayed()
+   {
+      return replayed;
+   }
+}
@@ -0,0 +1,169 @@
+package org.vaadin.pekkam.headless;
+
+import org.vaadin.pekkam.RenderingContext2D;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Renders drawings on server-side images with {@link Java2DRenderingContext},
+ * e.g. for exports, thumbnails or tests that should not need a browser.
+ * <p>
+ * The same drawing code can be used for a {@link org.vaadin.pekkam.Canvas}
+ * and for images, when it takes a {@link RenderingContext2D}:
+ *
+ * <pre>
+ * Consumer&lt;RenderingContext2D&gt; chart = ctx -&gt; {
+ *     ctx.setFillStyle("steelblue");
+ *     ctx.fillRects(bars);
+ * };
+ * chart.accept(canvas.getContext());
+ * byte[] png = HeadlessRenderer.encode(
+ *         HeadlessRenderer.render(400, 300, chart), "image/png");
+ * </pre>
+ */
+public final class HeadlessRenderer {
+
+    private HeadlessRenderer() {
+    }
+
+    /**
+     * Draws on a new transparent image.
+     *
+     * @param width
+     *            the width of the image in pixels
+     * @param height
+     *            the height of the image in pixels
+     * @param drawing
+     *            the drawing code
+     * @return the image
+     */
+    public static BufferedImage render(int width, int height,
+            Consumer<? super RenderingContext2D> drawing) {
+        Java2DRenderingContext context = new Java2DRenderingContext(width,
+                height);
+        try {
+            drawing.accept(context);
+        } finally {
+            context.dispose();
+        }
+        return context.getImage();
+    }
+
+    /**
+     * Draws many images in parallel. Each drawing gets its own context, so
+     * the drawings must not share mutable state.
+     *
+     * @param width
+     *            the width of the images in pixels
+     * @param height
+     *            the height of the images in pixels
+     * @param drawings
+     *            the drawing code of each image
+     * @param executor
+     *            the executor running the drawings
+     * @return the images in the order of the drawings, completed when all of
+     *         them are done
+     */
+    public static CompletableFuture<List<BufferedImage>> renderAll(int width,
+            int height,
+            List<? extends Consumer<? super RenderingContext2D>> drawings,
+            Executor executor) {
+        List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+        for (Consumer<? super RenderingContext2D> drawing : drawings) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> render(width, height, drawing), executor));
+        }
+        return CompletableFuture
+                .allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> futures.stream()
+                        .map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * Encodes an image like <code>canvas.toBlob()</code> does in the
+     * browser.
+     *
+     * @param image
+     *            the image
+     * @param mimeType
+     *            the image format, e.g. "image/png" or "image/jpeg"
+     * @return the encoded image
+     * @throws IllegalArgumentException
+     *             if the format is not supported
+     */
+    public static byte[] encode(BufferedImage image, String mimeType) {
+        return encode(image, mimeType, null);
+    }
+
+    /**
+     * Encodes an image like <code>canvas.toBlob()</code> does in the
+     * browser.
+     *
+     * @param image
+     *            the image
+     * @param mimeType
+     *            the image format, e.g. "image/png" or "image/jpeg"
+     * @param quality
+     *            the quality between 0 and 1 for lossy formats, or
+     *            <code>null</code> for the default
+     * @return the encoded image
+     * @throws IllegalArgumentException
+     *             if the format is not supported
+     */
+    public static byte[] encode(BufferedImage image, String mimeType,
+            Double quality) {
+        Iterator<ImageWriter> writers = ImageIO
+                .getImageWritersByMIMEType(mimeType);
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException(
+                    "Unsupported image type " + mimeType);
+        }
+        ImageWriter writer = writers.next();
+        BufferedImage encoded = image;
+        if (image.getColorModel().hasAlpha()
+                && !writer.getOriginatingProvider().canEncodeImage(image)) {
+            // JPEG has no alpha channel, browsers draw on black as well
+            encoded = new BufferedImage(image.getWidth(), image.getHeight(),
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = encoded.createGraphics();
+            g.drawImage(image, 0, 0, Color.BLACK, null);
+            g.dispose();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (quality != null && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(
+                        (float) Math.max(0, Math.min(1, quality)));
+            }
+            writer.write(null, new IIOImage(encoded, null, null),
+                    param);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,50 @@
+package org.vaadin.pekkam.headless;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Loads the images referenced by <code>src</code> in a
+ * {@link Java2DRenderingContext}. In the browser, image sources are URLs
+ * relative to the page, which have no meaning on the server, so the
+ * application decides how they are loaded, e.g. from the file system or the
+ * class path.
+ */
+@FunctionalInterface
+public interface ImageResolver {
+
+    /**
+     * @param src
+     *            the image source as given to the drawing methods
+     * @return the image, or <code>null</code> if there is no such image
+     * @throws IOException
+     *             if reading the image fails
+     */
+    BufferedImage resolve(String src) throws IOException;
+
+    /**
+     * @return a resolver that only supports <code>data:</code> URLs
+     */
+    static ImageResolver dataUrls() {
+        return src -> {
+            if (!src.startsWith("data:")) {
+                return null;
+            }
+            int comma = src.indexOf(',');
+            if (comma < 0) {
+                return null;
+            }
+            String data = src.substring(comma + 1);
+            byte[] bytes = src.substring(0, comma).endsWith(";base64")
+                    ? Base64.getDecoder().decode(data)
+                    : URLDecoder.decode(data, StandardCharsets.UTF_8)
+                            .getBytes(StandardCharsets.ISO_8859_1);
+            return ImageIO.read(new ByteArrayInputStream(bytes));
+        };
+    }
+}
@@ -0,0 +1,1054 @@
+package org.vaadin.pekkam.headless;
+
+import org.slf4j.LoggerFactory;
+import org.vaadin.pekkam.CanvasGradient;
+import org.vaadin.pekkam.CanvasPattern;
+import org.vaadin.pekkam.CanvasStyle;
+import org.vaadin.pekkam.ImageData;
+import org.vaadin.pekkam.RenderingContext2D;
+import org.vaadin.pekkam.SpriteAtlas;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.LinearGradientPaint;
+import java.awt.MultipleGradientPaint;
+import java.awt.Paint;
+import java.awt.RadialGradientPaint;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.TexturePaint;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A rendering context that draws on a {@link BufferedImage} with Java2D,
+ * without a browser. It follows the semantics of the browser's canvas: path
+ * coordinates are transformed when they are added to the path, invalid style
+ * values are ignored, the clip region is part of the saved state, and so on.
+ * Rasterization details such as antialiasing and font rendering differ
+ * slightly from browsers.
+ * <p>
+ * Image sources are loaded with an {@link ImageResolver}, by default only
+ * <code>data:</code> URLs are supported. Images that cannot be loaded are not
+ * drawn.
+ * <p>
+ * A context is not thread-safe, but separate contexts can be used in
+ * parallel, see {@link HeadlessRenderer}. Java2D works in headless mode, so
+ * no display is needed.
+ */
+public class Java2DRenderingContext implements RenderingContext2D {
+
+    private static final Font DEFAULT_FONT = new Font(Font.SANS_SERIF,
+            Font.PLAIN, 10);
+
+    private static final Pattern FONT = Pattern.compile(
+            "((?:(?:normal|italic|oblique|small-caps|bold|bolder|lighter|\\d{3})\\s+)*)"
+                    + "(\\d*\\.?\\d+)(px|pt|em|rem|%)(?:\\s*/\\s*\\S+)?\\s+(.+)");
+
+    private static Set<String> availableFamilies;
+
+    private final BufferedImage image;
+    private final Graphics2D graphics;
+    private final Path2D.Double path = new Path2D.Double(
+            Path2D.WIND_NON_ZERO);
+    private boolean subpathClosed;
+    private State state = new State();
+    private final Deque<State> savedStates = new ArrayDeque<>();
+    private ImageResolver imageResolver = ImageResolver.dataUrls();
+    private final Map<String, BufferedImage> images = new HashMap<>();
+    private final Map<String, SpriteAtlas> atlases = new HashMap<>();
+
+    /**
+     * A fill or stroke style: a color, or a pattern if the image is set.
+     */
+    private record Style(Color color, BufferedImage image, String repetition,
+            Paint gradient) {
+    }
+
+    private static final class State {
+        Style fill = new Style(Color.BLACK, null, null, null);
+        Style stroke = new Style(Color.BLACK, null, null, null);
+        double lineWidth = 1;
+        int lineCap = BasicStroke.CAP_BUTT;
+        int lineJoin = BasicStroke.JOIN_MITER;
+        float[] lineDash;
+        Font font = DEFAULT_FONT;
+        AffineTransform transform = new AffineTransform();
+        /**
+         * The clip region in image pixels, <code>null</code> if not clipped.
+         */
+        Area clip;
+
+        State copy() {
+            State copy = new State();
+            copy.fill = fill;
+            copy.stroke = stroke;
+            copy.lineWidth = lineWidth;
+            copy.lineCap = lineCap;
+            copy.lineJoin = lineJoin;
+            copy.lineDash = lineDash;
+            copy.font = font;
+            copy.transform = new AffineTransform(transform);
+            copy.clip = clip;
+            return copy;
+        }
+    }
+
+    /**
+     * Creates a context that draws on a new transparent image of the given
+     * size.
+     */
+    public Java2DRenderingContext(int width, int height) {
+        this(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    /**
+     * Creates a context that draws on the given image.
+     */
+    public Java2DRenderingContext(BufferedImage image) {
+        this.image = image;
+        graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+                RenderingHints.VALUE_STROKE_PURE);
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+                RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+    }
+
+    /**
+     * @return the image this context draws on
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Sets how the image sources given to the drawing methods are loaded.
+     * Loaded images are cached by their source.
+     */
+    public void setImageResolver(ImageResolver imageResolver) {
+        this.imageResolver = imageResolver;
+        images.clear();
+    }
+
+    /**
+     * Releases the graphics resources. The context cannot be used after
+     * this, but the image stays available.
+     */
+    public void dispose() {
+        graphics.dispose();
+    }
+
+    @Override
+    public void setFillStyle(String fillStyle) {
+        Color color = CssColors.parse(fillStyle);
+        if (color != null) {
+            state.fill = new Style(color, null, null, null);
+        }
+    }
+
+    @Override
+    public void setPatternFillStyle(String src, String type) {
+        BufferedImage img = image(src);
+        if (img != null) {
+            state.fill = new Style(null, img, type, null);
+        }
+    }
+
+    @Override
+    public void setFillStyle(CanvasStyle fillStyle) {
+        Style style = style(fillStyle);
+        if (style != null) {
+            state.fill = style;
+        }
+    }
+
+    @Override
+    public void setStrokeStyle(String strokeStyle) {
+        Color color = CssColors.parse(strokeStyle);
+        if (color != null) {
+            state.stroke = new Style(color, null, null, null);
+        }
+    }
+
+    @Override
+    public void setPatternStrokeStyle(String src, String type) {
+        BufferedImage img = image(src);
+        if (img != null) {
+            state.stroke = new Style(null, img, type, null);
+        }
+    }
+
+    @Override
+    public void setStrokeStyle(CanvasStyle strokeStyle) {
+        Style style = style(strokeStyle);
+        if (style != null) {
+            state.stroke = style;
+        }
+    }
+
+    private Style style(CanvasStyle style) {
+        if (style instanceof CanvasPattern pattern) {
+            BufferedImage img = image(pattern.getSrc());
+            return img != null
+                    ? new Style(null, img, pattern.getRepetition(), null)
+                    : null;
+        }
+        return new Style(null, null, null,
+                gradientPaint((CanvasGradient) style));
+    }
+
+    /**
+     * Converts a gradient to a Java2D paint. Radial gradients are drawn
+     * from the focus at the start circle's center, ignoring its radius other
+     * than for the color stops, and conic gradients with their first color.
+     */
+    private static Paint gradientPaint(CanvasGradient gradient) {
+        // Stops are sorted by offset, keeping the order of equal offsets
+        List<Integer> order = new ArrayList<>();
+        List<Double> offsets = gradient.getOffsets();
+        List<String> colorNames = gradient.getColors();
+        for (int i = 0; i < offsets.size(); i++) {
+            if (CssColors.parse(colorNames.get(i)) != null) {
+                order.add(i);
+            }
+        }
+        order.sort(Comparator.comparing(offsets::get));
+        List<Float> fractions = new ArrayList<>();
+        List<Color> colors = new ArrayList<>();
+        for (int i : order) {
+            float fraction = offsets.get(i).floatValue();
+            Color color = CssColors.parse(colorNames.get(i));
+            if (!fractions.isEmpty()
+                    && fraction <= fractions.get(fractions.size() - 1)) {
+                // Java2D needs increasing fractions, so equal offsets make
+                // a sharp edge right after the previous stop
+                fraction = Math.nextUp(fractions.get(fractions.size() - 1));
+                if (fraction > 1) {
+                    continue;
+                }
+            }
+            fractions.add(fraction);
+            colors.add(color);
+        }
+        Color transparent = new Color(0, 0, 0, 0);
+        if (colors.isEmpty()) {
+            return transparent;
+        }
+        double[] g = gradient.getGeometry();
+        if (colors.size() == 1 || gradient.getKind() == CanvasGradient.Kind.CONIC) {
+            return colors.get(0);
+        }
+        float[] f = new float[fractions.size()];
+        for (int i = 0; i < f.length; i++) {
+            f[i] = fractions.get(i);
+        }
+        Color[] c = colors.toArray(new Color[0]);
+        if (gradient.getKind() == CanvasGradient.Kind.LINEAR) {
+            if (g[0] == g[2] && g[1] == g[3]) {
+                return transparent;
+            }
+            return new LinearGradientPaint(new Point2D.Double(g[0], g[1]),
+                    new Point2D.Double(g[2], g[3]), f, c);
+        }
+        double radius = g[5];
+        if (radius <= 0) {
+            return transparent;
+        }
+        // The color stops start at the start circle
+        double start = Math.min(g[2] / radius, 1);
+        for (int i = 0; i < f.length; i++) {
+            f[i] = (float) (start + f[i] * (1 - start));
+        }
+        for (int i = 1; i < f.length; i++) {
+            f[i] = Math.max(f[i], Math.nextUp(f[i - 1]));
+        }
+        if (f[f.length - 1] > 1) {
+            return c[c.length - 1];
+        }
+        return new RadialGradientPaint(new Point2D.Double(g[3], g[4]),
+                (float) radius, new Point2D.Double(g[0], g[1]), f, c,
+                MultipleGradientPaint.CycleMethod.NO_CYCLE);
+    }
+
+    @Override
+    public void setLineWidth(double lineWidth) {
+        if (lineWidth > 0 && Double.isFinite(lineWidth)) {
+            state.lineWidth = lineWidth;
+        }
+    }
+
+    @Override
+    public void setLineCap(String lineCap) {
+        switch (String.valueOf(lineCap)) {
+        case "butt" -> state.lineCap = BasicStroke.CAP_BUTT;
+        case "round" -> state.lineCap = BasicStroke.CAP_ROUND;
+        case "square" -> state.lineCap = BasicStroke.CAP_SQUARE;
+        default -> {
+            // Invalid values are ignored, as in the browser
+        }
+        }
+    }
+
+    @Override
+    public void setLineJoin(String lineJoin) {
+        switch (String.valueOf(lineJoin)) {
+        case "miter" -> state.lineJoin = BasicStroke.JOIN_MITER;
+        case "round" -> state.lineJoin = BasicStroke.JOIN_ROUND;
+        case "bevel" -> state.lineJoin = BasicStroke.JOIN_BEVEL;
+        default -> {
+            // Invalid values are ignored, as in the browser
+        }
+        }
+    }
+
+    @Override
+    public void setFont(String font) {
+        Font parsed = parseFont(font);
+        if (parsed != null) {
+            state.font = parsed;
+        }
+    }
+
+    @Override
+    public void setLineDash(double... segments) {
+        for (double segment : segments) {
+            if (segment < 0 || !Double.isFinite(segment)) {
+                return;
+            }
+        }
+        // An odd number of segments is repeated to make it even
+        double[] dash = segments.length % 2 == 0 ? segments
+                : doubled(segments);
+        if (Arrays.stream(dash).sum() == 0) {
+            state.lineDash = null;
+            return;
+        }
+        state.lineDash = new float[dash.length];
+        for (int i = 0; i < dash.length; i++) {
+            state.lineDash[i] = (float) dash[i];
+        }
+    }
+
+    private static double[] doubled(double[] segments) {
+        double[] dash = Arrays.copyOf(segments, segments.length * 2);
+        System.arraycopy(segments, 0, dash, segments.length, segments.length);
+        return dash;
+    }
+
+    @Override
+    public void arc(double x, double y, double radius, double startAngle,
+            double endAngle, boolean antiClockwise) {
+        ellipse(x, y, radius, radius, 0, startAngle, endAngle, antiClockwise);
+    }
+
+    @Override
+    public void arcTo(double x1, double y1, double x2, double y2,
+            double radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Negative radius " + radius);
+        }
+        ensureSubpath(x1, y1);
+        Point2D p0 = currentUserPoint();
+        if (p0 == null || radius == 0 || (p0.getX() == x1 && p0.getY() == y1)
+                || (x1 == x2 && y1 == y2)) {
+            lineTo(x1, y1);
+            return;
+        }
+        double ax = p0.getX() - x1;
+        double ay = p0.getY() - y1;
+        double bx = x2 - x1;
+        double by = y2 - y1;
+        double cross = ax * by - ay * bx;
+        double la = Math.hypot(ax, ay);
+        double lb = Math.hypot(bx, by);
+        if (Math.abs(cross) < 1e-9 * la * lb) {
+            // Collinear points
+            lineTo(x1, y1);
+            return;
+        }
+        double angle = Math.acos(
+                Math.max(-1, Math.min(1, (ax * bx + ay * by) / (la * lb))));
+        double tangent = radius / Math.tan(angle / 2);
+        double bisectorX = ax / la + bx / lb;
+        double bisectorY = ay / la + by / lb;
+        double bisector = Math.hypot(bisectorX, bisectorY);
+        double centerDistance = radius / Math.sin(angle / 2);
+        double cx = x1 + bisectorX / bisector * centerDistance;
+        double cy = y1 + bisectorY / bisector * centerDistance;
+        double t0x = x1 + ax / la * tangent;
+        double t0y = y1 + ay / la * tangent;
+        double t1x = x1 + bx / lb * tangent;
+        double t1y = y1 + by / lb * tangent;
+        ellipse(cx, cy, radius, radius, 0, Math.atan2(t0y - cy, t0x - cx),
+                Math.atan2(t1y - cy, t1x - cx), cross > 0);
+    }
+
+    @Override
+    public void beginPath() {
+        path.reset();
+        subpathClosed = false;
+    }
+
+    @Override
+    public void bezierCurveTo(double cp1x, double cp1y, double cp2x,
+            double cp2y, double x, double y) {
+        ensureSubpath(cp1x, cp1y);
+        Point2D c1 = device(cp1x, cp1y);
+        Point2D c2 = device(cp2x, cp2y);
+        Point2D end = device(x, y);
+        path.curveTo(c1.getX(), c1.getY(), c2.getX(), c2.getY(), end.getX(),
+                end.getY());
+    }
+
+    @Override
+    public void clearRect(double x, double y, double width, double height) {
+        Graphics2D g = userGraphics();
+        try {
+            g.setComposite(AlphaComposite.Clear);
+            g.fill(normalized(x, y, width, height));
+        } finally {
+            g.dispose();
+        }
+    }
+
+    @Override
+    public void closePath() {
+        if (path.getCurrentPoint() != null && !subpathClosed) {
+            path.closePath();
+            subpathClosed = true;
+        }
+    }
+
+    @Override
+    public void ellipse(double x, double y, double radiusX, double radiusY,
+            double rotation, double startAngle, double endAngle) {
+        // Same default as in CanvasRenderingContext2D
+        ellipse(x, y, radiusX, radiusY, rotation, startAngle, endAngle, true);
+    }
+
+    /**
+     * Adds an elliptical arc to the path. As in the browser, the last
+     * parameter means counterclockwise despite its name.
+     */
+    @Override
+    public void ellipse(double x, double y, double radiusX, double radiusY,
+            double rotation, double startAngle, double endAngle,
+            boolean clockwise) {
+        if (radiusX < 0 || radiusY < 0) {
+            throw new IllegalArgumentException("Negative radius");
+        }
+        double sweep = sweep(startAngle, endAngle, clockwise);
+        AffineTransform t = new AffineTransform(state.transform);
+        t.translate(x, y);
+        t.rotate(rotation);
+        t.scale(radiusX, radiusY);
+        Point2D start = t.transform(new Point2D.Double(Math.cos(startAngle),
+                Math.sin(startAngle)), null);
+        if (path.getCurrentPoint() == null) {
+            path.moveTo(start.getX(), start.getY());
+        } else {
+            reopenSubpath();
+            path.lineTo(start.getX(), start.getY());
+        }
+        int segments = (int) Math.ceil(Math.abs(sweep) / (Math.PI / 2) - 1e-9);
+        double step = segments > 0 ? sweep / segments : 0;
+        // Control point distance of a cubic approximating a circular arc
+        double k = 4.0 / 3 * Math.tan(step / 4);
+        double[] points = new double[6];
+        for (int i = 0; i < segments; i++) {
+            double a0 = startAngle + i * step;
+            double a1 = a0 + step;
+            points[0] = Math.cos(a0) - k * Math.sin(a0);
+            points[1] = Math.sin(a0) + k * Math.cos(a0);
+            points[2] = Math.cos(a1) + k * Math.sin(a1);
+            points[3] = Math.sin(a1) - k * Math.cos(a1);
+            points[4] = Math.cos(a1);
+            points[5] = Math.sin(a1);
+            t.transform(points, 0, points, 0, 3);
+            path.curveTo(points[0], points[1], points[2], points[3],
+                    points[4], points[5]);
+        }
+    }
+
+    /**
+     * @return the signed angle an arc covers, as specified for the canvas
+     */
+    private static double sweep(double start, double end,
+            boolean counterclockwise) {
+        double full = 2 * Math.PI;
+        if (!counterclockwise && end - start >= full) {
+            return full;
+        }
+        if (counterclockwise && start - end >= full) {
+            return -full;
+        }
+        double delta = (counterclockwise ? start - end : end - start) % full;
+        if (delta < 0) {
+            delta += full;
+        }
+        return counterclockwise ? -delta : delta;
+    }
+
+    @Override
+    public void drawImage(String src, double x, double y) {
+        BufferedImage img = image(src);
+        if (img != null) {
+            drawImage(img, x, y, img.getWidth(), img.getHeight());
+        }
+    }
+
+    @Override
+    public void drawImage(String src, double x, double y, double width,
+            double height) {
+        BufferedImage img = image(src);
+        if (img != null) {
+            drawImage(img, x, y, width, height);
+        }
+    }
+
+    private void drawImage(BufferedImage img, double x, double y,
+            double width, double height) {
+        Rectangle2D target = normalized(x, y, width, height);
+        if (target.isEmpty()) {
+            return;
+        }
+        Graphics2D g = userGraphics();
+        try {
+            g.translate(target.getX(), target.getY());
+            g.scale(target.getWidth() / img.getWidth(),
+                    target.getHeight() / img.getHeight());
+            g.drawImage(img, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    @Override
+    public void defineSpriteAtlas(String id, SpriteAtlas atlas) {
+        atlases.put(id, atlas);
+    }
+
+    @Override
+    public void drawSprites(String atlasId, int[] frames, double[] xy) {
+        SpriteAtlas atlas = atlases.get(atlasId);
+        if (atlas == null) {
+            throw new IllegalArgumentException(
+                    "No sprite atlas with id " + atlasId);
+        }
+        if (xy.length != frames.length * 2) {
+            throw new IllegalArgumentException(
+                    "There must be an x, y pair for each frame");
+        }
+        BufferedImage img = image(atlas.getSrc());
+        if (img == null) {
+            return;
+        }
+        Graphics2D g = userGraphics();
+        try {
+            for (int i = 0; i < frames.length; i++) {
+                Rectangle2D frame = atlas.getFrame(frames[i]);
+                int sx = (int) frame.getX();
+                int sy = (int) frame.getY();
+                int sw = (int) frame.getWidth();
+                int sh = (int) frame.getHeight();
+                AffineTransform transform = g.getTransform();
+                g.translate(xy[i * 2], xy[i * 2 + 1]);
+                g.drawImage(img, 0, 0, sw, sh, sx, sy, sx + sw, sy + sh,
+                        null);
+                g.setTransform(transform);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    @Override
+    public void putImageData(ImageData imageData, int dx, int dy) {
+        putImageData(imageData, dx, dy, 0, 0, imageData.getWidth(),
+                imageData.getHeight());
+    }
+
+    @Override
+    public void putImageData(ImageData imageData, int dx, int dy, int dirtyX,
+            int dirtyY, int dirtyWidth, int dirtyHeight) {
+        // Only the part inside both the image data and this image
+        int minX = Math.max(Math.max(0, Math.min(dirtyX, dirtyX + dirtyWidth)),
+                -dx);
+        int minY = Math.max(
+                Math.max(0, Math.min(dirtyY, dirtyY + dirtyHeight)), -dy);
+        int maxX = Math.min(Math.min(imageData.getWidth(),
+                Math.max(dirtyX, dirtyX + dirtyWidth)), image.getWidth() - dx);
+        int maxY = Math.min(Math.min(imageData.getHeight(),
+                Math.max(dirtyY, dirtyY + dirtyHeight)),
+                image.getHeight() - dy);
+        for (int y = minY; y < maxY; y++) {
+            for (int x = minX; x < maxX; x++) {
+                image.setRGB(dx + x, dy + y, imageData.getARGB(x, y));
+            }
+        }
+    }
+
+    @Override
+    public void fill() {
+        Shape shape = userPath();
+        if (shape != null) {
+            paint(shape, state.fill);
+        }
+    }
+
+    @Override
+    public void fillRect(double x, double y, double width, double height) {
+        paint(normalized(x, y, width, height), state.fill);
+    }
+
+    @Override
+    public void fillText(String text, double x, double y) {
+        paint(textOutline(text, x, y), state.fill);
+    }
+
+    @Override
+    public void lineTo(double x, double y) {
+        if (path.getCurrentPoint() == null) {
+            moveTo(x, y);
+            return;
+        }
+        reopenSubpath();
+        Point2D p = device(x, y);
+        path.lineTo(p.getX(), p.getY());
+    }
+
+    @Override
+    public void moveTo(double x, double y) {
+        Point2D p = device(x, y);
+        path.moveTo(p.getX(), p.getY());
+        subpathClosed = false;
+    }
+
+    @Override
+    public void quadraticCurveTo(double cpx, double cpy, double x, double y) {
+        ensureSubpath(cpx, cpy);
+        Point2D c = device(cpx, cpy);
+        Point2D end = device(x, y);
+        path.quadTo(c.getX(), c.getY(), end.getX(), end.getY());
+    }
+
+    @Override
+    public void rect(double x, double y, double width, double height) {
+        moveTo(x, y);
+        lineTo(x + width, y);
+        lineTo(x + width, y + height);
+        lineTo(x, y + height);
+        closePath();
+        moveTo(x, y);
+    }
+
+    @Override
+    public void save() {
+        savedStates.push(state);
+        state = state.copy();
+    }
+
+    @Override
+    public void restore() {
+        State saved = savedStates.poll();
+        if (saved != null) {
+            state = saved;
+        }
+    }
+
+    @Override
+    public void rotate(double angle) {
+        state.transform.rotate(angle);
+    }
+
+    @Override
+    public void scale(double x, double y) {
+        state.transform.scale(x, y);
+    }
+
+    @Override
+    public void translate(double x, double y) {
+        state.transform.translate(x, y);
+    }
+
+    @Override
+    public void stroke() {
+        Shape shape = userPath();
+        if (shape != null) {
+            paint(basicStroke().createStrokedShape(shape), state.stroke);
+        }
+    }
+
+    @Override
+    public void strokeRect(double x, double y, double width, double height) {
+        Path2D.Double rect = new Path2D.Double();
+        rect.moveTo(x, y);
+        rect.lineTo(x + width, y);
+        rect.lineTo(x + width, y + height);
+        rect.lineTo(x, y + height);
+        rect.closePath();
+        paint(basicStroke().createStrokedShape(rect), state.stroke);
+    }
+
+    @Override
+    public void strokeText(String text, double x, double y) {
+        paint(basicStroke().createStrokedShape(textOutline(text, x, y)),
+                state.stroke);
+    }
+
+    @Override
+    public void clip() {
+        Area area = new Area(path);
+        if (state.clip != null) {
+            area.intersect(state.clip);
+        }
+        state.clip = area;
+    }
+
+    @Override
+    public void fill(org.vaadin.pekkam.Path2D path) {
+        withPath(path, this::fill);
+    }
+
+    @Override
+    public void stroke(org.vaadin.pekkam.Path2D path) {
+        withPath(path, this::stroke);
+    }
+
+    @Override
+    public void clip(org.vaadin.pekkam.Path2D path) {
+        withPath(path, this::clip);
+    }
+
+    @Override
+    public void fillPathTransformed(org.vaadin.pekkam.Path2D path,
+            double[] transforms) {
+        if (transforms.length % 6 != 0) {
+            throw new IllegalArgumentException(
+                    "The number of values must be divisible by 6");
+        }
+        for (int i = 0; i < transforms.length; i += 6) {
+            save();
+            state.transform.concatenate(
+                    new AffineTransform(Arrays.copyOfRange(transforms, i, i + 6)));
+            fill(path);
+            restore();
+        }
+    }
+
+    /**
+     * Draws a path object without changing the current path, as the browser
+     * does.
+     */
+    private void withPath(org.vaadin.pekkam.Path2D p, Runnable draw) {
+        Path2D saved = (Path2D) path.clone();
+        boolean savedClosed = subpathClosed;
+        beginPath();
+        p.appendTo(this);
+        draw.run();
+        path.reset();
+        path.append(saved, false);
+        subpathClosed = savedClosed;
+    }
+
+    @Override
+    public void polyline(double[] xy) {
+        if (xy.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                    "The number of values must be divisible by 2");
+        }
+        for (int i = 0; i < xy.length; i += 2) {
+            if (i == 0) {
+                moveTo(xy[i], xy[i + 1]);
+            } else {
+                lineTo(xy[i], xy[i + 1]);
+            }
+        }
+    }
+
+    @Override
+    public void fillRects(double[] xywh) {
+        if (xywh.length % 4 != 0) {
+            throw new IllegalArgumentException(
+                    "The number of values must be divisible by 4");
+        }
+        for (int i = 0; i < xywh.length; i += 4) {
+            fillRect(xywh[i], xywh[i + 1], xywh[i + 2], xywh[i + 3]);
+        }
+    }
+
+    @Override
+    public void drawPoints(double[] xy, double radius) {
+        if (xy.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                    "The number of values must be divisible by 2");
+        }
+        beginPath();
+        for (int i = 0; i < xy.length; i += 2) {
+            moveTo(xy[i] + radius, xy[i + 1]);
+            arc(xy[i], xy[i + 1], radius, 0, 2 * Math.PI, false);
+        }
+        fill();
+    }
+
+    @Override
+    public void strokeSegments(double[] x1y1x2y2) {
+        if (x1y1x2y2.length % 4 != 0) {
+            throw new IllegalArgumentException(
+                    "The number of values must be divisible by 4");
+        }
+        beginPath();
+        for (int i = 0; i < x1y1x2y2.length; i += 4) {
+            moveTo(x1y1x2y2[i], x1y1x2y2[i + 1]);
+            lineTo(x1y1x2y2[i + 2], x1y1x2y2[i + 3]);
+        }
+        stroke();
+    }
+
+    private Point2D device(double x, double y) {
+        return state.transform.transform(new Point2D.Double(x, y), null);
+    }
+
+    /**
+     * @return the current point of the path in user space, or
+     *         <code>null</code> if there is none or the transformation is
+     *         not invertible
+     */
+    private Point2D currentUserPoint() {
+        Point2D current = path.getCurrentPoint();
+        if (current == null) {
+            return null;
+        }
+        try {
+            return state.transform.inverseTransform(current, null);
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    private void ensureSubpath(double x, double y) {
+        if (path.getCurrentPoint() == null) {
+            moveTo(x, y);
+        }
+        reopenSubpath();
+    }
+
+    /**
+     * Starts a new subpath at the start of a closed one, as the canvas does
+     * for commands after <code>closePath()</code>.
+     */
+    private void reopenSubpath() {
+        if (subpathClosed) {
+            Point2D current = path.getCurrentPoint();
+            path.moveTo(current.getX(), current.getY());
+            subpathClosed = false;
+        }
+    }
+
+    /**
+     * @return the current path in user space, or <code>null</code> if the
+     *         transformation is not invertible
+     */
+    private Shape userPath() {
+        try {
+            return state.transform.createInverse().createTransformedShape(path);
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    private BasicStroke basicStroke() {
+        return new BasicStroke((float) state.lineWidth, state.lineCap,
+                state.lineJoin, 10, state.lineDash, 0);
+    }
+
+    private Shape textOutline(String text, double x, double y) {
+        FontRenderContext frc = new FontRenderContext(null, true, true);
+        return state.font.createGlyphVector(frc, text).getOutline((float) x,
+                (float) y);
+    }
+
+    /**
+     * @return graphics that draw in the current user space, clipped to the
+     *         current clip region
+     */
+    private Graphics2D userGraphics() {
+        Graphics2D g = (Graphics2D) graphics.create();
+        // The clip is set in image pixels before transforming
+        g.setClip(state.clip);
+        g.transform(state.transform);
+        return g;
+    }
+
+    /**
+     * Fills a shape given in user space with a style.
+     */
+    private void paint(Shape shape, Style style) {
+        Graphics2D g = userGraphics();
+        try {
+            if (style.gradient() != null) {
+                g.setPaint(style.gradient());
+                g.fill(shape);
+                return;
+            }
+            if (style.image() == null) {
+                g.setPaint(style.color());
+                g.fill(shape);
+                return;
+            }
+            BufferedImage img = style.image();
+            g.setPaint(new TexturePaint(img, new Rectangle2D.Double(0, 0,
+                    img.getWidth(), img.getHeight())));
+            Rectangle2D strip = patternStrip(img, style.repetition());
+            if (strip == null) {
+                g.fill(shape);
+            } else {
+                Area area = new Area(shape);
+                area.intersect(new Area(strip));
+                g.fill(area);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * @return the area a non-repeating pattern covers, or <code>null</code>
+     *         if the pattern repeats in both directions
+     */
+    private static Rectangle2D patternStrip(BufferedImage img,
+            String repetition) {
+        double far = 1e9;
+        String value = repetition == null ? ""
+                : repetition.toLowerCase(Locale.ROOT);
+        return switch (value) {
+        case "repeat-x" -> new Rectangle2D.Double(-far, 0, 2 * far,
+                img.getHeight());
+        case "repeat-y" -> new Rectangle2D.Double(0, -far, img.getWidth(),
+                2 * far);
+        case "no-repeat" -> new Rectangle2D.Double(0, 0, img.getWidth(),
+                img.getHeight());
+        default -> null;
+        };
+    }
+
+    private static Rectangle2D normalized(double x, double y, double width,
+            double height) {
+        return new Rectangle2D.Double(Math.min(x, x + width),
+                Math.min(y, y + height), Math.abs(width), Math.abs(height));
+    }
+
+    private BufferedImage image(String src) {
+        if (src == null) {
+            return null;
+        }
+        BufferedImage img = images.get(src);
+        if (img == null) {
+            try {
+                img = imageResolver.resolve(src);
+            } catch (IOException | RuntimeException e) {
+                LoggerFactory.getLogger(Java2DRenderingContext.class)
+                        .warn("Failed to load image {}", src, e);
+            }
+            if (img != null) {
+                images.put(src, img);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * @return the font of a CSS font shorthand value, or <code>null</code>
+     *         if the value is not valid
+     */
+    static Font parseFont(String css) {
+        if (css == null) {
+            return null;
+        }
+        Matcher matcher = FONT.matcher(css.trim().toLowerCase(Locale.ROOT));
+        if (!matcher.matches()) {
+            return null;
+        }
+        int style = Font.PLAIN;
+        for (String keyword : matcher.group(1).trim().split("\\s+")) {
+            if (keyword.equals("italic") || keyword.equals("oblique")) {
+                style |= Font.ITALIC;
+            } else if (keyword.equals("bold") || keyword.equals("bolder")
+                    || (keyword.matches("\\d{3}")
+                            && Integer.parseInt(keyword) >= 600)) {
+                style |= Font.BOLD;
+            }
+        }
+        double size = Double.parseDouble(matcher.group(2));
+        size = switch (matcher.group(3)) {
+        case "pt" -> size * 4 / 3;
+        case "em", "rem" -> size * 16;
+        case "%" -> size * 16 / 100;
+        default -> size;
+        };
+        return new Font(family(css, matcher.start(4)), style, 1)
+                .deriveFont(style, (float) size);
+    }
+
+    /**
+     * @return the first available family of the list starting at the given
+     *         position, keeping its case
+     */
+    private static String family(String css, int start) {
+        for (String name : css.trim().substring(start).split(",")) {
+            String family = name.trim().replaceAll("^[\"']|[\"']$", "");
+            switch (family.toLowerCase(Locale.ROOT)) {
+            case "serif":
+                return Font.SERIF;
+            case "sans-serif":
+            case "system-ui":
+                return Font.SANS_SERIF;
+            case "monospace":
+                return Font.MONOSPACED;
+            default:
+                if (availableFamilies().contains(
+                        family.toLowerCase(Locale.ROOT))) {
+                    return family;
+                }
+            }
+        }
+        return Font.SANS_SERIF;
+    }
+
+    private static synchronized Set<String> availableFamilies() {
+        if (availableFamilies == null) {
+            availableFamilies = Set.copyOf(Arrays.stream(GraphicsEnvironment
+                    .getLocalGraphicsEnvironment()
+                    .getAvailableFontFamilyNames(Locale.ROOT))
+                    .map(name -> name.toLowerCase(Locale.ROOT)).toList());
+        }
+        return availableFamilies;
+    }
+}
@@ -0,0 +1,26 @@
+package org.vaadin.pekkam.scene;
+
+import org.vaadin.pekkam.RenderingContext2D;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * A circle in a {@link Scene}.
+ */
+public record CircleShape(double centerX, double centerY, double radius,
+        ShapeStyle style) implements SceneShape {
+
+    @Override
+    public Rectangle2D getBounds() {
+        double extent = radius + style.getStrokeMargin();
+        return new Rectangle2D.Double(centerX - extent, centerY - extent,
+                2 * extent, 2 * extent);
+    }
+
+    @Override
+    public void draw(RenderingContext2D ctx) {
+        ctx.beginPath();
+        ctx.arc(centerX, centerY, radius, 0, 2 * Math.PI, false);
+        style.paint(ctx);
+    }
+}
@@ -0,0 +1,30 @@
+package org.vaadin.pekkam.scene;
+
+import com.vaadin.flow.function.SerializableConsumer;
+import org.vaadin.pekkam.RenderingContext2D;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * A shape in a {@link Scene} that is drawn by application code.
+ *
+ * @param bounds
+ *            the area the drawer paints on; anything painted outside of it
+ *            may be left behind when the shape changes
+ * @param drawer
+ *            the code that draws the shape
+ */
+public record CustomShape(Rectangle2D bounds,
+        SerializableConsumer<RenderingContext2D> drawer)
+        implements SceneShape {
+
+    @Override
+    public Rectangle2D getBounds() {
+        return bounds;
+    }
+
+    @Override
+    public void draw(RenderingContext2D ctx) {
+        drawer.accept(ctx);
+    }
+}
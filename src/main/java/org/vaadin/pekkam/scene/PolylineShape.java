@@ -0,0 +1,54 @@
+package org.vaadin.pekkam.scene;
+
+import org.vaadin.pekkam.RenderingContext2D;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * A polyline or polygon in a {@link Scene}.
+ * <p>
+ * The points are given as a flat array of <code>x, y</code> pairs. The array
+ * must not be modified after the shape has been created.
+ */
+public record PolylineShape(double[] xy, boolean closed,
+        ShapeStyle style) implements SceneShape {
+
+    public PolylineShape {
+        if (xy.length < 2 || xy.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                    "Expected at least one x, y pair but got " + xy.length
+                            + " values");
+        }
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        double minX = xy[0];
+        double minY = xy[1];
+        double maxX = minX;
+        double maxY = minY;
+        for (int i = 2; i < xy.length; i += 2) {
+            minX = Math.min(minX, xy[i]);
+            maxX = Math.max(maxX, xy[i]);
+            minY = Math.min(minY, xy[i + 1]);
+            maxY = Math.max(maxY, xy[i + 1]);
+        }
+        // Miter joins may extend further than half of the line width
+        double margin = 2 * style.getStrokeMargin();
+        return new Rectangle2D.Double(minX - margin, minY - margin,
+                maxX - minX + 2 * margin, maxY - minY + 2 * margin);
+    }
+
+    @Override
+    public void draw(RenderingContext2D ctx) {
+        ctx.beginPath();
+        ctx.moveTo(xy[0], xy[1]);
+        for (int i = 2; i < xy.length; i += 2) {
+            ctx.lineTo(xy[i], xy[i + 1]);
+        }
+        if (closed) {
+            ctx.closePath();
+        }
+        style.paint(ctx);
+    }
+}
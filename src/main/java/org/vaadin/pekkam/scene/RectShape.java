@@ -0,0 +1,26 @@
+package org.vaadin.pekkam.scene;
+
+import org.vaadin.pekkam.RenderingContext2D;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * A rectangle in a {@link Scene}.
+ */
+public record RectShape(double x, double y, double width, double height,
+        ShapeStyle style) implements SceneShape {
+
+    @Override
+    public Rectangle2D getBounds() {
+        double margin = style.getStrokeMargin();
+        return new Rectangle2D.Double(x - margin, y - margin,
+                width + 2 * margin, height + 2 * margin);
+    }
+
+    @Override
+    public void draw(RenderingContext2D ctx) {
+        ctx.beginPath();
+        ctx.rect(x, y, width, height);
+        style.paint(ctx);
+    }
+}
@@ -0,0 +1,195 @@
+package org.vaadin.pekkam.scene;
+
+import org.vaadin.pekkam.Canvas;
+import org.vaadin.pekkam.CanvasRenderingContext2D;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A retained model of the shapes drawn on a {@link Canvas}.
+ * <p>
+ * Shapes are identified by an id. Adding, replacing or removing a shape only
+ * marks the area it covers as dirty. Before the next response to the browser,
+ * the dirty areas are cleared and the shapes overlapping them are redrawn in
+ * their stacking order, clipped to the dirty areas. The rest of the canvas is
+ * left untouched.
+ * <p>
+ * Shapes are stacked in the order they were first added, so a shape added
+ * later is drawn on top. Replacing a shape keeps its position in the stack.
+ * <p>
+ * The scene assumes that it owns the whole canvas. Anything drawn directly
+ * with {@link Canvas#getContext()} may be erased by later updates.
+ */
+public class Scene implements Serializable {
+
+    /**
+     * The maximum number of separate rectangles to redraw. If more areas are
+     * dirty, their union is redrawn instead.
+     */
+    private static final int MAX_DIRTY_RECTS = 8;
+
+    private final Canvas canvas;
+    private final Map<String, SceneShape> shapes = new LinkedHashMap<>();
+    private final List<Rectangle2D> dirty = new ArrayList<>();
+    private boolean redrawScheduled;
+
+    /**
+     * Creates a new empty scene for the given canvas.
+     *
+     * @param canvas
+     *            the canvas to draw the scene on
+     */
+    public Scene(Canvas canvas) {
+        this.canvas = canvas;
+    }
+
+    /**
+     * Adds a shape to the scene, or replaces the shape with the same id.
+     *
+     * @param id
+     *            the id of the shape
+     * @param shape
+     *            the shape
+     */
+    public void put(String id, SceneShape shape) {
+        SceneShape old = shapes.put(id, shape);
+        if (old != null) {
+            markDirty(old.getBounds());
+        }
+        markDirty(shape.getBounds());
+    }
+
+    /**
+     * Removes the shape with the given id.
+     *
+     * @param id
+     *            the id of the shape
+     * @return the removed shape, or <code>null</code> if there was no shape
+     *         with the given id
+     */
+    public SceneShape remove(String id) {
+        SceneShape old = shapes.remove(id);
+        if (old != null) {
+            markDirty(old.getBounds());
+        }
+        return old;
+    }
+
+    /**
+     * Removes all shapes from the scene.
+     */
+    public void clear() {
+        shapes.values().forEach(shape -> markDirty(shape.getBounds()));
+        shapes.clear();
+    }
+
+    /**
+     * @param id
+     *            the id of the shape
+     * @return the shape with the given id, or <code>null</code> if there is
+     *         none
+     */
+    public SceneShape get(String id) {
+        return shapes.get(id);
+    }
+
+    /**
+     * @return the ids of the shapes in stacking order, bottom first
+     */
+    public Set<String> getIds() {
+        return Collections.unmodifiableSet(shapes.keySet());
+    }
+
+    /**
+     * Redraws the whole scene, e.g. after the canvas has been cleared with
+     * other means.
+     */
+    public void repaint() {
+        shapes.values().forEach(shape -> markDirty(shape.getBounds()));
+    }
+
+    private void markDirty(Rectangle2D bounds) {
+        if (bounds.isEmpty()) {
+            return;
+        }
+        // Cover anti-aliased edge pixels and snap to the pixel grid so that
+        // no partially cleared pixels are left behind
+        double x1 = Math.floor(bounds.getMinX() - 1);
+        double y1 = Math.floor(bounds.getMinY() - 1);
+        double x2 = Math.ceil(bounds.getMaxX() + 1);
+        double y2 = Math.ceil(bounds.getMaxY() + 1);
+        dirty.add(new Rectangle2D.Double(x1, y1, x2 - x1, y2 - y1));
+
+        if (!redrawScheduled) {
+            redrawScheduled = true;
+            canvas.getElement().getNode()
+                    .runWhenAttached(ui -> ui.beforeClientResponse(canvas,
+                            context -> redraw()));
+        }
+    }
+
+    private void redraw() {
+        redrawScheduled = false;
+        List<Rectangle2D> rects = mergeDirtyRects();
+        dirty.clear();
+        if (rects.isEmpty()) {
+            return;
+        }
+
+        CanvasRenderingContext2D ctx = canvas.getContext();
+        ctx.save();
+        ctx.beginPath();
+        for (Rectangle2D rect : rects) {
+            ctx.rect(rect.getX(), rect.getY(), rect.getWidth(),
+                    rect.getHeight());
+        }
+        ctx.clip();
+        for (Rectangle2D rect : rects) {
+            ctx.clearRect(rect.getX(), rect.getY(), rect.getWidth(),
+                    rect.getHeight());
+        }
+        for (SceneShape shape : shapes.values()) {
+            Rectangle2D bounds = shape.getBounds();
+            if (rects.stream().anyMatch(rect -> rect.intersects(bounds))) {
+                shape.draw(ctx);
+            }
+        }
+        ctx.restore();
+    }
+
+    /**
+     * Merges overlapping dirty rectangles, so that no area is redrawn twice.
+     */
+    private List<Rectangle2D> mergeDirtyRects() {
+        List<Rectangle2D> merged = new ArrayList<>(dirty);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < merged.size() && !changed; i++) {
+                for (int j = i + 1; j < merged.size(); j++) {
+                    if (merged.get(i).intersects(merged.get(j))) {
+                        merged.set(i, merged.get(i)
+                                .createUnion(merged.remove(j)));
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        if (merged.size() > MAX_DIRTY_RECTS) {
+            Rectangle2D union = merged.get(0);
+            for (Rectangle2D rect : merged) {
+                union = union.createUnion(rect);
+            }
+            return List.of(union);
+        }
+        return merged;
+    }
+}
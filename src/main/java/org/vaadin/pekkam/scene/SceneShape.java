@@ -0,0 +1,31 @@
+package org.vaadin.pekkam.scene;
+
+import org.vaadin.pekkam.RenderingContext2D;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+
+/**
+ * A shape that can be added to a {@link Scene}.
+ * <p>
+ * Implementations must be immutable: to change a shape, put a new instance
+ * with the same id to the scene.
+ */
+public interface SceneShape extends Serializable {
+
+    /**
+     * Gets the area this shape paints on, including the stroke width.
+     *
+     * @return the bounds of this shape in canvas coordinates
+     */
+    Rectangle2D getBounds();
+
+    /**
+     * Draws this shape. The shape must set all the styles it uses, as it may
+     * be drawn after any other shape of the scene.
+     *
+     * @param ctx
+     *            the context to draw with
+     */
+    void draw(RenderingContext2D ctx);
+}
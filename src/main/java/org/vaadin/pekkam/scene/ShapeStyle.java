@@ -0,0 +1,53 @@
+package org.vaadin.pekkam.scene;
+
+import org.vaadin.pekkam.RenderingContext2D;
+
+import java.io.Serializable;
+
+/**
+ * Fill and stroke style of a {@link SceneShape}.
+ *
+ * @param fillStyle
+ *            the fill style, or <code>null</code> to not fill the shape
+ * @param strokeStyle
+ *            the stroke style, or <code>null</code> to not stroke the shape
+ * @param lineWidth
+ *            the width of the stroke
+ */
+public record ShapeStyle(String fillStyle, String strokeStyle,
+        double lineWidth) implements Serializable {
+
+    public static ShapeStyle fill(String fillStyle) {
+        return new ShapeStyle(fillStyle, null, 1);
+    }
+
+    public static ShapeStyle stroke(String strokeStyle, double lineWidth) {
+        return new ShapeStyle(null, strokeStyle, lineWidth);
+    }
+
+    /**
+     * @return how much the stroke extends outside the geometry of a shape
+     */
+    public double getStrokeMargin() {
+        return strokeStyle != null ? lineWidth / 2 : 0;
+    }
+
+    /**
+     * Fills and/or strokes the current path of the given context with this
+     * style.
+     *
+     * @param ctx
+     *            the context to paint with
+     */
+    public void paint(RenderingContext2D ctx) {
+        if (fillStyle != null) {
+            ctx.setFillStyle(fillStyle);
+            ctx.fill();
+        }
+        if (strokeStyle != null) {
+            ctx.setStrokeStyle(strokeStyle);
+            ctx.setLineWidth(lineWidth);
+            ctx.stroke();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.vaadin.pekkam.tile;
+
+import org.vaadin.pekkam.RenderingContext2D;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+
+/**
+ * Draws the content of a {@link TiledRenderer}. It is called for each tile
+ * separately and possibly for many tiles at the same time in different
+ * threads, without the session being locked. The data it draws must be safe
+ * to read concurrently.
+ */
+@FunctionalInterface
+public interface TileSource extends Serializable {
+
+    /**
+     * Draws the part of the content in the given area.
+     *
+     * @param ctx
+     *            the context to draw on, transformed so that the content is
+     *            drawn in its own coordinates
+     * @param area
+     *            the area of the tile in content coordinates; content outside
+     *            of it is clipped, so it can be skipped
+     */
+    void draw(RenderingContext2D ctx, Rectangle2D area);
+}
@@ -0,0 +1,488 @@
+package org.vaadin.pekkam.tile;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.server.StreamRegistration;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.streams.DownloadEvent;
+import com.vaadin.flow.server.streams.DownloadHandler;
+import org.slf4j.LoggerFactory;
+import org.vaadin.pekkam.Canvas;
+import org.vaadin.pekkam.CanvasRenderingContext2D;
+import org.vaadin.pekkam.event.ImageLoadEvent;
+import org.vaadin.pekkam.headless.HeadlessRenderer;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Draws content on a {@link Canvas} as images rendered on the server, for
+ * scenes with so many primitives that sending the drawing commands to the
+ * browser would be too slow.
+ * <p>
+ * The content is split into square tiles, which are drawn with a
+ * {@link TileSource} on server-side images in parallel, without locking the
+ * session. The browser only gets a <code>drawImage</code> command for each
+ * visible tile, once it has loaded the tile's image, so tiles are always
+ * drawn where they belong even if the view has moved since. The images are
+ * identified by the hash of their content, so tiles that look the same are
+ * sent only once, and they are served with HTTP caching headers, so the
+ * browser loads each of them only once.
+ * <p>
+ * When the data of the content changes, call
+ * {@link #invalidate(double, double, double, double)} with the changed area,
+ * and only the tiles overlapping it are rendered and drawn again. The
+ * visible part of the content can be moved with
+ * {@link #setViewOrigin(double, double)}.
+ * <p>
+ * The renderer assumes that it owns the whole canvas. Anything drawn
+ * directly with {@link Canvas#getContext()} may be erased by later updates.
+ */
+public class TiledRenderer implements Serializable {
+
+    /**
+     * The default width and height of the tiles in pixels.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * The maximum number of rendered tiles kept on the server. The least
+     * recently drawn tiles are rendered again if needed.
+     */
+    private static final int MAX_CACHED_TILES = 4096;
+
+    private final Canvas canvas;
+    private final TileSource source;
+    private final int tileSize;
+    private transient Executor executor;
+    private String imageType = "image/png";
+    private double originX;
+    private double originY;
+
+    /** The content hash of each rendered tile, by tile key */
+    private final Map<Long, String> tiles = new LinkedHashMap<>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > MAX_CACHED_TILES;
+        }
+    };
+    /** The encoded images by content hash, read by the download handler */
+    private final Map<String, byte[]> images = new ConcurrentHashMap<>();
+    /** The tiles currently on the canvas, with the origin they were drawn at */
+    private final Map<Long, String> drawn = new HashMap<>();
+    private double drawnOriginX;
+    private double drawnOriginY;
+    /**
+     * The tiles being rendered, with the number of their batch. A tile that
+     * is invalidated while rendering is removed, so its result is dropped.
+     */
+    private final Map<Long, Long> rendering = new HashMap<>();
+    private long batchCount;
+    /** The images being loaded by the browser for drawing tiles */
+    private final Set<String> loading = new HashSet<>();
+
+    private StreamRegistration registration;
+    private boolean refreshScheduled;
+
+    /**
+     * Creates a renderer with tiles of {@value #DEFAULT_TILE_SIZE} pixels.
+     *
+     * @param canvas
+     *            the canvas to draw the tiles on
+     * @param source
+     *            the source drawing the content of the tiles
+     */
+    public TiledRenderer(Canvas canvas, TileSource source) {
+        this(canvas, source, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a renderer.
+     *
+     * @param canvas
+     *            the canvas to draw the tiles on
+     * @param source
+     *            the source drawing the content of the tiles
+     * @param tileSize
+     *            the width and height of the tiles in pixels
+     */
+    public TiledRenderer(Canvas canvas, TileSource source, int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException(
+                    "The tile size must be positive");
+        }
+        this.canvas = Objects.requireNonNull(canvas);
+        this.source = Objects.requireNonNull(source);
+        this.tileSize = tileSize;
+
+        canvas.addAttachListener(event -> {
+            register(event.getUI());
+            // A new canvas element is empty, and renders and loads that
+            // were going on are not finished
+            drawn.clear();
+            rendering.clear();
+            loading.clear();
+            scheduleRefresh();
+        });
+        canvas.addDetachListener(event -> unregister());
+        canvas.addImageLoadListener(this::imagesLoaded);
+        canvas.getUI().ifPresent(ui -> {
+            register(ui);
+            scheduleRefresh();
+        });
+    }
+
+    /**
+     * @return the width and height of the tiles in pixels
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Sets the executor rendering the tiles. By default, the common
+     * fork-join pool is used.
+     *
+     * @param executor
+     *            the executor, or <code>null</code> for the default
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the format of the tile images, "image/png" by default. Lossy
+     * formats such as "image/jpeg" make the images smaller, but lose
+     * transparency.
+     *
+     * @param imageType
+     *            the MIME type of the format
+     */
+    public void setImageType(String imageType) {
+        if (!imageType.equals(this.imageType)) {
+            this.imageType = imageType;
+            invalidate();
+        }
+    }
+
+    /**
+     * @return the MIME type of the tile images
+     */
+    public String getImageType() {
+        return imageType;
+    }
+
+    /**
+     * Sets the point of the content shown at the top left corner of the
+     * canvas. It is (0, 0) by default.
+     *
+     * @param x
+     *            the x coordinate in content coordinates
+     * @param y
+     *            the y coordinate in content coordinates
+     */
+    public void setViewOrigin(double x, double y) {
+        if (x != originX || y != originY) {
+            originX = x;
+            originY = y;
+            scheduleRefresh();
+        }
+    }
+
+    /**
+     * @return the x coordinate of the content at the left edge of the canvas
+     */
+    public double getViewOriginX() {
+        return originX;
+    }
+
+    /**
+     * @return the y coordinate of the content at the top edge of the canvas
+     */
+    public double getViewOriginY() {
+        return originY;
+    }
+
+    /**
+     * Renders all tiles again.
+     */
+    public void invalidate() {
+        tiles.clear();
+        rendering.clear();
+        scheduleRefresh();
+    }
+
+    /**
+     * Renders the tiles overlapping the given area again.
+     *
+     * @param x
+     *            the x coordinate of the area in content coordinates
+     * @param y
+     *            the y coordinate of the area in content coordinates
+     * @param width
+     *            the width of the area
+     * @param height
+     *            the height of the area
+     */
+    public void invalidate(double x, double y, double width, double height) {
+        Rectangle2D area = new Rectangle2D.Double(Math.min(x, x + width),
+                Math.min(y, y + height), Math.abs(width), Math.abs(height));
+        boolean removed = tiles.keySet()
+                .removeIf(key -> area.intersects(bounds(key)));
+        removed |= rendering.keySet()
+                .removeIf(key -> area.intersects(bounds(key)));
+        if (removed) {
+            scheduleRefresh();
+        }
+    }
+
+    private void register(UI ui) {
+        if (registration == null) {
+            DownloadHandler handler = this::serve;
+            registration = ui.getSession().getResourceRegistry()
+                    .registerResource(handler, canvas.getElement());
+        }
+    }
+
+    private void unregister() {
+        if (registration != null) {
+            registration.unregister();
+            registration = null;
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (!refreshScheduled) {
+            refreshScheduled = true;
+            canvas.getElement().getNode()
+                    .runWhenAttached(ui -> ui.beforeClientResponse(canvas,
+                            context -> refresh()));
+        }
+    }
+
+    private void refresh() {
+        refreshScheduled = false;
+        if (registration == null) {
+            return;
+        }
+        List<Long> visible = visibleTiles();
+        renderMissing(visible);
+
+        CanvasRenderingContext2D ctx = canvas.getContext();
+        boolean moved = originX != drawnOriginX || originY != drawnOriginY;
+        if (moved) {
+            ctx.clearRect(0, 0, canvas.getCanvasWidth(),
+                    canvas.getCanvasHeight());
+            drawn.clear();
+            drawnOriginX = originX;
+            drawnOriginY = originY;
+        }
+        String url = registration.getResourceUri().toString();
+        Map<Long, String> nowDrawn = new HashMap<>();
+        List<String> toLoad = new ArrayList<>();
+        for (long key : visible) {
+            String hash = tiles.get(key);
+            String previous = drawn.get(key);
+            if (hash == null || hash.equals(previous)) {
+                if (previous != null) {
+                    nowDrawn.put(key, previous);
+                }
+                continue;
+            }
+            String src = url + "?tile=" + hash;
+            if (!canvas.getImages().isLoaded(src)) {
+                // Drawing would be deferred until the image has loaded, when
+                // the tile may no longer belong to the same place. The old
+                // tile stays until then.
+                if (loading.add(src)) {
+                    toLoad.add(src);
+                }
+                if (previous != null) {
+                    nowDrawn.put(key, previous);
+                }
+                continue;
+            }
+            nowDrawn.put(key, hash);
+            double x = column(key) * (double) tileSize - originX;
+            double y = row(key) * (double) tileSize - originY;
+            if (!moved) {
+                ctx.clearRect(x, y, tileSize, tileSize);
+            }
+            ctx.drawImage(src, x, y);
+        }
+        canvas.getImages().preload(toLoad.toArray(String[]::new));
+        drawn.clear();
+        drawn.putAll(nowDrawn);
+        // Images of tiles that are no longer cached are not needed anymore
+        images.keySet().retainAll(new HashSet<>(tiles.values()));
+    }
+
+    private void imagesLoaded(ImageLoadEvent event) {
+        loading.removeAll(event.getFailedSources());
+        // Failed tiles are tried again with the next refresh
+        if (loading.removeAll(event.getSources())) {
+            scheduleRefresh();
+        }
+    }
+
+    private List<Long> visibleTiles() {
+        int minColumn = (int) Math.floor(originX / tileSize);
+        int minRow = (int) Math.floor(originY / tileSize);
+        int maxColumn = (int) Math
+                .ceil((originX + canvas.getCanvasWidth()) / tileSize) - 1;
+        int maxRow = (int) Math
+                .ceil((originY + canvas.getCanvasHeight()) / tileSize) - 1;
+        List<Long> visible = new ArrayList<>();
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                visible.add(key(column, row));
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Starts rendering the tiles that have no image yet, in parallel. The
+     * images are stored and drawn with the session locked once all of them
+     * are ready.
+     */
+    private void renderMissing(List<Long> visible) {
+        UI ui = canvas.getUI().orElse(null);
+        if (ui == null) {
+            return;
+        }
+        Executor pool = executor != null ? executor : ForkJoinPool.commonPool();
+        String type = imageType;
+        long batch = ++batchCount;
+        Map<Long, CompletableFuture<byte[]>> batchTiles = new LinkedHashMap<>();
+        for (long key : visible) {
+            if (!tiles.containsKey(key) && !rendering.containsKey(key)) {
+                Rectangle2D area = bounds(key);
+                rendering.put(key, batch);
+                batchTiles.put(key, CompletableFuture.supplyAsync(
+                        () -> HeadlessRenderer.encode(render(area), type),
+                        pool));
+            }
+        }
+        if (batchTiles.isEmpty()) {
+            return;
+        }
+        CompletableFuture.allOf(batchTiles.values()
+                .toArray(CompletableFuture[]::new))
+                .whenComplete((ignore, error) -> {
+                    try {
+                        ui.access(() -> rendered(batch, batchTiles, error));
+                    } catch (UIDetachedException e) {
+                        // Rendered again when attached
+                    }
+                });
+    }
+
+    /**
+     * Stores the images of a finished batch. Called with the session locked.
+     */
+    private void rendered(long batch,
+            Map<Long, CompletableFuture<byte[]>> batchTiles, Throwable error) {
+        if (error != null) {
+            LoggerFactory.getLogger(TiledRenderer.class)
+                    .error("Rendering tiles failed", error);
+        }
+        boolean stored = false;
+        for (Map.Entry<Long, CompletableFuture<byte[]>> entry : batchTiles
+                .entrySet()) {
+            long key = entry.getKey();
+            if (!rendering.remove(key, batch)
+                    || entry.getValue().isCompletedExceptionally()) {
+                // Invalidated while rendering, or failed
+                continue;
+            }
+            byte[] image = entry.getValue().join();
+            String hash = hash(image);
+            images.putIfAbsent(hash, image);
+            tiles.put(key, hash);
+            stored = true;
+        }
+        if (stored) {
+            scheduleRefresh();
+        }
+    }
+
+    private BufferedImage render(Rectangle2D area) {
+        return HeadlessRenderer.render(tileSize, tileSize, ctx -> {
+            ctx.translate(-area.getX(), -area.getY());
+            source.draw(ctx, area);
+        });
+    }
+
+    /**
+     * Serves the tile images. This is called without the session being
+     * locked.
+     */
+    private void serve(DownloadEvent event) throws IOException {
+        String hash = event.getRequest().getParameter("tile");
+        byte[] image = hash != null ? images.get(hash) : null;
+        VaadinResponse response = event.getResponse();
+        if (image == null) {
+            response.setStatus(404);
+            return;
+        }
+        // The content of a URL never changes, as it contains the hash
+        String etag = '"' + hash + '"';
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control",
+                "private, max-age=31536000, immutable");
+        if (etag.equals(event.getRequest().getHeader("If-None-Match"))) {
+            response.setStatus(304);
+            return;
+        }
+        event.setContentType(imageType);
+        event.setContentLength(image.length);
+        event.getOutputStream().write(image);
+    }
+
+    private Rectangle2D bounds(long key) {
+        return new Rectangle2D.Double(column(key) * (double) tileSize,
+                row(key) * (double) tileSize, tileSize, tileSize);
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    private static int column(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int row(long key) {
+        return (int) key;
+    }
+
+    private static String hash(byte[] image) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(image);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Client-side counterpart of org.vaadin.pekkam.Animator. Used by both
+ * canvas-connector.js and canvas-worker.js.
+ *
+ * Each actor is a recorded drawing with properties. While any animation is
+ * running, the properties are interpolated and the whole canvas is drawn
+ * again on every animation frame. When no animation is running, the canvas
+ * is only drawn after a change.
+ */
+import { decode, execute } from './canvas-interpreter.js';
+
+const EASINGS = {
+  LINEAR: (t) => t,
+  EASE_IN: (t) => t * t * t,
+  EASE_OUT: (t) => 1 - Math.pow(1 - t, 3),
+  EASE_IN_OUT: (t) => t < 0.5 ? 4 * t * t * t : 1 - Math.pow(-2 * t + 2, 3) / 2
+};
+
+/* A context for normalizing CSS colors, which works in workers as well */
+let colorContext = null;
+const colors = new Map();
+
+/* Returns a CSS color as [r, g, b, a] */
+function parseColor(color) {
+  let rgba = colors.get(color);
+  if (!rgba) {
+    if (!colorContext) {
+      colorContext = typeof OffscreenCanvas !== 'undefined'
+        ? new OffscreenCanvas(1, 1).getContext('2d')
+        : document.createElement('canvas').getContext('2d');
+    }
+    colorContext.fillStyle = '#000';
+    colorContext.fillStyle = color;
+    // The style reads back as #rrggbb or rgba(r, g, b, a)
+    const value = colorContext.fillStyle;
+    rgba = value.startsWith('#')
+      ? [1, 3, 5].map((i) => parseInt(value.substring(i, i + 2), 16)).concat(1)
+      : value.substring(value.indexOf('(') + 1, value.length - 1).split(',').map(Number);
+    colors.set(color, rgba);
+  }
+  return rgba;
+}
+
+function interpolate(property, from, to, t) {
+  if (property !== 'color') {
+    return from + (to - from) * t;
+  }
+  const a = parseColor(from);
+  const b = parseColor(to);
+  const mix = (i) => a[i] + (b[i] - a[i]) * t;
+  return 'rgba(' + Math.round(mix(0)) + ',' + Math.round(mix(1)) + ',' + Math.round(mix(2)) + ',' + mix(3) + ')';
+}
+
+export class Animations {
+  /* Calls onEnd with the detail of an animation end event */
+  constructor(target, onEnd) {
+    const images = target.images;
+    // Images drawn late with a stale state are painted over on the next frame
+    this.target = {
+      ...target,
+      images: {
+        get: (src) => images.get(src),
+        fetch: (src) => images.fetch(src).then((img) => {
+          this.schedule();
+          return img;
+        }),
+        preload: (src) => images.preload(src),
+        hold: (src) => images.hold(src),
+        release: (src) => images.release(src)
+      }
+    };
+    this.onEnd = onEnd;
+    this.actors = new Map();
+    this.frame = null;
+  }
+
+  update(updates) {
+    updates.forEach((update) => {
+      switch (update.op) {
+        case 'actor': {
+          const actor = this.actors.get(update.id);
+          if (actor) {
+            // The drawing changes, a running animation goes on
+            actor.d = decode(update.data);
+            actor.s = update.strings;
+          } else {
+            this.actors.set(update.id, { d: decode(update.data), s: update.strings, values: update.values, animation: null });
+          }
+          break;
+        }
+        case 'set':
+          Object.assign(this.actors.get(update.id).values, update.values);
+          break;
+        case 'animate': {
+          const actor = this.actors.get(update.id);
+          this.end(update.id, actor, true);
+          actor.animation = { ...update.timeline, id: update.animation, start: null, from: null };
+          break;
+        }
+        case 'remove':
+          this.end(update.id, this.actors.get(update.id), true);
+          this.actors.delete(update.id);
+          break;
+        case 'clear':
+          this.actors.forEach((actor, id) => this.end(id, actor, true));
+          this.actors.clear();
+          break;
+      }
+    });
+    this.schedule();
+  }
+
+  end(id, actor, cancelled) {
+    if (actor && actor.animation) {
+      this.onEnd({ actor: id, animation: actor.animation.id, cancelled });
+      actor.animation = null;
+    }
+  }
+
+  schedule() {
+    if (this.frame === null) {
+      this.frame = requestAnimationFrame((now) => this.tick(now));
+    }
+  }
+
+  tick(now) {
+    this.frame = null;
+    let running = false;
+    this.actors.forEach((actor, id) => {
+      if (actor.animation) {
+        if (this.step(actor, now)) {
+          running = true;
+        } else {
+          this.end(id, actor, false);
+        }
+      }
+    });
+    this.paint();
+    if (running) {
+      this.schedule();
+    }
+  }
+
+  /* Updates the values of an animated actor, returns whether the animation goes on */
+  step(actor, now) {
+    const a = actor.animation;
+    if (a.start === null) {
+      a.start = now + a.delay;
+      a.from = { ...actor.values };
+      a.length = a.keyframes.reduce((sum, keyframe) => sum + keyframe.duration, 0);
+    }
+    const time = now - a.start;
+    if (time < 0) {
+      return true;
+    }
+    const round = a.length > 0 ? Math.floor(time / a.length) : Infinity;
+    if (a.rounds >= 0 && round >= a.rounds || a.length === 0) {
+      actor.values = { ...a.from };
+      a.keyframes.forEach((keyframe) => Object.assign(actor.values, keyframe.values));
+      return false;
+    }
+    let local = time - round * a.length;
+    const values = { ...a.from };
+    for (const keyframe of a.keyframes) {
+      if (local >= keyframe.duration) {
+        Object.assign(values, keyframe.values);
+        local -= keyframe.duration;
+        continue;
+      }
+      const t = EASINGS[keyframe.easing](local / keyframe.duration);
+      Object.keys(keyframe.values).forEach((property) => {
+        values[property] = interpolate(property, values[property], keyframe.values[property], t);
+      });
+      break;
+    }
+    actor.values = values;
+    return true;
+  }
+
+  /* Draws all actors with their current values */
+  paint() {
+    const ctx = this.target.ctx;
+    const canvas = this.target.canvas;
+    ctx.save();
+    ctx.setTransform(1, 0, 0, 1, 0, 0);
+    ctx.clearRect(0, 0, canvas.width, canvas.height);
+    ctx.restore();
+    this.actors.forEach((actor) => {
+      const v = actor.values;
+      ctx.save();
+      ctx.translate(v.x, v.y);
+      ctx.rotate(v.rotation);
+      ctx.scale(v.scale, v.scale);
+      ctx.globalAlpha *= v.alpha;
+      ctx.fillStyle = v.color;
+      ctx.strokeStyle = v.color;
+      execute(this.target, actor.d, actor.s);
+      ctx.restore();
+    });
+  }
+}
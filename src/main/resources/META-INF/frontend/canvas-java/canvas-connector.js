@@ -0,0 +1,458 @@
+/*
+ * Client-side counterpart of org.vaadin.pekkam.Canvas.
+ *
+ * Each canvas element gets a renderer when it is first used. By default the
+ * commands are executed on the main thread. With worker rendering enabled,
+ * the canvas is transferred to an OffscreenCanvas that is drawn by a
+ * dedicated worker running the same interpreter, if the browser supports it.
+ * The canvas is transferred only once the worker has started, and it is
+ * drawn on the main thread if the worker fails to start.
+ *
+ * With client rescaling enabled, the renderer retains the commands, and the
+ * canvas is drawn again at the resolution it is displayed with whenever its
+ * size, the device pixel ratio or the client-side view changes.
+ */
+import { decode, execute, CommandQueue } from './canvas-interpreter.js';
+import { HitRegions } from './canvas-hit-regions.js';
+import { RetainedLog, rescale } from './canvas-retained.js';
+import { Animations } from './canvas-animation.js';
+import { ImageCache, imageUrl, loadImageElement } from './canvas-images.js';
+
+/* The largest zoom factor of the client-side view */
+const MAX_ZOOM = 32;
+
+/* Must be kept in sync with CanvasImages.java */
+const IMAGES_ATTRIBUTE = 'canvas-images';
+
+/* Canvases drawn by a worker, for terminating workers of removed elements */
+const workerCanvases = new Set();
+
+function mainThreadRenderer(canvas, retained) {
+  const log = retained ? new RetainedLog(canvas.width, canvas.height, true) : null;
+  const target = {
+    canvas,
+    ctx: canvas.getContext('2d'),
+    images: new ImageCache(
+      (src) => loadImageElement(imageUrl(src, canvas.getAttribute(IMAGES_ATTRIBUTE))),
+      (loaded, evicted, failed) => canvas.$server.imagesChanged(loaded, evicted, failed),
+      canvas.imageCacheSize)
+  };
+  let animations = null;
+  const queue = new CommandQueue();
+  return {
+    exec(data, strings) {
+      const d = decode(data);
+      queue.run(d, strings, () => {
+        execute(target, d, strings);
+        if (log) {
+          log.append(d, strings);
+        }
+      });
+    },
+    call(method, args) {
+      // After the buffers queued before it, as the server sent them
+      queue.after(() => target.ctx[method](...args));
+    },
+    toDataURL(type, quality) {
+      return queue.after(() => canvas.toDataURL(type, quality));
+    },
+    toBlob(type, quality) {
+      // The content is taken when toBlob is called, so the queue need not wait for the encoding
+      return queue.after(() => [new Promise((resolve) => canvas.toBlob(resolve, type, quality))])
+        .then(([blob]) => blob);
+    },
+    getImageData(x, y, width, height) {
+      return queue.after(() => target.ctx.getImageData(x, y, width, height).data);
+    },
+    presented() {
+      return queue.idle().then(() => new Promise((resolve) => requestAnimationFrame(() => resolve())));
+    },
+    rescale(width, height, view) {
+      const replayed = rescale(target, log, width, height, view);
+      if (animations) {
+        animations.paint();
+      }
+      return Promise.resolve(replayed);
+    },
+    animate(updates) {
+      animations = animations || new Animations(target, (detail) => animationEnded(canvas, detail));
+      animations.update(updates);
+    }
+  };
+}
+
+/*
+ * Starts a worker for drawing a canvas. Until the worker reports that it is
+ * running, the calls are kept and the canvas stays with the main thread.
+ * They are then made on a worker renderer, or on a main thread renderer if
+ * the worker fails to start.
+ */
+function startingWorkerRenderer(canvas, retained) {
+  const worker = new Worker(new URL('./canvas-worker.js', import.meta.url), { type: 'module' });
+  const calls = [];
+  const settle = (settled) => {
+    worker.onmessage = null;
+    worker.onerror = null;
+    worker.onmessageerror = null;
+    canvas.$canvasRenderer = settled;
+    calls.forEach(({ method, args, resolve, reject }) => {
+      try {
+        resolve(settled[method](...args));
+      } catch (e) {
+        reject(e);
+      }
+    });
+  };
+  const fail = (e) => {
+    console.warn('Canvas worker rendering not available, drawing on the main thread', e);
+    worker.terminate();
+    workerCanvases.delete(canvas);
+    settle(mainThreadRenderer(canvas, retained));
+  };
+  worker.onmessage = (e) => {
+    if (e.data.op === 'ready') {
+      try {
+        settle(workerRenderer(canvas, retained, worker));
+      } catch (error) {
+        fail(error);
+      }
+    }
+  };
+  worker.onerror = fail;
+  worker.onmessageerror = fail;
+  workerCanvases.add(canvas);
+  const starting = { worker };
+  ['exec', 'call', 'toDataURL', 'toBlob', 'getImageData', 'presented', 'rescale', 'animate'].forEach((method) => {
+    starting[method] = (...args) => new Promise((resolve, reject) => calls.push({ method, args, resolve, reject }));
+  });
+  return starting;
+}
+
+function workerRenderer(canvas, retained, worker) {
+  const offscreen = canvas.transferControlToOffscreen();
+  const requests = new Map();
+  let nextRequest = 0;
+  let imagesUrl = canvas.getAttribute(IMAGES_ATTRIBUTE);
+  worker.onmessage = (e) => {
+    const message = e.data;
+    if (message.op === 'images') {
+      canvas.$server.imagesChanged(message.loaded, message.evicted, message.failed);
+    } else if (message.op === 'animationEnd') {
+      animationEnded(canvas, message.detail);
+    } else if (message.op === 'reply') {
+      const request = requests.get(message.id);
+      requests.delete(message.id);
+      if (message.error !== undefined) {
+        request.reject(new Error(message.error));
+      } else {
+        request.resolve(message.value);
+      }
+    }
+  };
+  worker.onerror = (e) => console.error('Canvas worker failed', e);
+  worker.onmessageerror = (e) => console.error('Canvas worker sent a message that could not be read', e);
+  const request = (message) => {
+    const id = nextRequest++;
+    return new Promise((resolve, reject) => {
+      requests.set(id, { resolve, reject });
+      worker.postMessage({ ...message, id });
+    });
+  };
+  worker.postMessage({ op: 'init', canvas: offscreen, baseURI: document.baseURI, retained, imagesUrl,
+    imageCacheSize: canvas.imageCacheSize }, [offscreen]);
+  return {
+    worker,
+    exec(data, strings) {
+      // The handler serving images gets a new URL when the element is attached again
+      if (canvas.getAttribute(IMAGES_ATTRIBUTE) !== imagesUrl) {
+        imagesUrl = canvas.getAttribute(IMAGES_ATTRIBUTE);
+        worker.postMessage({ op: 'imagesUrl', imagesUrl });
+      }
+      // Decoding is left to the worker as well
+      worker.postMessage({ op: 'exec', data, strings });
+    },
+    call(method, args) {
+      worker.postMessage({ op: 'call', method, args });
+    },
+    toBlob(type, quality) {
+      return request({ op: 'toBlob', type, quality });
+    },
+    getImageData(x, y, width, height) {
+      return request({ op: 'getImageData', x, y, width, height });
+    },
+    presented() {
+      return request({ op: 'presented' });
+    },
+    rescale(width, height, view) {
+      return request({ op: 'rescale', width, height, view });
+    },
+    animate(updates) {
+      worker.postMessage({ op: 'animate', updates });
+    },
+    toDataURL(type, quality) {
+      return this.toBlob(type, quality).then((blob) => blob ? new Promise((resolve) => {
+        const reader = new FileReader();
+        reader.onload = () => resolve(reader.result);
+        reader.readAsDataURL(blob);
+      }) : 'data:,');
+    }
+  };
+}
+
+/* Posts a blob to the upload handler in the given attribute */
+function upload(canvas, attribute, blob) {
+  const data = new FormData();
+  data.append('image', blob, 'canvas');
+  return fetch(canvas.getAttribute(attribute), { method: 'POST', body: data }).then((response) => {
+    if (!response.ok) {
+      throw new Error('Upload failed with status ' + response.status);
+    }
+  });
+}
+
+function animationEnded(canvas, detail) {
+  canvas.dispatchEvent(new CustomEvent('canvas-animation-end', { detail }));
+}
+
+function terminateRemovedWorkers() {
+  workerCanvases.forEach((canvas) => {
+    if (!canvas.isConnected) {
+      canvas.$canvasRenderer.worker.terminate();
+      workerCanvases.delete(canvas);
+    }
+  });
+}
+
+function renderer(canvas) {
+  if (!canvas.$canvasRenderer) {
+    terminateRemovedWorkers();
+    const retained = !!canvas.clientRescaling;
+    // The coordinate system of the server, before rescaling changes the size
+    const size = [canvas.width, canvas.height];
+    let workerRendered = null;
+    if (canvas.workerRendering && canvas.transferControlToOffscreen && window.Worker) {
+      try {
+        workerRendered = startingWorkerRenderer(canvas, retained);
+      } catch (e) {
+        console.warn('Canvas worker rendering not available, drawing on the main thread', e);
+      }
+    }
+    canvas.$canvasRenderer = workerRendered || mainThreadRenderer(canvas, retained);
+    if (retained) {
+      canvas.$view = clientView(canvas, size);
+    }
+  }
+  return canvas.$canvasRenderer;
+}
+
+/*
+ * Keeps the backing store of a canvas at the resolution it is displayed
+ * with, and handles the client-side view: a zoom factor and the point of
+ * the canvas' coordinate system shown at the top left corner. The server is
+ * notified of changes once they settle.
+ */
+function clientView(canvas, size) {
+  const view = { zoom: 1, x: 0, y: 0 };
+  let frame = null;
+  let notifyTimer = null;
+  let replayed = true;
+
+  const clamp = () => {
+    view.zoom = Math.max(1, Math.min(MAX_ZOOM, view.zoom));
+    view.x = Math.max(0, Math.min(size[0] - size[0] / view.zoom, view.x));
+    view.y = Math.max(0, Math.min(size[1] - size[1] / view.zoom, view.y));
+  };
+  const notify = (wasReplayed) => {
+    replayed = replayed && wasReplayed;
+    clearTimeout(notifyTimer);
+    notifyTimer = setTimeout(() => {
+      canvas.dispatchEvent(new CustomEvent('canvas-view-change', {
+        detail: { zoom: view.zoom, x: view.x, y: view.y, pixelRatio: window.devicePixelRatio || 1, replayed }
+      }));
+      replayed = true;
+    }, 200);
+  };
+  const apply = () => {
+    frame = null;
+    const ratio = window.devicePixelRatio || 1;
+    const width = Math.round(canvas.clientWidth * ratio);
+    const height = Math.round(canvas.clientHeight * ratio);
+    if (width > 0 && height > 0) {
+      canvas.$canvasRenderer.rescale(width, height, { ...view }).then(notify);
+    }
+  };
+  const update = () => {
+    if (frame === null) {
+      frame = requestAnimationFrame(apply);
+    }
+  };
+
+  canvas.$logicalSize = size;
+  canvas.$toLogical = (offsetX, offsetY) => ({
+    x: view.x + offsetX / (canvas.clientWidth || 1) * size[0] / view.zoom,
+    y: view.y + offsetY / (canvas.clientHeight || 1) * size[1] / view.zoom
+  });
+  new ResizeObserver(update).observe(canvas);
+  const watchPixelRatio = () => matchMedia('(resolution: ' + (window.devicePixelRatio || 1) + 'dppx)')
+    .addEventListener('change', () => {
+      update();
+      watchPixelRatio();
+    }, { once: true });
+  watchPixelRatio();
+
+  // Gestures are enabled and disabled with the clientPanZoom property
+  canvas.addEventListener('wheel', (e) => {
+    if (canvas.clientPanZoom && (e.ctrlKey || e.metaKey)) {
+      e.preventDefault();
+      const point = canvas.$toLogical(e.offsetX, e.offsetY);
+      view.zoom = Math.max(1, Math.min(MAX_ZOOM, view.zoom * Math.pow(2, -e.deltaY / 200)));
+      // The point under the mouse stays in place
+      view.x = point.x - e.offsetX / (canvas.clientWidth || 1) * size[0] / view.zoom;
+      view.y = point.y - e.offsetY / (canvas.clientHeight || 1) * size[1] / view.zoom;
+      clamp();
+      update();
+    }
+  }, { passive: false });
+  let drag = null;
+  canvas.addEventListener('pointerdown', (e) => {
+    drag = canvas.clientPanZoom && view.zoom > 1 ? { x: e.offsetX, y: e.offsetY } : null;
+  });
+  canvas.addEventListener('pointermove', (e) => {
+    if (drag && (e.buttons & 1)) {
+      view.x -= (e.offsetX - drag.x) / (canvas.clientWidth || 1) * size[0] / view.zoom;
+      view.y -= (e.offsetY - drag.y) / (canvas.clientHeight || 1) * size[1] / view.zoom;
+      drag = { x: e.offsetX, y: e.offsetY };
+      clamp();
+      update();
+    }
+  });
+
+  return {
+    set(zoom, x, y) {
+      Object.assign(view, { zoom, x, y });
+      clamp();
+      update();
+    }
+  };
+}
+
+/*
+ * Movement samples are collected in the browser and dispatched in batches as
+ * custom events, which the server listens to like any DOM event. Each sample
+ * is a fixed number of values in a flat array.
+ */
+
+/* Must be kept in sync with PointerMoveBatchEvent.java */
+const POINTER_TYPES = ['mouse', 'pen', 'touch'];
+
+const SAMPLE_SOURCES = {
+  mouse: {
+    move: 'mousemove',
+    flushOn: ['mousedown', 'mouseup'],
+    batchEvent: 'canvas-mouse-move-batch',
+    sample: (e, samples) => samples.push(e.offsetX, e.offsetY, e.buttons, e.timeStamp)
+  },
+  pointer: {
+    move: 'pointermove',
+    flushOn: ['pointerdown', 'pointerup', 'pointercancel'],
+    batchEvent: 'canvas-pointer-move-batch',
+    sample: (e, samples) => {
+      const coalesced = e.getCoalescedEvents ? e.getCoalescedEvents() : [];
+      const type = POINTER_TYPES.indexOf(e.pointerType);
+      (coalesced.length > 0 ? coalesced : [e]).forEach((p) => samples.push(
+        e.pointerId, type, p.offsetX, p.offsetY, p.buttons, p.pressure, p.tiltX, p.tiltY, p.timeStamp));
+    }
+  }
+};
+
+function sampleBatcher(canvas, source, mode, interval) {
+  let samples = [];
+  let timer = null;
+  const cancel = () => {
+    if (timer !== null) {
+      if (mode === 'ANIMATION_FRAME') {
+        cancelAnimationFrame(timer);
+      } else {
+        clearTimeout(timer);
+      }
+      timer = null;
+    }
+  };
+  const flush = () => {
+    cancel();
+    if (samples.length > 0) {
+      const batch = samples;
+      samples = [];
+      canvas.dispatchEvent(new CustomEvent(source.batchEvent, { detail: { samples: batch } }));
+    }
+  };
+  const onMove = (e) => {
+    source.sample(e, samples);
+    if (mode === 'DEBOUNCE') {
+      cancel();
+      timer = setTimeout(flush, interval);
+    } else if (timer === null) {
+      timer = mode === 'ANIMATION_FRAME' ? requestAnimationFrame(flush) : setTimeout(flush, interval);
+    }
+  };
+  canvas.addEventListener(source.move, onMove);
+  // Capturing listeners run first, so the moves arrive before e.g. mouseup
+  source.flushOn.forEach((type) => canvas.addEventListener(type, flush, true));
+  return {
+    dispose() {
+      flush();
+      canvas.removeEventListener(source.move, onMove);
+      source.flushOn.forEach((type) => canvas.removeEventListener(type, flush, true));
+    }
+  };
+}
+
+window.Vaadin = window.Vaadin || {};
+window.Vaadin.Flow = window.Vaadin.Flow || {};
+window.Vaadin.Flow.canvasConnector = {
+  exec(canvas, data, strings) {
+    renderer(canvas).exec(data, strings);
+  },
+  call(canvas, method, args) {
+    renderer(canvas).call(method, args);
+  },
+  toDataURL(canvas, type, quality) {
+    return renderer(canvas).toDataURL(type, quality);
+  },
+  /*
+   * Posts the canvas content to the upload handler in the given attribute.
+   * An empty canvas has no blob, so an empty file is posted instead.
+   */
+  toBlob(canvas, attribute, type, quality) {
+    return renderer(canvas).toBlob(type, quality).then((blob) => upload(canvas, attribute, blob || new Blob([])));
+  },
+  /* Resolves once the commands sent so far have been drawn and shown, for pacing a RenderLoop */
+  presented(canvas) {
+    return renderer(canvas).presented().then(() => null);
+  },
+  /* Posts the pixels to the upload handler in the given attribute as raw RGBA bytes */
+  getImageData(canvas, attribute, x, y, width, height) {
+    return renderer(canvas).getImageData(x, y, width, height)
+      .then((pixels) => upload(canvas, attribute, new Blob([pixels])));
+  },
+  setSampleDelivery(canvas, kind, mode, interval) {
+    canvas.$sampleBatchers = canvas.$sampleBatchers || {};
+    if (canvas.$sampleBatchers[kind]) {
+      canvas.$sampleBatchers[kind].dispose();
+    }
+    canvas.$sampleBatchers[kind] = sampleBatcher(canvas, SAMPLE_SOURCES[kind], mode, interval);
+  },
+  setView(canvas, zoom, x, y) {
+    renderer(canvas);
+    if (canvas.$view) {
+      canvas.$view.set(zoom, x, y);
+    }
+  },
+  animate(canvas, updates) {
+    renderer(canvas).animate(updates);
+  },
+  updateHitRegions(canvas, updates) {
+    canvas.$hitRegions = canvas.$hitRegions || new HitRegions(canvas);
+    canvas.$hitRegions.update(updates);
+  }
+};
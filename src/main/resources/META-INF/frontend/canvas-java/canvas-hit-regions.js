@@ -0,0 +1,215 @@
+/*
+ * Hit testing of the regions registered with Canvas.addHitRegion(), see
+ * HitRegions.java. Regions are indexed in a uniform grid, so that a pointer
+ * move only tests the few regions in its cell. Only changes of the region
+ * under the pointer and clicks are dispatched as events for the server.
+ */
+const CELL_SIZE = 64;
+
+let pathContext;
+
+function bounds(region) {
+  const c = region.coordinates;
+  switch (region.type) {
+    case 'rect':
+      return [Math.min(c[0], c[0] + c[2]), Math.min(c[1], c[1] + c[3]),
+        Math.max(c[0], c[0] + c[2]), Math.max(c[1], c[1] + c[3])];
+    case 'circle':
+      return [c[0] - c[2], c[1] - c[2], c[0] + c[2], c[1] + c[2]];
+    case 'polygon': {
+      const b = [Infinity, Infinity, -Infinity, -Infinity];
+      for (let i = 0; i < c.length; i += 2) {
+        b[0] = Math.min(b[0], c[i]);
+        b[1] = Math.min(b[1], c[i + 1]);
+        b[2] = Math.max(b[2], c[i]);
+        b[3] = Math.max(b[3], c[i + 1]);
+      }
+      return b;
+    }
+    default:
+      // Path bounds are not known, so paths are tested everywhere
+      return null;
+  }
+}
+
+function contains(region, x, y) {
+  const c = region.coordinates;
+  const b = region.bounds;
+  if (b && (x < b[0] || y < b[1] || x > b[2] || y > b[3])) {
+    return false;
+  }
+  switch (region.type) {
+    case 'rect':
+      return true;
+    case 'circle':
+      return (x - c[0]) ** 2 + (y - c[1]) ** 2 <= c[2] ** 2;
+    case 'polygon': {
+      let inside = false;
+      for (let i = 0, j = c.length - 2; i < c.length; j = i, i += 2) {
+        if ((c[i + 1] > y) !== (c[j + 1] > y)
+            && x < (c[j] - c[i]) * (y - c[i + 1]) / (c[j + 1] - c[i + 1]) + c[i]) {
+          inside = !inside;
+        }
+      }
+      return inside;
+    }
+    case 'path':
+      region.path2D = region.path2D || new Path2D(region.path);
+      pathContext = pathContext || document.createElement('canvas').getContext('2d');
+      return pathContext.isPointInPath(region.path2D, x, y);
+    default:
+      return false;
+  }
+}
+
+export class HitRegions {
+  constructor(canvas) {
+    this.canvas = canvas;
+    this.regions = new Map();
+    this.grid = new Map();
+    this.unbounded = new Set();
+    this.order = 0;
+    this.current = null;
+    this.savedTitle = undefined;
+    this.lastPoint = { x: 0, y: 0 };
+    canvas.addEventListener('mousemove', (e) => this.moveTo(this.point(e)));
+    canvas.addEventListener('mouseleave', () => this.moveTo(null));
+    canvas.addEventListener('click', (e) => {
+      const point = this.point(e);
+      const region = this.hit(point);
+      if (region) {
+        this.dispatch('click', region, point);
+      }
+    });
+  }
+
+  update(updates) {
+    updates.forEach((update) => {
+      const old = this.regions.get(update.id);
+      if (old) {
+        this.unindex(old);
+        this.regions.delete(update.id);
+      }
+      if (update.type) {
+        // A replaced region keeps its place in the stacking order
+        update.order = old ? old.order : this.order++;
+        update.bounds = bounds(update);
+        this.regions.set(update.id, update);
+        this.index(update);
+      }
+    });
+    if (this.current && !this.regions.has(this.current.id)) {
+      this.moveTo(null);
+    }
+  }
+
+  cells(region, callback) {
+    const b = region.bounds;
+    const size = this.canvas.$logicalSize || [this.canvas.width, this.canvas.height];
+    const maxX = Math.min(b[2], size[0]);
+    const maxY = Math.min(b[3], size[1]);
+    for (let cx = Math.floor(Math.max(b[0], 0) / CELL_SIZE); cx * CELL_SIZE <= maxX; cx++) {
+      for (let cy = Math.floor(Math.max(b[1], 0) / CELL_SIZE); cy * CELL_SIZE <= maxY; cy++) {
+        callback(cx + ',' + cy);
+      }
+    }
+  }
+
+  index(region) {
+    if (!region.bounds) {
+      this.unbounded.add(region);
+      return;
+    }
+    this.cells(region, (key) => {
+      let cell = this.grid.get(key);
+      if (!cell) {
+        cell = new Set();
+        this.grid.set(key, cell);
+      }
+      cell.add(region);
+    });
+  }
+
+  unindex(region) {
+    if (!region.bounds) {
+      this.unbounded.delete(region);
+      return;
+    }
+    this.cells(region, (key) => {
+      const cell = this.grid.get(key);
+      cell.delete(region);
+      if (cell.size === 0) {
+        this.grid.delete(key);
+      }
+    });
+  }
+
+  /* The mouse position in the canvas' coordinate system */
+  point(e) {
+    if (this.canvas.$toLogical) {
+      return this.canvas.$toLogical(e.offsetX, e.offsetY);
+    }
+    const scaleX = this.canvas.clientWidth ? this.canvas.width / this.canvas.clientWidth : 1;
+    const scaleY = this.canvas.clientHeight ? this.canvas.height / this.canvas.clientHeight : 1;
+    return { x: e.offsetX * scaleX, y: e.offsetY * scaleY };
+  }
+
+  /* The topmost region at the point */
+  hit(point) {
+    let hit = null;
+    const test = (region) => {
+      if ((!hit || region.order > hit.order) && contains(region, point.x, point.y)) {
+        hit = region;
+      }
+    };
+    const cell = this.grid.get(Math.floor(point.x / CELL_SIZE) + ',' + Math.floor(point.y / CELL_SIZE));
+    if (cell) {
+      cell.forEach(test);
+    }
+    this.unbounded.forEach(test);
+    return hit;
+  }
+
+  moveTo(point) {
+    const region = point ? this.hit(point) : null;
+    const id = (r) => r ? r.id : null;
+    if (id(region) !== id(this.current)) {
+      // Leaving the canvas has no position, so the last known one is used
+      const at = point || this.lastPoint;
+      if (this.current) {
+        this.dispatch('leave', this.current, at);
+      }
+      this.showTooltip(region && region.tooltip);
+      if (region) {
+        this.dispatch('enter', region, at);
+      }
+    }
+    // A replaced region is the same region for the events
+    this.current = region;
+    if (point) {
+      this.lastPoint = point;
+    }
+  }
+
+  showTooltip(tooltip) {
+    if (tooltip) {
+      if (this.savedTitle === undefined) {
+        // The title of the canvas itself, shown again once off the regions
+        this.savedTitle = this.canvas.getAttribute('title');
+      }
+      this.canvas.title = tooltip;
+    } else if (this.savedTitle !== undefined) {
+      if (this.savedTitle === null) {
+        this.canvas.removeAttribute('title');
+      } else {
+        this.canvas.title = this.savedTitle;
+      }
+      this.savedTitle = undefined;
+    }
+  }
+
+  dispatch(type, region, point) {
+    this.canvas.dispatchEvent(new CustomEvent('canvas-shape-' + type,
+      { detail: { id: region.id, x: point.x, y: point.y } }));
+  }
+}
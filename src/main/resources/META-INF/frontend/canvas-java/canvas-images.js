@@ -0,0 +1,170 @@
+/*
+ * Client-side counterpart of org.vaadin.pekkam.CanvasImages. Used by
+ * canvas-connector.js, canvas-worker.js and canvas-viewport.js.
+ *
+ * Each drawing target has one cache of decoded images by their src. An image
+ * is fetched once however many commands draw it, and it is decoded into an
+ * ImageBitmap off the main thread where the browser supports it. When the
+ * decoded images take more memory than the budget, the least recently used
+ * ones are dropped and fetched again if they are drawn later, usually from
+ * the HTTP cache. Dropped and replaced ImageBitmaps are closed to free their
+ * memory right away, unless they are held for a sprite atlas. Loaded,
+ * dropped and failed images are reported in batches.
+ */
+
+/* Must be kept in sync with CanvasImages.java */
+const SCHEME = 'canvas-image:';
+export const DEFAULT_BUDGET = 256 * 1024 * 1024;
+
+/* The URL of an image, resolving images served by CanvasImages against the URL of their handler */
+export function imageUrl(src, handlerUrl) {
+  if (!src.startsWith(SCHEME) || !handlerUrl) {
+    return src;
+  }
+  return handlerUrl + (handlerUrl.includes('?') ? '&' : '?') + 'image='
+    + encodeURIComponent(src.substring(SCHEME.length));
+}
+
+/* Loads an image with an image element and decodes it into an ImageBitmap if possible */
+export function loadImageElement(url) {
+  const img = new Image();
+  img.src = url;
+  return img.decode()
+    .then(() => typeof createImageBitmap === 'function' ? createImageBitmap(img).catch(() => img) : img);
+}
+
+export class ImageCache {
+  /*
+   * Loads images with load(src), which returns a promise of a drawable
+   * image. Calls onChange(loaded, evicted, failed) with arrays of srcs, if
+   * given.
+   */
+  constructor(load, onChange, budget) {
+    this.load = load;
+    this.onChange = onChange;
+    this.budget = budget > 0 ? budget : DEFAULT_BUDGET;
+    // Least recently used first
+    this.images = new Map();
+    this.loading = new Map();
+    this.bytes = 0;
+    // The number of holders of each held image
+    this.held = new Map();
+    this.loaded = new Set();
+    this.evicted = new Set();
+    this.failed = new Set();
+    this.timer = null;
+  }
+
+  /* Keeps an image from being closed when it is dropped, while it is drawn from elsewhere */
+  hold(src) {
+    this.held.set(src, (this.held.get(src) || 0) + 1);
+  }
+
+  release(src) {
+    const count = this.held.get(src) || 0;
+    if (count > 1) {
+      this.held.set(src, count - 1);
+    } else {
+      this.held.delete(src);
+    }
+  }
+
+  /* Frees the memory of a dropped ImageBitmap, as the image element of a fallback needs no closing */
+  close(src, image) {
+    if (typeof image.close === 'function' && !this.held.has(src)) {
+      image.close();
+    }
+  }
+
+  /* Returns a loaded image, or undefined */
+  get(src) {
+    const entry = this.images.get(src);
+    if (!entry) {
+      return undefined;
+    }
+    this.images.delete(src);
+    this.images.set(src, entry);
+    return entry.image;
+  }
+
+  /* Returns a promise of the image, which never resolves if it cannot be loaded */
+  fetch(src) {
+    const image = this.get(src);
+    if (image) {
+      return Promise.resolve(image);
+    }
+    if (!this.loading.has(src)) {
+      this.loading.set(src, this.load(src).then((img) => {
+        this.loading.delete(src);
+        this.set(src, img);
+        return img;
+      }, (error) => {
+        // A later command tries again
+        this.loading.delete(src);
+        console.warn('Loading image ' + src + ' failed', error);
+        this.report(src, 'failed');
+        return new Promise(() => {});
+      }));
+    }
+    return this.loading.get(src);
+  }
+
+  /* Loads an image and reports it as loaded, even if it already was */
+  preload(src) {
+    this.fetch(src).then(() => this.report(src, 'loaded'));
+  }
+
+  set(src, image) {
+    const old = this.images.get(src);
+    if (old) {
+      this.bytes -= old.bytes;
+      this.images.delete(src);
+      if (old.image !== image) {
+        this.close(src, old.image);
+      }
+    }
+    const bytes = (image.naturalWidth || image.width) * (image.naturalHeight || image.height) * 4;
+    this.images.set(src, { image, bytes });
+    this.bytes += bytes;
+    this.report(src, 'loaded');
+    this.evict(src);
+  }
+
+  /* Drops the least recently used images other than the given one until the budget is met */
+  evict(keep) {
+    for (const [src, entry] of this.images) {
+      if (this.bytes <= this.budget) {
+        break;
+      }
+      if (src !== keep) {
+        this.images.delete(src);
+        this.bytes -= entry.bytes;
+        this.close(src, entry.image);
+        this.report(src, 'evicted');
+      }
+    }
+  }
+
+  /* Reports an image as 'loaded', 'evicted' or 'failed', the latest state of a batch counting */
+  report(src, state) {
+    if (!this.onChange) {
+      return;
+    }
+    this.loaded.delete(src);
+    this.evicted.delete(src);
+    this.failed.delete(src);
+    this[state].add(src);
+    if (this.timer === null) {
+      this.timer = setTimeout(() => {
+        this.timer = null;
+        const loadedNow = [...this.loaded];
+        const evictedNow = [...this.evicted];
+        const failedNow = [...this.failed];
+        this.loaded.clear();
+        this.evicted.clear();
+        this.failed.clear();
+        this.onChange(loadedNow, evictedNow, failedNow);
+      });
+    }
+  }
+}
@@ -0,0 +1,620 @@
+/*
+ * Interpreter for the drawing commands of org.vaadin.pekkam.Canvas, shared by
+ * canvas-connector.js and canvas-worker.js.
+ *
+ * Drawing commands arrive as a base64 encoded Float64Array of opcodes and
+ * arguments plus a string table, see CommandBuffer.java and Opcodes.java.
+ * The opcodes below must be kept in sync with Opcodes.java.
+ *
+ * All code is loaded once with the module, the server only sends data.
+ */
+export const ARC = 1;
+export const ARC_TO = 2;
+export const BEGIN_PATH = 3;
+export const BEZIER_CURVE_TO = 4;
+export const CLEAR_RECT = 5;
+export const CLIP = 6;
+export const CLOSE_PATH = 7;
+export const ELLIPSE = 8;
+export const FILL = 9;
+export const FILL_RECT = 10;
+export const FILL_TEXT = 11;
+export const LINE_TO = 12;
+export const MOVE_TO = 13;
+export const QUADRATIC_CURVE_TO = 14;
+export const RECT = 15;
+export const RESTORE = 16;
+export const ROTATE = 17;
+export const SAVE = 18;
+export const SCALE = 19;
+export const STROKE = 20;
+export const STROKE_RECT = 21;
+export const STROKE_TEXT = 22;
+export const TRANSLATE = 23;
+export const SET_PROPERTY = 24;
+export const DRAW_IMAGE = 25;
+export const DRAW_IMAGE_SCALED = 26;
+export const SET_LINE_DASH = 28;
+export const LOAD_IMAGE = 29;
+export const POLYLINE = 30;
+export const FILL_RECTS = 31;
+export const DRAW_POINTS = 32;
+export const STROKE_SEGMENTS = 33;
+export const DEFINE_ATLAS = 34;
+export const DRAW_SPRITES = 35;
+export const PUT_IMAGE_DATA = 36;
+export const DEFINE_GRADIENT = 37;
+export const DEFINE_PATTERN = 38;
+export const SET_STYLE = 39;
+export const DISPOSE_STYLE = 40;
+export const DEFINE_PATH = 41;
+export const FILL_PATH = 42;
+export const STROKE_PATH = 43;
+export const CLIP_PATH = 44;
+export const FILL_PATH_AT = 45;
+export const DISPOSE_PATH = 46;
+
+/* Argument types of each opcode, see Opcodes.signature() */
+const SIGNATURES = {
+  [ARC]: 'dddddd', [ARC_TO]: 'ddddd', [BEGIN_PATH]: '', [BEZIER_CURVE_TO]: 'dddddd',
+  [CLEAR_RECT]: 'dddd', [CLIP]: '', [CLOSE_PATH]: '', [ELLIPSE]: 'dddddddd', [FILL]: '',
+  [FILL_RECT]: 'dddd', [FILL_TEXT]: 'sdd', [LINE_TO]: 'dd', [MOVE_TO]: 'dd',
+  [QUADRATIC_CURVE_TO]: 'dddd', [RECT]: 'dddd', [RESTORE]: '', [ROTATE]: 'd', [SAVE]: '',
+  [SCALE]: 'dd', [STROKE]: '', [STROKE_RECT]: 'dddd', [STROKE_TEXT]: 'sdd', [TRANSLATE]: 'dd',
+  [SET_PROPERTY]: 'ss', [DRAW_IMAGE]: 'sdd', [DRAW_IMAGE_SCALED]: 'sdddd',
+  [SET_LINE_DASH]: 'n', [LOAD_IMAGE]: 's', [POLYLINE]: 'n', [FILL_RECTS]: 'n',
+  [DRAW_POINTS]: 'dn', [STROKE_SEGMENTS]: 'n', [DEFINE_ATLAS]: 'ssn', [DRAW_SPRITES]: 'sn',
+  [PUT_IMAGE_DATA]: 'ddddds', [DEFINE_GRADIENT]: 'ssnns', [DEFINE_PATTERN]: 'sss',
+  [SET_STYLE]: 'ss', [DISPOSE_STYLE]: 's', [DEFINE_PATH]: 'sn', [FILL_PATH]: 's',
+  [STROKE_PATH]: 's', [CLIP_PATH]: 's', [FILL_PATH_AT]: 'sdn', [DISPOSE_PATH]: 's'
+};
+
+export function signature(opcode) {
+  return SIGNATURES[opcode];
+}
+
+/* The position of the command after the one at the given position */
+export function nextCommand(d, i) {
+  let next = i + 1;
+  for (const type of SIGNATURES[d[i]]) {
+    next += type === 'n' ? 1 + d[next] : 1;
+  }
+  return next;
+}
+
+function bytesOf(base64) {
+  const binary = atob(base64);
+  const bytes = new Uint8Array(binary.length);
+  for (let i = 0; i < binary.length; i++) {
+    bytes[i] = binary.charCodeAt(i);
+  }
+  return bytes;
+}
+
+export function decode(base64) {
+  return new Float64Array(bytesOf(base64).buffer);
+}
+
+function inflate(base64) {
+  const stream = new Blob([bytesOf(base64)]).stream().pipeThrough(new DecompressionStream('deflate'));
+  return new Response(stream).arrayBuffer().then((buffer) => new Uint8Array(buffer));
+}
+
+/*
+ * Decompresses the deflated pixels of the commands, replacing them in the
+ * string table. Returns a promise if there were any, otherwise null.
+ */
+function inflatePixels(d, s) {
+  const inflating = [];
+  for (let i = 0; i < d.length; i = nextCommand(d, i)) {
+    const index = d[i + 6];
+    if (d[i] === PUT_IMAGE_DATA && d[i + 5] !== 0 && typeof s[index] === 'string') {
+      inflating.push(inflate(s[index]).then((bytes) => {
+        s[index] = bytes;
+      }));
+    }
+  }
+  return inflating.length > 0 ? Promise.all(inflating) : null;
+}
+
+/*
+ * Runs command buffers in order. A buffer with deflated pixels is run once
+ * they have been decompressed, and the buffers after it wait for it.
+ */
+export class CommandQueue {
+  constructor() {
+    this.tail = null;
+  }
+
+  run(d, s, action) {
+    const inflating = inflatePixels(d, s);
+    if (!inflating && !this.tail) {
+      action();
+      return;
+    }
+    const done = (this.tail || Promise.resolve()).then(() => inflating).then(action);
+    this.tail = done;
+    done.finally(() => {
+      if (this.tail === done) {
+        this.tail = null;
+      }
+    });
+  }
+
+  /*
+   * Runs an action after the queued buffers and before any buffers run
+   * later, right away if nothing is queued. Returns a promise of its result.
+   */
+  after(action) {
+    if (!this.tail) {
+      return new Promise((resolve) => resolve(action()));
+    }
+    const done = this.tail.catch(() => {}).then(action);
+    const tail = done.catch(() => {});
+    this.tail = tail;
+    tail.then(() => {
+      if (this.tail === tail) {
+        this.tail = null;
+      }
+    });
+    return done;
+  }
+
+  /* Returns a promise resolved once all queued buffers have been run */
+  idle() {
+    return this.tail ? this.tail.catch(() => {}) : Promise.resolve();
+  }
+}
+
+/*
+ * Draws a loaded image right away. Other images are fetched and drawn once
+ * they have been loaded, with the context state of that time.
+ */
+function drawImage(target, src, ...args) {
+  const img = target.images.get(src);
+  if (img) {
+    target.ctx.drawImage(img, ...args);
+  } else {
+    target.images.fetch(src).then((fetched) => target.ctx.drawImage(fetched, ...args));
+  }
+}
+
+/*
+ * Creates a gradient once and keeps it by its id for SET_STYLE. The colors
+ * are a JSON array, one for each offset.
+ */
+function defineGradient(target, id, kind, geometry, offsets, colors) {
+  const ctx = target.ctx;
+  let gradient;
+  if (kind === 'linear') {
+    gradient = ctx.createLinearGradient(...geometry);
+  } else if (kind === 'radial') {
+    gradient = ctx.createRadialGradient(...geometry);
+  } else {
+    gradient = ctx.createConicGradient(...geometry);
+  }
+  JSON.parse(colors).forEach((color, i) => {
+    try {
+      gradient.addColorStop(offsets[i], color);
+    } catch (e) {
+      // An invalid color is skipped, as an invalid fillStyle would be
+    }
+  });
+  styles(target).set(id, gradient);
+}
+
+/*
+ * Creates a pattern once and keeps it by its id for SET_STYLE. If the image
+ * has not been loaded yet, the pattern is available once it has.
+ */
+function definePattern(target, id, src, repetition) {
+  const all = styles(target);
+  const img = target.images.get(src);
+  if (img) {
+    all.set(id, target.ctx.createPattern(img, repetition));
+    return;
+  }
+  all.delete(id);
+  const pending = {};
+  all.pending.set(id, pending);
+  target.images.fetch(src).then((fetched) => {
+    // The pattern may have been disposed or defined again meanwhile
+    if (all.pending.get(id) === pending) {
+      all.pending.delete(id);
+      all.set(id, target.ctx.createPattern(fetched, repetition));
+    }
+  });
+}
+
+function disposeStyle(target, id) {
+  const all = styles(target);
+  all.delete(id);
+  all.pending.delete(id);
+}
+
+function styles(target) {
+  if (!target.styles) {
+    target.styles = new Map();
+    target.styles.pending = new Map();
+  }
+  return target.styles;
+}
+
+/* The number of values following each segment type of a path, see Path2D.java */
+const SEGMENT_LENGTHS = [2, 2, 6, 4, 6, 5, 8, 4, 0];
+
+/* Builds a path object of segment types followed by their values, and keeps it by its id */
+function definePath(target, id, segments) {
+  const path = new Path2D();
+  for (let i = 0; i < segments.length;) {
+    const type = segments[i++];
+    const v = segments.subarray(i, i + SEGMENT_LENGTHS[type]);
+    switch (type) {
+      case 0: path.moveTo(v[0], v[1]); break;
+      case 1: path.lineTo(v[0], v[1]); break;
+      case 2: path.bezierCurveTo(v[0], v[1], v[2], v[3], v[4], v[5]); break;
+      case 3: path.quadraticCurveTo(v[0], v[1], v[2], v[3]); break;
+      case 4: path.arc(v[0], v[1], v[2], v[3], v[4], v[5] !== 0); break;
+      case 5: path.arcTo(v[0], v[1], v[2], v[3], v[4]); break;
+      case 6: path.ellipse(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7] !== 0); break;
+      case 7: path.rect(v[0], v[1], v[2], v[3]); break;
+      default: path.closePath();
+    }
+    i += v.length;
+  }
+  target.paths = target.paths || new Map();
+  target.paths.set(id, path);
+}
+
+/*
+ * Fills a path at each of the given translations (stride 2) or
+ * transformations (stride 6), relative to the current transformation.
+ */
+function fillPathAt(ctx, path, stride, values) {
+  const base = ctx.getTransform();
+  for (let i = 0; i + stride <= values.length; i += stride) {
+    ctx.setTransform(base);
+    if (stride === 2) {
+      ctx.translate(values[i], values[i + 1]);
+    } else {
+      ctx.transform(values[i], values[i + 1], values[i + 2], values[i + 3], values[i + 4], values[i + 5]);
+    }
+    ctx.fill(path);
+  }
+  ctx.setTransform(base);
+}
+
+/*
+ * Loads the image of a sprite atlas. An atlas that is defined again
+ * unchanged is kept, and it keeps its image even if the image cache drops it,
+ * so the cache must not close it.
+ */
+function defineAtlas(target, id, src, frames) {
+  target.atlases = target.atlases || {};
+  const old = target.atlases[id];
+  if (old && old.src === src && old.frames.length === frames.length
+      && old.frames.every((value, i) => value === frames[i])) {
+    return;
+  }
+  if (old) {
+    target.images.release(old.src);
+  }
+  target.images.hold(src);
+  const atlas = { src, frames: frames.slice(), bitmap: null };
+  atlas.ready = target.images.fetch(src).then((img) => {
+    atlas.bitmap = img;
+  });
+  target.images.preload(src);
+  target.atlases[id] = atlas;
+}
+
+function drawLoadedSprites(ctx, atlas, d, start, end) {
+  const f = atlas.frames;
+  for (let i = start; i < end; i += 3) {
+    const k = d[i] * 4;
+    ctx.drawImage(atlas.bitmap, f[k], f[k + 1], f[k + 2], f[k + 3], d[i + 1], d[i + 2], f[k + 2], f[k + 3]);
+  }
+}
+
+/*
+ * Draws sprites right away if the atlas has been loaded, otherwise once it
+ * has been loaded, with the context state of that time.
+ */
+function drawSprites(target, id, d, start, end) {
+  const atlas = target.atlases && target.atlases[id];
+  if (!atlas) {
+    return;
+  }
+  if (atlas.bitmap) {
+    drawLoadedSprites(target.ctx, atlas, d, start, end);
+  } else {
+    const sprites = d.slice(start, end);
+    atlas.ready.then(() => drawLoadedSprites(target.ctx, atlas, sprites, 0, sprites.length));
+  }
+}
+
+/*
+ * Replaces pixels. When the canvas is rescaled by the client, the pixels are
+ * drawn through the base transformation, so that they land where the server
+ * put them in its coordinate system.
+ */
+function putPixels(target, x, y, width, height, bytes) {
+  const imageData = new ImageData(new Uint8ClampedArray(bytes.buffer, bytes.byteOffset, bytes.length), width, height);
+  const base = target.baseTransform;
+  if (!base) {
+    target.ctx.putImageData(imageData, x, y);
+    return;
+  }
+  const scratch = typeof OffscreenCanvas !== 'undefined'
+    ? new OffscreenCanvas(width, height) : document.createElement('canvas');
+  scratch.width = width;
+  scratch.height = height;
+  scratch.getContext('2d').putImageData(imageData, 0, 0);
+  const ctx = target.ctx;
+  ctx.save();
+  ctx.setTransform(...base);
+  ctx.globalAlpha = 1;
+  ctx.globalCompositeOperation = 'source-over';
+  ctx.clearRect(x, y, width, height);
+  ctx.drawImage(scratch, x, y);
+  ctx.restore();
+}
+
+/* Pixels that have not been decompressed beforehand are put once they have been */
+function putImageData(target, x, y, width, height, deflated, pixels) {
+  if (typeof pixels !== 'string') {
+    putPixels(target, x, y, width, height, pixels);
+  } else if (!deflated) {
+    putPixels(target, x, y, width, height, bytesOf(pixels));
+  } else {
+    inflate(pixels).then((bytes) => putPixels(target, x, y, width, height, bytes));
+  }
+}
+
+/*
+ * Executes the commands on a drawing target, which has the 2D context as
+ * ctx and an ImageCache of canvas-images.js as images.
+ */
+export function execute(target, d, s) {
+  const ctx = target.ctx;
+  let i = 0;
+  while (i < d.length) {
+    switch (d[i++]) {
+      case ARC:
+        ctx.arc(d[i], d[i + 1], d[i + 2], d[i + 3], d[i + 4], d[i + 5] !== 0);
+        i += 6;
+        break;
+      case ARC_TO:
+        ctx.arcTo(d[i], d[i + 1], d[i + 2], d[i + 3], d[i + 4]);
+        i += 5;
+        break;
+      case BEGIN_PATH:
+        ctx.beginPath();
+        break;
+      case BEZIER_CURVE_TO:
+        ctx.bezierCurveTo(d[i], d[i + 1], d[i + 2], d[i + 3], d[i + 4], d[i + 5]);
+        i += 6;
+        break;
+      case CLEAR_RECT:
+        ctx.clearRect(d[i], d[i + 1], d[i + 2], d[i + 3]);
+        i += 4;
+        break;
+      case CLIP:
+        ctx.clip();
+        break;
+      case CLOSE_PATH:
+        ctx.closePath();
+        break;
+      case ELLIPSE:
+        ctx.ellipse(d[i], d[i + 1], d[i + 2], d[i + 3], d[i + 4], d[i + 5], d[i + 6], d[i + 7] !== 0);
+        i += 8;
+        break;
+      case FILL:
+        ctx.fill();
+        break;
+      case FILL_RECT:
+        ctx.fillRect(d[i], d[i + 1], d[i + 2], d[i + 3]);
+        i += 4;
+        break;
+      case FILL_TEXT:
+        ctx.fillText(s[d[i]], d[i + 1], d[i + 2]);
+        i += 3;
+        break;
+      case LINE_TO:
+        ctx.lineTo(d[i], d[i + 1]);
+        i += 2;
+        break;
+      case MOVE_TO:
+        ctx.moveTo(d[i], d[i + 1]);
+        i += 2;
+        break;
+      case QUADRATIC_CURVE_TO:
+        ctx.quadraticCurveTo(d[i], d[i + 1], d[i + 2], d[i + 3]);
+        i += 4;
+        break;
+      case RECT:
+        ctx.rect(d[i], d[i + 1], d[i + 2], d[i + 3]);
+        i += 4;
+        break;
+      case RESTORE:
+        ctx.restore();
+        break;
+      case ROTATE:
+        ctx.rotate(d[i]);
+        i += 1;
+        break;
+      case SAVE:
+        ctx.save();
+        break;
+      case SCALE:
+        ctx.scale(d[i], d[i + 1]);
+        i += 2;
+        break;
+      case STROKE:
+        ctx.stroke();
+        break;
+      case STROKE_RECT:
+        ctx.strokeRect(d[i], d[i + 1], d[i + 2], d[i + 3]);
+        i += 4;
+        break;
+      case STROKE_TEXT:
+        ctx.strokeText(s[d[i]], d[i + 1], d[i + 2]);
+        i += 3;
+        break;
+      case TRANSLATE:
+        ctx.translate(d[i], d[i + 1]);
+        i += 2;
+        break;
+      case SET_PROPERTY:
+        ctx[s[d[i]]] = s[d[i + 1]];
+        i += 2;
+        break;
+      case DRAW_IMAGE:
+        drawImage(target, s[d[i]], d[i + 1], d[i + 2]);
+        i += 3;
+        break;
+      case DRAW_IMAGE_SCALED:
+        drawImage(target, s[d[i]], d[i + 1], d[i + 2], d[i + 3], d[i + 4]);
+        i += 5;
+        break;
+      case SET_LINE_DASH: {
+        const count = d[i];
+        ctx.setLineDash(Array.from(d.subarray(i + 1, i + 1 + count)));
+        i += 1 + count;
+        break;
+      }
+      case LOAD_IMAGE:
+        target.images.preload(s[d[i]]);
+        i += 1;
+        break;
+      case POLYLINE: {
+        const end = i + 1 + d[i];
+        i++;
+        if (i < end) {
+          ctx.moveTo(d[i], d[i + 1]);
+        }
+        for (i += 2; i < end; i += 2) {
+          ctx.lineTo(d[i], d[i + 1]);
+        }
+        i = end;
+        break;
+      }
+      case FILL_RECTS: {
+        const end = i + 1 + d[i];
+        for (i++; i < end; i += 4) {
+          ctx.fillRect(d[i], d[i + 1], d[i + 2], d[i + 3]);
+        }
+        break;
+      }
+      case DRAW_POINTS: {
+        const radius = d[i];
+        const end = i + 2 + d[i + 1];
+        ctx.beginPath();
+        for (i += 2; i < end; i += 2) {
+          ctx.moveTo(d[i] + radius, d[i + 1]);
+          ctx.arc(d[i], d[i + 1], radius, 0, 2 * Math.PI);
+        }
+        ctx.fill();
+        break;
+      }
+      case STROKE_SEGMENTS: {
+        const end = i + 1 + d[i];
+        ctx.beginPath();
+        for (i++; i < end; i += 4) {
+          ctx.moveTo(d[i], d[i + 1]);
+          ctx.lineTo(d[i + 2], d[i + 3]);
+        }
+        ctx.stroke();
+        break;
+      }
+      case DEFINE_ATLAS: {
+        const count = d[i + 2];
+        defineAtlas(target, s[d[i]], s[d[i + 1]], d.subarray(i + 3, i + 3 + count));
+        i += 3 + count;
+        break;
+      }
+      case DRAW_SPRITES: {
+        const end = i + 2 + d[i + 1];
+        drawSprites(target, s[d[i]], d, i + 2, end);
+        i = end;
+        break;
+      }
+      case PUT_IMAGE_DATA:
+        putImageData(target, d[i], d[i + 1], d[i + 2], d[i + 3], d[i + 4] !== 0, s[d[i + 5]]);
+        i += 6;
+        break;
+      case DEFINE_GRADIENT: {
+        const geometry = d.subarray(i + 3, i + 3 + d[i + 2]);
+        const stops = i + 3 + d[i + 2];
+        const offsets = d.subarray(stops + 1, stops + 1 + d[stops]);
+        const colors = stops + 1 + d[stops];
+        defineGradient(target, s[d[i]], s[d[i + 1]], geometry, offsets, s[d[colors]]);
+        i = colors + 1;
+        break;
+      }
+      case DEFINE_PATTERN:
+        definePattern(target, s[d[i]], s[d[i + 1]], s[d[i + 2]]);
+        i += 3;
+        break;
+      case SET_STYLE: {
+        const style = target.styles && target.styles.get(s[d[i + 1]]);
+        if (style) {
+          ctx[s[d[i]]] = style;
+        }
+        i += 2;
+        break;
+      }
+      case DISPOSE_STYLE:
+        disposeStyle(target, s[d[i]]);
+        i += 1;
+        break;
+      case DEFINE_PATH: {
+        const end = i + 2 + d[i + 1];
+        definePath(target, s[d[i]], d.subarray(i + 2, end));
+        i = end;
+        break;
+      }
+      case FILL_PATH: {
+        const path = target.paths && target.paths.get(s[d[i]]);
+        if (path) {
+          ctx.fill(path);
+        }
+        i += 1;
+        break;
+      }
+      case STROKE_PATH: {
+        const path = target.paths && target.paths.get(s[d[i]]);
+        if (path) {
+          ctx.stroke(path);
+        }
+        i += 1;
+        break;
+      }
+      case CLIP_PATH: {
+        const path = target.paths && target.paths.get(s[d[i]]);
+        if (path) {
+          ctx.clip(path);
+        }
+        i += 1;
+        break;
+      }
+      case FILL_PATH_AT: {
+        const path = target.paths && target.paths.get(s[d[i]]);
+        const end = i + 3 + d[i + 2];
+        if (path) {
+          fillPathAt(ctx, path, d[i + 1], d.subarray(i + 3, end));
+        }
+        i = end;
+        break;
+      }
+      case DISPOSE_PATH:
+        if (target.paths) {
+          target.paths.delete(s[d[i]]);
+        }
+        i += 1;
+        break;
+      default:
+        throw new Error('Unknown canvas opcode ' + d[i - 1]);
+    }
+  }
+}
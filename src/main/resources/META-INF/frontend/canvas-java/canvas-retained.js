@@ -0,0 +1,391 @@
+/*
+ * Retained drawing commands of a canvas, so that its content can be drawn
+ * again at another resolution or with another view transformation without
+ * asking the server. Used by both canvas-connector.js and canvas-worker.js.
+ *
+ * The log is compacted as the server-side log in CommandLog.java: when the
+ * whole canvas is cleared outside any save/restore block and without a clip,
+ * everything before the clear is replaced by the latest style settings and
+ * the transformation. As the current path is not part of the saved state,
+ * the commands that built it are kept as well. If the log grows beyond its
+ * limit, the content cannot be drawn again until the canvas is cleared.
+ */
+import {
+  execute, nextCommand, signature, ARC, ARC_TO, BEGIN_PATH, BEZIER_CURVE_TO, CLEAR_RECT, CLIP,
+  CLOSE_PATH, ELLIPSE, FILL, LINE_TO, MOVE_TO, QUADRATIC_CURVE_TO, RECT, RESTORE, ROTATE, SAVE,
+  SCALE, STROKE, TRANSLATE, SET_PROPERTY, SET_LINE_DASH, LOAD_IMAGE, POLYLINE, DRAW_POINTS,
+  STROKE_SEGMENTS, DEFINE_ATLAS, DEFINE_GRADIENT, DEFINE_PATTERN, SET_STYLE, DISPOSE_STYLE,
+  DEFINE_PATH, CLIP_PATH, DISPOSE_PATH
+} from './canvas-interpreter.js';
+
+/* The maximum size of the kept values and strings in bytes */
+const LIMIT = 8 * 1024 * 1024;
+
+/* Affine transformations as [a, b, c, d, e, f], as in DOMMatrix */
+const IDENTITY = [1, 0, 0, 1, 0, 0];
+
+function multiply(m, n) {
+  return [m[0] * n[0] + m[2] * n[1], m[1] * n[0] + m[3] * n[1],
+    m[0] * n[2] + m[2] * n[3], m[1] * n[2] + m[3] * n[3],
+    m[0] * n[4] + m[2] * n[5] + m[4], m[1] * n[4] + m[3] * n[5] + m[5]];
+}
+
+function invert(m) {
+  const det = m[0] * m[3] - m[1] * m[2];
+  if (!det || !Number.isFinite(det)) {
+    return null;
+  }
+  return [m[3] / det, -m[1] / det, -m[2] / det, m[0] / det,
+    (m[2] * m[5] - m[3] * m[4]) / det, (m[1] * m[4] - m[0] * m[5]) / det];
+}
+
+/* The transformation after a transforming command, or the same one for other commands */
+function transformed(m, d, i) {
+  switch (d[i]) {
+    case TRANSLATE:
+      return multiply(m, [1, 0, 0, 1, d[i + 1], d[i + 2]]);
+    case SCALE:
+      return multiply(m, [d[i + 1], 0, 0, d[i + 2], 0, 0]);
+    case ROTATE: {
+      const cos = Math.cos(d[i + 1]);
+      const sin = Math.sin(d[i + 1]);
+      return multiply(m, [cos, sin, -sin, cos, 0, 0]);
+    }
+    default:
+      return m;
+  }
+}
+
+/* Adds commands applying a transformation, as a translation, a rotation, a scaling and another rotation */
+function pushTransform(values, m) {
+  if (m[4] !== 0 || m[5] !== 0) {
+    values.push(TRANSLATE, m[4], m[5]);
+  }
+  const e = (m[0] + m[3]) / 2;
+  const f = (m[0] - m[3]) / 2;
+  const g = (m[1] + m[2]) / 2;
+  const h = (m[1] - m[2]) / 2;
+  const q = Math.hypot(e, h);
+  const r = Math.hypot(f, g);
+  const a1 = Math.atan2(g, f);
+  const a2 = Math.atan2(h, e);
+  if (a2 + a1 !== 0) {
+    values.push(ROTATE, (a2 + a1) / 2);
+  }
+  if (q + r !== 1 || q - r !== 1) {
+    values.push(SCALE, q + r, q - r);
+  }
+  if (a2 - a1 !== 0) {
+    values.push(ROTATE, (a2 - a1) / 2);
+  }
+}
+
+const PATH_COMMANDS = new Set([ARC, ARC_TO, BEGIN_PATH, BEZIER_CURVE_TO, CLIP, CLOSE_PATH, ELLIPSE,
+  FILL, LINE_TO, MOVE_TO, QUADRATIC_CURVE_TO, RECT, STROKE, POLYLINE, DRAW_POINTS, STROKE_SEGMENTS]);
+
+/* Whether a command is needed for building the current path again */
+function buildsPath(opcode) {
+  return opcode === SAVE || opcode === RESTORE || opcode === TRANSLATE || opcode === SCALE
+    || opcode === ROTATE || (PATH_COMMANDS.has(opcode) && opcode !== FILL && opcode !== STROKE
+      && opcode !== CLIP);
+}
+
+function startsNewPath(opcode) {
+  return opcode === BEGIN_PATH || opcode === DRAW_POINTS || opcode === STROKE_SEGMENTS;
+}
+
+/* The name of the state a command sets, or null if it sets no state that outlives a clear */
+function stateKey(d, i, s) {
+  switch (d[i]) {
+    case SET_PROPERTY:
+    case SET_STYLE:
+      return s[d[i + 1]];
+    case SET_LINE_DASH:
+      return 'lineDash';
+    case LOAD_IMAGE:
+      return 'image ' + s[d[i + 1]];
+    case DEFINE_ATLAS:
+      return 'atlas ' + s[d[i + 1]];
+    case DEFINE_GRADIENT:
+    case DEFINE_PATTERN:
+    case DISPOSE_STYLE:
+      return 'style ' + s[d[i + 1]];
+    case DEFINE_PATH:
+    case DISPOSE_PATH:
+      return 'path ' + s[d[i + 1]];
+    default:
+      return null;
+  }
+}
+
+/* Whether a command defines something that is not part of the saved state, so that it outlives a restore */
+function isDefinition(opcode) {
+  return opcode === LOAD_IMAGE || opcode === DEFINE_ATLAS || opcode === DEFINE_GRADIENT
+    || opcode === DEFINE_PATTERN || opcode === DISPOSE_STYLE || opcode === DEFINE_PATH
+    || opcode === DISPOSE_PATH;
+}
+
+/* Whether a command only drops a definition, so that it is not needed after compaction */
+function isDisposal(opcode) {
+  return opcode === DISPOSE_STYLE || opcode === DISPOSE_PATH;
+}
+
+/* Copies a command to the given arrays of values and strings */
+function copyCommand(d, i, s, values, strings) {
+  values.push(d[i]);
+  let next = i + 1;
+  for (const type of signature(d[i])) {
+    if (type === 's') {
+      strings.push(s[d[next++]]);
+      values.push(strings.length - 1);
+    } else if (type === 'n') {
+      const count = d[next];
+      for (let j = 0; j <= count; j++) {
+        values.push(d[next++]);
+      }
+    } else {
+      values.push(d[next++]);
+    }
+  }
+}
+
+export class RetainedLog {
+  /*
+   * The size is the canvas' own coordinate system. A log that is started
+   * on a canvas that already has content is not replayable until the next
+   * clear.
+   */
+  constructor(width, height, replayable) {
+    this.width = width;
+    this.height = height;
+    // Each chunk is an executed buffer, retained from its start position on
+    this.chunks = [];
+    // The transformation and clip of each save/restore level, the current one last
+    this.levels = [{ transform: IDENTITY, clipped: false }];
+    this.overflowed = !replayable;
+    // Where the current path was started, or null if the log does not have it
+    this.pathStart = replayable ? { chunk: null, position: 0 } : null;
+    this.pathTransforms = [IDENTITY];
+  }
+
+  isReplayable() {
+    return !this.overflowed;
+  }
+
+  append(d, s) {
+    const chunk = { d, s, start: 0, chars: s.reduce((chars, string) => chars + string.length, 0) };
+    this.chunks.push(chunk);
+    if (this.pathStart && !this.pathStart.chunk) {
+      this.pathStart.chunk = chunk;
+    }
+    for (let i = 0; i < d.length; i = nextCommand(d, i)) {
+      const opcode = d[i];
+      const level = this.levels[this.levels.length - 1];
+      if (startsNewPath(opcode)) {
+        this.pathStart = this.overflowed ? null : { chunk, position: i };
+        this.pathTransforms = this.levels.map((saved) => saved.transform);
+      } else if (PATH_COMMANDS.has(opcode) && !this.pathStart && !this.overflowed) {
+        // The path was started before the log was valid
+        this.overflow();
+      }
+      if (opcode === SAVE) {
+        this.levels.push({ ...level });
+      } else if (opcode === RESTORE) {
+        if (this.levels.length > 1) {
+          this.levels.pop();
+        }
+      } else if (opcode === TRANSLATE || opcode === SCALE || opcode === ROTATE) {
+        level.transform = transformed(level.transform, d, i);
+      } else if (opcode === CLIP || opcode === CLIP_PATH) {
+        level.clipped = true;
+      } else if (opcode === CLEAR_RECT && this.levels.length === 1 && !level.clipped
+          && this.coversCanvas(level.transform, d, i)) {
+        this.compact({ chunk, position: i });
+      }
+    }
+    if (this.overflowed) {
+      this.compact(null);
+    } else if (this.size() > LIMIT) {
+      console.warn('Canvas content log exceeded ' + LIMIT
+        + ' bytes. The content cannot be redrawn before the canvas is cleared.');
+      this.overflow();
+      this.compact(null);
+    }
+  }
+
+  overflow() {
+    this.overflowed = true;
+    this.pathStart = null;
+  }
+
+  size() {
+    return this.chunks.reduce((size, chunk) => size + (chunk.d.length - chunk.start) * 8 + chunk.chars * 2, 0);
+  }
+
+  /* Whether a clearRect command clears the whole canvas with the given transformation */
+  coversCanvas(m, d, i) {
+    const inverse = invert(m);
+    if (!inverse) {
+      return false;
+    }
+    const minX = Math.min(d[i + 1], d[i + 1] + d[i + 3]);
+    const maxX = Math.max(d[i + 1], d[i + 1] + d[i + 3]);
+    const minY = Math.min(d[i + 2], d[i + 2] + d[i + 4]);
+    const maxY = Math.max(d[i + 2], d[i + 2] + d[i + 4]);
+    return [[0, 0], [this.width, 0], [this.width, this.height], [0, this.height]].every(([x, y]) => {
+      // Allow for rounding errors of the inverse
+      const ux = inverse[0] * x + inverse[2] * y + inverse[4];
+      const uy = inverse[1] * x + inverse[3] * y + inverse[5];
+      return ux >= minX - 1e-9 && ux <= maxX + 1e-9 && uy >= minY - 1e-9 && uy <= maxY + 1e-9;
+    });
+  }
+
+  /* Calls the function with each retained command from the given position to the end */
+  forEachCommand(from, fn) {
+    let started = false;
+    for (const chunk of this.chunks) {
+      started = started || chunk === from.chunk;
+      if (!started) {
+        continue;
+      }
+      for (let i = chunk === from.chunk ? from.position : chunk.start; i < chunk.d.length;
+        i = nextCommand(chunk.d, i)) {
+        if (fn(chunk, i) === false) {
+          return;
+        }
+      }
+    }
+  }
+
+  /*
+   * Replaces everything before a full clear at the given position with the
+   * state in effect at that point and the commands building the current
+   * path, or everything with the state if the position is null.
+   */
+  compact(at) {
+    const values = [];
+    const strings = [];
+    const latest = new Map();
+    let level = 0;
+    let index = 0;
+    for (; index < this.chunks.length; index++) {
+      const chunk = this.chunks[index];
+      const end = at && at.chunk === chunk ? at.position : chunk.d.length;
+      for (let i = chunk.start; i < end; i = nextCommand(chunk.d, i)) {
+        const opcode = chunk.d[i];
+        if (opcode === SAVE) {
+          level++;
+        } else if (opcode === RESTORE) {
+          level = Math.max(0, level - 1);
+        } else if (level === 0 || isDefinition(opcode)) {
+          const key = stateKey(chunk.d, i, chunk.s);
+          if (key !== null) {
+            latest.delete(key);
+            latest.set(key, { d: chunk.d, i, s: chunk.s });
+          }
+        }
+      }
+      if (at && at.chunk === chunk) {
+        break;
+      }
+    }
+    // Definitions go first, as a style may be redefined after it was set
+    latest.forEach((command) => {
+      const opcode = command.d[command.i];
+      if (isDefinition(opcode) && !isDisposal(opcode)) {
+        copyCommand(command.d, command.i, command.s, values, strings);
+      }
+    });
+    latest.forEach((command) => {
+      if (!isDefinition(command.d[command.i])) {
+        copyCommand(command.d, command.i, command.s, values, strings);
+      }
+    });
+    const state = { d: null, s: strings, start: 0, chars: 0 };
+    if (at) {
+      // An overflowed log only has state, so it is valid from here on
+      // unless the old path is still used
+      this.overflowed = false;
+      this.compactPath(at, state, values, strings);
+      at.chunk.start = at.position;
+    }
+    state.d = new Float64Array(values);
+    state.chars = strings.reduce((chars, string) => chars + string.length, 0);
+    this.chunks = [state, ...this.chunks.slice(at ? index : this.chunks.length)];
+  }
+
+  /* Adds the transformation and the commands building the current path to the compacted state */
+  compactPath(at, state, values, strings) {
+    const current = this.levels[0].transform;
+    let segments = false;
+    if (this.pathStart) {
+      this.forEachCommand(this.pathStart, (chunk, i) => {
+        if (chunk === at.chunk && i === at.position) {
+          return false;
+        }
+        const opcode = chunk.d[i];
+        segments = PATH_COMMANDS.has(opcode) && buildsPath(opcode) && opcode !== BEGIN_PATH;
+        return !segments;
+      });
+    }
+    const relative = this.pathStart && segments ? this.pathTransforms.map((m, i) => {
+      const outer = i > 0 ? invert(this.pathTransforms[i - 1]) : IDENTITY;
+      return outer ? multiply(outer, m) : null;
+    }) : null;
+    if (this.pathStart && !(relative && relative.every((m) => m))) {
+      // An empty path is as good as one started at the clear
+      pushTransform(values, current);
+      this.pathStart = segments ? null : { chunk: at.chunk, position: at.position };
+      this.pathTransforms = [current];
+      return;
+    }
+    if (!this.pathStart) {
+      pushTransform(values, current);
+      return;
+    }
+    // The path is built with the transformations of its time, and the
+    // commands after it lead to the current transformation
+    relative.forEach((m, i) => {
+      if (i > 0) {
+        values.push(SAVE);
+      }
+      pushTransform(values, m);
+    });
+    const start = values.length;
+    this.forEachCommand(this.pathStart, (chunk, i) => {
+      if (chunk === at.chunk && i === at.position) {
+        return false;
+      }
+      if (buildsPath(chunk.d[i])) {
+        copyCommand(chunk.d, i, chunk.s, values, strings);
+      }
+      return true;
+    });
+    this.pathStart = { chunk: state, position: start };
+  }
+
+  /* Executes the retained commands on a drawing target */
+  replay(target) {
+    this.chunks.forEach((chunk) => execute(target, chunk.d.subarray(chunk.start), chunk.s));
+  }
+}
+
+/*
+ * Scales the canvas backing store to the given size in device pixels and
+ * draws the retained commands again with the given view: the zoom factor
+ * and the point of the canvas' coordinate system at the top left corner.
+ *
+ * Returns whether the content could be drawn. If not, only the styles are
+ * restored and the canvas stays empty until the server draws it again.
+ */
+export function rescale(target, log, width, height, view) {
+  const canvas = target.canvas;
+  canvas.width = width;
+  canvas.height = height;
+  const scaleX = width / log.width * view.zoom;
+  const scaleY = height / log.height * view.zoom;
+  target.baseTransform = [scaleX, 0, 0, scaleY, -view.x * scaleX, -view.y * scaleY];
+  target.ctx.setTransform(...target.baseTransform);
+  log.replay(target);
+  return log.isReplayable();
+}
@@ -0,0 +1,265 @@
+/*
+ * Client-side counterpart of org.vaadin.pekkam.VirtualCanvas.
+ *
+ * The content is split into square regions per zoom level, each level being
+ * a power of two. Regions are drawn by the server into their own canvases,
+ * which are kept in a least recently used cache and composed onto the
+ * visible canvas with the current pan and zoom. Only regions that are not
+ * in the cache are requested from the server, at most once per interval.
+ * Regions invalidated while being requested are dropped when they arrive,
+ * as they were drawn before the change, and requested again.
+ */
+import { decode, execute } from './canvas-interpreter.js';
+import { ImageCache, loadImageElement } from './canvas-images.js';
+
+/* How many coarser levels are searched for a placeholder of a missing region */
+const FALLBACK_LEVELS = 4;
+
+/* Must be kept in sync with VirtualCanvas.java */
+const MAX_REGIONS_PER_REQUEST = 256;
+
+function keyOf(level, column, row) {
+  return level + '/' + column + '/' + row;
+}
+
+class Viewport {
+  constructor(host) {
+    this.host = host;
+    this.canvas = host.querySelector('canvas');
+    this.options = { contentWidth: 0, contentHeight: 0, regionSize: 256, minZoom: 1, maxZoom: 1,
+      cacheSize: 512, reportInterval: 100 };
+    this.x = 0;
+    this.y = 0;
+    this.zoom = 1;
+    this.cache = new Map();
+    // The regions being requested, with the generation they were requested in
+    this.requested = new Map();
+    // Incremented on each invalidation
+    this.generation = 0;
+    this.missing = new Map();
+    // A region is drawn again once an image has been drawn on it
+    this.images = new ImageCache((src) => loadImageElement(src).then((img) => {
+      this.repaint();
+      return img;
+    }));
+    this.frame = null;
+    this.timer = null;
+    this.lastReport = 0;
+    this.listen();
+    new ResizeObserver(() => this.setView(this.x, this.y, this.zoom)).observe(host);
+  }
+
+  configure(options) {
+    const view = options.view;
+    delete options.view;
+    Object.assign(this.options, options);
+    if (view) {
+      [this.x, this.y, this.zoom] = view;
+    }
+    this.setView(this.x, this.y, this.zoom);
+  }
+
+  listen() {
+    let drag = null;
+    this.host.addEventListener('pointerdown', (e) => {
+      drag = { id: e.pointerId, x: e.clientX, y: e.clientY };
+      this.host.setPointerCapture(e.pointerId);
+    });
+    this.host.addEventListener('pointermove', (e) => {
+      if (drag && drag.id === e.pointerId) {
+        this.setView(this.x - (e.clientX - drag.x) / this.zoom, this.y - (e.clientY - drag.y) / this.zoom, this.zoom);
+        drag.x = e.clientX;
+        drag.y = e.clientY;
+      }
+    });
+    const endDrag = () => {
+      drag = null;
+    };
+    this.host.addEventListener('pointerup', endDrag);
+    this.host.addEventListener('pointercancel', endDrag);
+    this.host.addEventListener('wheel', (e) => {
+      e.preventDefault();
+      if (e.ctrlKey || e.metaKey) {
+        // Zoom around the mouse position
+        const rect = this.host.getBoundingClientRect();
+        const px = e.clientX - rect.left;
+        const py = e.clientY - rect.top;
+        const zoom = this.clampZoom(this.zoom * Math.pow(2, -e.deltaY / 200));
+        this.setView(this.x + px / this.zoom - px / zoom, this.y + py / this.zoom - py / zoom, zoom);
+      } else {
+        this.setView(this.x + e.deltaX / this.zoom, this.y + e.deltaY / this.zoom, this.zoom);
+      }
+    }, { passive: false });
+  }
+
+  clampZoom(zoom) {
+    return Math.min(this.options.maxZoom, Math.max(this.options.minZoom, zoom));
+  }
+
+  /* Keeps the view inside the content, centering content smaller than the view */
+  setView(x, y, zoom) {
+    const o = this.options;
+    this.zoom = this.clampZoom(zoom);
+    const clamp = (value, content, view) => content <= view
+      ? (content - view) / 2 : Math.min(content - view, Math.max(0, value));
+    this.x = clamp(x, o.contentWidth, this.host.clientWidth / this.zoom);
+    this.y = clamp(y, o.contentHeight, this.host.clientHeight / this.zoom);
+    this.repaint();
+  }
+
+  repaint() {
+    if (this.frame === null) {
+      this.frame = requestAnimationFrame(() => {
+        this.frame = null;
+        this.paint();
+      });
+    }
+  }
+
+  paint() {
+    const o = this.options;
+    const width = this.host.clientWidth;
+    const height = this.host.clientHeight;
+    if (this.canvas.width !== width || this.canvas.height !== height) {
+      this.canvas.width = width;
+      this.canvas.height = height;
+    }
+    const ctx = this.canvas.getContext('2d');
+    ctx.clearRect(0, 0, width, height);
+
+    const level = Math.round(Math.log2(this.zoom));
+    const size = o.regionSize / Math.pow(2, level);
+    const minColumn = Math.max(0, Math.floor(this.x / size));
+    const minRow = Math.max(0, Math.floor(this.y / size));
+    const maxColumn = Math.min(Math.ceil(o.contentWidth / size), Math.ceil((this.x + width / this.zoom) / size)) - 1;
+    const maxRow = Math.min(Math.ceil(o.contentHeight / size), Math.ceil((this.y + height / this.zoom) / size)) - 1;
+    this.missing.clear();
+    for (let row = minRow; row <= maxRow; row++) {
+      for (let column = minColumn; column <= maxColumn; column++) {
+        const key = keyOf(level, column, row);
+        const dx = (column * size - this.x) * this.zoom;
+        const dy = (row * size - this.y) * this.zoom;
+        const ds = size * this.zoom;
+        const region = this.use(key);
+        if (region) {
+          ctx.drawImage(region, dx, dy, ds, ds);
+          continue;
+        }
+        this.drawFallback(ctx, level, column, row, dx, dy, ds);
+        if (!this.requested.has(key)) {
+          this.missing.set(key, [level, column, row]);
+        }
+      }
+    }
+    if (this.missing.size > 0) {
+      this.scheduleReport();
+    }
+  }
+
+  /* Draws the matching part of a coarser region, if one is cached */
+  drawFallback(ctx, level, column, row, dx, dy, ds) {
+    for (let up = 1; up <= FALLBACK_LEVELS; up++) {
+      const factor = Math.pow(2, up);
+      const parent = this.cache.get(keyOf(level - up, Math.floor(column / factor), Math.floor(row / factor)));
+      if (parent) {
+        const part = this.options.regionSize / factor;
+        ctx.drawImage(parent, (column % factor) * part, (row % factor) * part, part, part, dx, dy, ds, ds);
+        return;
+      }
+    }
+  }
+
+  /* Returns a cached region and marks it as the most recently used */
+  use(key) {
+    const region = this.cache.get(key);
+    if (region) {
+      this.cache.delete(key);
+      this.cache.set(key, region);
+    }
+    return region;
+  }
+
+  scheduleReport() {
+    if (this.timer !== null) {
+      return;
+    }
+    const wait = Math.max(0, this.lastReport + this.options.reportInterval - Date.now());
+    this.timer = setTimeout(() => {
+      this.timer = null;
+      this.lastReport = Date.now();
+      // Regions may have scrolled out of view while waiting
+      const regions = [...this.missing.values()].slice(0, MAX_REGIONS_PER_REQUEST);
+      this.missing.clear();
+      if (regions.length === 0) {
+        return;
+      }
+      regions.forEach((key) => this.requested.set(keyOf(...key), this.generation));
+      this.host.dispatchEvent(new CustomEvent('canvas-viewport-request', {
+        detail: {
+          x: this.x, y: this.y, width: this.host.clientWidth / this.zoom,
+          height: this.host.clientHeight / this.zoom, zoom: this.zoom, regions,
+          generation: this.generation
+        }
+      }));
+    }, wait);
+  }
+
+  regions(regions, generation) {
+    const size = this.options.regionSize;
+    regions.forEach((region) => {
+      const key = keyOf(...region.key);
+      if (this.requested.get(key) !== generation) {
+        // Invalidated since it was requested
+        return;
+      }
+      const canvas = document.createElement('canvas');
+      canvas.width = size;
+      canvas.height = size;
+      const target = {
+        ctx: canvas.getContext('2d'),
+        images: this.images
+      };
+      execute(target, decode(region.data), region.strings);
+      this.requested.delete(key);
+      this.cache.set(key, canvas);
+    });
+    while (this.cache.size > this.options.cacheSize) {
+      this.cache.delete(this.cache.keys().next().value);
+    }
+    this.repaint();
+  }
+
+  invalidate(area) {
+    const size = this.options.regionSize;
+    const invalidated = (key) => {
+      const [level, column, row] = key.split('/').map(Number);
+      const s = size / Math.pow(2, level);
+      return !area || (column * s < area[0] + area[2] && (column + 1) * s > area[0]
+        && row * s < area[1] + area[3] && (row + 1) * s > area[1]);
+    };
+    this.generation++;
+    [...this.cache.keys()].filter(invalidated).forEach((key) => this.cache.delete(key));
+    // Requested again when painted
+    [...this.requested.keys()].filter(invalidated).forEach((key) => this.requested.delete(key));
+    this.repaint();
+  }
+}
+
+function viewport(host) {
+  host.$viewport = host.$viewport || new Viewport(host);
+  return host.$viewport;
+}
+
+window.Vaadin = window.Vaadin || {};
+window.Vaadin.Flow = window.Vaadin.Flow || {};
+window.Vaadin.Flow.canvasViewport = {
+  configure(host, options) {
+    viewport(host).configure(options);
+  },
+  regions(host, regions, generation) {
+    viewport(host).regions(regions, generation);
+  },
+  invalidate(host, area) {
+    viewport(host).invalidate(area);
+  }
+};
@@ -0,0 +1,105 @@
+/*
+ * Dedicated worker that draws an OffscreenCanvas transferred from a canvas
+ * element, see canvas-connector.js.
+ */
+import { decode, execute, CommandQueue } from './canvas-interpreter.js';
+import { RetainedLog, rescale } from './canvas-retained.js';
+import { Animations } from './canvas-animation.js';
+import { ImageCache, imageUrl } from './canvas-images.js';
+
+let target;
+let imagesUrl = null;
+let log = null;
+let animations = null;
+const queue = new CommandQueue();
+
+function reply(id, value, transfer) {
+  self.postMessage({ op: 'reply', id, value }, transfer || []);
+}
+
+/* Replies to a request that failed, so that the element rejects it */
+function replyError(id, error) {
+  self.postMessage({ op: 'reply', id, error: String(error) });
+}
+
+function createTarget(canvas, baseURI, imageCacheSize) {
+  return {
+    canvas,
+    ctx: canvas.getContext('2d'),
+    // Image elements are not available in workers
+    images: new ImageCache(
+      (src) => fetch(new URL(imageUrl(src, imagesUrl), baseURI)).then((response) => {
+        if (!response.ok) {
+          throw new Error('Status ' + response.status);
+        }
+        return response.blob();
+      }).then((blob) => createImageBitmap(blob)),
+      (loaded, evicted, failed) => self.postMessage({ op: 'images', loaded, evicted, failed }),
+      imageCacheSize)
+  };
+}
+
+self.onmessage = (e) => {
+  const message = e.data;
+  switch (message.op) {
+    case 'init':
+      imagesUrl = message.imagesUrl;
+      target = createTarget(message.canvas, message.baseURI, message.imageCacheSize);
+      if (message.retained) {
+        log = new RetainedLog(message.canvas.width, message.canvas.height, true);
+      }
+      break;
+    case 'exec': {
+      const d = decode(message.data);
+      queue.run(d, message.strings, () => {
+        execute(target, d, message.strings);
+        if (log) {
+          log.append(d, message.strings);
+        }
+      });
+      break;
+    }
+    case 'imagesUrl':
+      imagesUrl = message.imagesUrl;
+      break;
+    case 'call':
+      // After the buffers queued before it, as the server sent them
+      queue.after(() => target.ctx[message.method](...message.args));
+      break;
+    case 'toBlob':
+      // The content is taken when convertToBlob is called. An empty canvas
+      // has no blob, as with HTMLCanvasElement.toBlob().
+      queue.after(() => [target.canvas.convertToBlob({ type: message.type, quality: message.quality })
+        .catch(() => null)])
+        .then(([blob]) => blob)
+        .then((blob) => reply(message.id, blob), (error) => replyError(message.id, error));
+      break;
+    case 'getImageData':
+      queue.after(() => target.ctx.getImageData(message.x, message.y, message.width, message.height).data)
+        .then((pixels) => reply(message.id, pixels, [pixels.buffer]), (error) => replyError(message.id, error));
+      break;
+    case 'presented':
+      // An OffscreenCanvas is shown with the next frame of the page
+      queue.idle()
+        .then(() => new Promise((resolve) => (typeof requestAnimationFrame === 'function'
+          ? requestAnimationFrame(() => resolve()) : setTimeout(resolve, 16))))
+        .then(() => reply(message.id, null));
+      break;
+    case 'rescale': {
+      const replayed = rescale(target, log, message.width, message.height, message.view);
+      if (animations) {
+        animations.paint();
+      }
+      reply(message.id, replayed);
+      break;
+    }
+    case 'animate':
+      animations = animations || new Animations(target,
+        (detail) => self.postMessage({ op: 'animationEnd', detail }));
+      animations.update(message.updates);
+      break;
+  }
+};
+
+// The element transfers its canvas only to a worker that is known to run
+self.postMessage({ op: 'ready' });
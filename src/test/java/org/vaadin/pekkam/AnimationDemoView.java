@@ -0,0 +1,43 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.router.Route;
+
+@Route("animation")
+public class AnimationDemoView extends Div {
+
+    public AnimationDemoView() {
+        Canvas canvas = new Canvas(800, 400);
+        canvas.getStyle().set("border", "1px solid");
+        Animator animator = new Animator(canvas);
+        animator.addActor("box", ctx -> ctx.fillRect(-25, -25, 50, 50));
+        animator.setPosition("box", 100, 200);
+        animator.addActor("ball", ctx -> {
+            ctx.beginPath();
+            ctx.arc(0, 0, 15, 0, 2 * Math.PI, false);
+            ctx.fill();
+        });
+        animator.setPosition("ball", 400, 50);
+        animator.setColor("ball", "orange");
+        animator.animate("ball", Animation.tween(600, Easing.EASE_IN)
+                .moveTo(400, 350).then(600, Easing.EASE_OUT).moveTo(400, 50)
+                .repeat(Animation.INFINITE));
+
+        Span status = new Span();
+        Button play = new Button("Animate box", event -> {
+            double x = (double) animator.getProperty("box", "x") < 400 ? 700
+                    : 100;
+            status.setText("Moving");
+            animator.animate("box", Animation.tween(1500, Easing.EASE_IN_OUT)
+                    .moveTo(x, 200).rotateTo(x > 400 ? Math.PI : 0)
+                    .colorTo(x > 400 ? "crimson" : "black")
+                    .then(300, Easing.LINEAR).fadeTo(0.5)
+                    .then(300, Easing.LINEAR).fadeTo(1))
+                    .whenComplete((result, error) -> status
+                            .setText(error == null ? "Done" : "Cancelled"));
+        });
+        add(canvas, new Div(play, status));
+    }
+}
@@ -30,6 +30,7 @@ public class DemoView extends Div {
         buttons.add(new NativeButton("Draw ellipse", e -> drawEllipse()));
         buttons.add(new NativeButton("Draw house", e -> drawHouse()));
         buttons.add(new NativeButton("Draw curves", e -> drawCurves()));
+        buttons.add(new NativeButton("Draw series", e -> drawSeries()));
         buttons.add(new NativeButton("Clear canvas",
                 e -> ctx.clearRect(0, 0, CANVAS_WIDTH, CANVAS_HEIGHT)));
 
@@ -175,6 +176,24 @@ public class DemoView extends Div {
         ctx.restore();
     }
 
+    private void drawSeries() {
+        int points = 20000;
+        double[] xy = new double[points * 2];
+        double y = CANVAS_HEIGHT / 2.0;
+        for (int i = 0; i < points; i++) {
+            y = Math.max(0, Math.min(CANVAS_HEIGHT, y + Math.random() * 10 - 5));
+            xy[2 * i] = i * (double) CANVAS_WIDTH / points;
+            xy[2 * i + 1] = y;
+        }
+
+        ctx.save();
+        ctx.setStrokeStyle(getRandomColor());
+        ctx.beginPath();
+        ctx.polyline(xy);
+        ctx.stroke();
+        ctx.restore();
+    }
+
     private void drawEllipse() {
         // Draw the ellipse
         ctx.beginPath();
@@ -0,0 +1,49 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.router.Route;
+
+@Route("layers")
+public class LayersDemoView extends Div {
+
+    private static final int CANVAS_WIDTH = 800;
+    private static final int CANVAS_HEIGHT = 500;
+
+    private final CanvasRenderingContext2D overlay;
+
+    public LayersDemoView() {
+        LayeredCanvas canvas = new LayeredCanvas(CANVAS_WIDTH, CANVAS_HEIGHT);
+        canvas.getStyle().set("border", "1px solid");
+        drawGrid(canvas.getBaseLayer().getContext());
+        overlay = canvas.addLayer().getContext();
+
+        canvas.addMouseMoveListener(
+                e -> drawCursor(e.getOffsetX(), e.getOffsetY()));
+        add(canvas);
+    }
+
+    private void drawGrid(CanvasRenderingContext2D ctx) {
+        ctx.setStrokeStyle("#ddd");
+        ctx.beginPath();
+        for (int x = 0; x <= CANVAS_WIDTH; x += 20) {
+            ctx.moveTo(x, 0);
+            ctx.lineTo(x, CANVAS_HEIGHT);
+        }
+        for (int y = 0; y <= CANVAS_HEIGHT; y += 20) {
+            ctx.moveTo(0, y);
+            ctx.lineTo(CANVAS_WIDTH, y);
+        }
+        ctx.stroke();
+    }
+
+    private void drawCursor(int x, int y) {
+        overlay.clearRect(0, 0, CANVAS_WIDTH, CANVAS_HEIGHT);
+        overlay.setStrokeStyle("red");
+        overlay.beginPath();
+        overlay.moveTo(x, 0);
+        overlay.lineTo(x, CANVAS_HEIGHT);
+        overlay.moveTo(0, y);
+        overlay.lineTo(CANVAS_WIDTH, y);
+        overlay.stroke();
+    }
+}
@@ -0,0 +1,62 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.component.html.NativeButton;
+import com.vaadin.flow.router.Route;
+import org.vaadin.pekkam.scene.CircleShape;
+import org.vaadin.pekkam.scene.RectShape;
+import org.vaadin.pekkam.scene.Scene;
+import org.vaadin.pekkam.scene.ShapeStyle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@Route("scene")
+public class SceneDemoView extends Div {
+
+    private static final int CANVAS_WIDTH = 800;
+    private static final int CANVAS_HEIGHT = 500;
+
+    private final Random random = new Random();
+    private final Scene scene;
+
+    public SceneDemoView() {
+        Canvas canvas = new Canvas(CANVAS_WIDTH, CANVAS_HEIGHT);
+        canvas.getStyle().set("border", "1px solid");
+        scene = new Scene(canvas);
+
+        for (int i = 0; i < 200; i++) {
+            scene.put("circle-" + i, randomCircle());
+        }
+        scene.put("box", new RectShape(300, 150, 200, 200,
+                new ShapeStyle("rgba(0, 0, 255, 0.3)", "blue", 3)));
+
+        add(canvas, new Div(
+                new NativeButton("Move a few circles", e -> moveCircles(5)),
+                new NativeButton("Remove a circle", e -> removeCircle())));
+    }
+
+    private void moveCircles(int count) {
+        List<String> ids = new ArrayList<>(scene.getIds());
+        for (int i = 0; i < count; i++) {
+            String id = ids.get(random.nextInt(ids.size()));
+            if (id.startsWith("circle-")) {
+                scene.put(id, randomCircle());
+            }
+        }
+    }
+
+    private void removeCircle() {
+        scene.getIds().stream().filter(id -> id.startsWith("circle-"))
+                .findFirst().ifPresent(scene::remove);
+    }
+
+    private CircleShape randomCircle() {
+        String color = String.format("rgb(%s, %s, %s)", random.nextInt(256),
+                random.nextInt(256), random.nextInt(256));
+        return new CircleShape(random.nextDouble() * CANVAS_WIDTH,
+                random.nextDouble() * CANVAS_HEIGHT,
+                5 + random.nextDouble() * 20, new ShapeStyle(color, "black", 1));
+    }
+}
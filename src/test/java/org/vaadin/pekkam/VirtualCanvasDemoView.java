@@ -0,0 +1,49 @@
+package org.vaadin.pekkam;
+
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.router.Route;
+
+import java.awt.geom.Rectangle2D;
+
+@Route("virtual")
+public class VirtualCanvasDemoView extends Div {
+
+    private static final int CONTENT_WIDTH = 100000;
+    private static final int CONTENT_HEIGHT = 20000;
+    private static final int CELL_SIZE = 100;
+
+    public VirtualCanvasDemoView() {
+        setSizeFull();
+        VirtualCanvas canvas = new VirtualCanvas(CONTENT_WIDTH,
+                CONTENT_HEIGHT, this::drawRegion);
+        canvas.setWidth("100%");
+        canvas.setHeight("600px");
+        canvas.getStyle().set("border", "1px solid");
+        add(canvas);
+    }
+
+    private void drawRegion(RenderingContext2D ctx, Rectangle2D region) {
+        int minColumn = (int) (region.getMinX() / CELL_SIZE);
+        int maxColumn = (int) (region.getMaxX() / CELL_SIZE);
+        int minRow = (int) (region.getMinY() / CELL_SIZE);
+        int maxRow = (int) (region.getMaxY() / CELL_SIZE);
+        // Labels are too small to read when zoomed out
+        boolean labels = region.getWidth() <= 1024;
+        ctx.setStrokeStyle("#999");
+        ctx.setFont("12px sans-serif");
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                ctx.setFillStyle((row + column) % 2 == 0 ? "#eef" : "#fff");
+                ctx.fillRect(column * CELL_SIZE, row * CELL_SIZE, CELL_SIZE,
+                        CELL_SIZE);
+                ctx.strokeRect(column * CELL_SIZE, row * CELL_SIZE,
+                        CELL_SIZE, CELL_SIZE);
+                if (labels) {
+                    ctx.setFillStyle("black");
+                    ctx.fillText(column + "," + row, column * CELL_SIZE + 5,
+                            row * CELL_SIZE + 15);
+                }
+            }
+        }
+    }
+}
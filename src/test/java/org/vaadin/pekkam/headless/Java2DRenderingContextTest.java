@@ -0,0 +1,267 @@
+package org.vaadin.pekkam.headless;
+
+import org.junit.jupiter.api.Test;
+import org.vaadin.pekkam.ImageData;
+
+import java.awt.Font;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that the headless context follows the canvas semantics where they
+ * differ from plain Java2D. The shapes are checked by sampling pixels well
+ * inside or outside them, so antialiasing does not matter.
+ */
+class Java2DRenderingContextTest {
+
+    private static final int RED = 0xffff0000;
+    private static final int BLUE = 0xff0000ff;
+    private static final int TRANSPARENT = 0;
+
+    private final Java2DRenderingContext ctx = new Java2DRenderingContext(100,
+            100);
+
+    private int pixel(int x, int y) {
+        return ctx.getImage().getRGB(x, y);
+    }
+
+    /**
+     * @return the pixel at the given angle and distance from the center of
+     *         the test circles
+     */
+    private int polar(double angle, double distance) {
+        return pixel((int) Math.round(50 + Math.cos(angle) * distance),
+                (int) Math.round(50 + Math.sin(angle) * distance));
+    }
+
+    @Test
+    void arcOfMoreThanFullCircleIsFullCircle() {
+        ctx.setFillStyle("red");
+        ctx.arc(50, 50, 40, 0, 3 * Math.PI, false);
+        ctx.fill();
+        for (int i = 0; i < 8; i++) {
+            assertEquals(RED, polar(i * Math.PI / 4, 30), "angle " + i);
+        }
+    }
+
+    @Test
+    void clockwiseArcWithSmallerEndAngleGoesAround() {
+        ctx.setFillStyle("red");
+        // From 0 clockwise to -pi/2, three quarters of the circle
+        ctx.moveTo(50, 50);
+        ctx.arc(50, 50, 40, 0, -Math.PI / 2, false);
+        ctx.fill();
+        assertEquals(RED, polar(Math.PI / 4, 30));
+        assertEquals(RED, polar(3 * Math.PI / 4, 30));
+        assertEquals(RED, polar(5 * Math.PI / 4, 30));
+        assertEquals(TRANSPARENT, polar(-Math.PI / 4, 30));
+    }
+
+    @Test
+    void counterclockwiseArcTakesTheOtherWay() {
+        ctx.setFillStyle("red");
+        // From 0 counterclockwise to pi/2, three quarters of the circle
+        ctx.moveTo(50, 50);
+        ctx.arc(50, 50, 40, 0, Math.PI / 2, true);
+        ctx.fill();
+        assertEquals(TRANSPARENT, polar(Math.PI / 4, 30));
+        assertEquals(RED, polar(3 * Math.PI / 4, 30));
+        assertEquals(RED, polar(5 * Math.PI / 4, 30));
+        assertEquals(RED, polar(-Math.PI / 4, 30));
+    }
+
+    @Test
+    void arcToRoundsTheCorner() {
+        ctx.setStrokeStyle("red");
+        ctx.setLineWidth(4);
+        ctx.moveTo(10, 10);
+        ctx.arcTo(90, 10, 90, 90, 20);
+        ctx.lineTo(90, 90);
+        ctx.stroke();
+        // Straight up to the tangent point at (70, 10)
+        assertEquals(RED, pixel(50, 10));
+        // The arc around (70, 30) instead of the corner at (90, 10)
+        assertEquals(RED, pixel(84, 16));
+        assertEquals(TRANSPARENT, pixel(88, 12));
+        // Down from the tangent point at (90, 30)
+        assertEquals(RED, pixel(90, 60));
+        assertEquals(TRANSPARENT, pixel(70, 30));
+    }
+
+    @Test
+    void lineAfterClosePathStartsFromSubpathStart() {
+        ctx.setStrokeStyle("red");
+        ctx.setLineWidth(4);
+        ctx.moveTo(10, 10);
+        ctx.lineTo(50, 10);
+        ctx.lineTo(50, 50);
+        ctx.closePath();
+        ctx.lineTo(10, 90);
+        ctx.stroke();
+        // The closing line
+        assertEquals(RED, pixel(30, 30));
+        // From (10, 10), not from (50, 50)
+        assertEquals(RED, pixel(10, 70));
+        assertEquals(TRANSPARENT, pixel(30, 70));
+    }
+
+    @Test
+    void restoreRemovesClip() {
+        ctx.save();
+        ctx.rect(0, 0, 50, 100);
+        ctx.clip();
+        ctx.setFillStyle("red");
+        ctx.fillRect(0, 0, 100, 100);
+        assertEquals(RED, pixel(25, 50));
+        assertEquals(TRANSPARENT, pixel(75, 50));
+        ctx.restore();
+        ctx.setFillStyle("blue");
+        ctx.fillRect(0, 0, 100, 100);
+        assertEquals(BLUE, pixel(75, 50));
+    }
+
+    @Test
+    void clipIsPartOfSavedState() {
+        ctx.rect(0, 0, 50, 100);
+        ctx.clip();
+        ctx.save();
+        ctx.beginPath();
+        ctx.rect(0, 0, 100, 50);
+        ctx.clip();
+        ctx.restore();
+        ctx.setFillStyle("red");
+        ctx.fillRect(0, 0, 100, 100);
+        assertEquals(RED, pixel(25, 75));
+        assertEquals(TRANSPARENT, pixel(75, 25));
+    }
+
+    @Test
+    void lineCapExtendsLineEnds() {
+        ctx.setStrokeStyle("red");
+        ctx.setLineWidth(10);
+        ctx.moveTo(20, 50);
+        ctx.lineTo(80, 50);
+        ctx.stroke();
+        assertEquals(TRANSPARENT, pixel(17, 50));
+        ctx.setLineCap("square");
+        ctx.stroke();
+        assertEquals(RED, pixel(17, 50));
+        assertEquals(RED, pixel(83, 50));
+    }
+
+    @Test
+    void lineJoinCutsCorners() {
+        ctx.setStrokeStyle("red");
+        ctx.setLineWidth(10);
+        ctx.setLineJoin("bevel");
+        ctx.moveTo(20, 80);
+        ctx.lineTo(50, 50);
+        ctx.lineTo(80, 80);
+        ctx.stroke();
+        // The tip of the miter is above the corner
+        assertEquals(TRANSPARENT, pixel(50, 45));
+        ctx.setLineJoin("miter");
+        ctx.stroke();
+        assertEquals(RED, pixel(50, 45));
+    }
+
+    @Test
+    void invalidLineCapIsIgnored() {
+        ctx.setStrokeStyle("red");
+        ctx.setLineWidth(10);
+        ctx.setLineCap("round");
+        ctx.setLineCap("nonsense");
+        ctx.moveTo(20, 50);
+        ctx.lineTo(80, 50);
+        ctx.stroke();
+        assertEquals(RED, pixel(17, 50));
+    }
+
+    @Test
+    void putImageDataOutsideCanvasIsClipped() {
+        ctx.putImageData(filled(4, 4), -2, -2);
+        ctx.putImageData(filled(4, 4), 98, 98);
+        assertEquals(RED, pixel(0, 0));
+        assertEquals(RED, pixel(1, 1));
+        assertEquals(TRANSPARENT, pixel(2, 2));
+        assertEquals(RED, pixel(99, 99));
+        assertEquals(TRANSPARENT, pixel(97, 97));
+    }
+
+    @Test
+    void putImageDataDrawsOnlyDirtyRectangle() {
+        ctx.putImageData(filled(4, 4), 10, 10, 1, 1, 2, 2);
+        assertEquals(TRANSPARENT, pixel(10, 10));
+        assertEquals(RED, pixel(11, 11));
+        assertEquals(RED, pixel(12, 12));
+        assertEquals(TRANSPARENT, pixel(13, 13));
+    }
+
+    @Test
+    void putImageDataNormalizesNegativeDirtySize() {
+        ctx.putImageData(filled(4, 4), 10, 10, 3, 3, -2, -2);
+        assertEquals(TRANSPARENT, pixel(10, 10));
+        assertEquals(RED, pixel(11, 11));
+        assertEquals(RED, pixel(12, 12));
+        assertEquals(TRANSPARENT, pixel(13, 13));
+    }
+
+    private static ImageData filled(int width, int height) {
+        ImageData data = new ImageData(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                data.setARGB(x, y, RED);
+            }
+        }
+        return data;
+    }
+
+    @Test
+    void parseFontReadsStyleSizeAndFamily() {
+        Font font = Java2DRenderingContext.parseFont("bold 12px serif");
+        assertEquals(Font.BOLD, font.getStyle());
+        assertEquals(12, font.getSize2D());
+        assertEquals(Font.SERIF, font.getName());
+    }
+
+    @Test
+    void parseFontConvertsUnits() {
+        assertEquals(12, Java2DRenderingContext.parseFont("9pt serif")
+                .getSize2D(), 1e-6);
+        assertEquals(32, Java2DRenderingContext.parseFont("2em serif")
+                .getSize2D(), 1e-6);
+        assertEquals(8, Java2DRenderingContext.parseFont("50% serif")
+                .getSize2D(), 1e-6);
+    }
+
+    @Test
+    void parseFontReadsWeightsAndItalic() {
+        assertEquals(Font.BOLD | Font.ITALIC, Java2DRenderingContext
+                .parseFont("italic 600 10px serif").getStyle());
+        assertEquals(Font.PLAIN, Java2DRenderingContext
+                .parseFont("500 10px serif").getStyle());
+    }
+
+    @Test
+    void parseFontSkipsLineHeightAndUnknownFamilies() {
+        Font font = Java2DRenderingContext
+                .parseFont("10px/1.5 \"No Such Font\", monospace");
+        assertEquals(10, font.getSize2D());
+        assertEquals(Font.MONOSPACED, font.getName());
+    }
+
+    @Test
+    void parseFontIgnoresCase() {
+        Font font = Java2DRenderingContext.parseFont("BOLD 10PX SANS-SERIF");
+        assertEquals(Font.BOLD, font.getStyle());
+        assertEquals(Font.SANS_SERIF, font.getName());
+    }
+
+    @Test
+    void parseFontRejectsInvalidValues() {
+        assertNull(Java2DRenderingContext.parseFont("serif"));
+        assertNull(Java2DRenderingContext.parseFont("12 serif"));
+        assertNull(Java2DRenderingContext.parseFont(null));
+    }
+}